@@ -0,0 +1,300 @@
+package com.mvrt.bullseye;
+
+import java.util.Arrays;
+
+/**
+ * Single-pass, run-length connected-components labeling of a binary mask (8-connected).
+ *
+ * Each row is split into runs of set pixels; a run joins every run in the row above that it
+ * touches, merging their labels with union-find. Blob statistics (area, bounding box, first and
+ * second moments) are accumulated per label as runs are added and folded together on merges, so
+ * no pixel is visited twice and nothing goes through Mats or contour lists. Results are kept in
+ * reusable primitive arrays that only grow.
+ *
+ * Several masks (e.g. search windows) can be labeled into the same result set between
+ * {@link #reset()} calls, as long as they don't overlap.
+ */
+public class BlobLabeler {
+
+    //region Runs of the previous and current row
+    private int[] prevStart = new int[64], prevEnd = new int[64], prevLabel = new int[64];
+    private int[] curStart = new int[64], curEnd = new int[64], curLabel = new int[64];
+    //endregion
+
+    //region Per-label accumulators (for one mask)
+    private int[] parent = new int[256];
+    private long[] area = new long[256];
+    private long[] sumX = new long[256], sumY = new long[256];
+    private long[] sumXX = new long[256], sumYY = new long[256], sumXY = new long[256];
+    private int[] minX = new int[256], maxX = new int[256], minY = new int[256], maxY = new int[256];
+    private int labelCount;
+    //endregion
+
+    //region Results
+    private int blobCount;
+    private int[] blobArea = new int[64];
+    private int[] blobMinX = new int[64], blobMinY = new int[64], blobMaxX = new int[64], blobMaxY = new int[64];
+    private double[] blobCenterX = new double[64], blobCenterY = new double[64];
+    private double[] blobMu20 = new double[64], blobMu02 = new double[64], blobMu11 = new double[64];
+    //endregion
+
+    /**
+     * Clears the blobs of the last frame
+     */
+    public void reset(){
+        blobCount = 0;
+    }
+
+    /**
+     * Labels a width x height mask (non-zero = set, row by row) and appends its blobs, with
+     * {@code offsetX, offsetY} added to their coordinates.
+     */
+    public void label(byte[] mask, int width, int height, int offsetX, int offsetY){
+        labelCount = 0;
+        int prevCount = 0;
+
+        for(int y = 0; y < height; y++){
+            int row = y * width;
+            int curCount = 0;
+            int p = 0;
+
+            int x = 0;
+            while(x < width){
+                if(mask[row + x] == 0){
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while(x < width && mask[row + x] != 0) x++;
+                int end = x - 1;
+
+                //runs in the row above touching this one, diagonals included
+                while(p < prevCount && prevEnd[p] < start - 1) p++;
+                int label = -1;
+                for(int q = p; q < prevCount && prevStart[q] <= end + 1; q++){
+                    int root = find(prevLabel[q]);
+                    if(label == -1) label = root;
+                    else if(root != label) label = union(label, root);
+                }
+                if(label == -1) label = newLabel();
+                addRun(label, start, end, y);
+
+                if(curCount == curStart.length) growRuns();
+                curStart[curCount] = start;
+                curEnd[curCount] = end;
+                curLabel[curCount] = label;
+                curCount++;
+            }
+
+            int[] t = prevStart; prevStart = curStart; curStart = t;
+            t = prevEnd; prevEnd = curEnd; curEnd = t;
+            t = prevLabel; prevLabel = curLabel; curLabel = t;
+            prevCount = curCount;
+        }
+
+        for(int l = 0; l < labelCount; l++){
+            if(parent[l] == l) emitBlob(l, offsetX, offsetY);
+        }
+    }
+
+    private int find(int label){
+        while(parent[label] != label){
+            parent[label] = parent[parent[label]];
+            label = parent[label];
+        }
+        return label;
+    }
+
+    /** Merges two roots, folding the statistics of the smaller into the larger */
+    private int union(int a, int b){
+        if(area[a] < area[b]){
+            int t = a; a = b; b = t;
+        }
+        parent[b] = a;
+        area[a] += area[b];
+        sumX[a] += sumX[b];
+        sumY[a] += sumY[b];
+        sumXX[a] += sumXX[b];
+        sumYY[a] += sumYY[b];
+        sumXY[a] += sumXY[b];
+        minX[a] = Math.min(minX[a], minX[b]);
+        maxX[a] = Math.max(maxX[a], maxX[b]);
+        minY[a] = Math.min(minY[a], minY[b]);
+        maxY[a] = Math.max(maxY[a], maxY[b]);
+        return a;
+    }
+
+    private int newLabel(){
+        if(labelCount == parent.length) growLabels();
+        int l = labelCount++;
+        parent[l] = l;
+        area[l] = sumX[l] = sumY[l] = sumXX[l] = sumYY[l] = sumXY[l] = 0;
+        minX[l] = minY[l] = Integer.MAX_VALUE;
+        maxX[l] = maxY[l] = Integer.MIN_VALUE;
+        return l;
+    }
+
+    /** Adds the pixels start..end of row y to a label's sums, in closed form */
+    private void addRun(int label, int start, int end, int y){
+        long n = end - start + 1;
+        long sx = (long)(start + end) * n / 2;
+        long sxx = sumOfSquares(end) - sumOfSquares(start - 1);
+        area[label] += n;
+        sumX[label] += sx;
+        sumY[label] += n * y;
+        sumXX[label] += sxx;
+        sumYY[label] += n * y * y;
+        sumXY[label] += sx * y;
+        if(start < minX[label]) minX[label] = start;
+        if(end > maxX[label]) maxX[label] = end;
+        if(y < minY[label]) minY[label] = y;
+        if(y > maxY[label]) maxY[label] = y;
+    }
+
+    private static long sumOfSquares(long k){
+        return k <= 0 ? 0 : k * (k + 1) * (2 * k + 1) / 6;
+    }
+
+    private void emitBlob(int l, int offsetX, int offsetY){
+        if(blobCount == blobArea.length) growBlobs();
+        int b = blobCount++;
+        double n = area[l];
+        double cx = sumX[l] / n, cy = sumY[l] / n;
+
+        blobArea[b] = (int)area[l];
+        blobMinX[b] = minX[l] + offsetX;
+        blobMaxX[b] = maxX[l] + offsetX;
+        blobMinY[b] = minY[l] + offsetY;
+        blobMaxY[b] = maxY[l] + offsetY;
+        blobCenterX[b] = cx + offsetX;
+        blobCenterY[b] = cy + offsetY;
+        blobMu20[b] = sumXX[l] / n - cx * cx;
+        blobMu02[b] = sumYY[l] / n - cy * cy;
+        blobMu11[b] = sumXY[l] / n - cx * cy;
+    }
+
+    public int getBlobCount(){
+        return blobCount;
+    }
+
+    public int getArea(int blob){
+        return blobArea[blob];
+    }
+
+    public int getMinX(int blob){
+        return blobMinX[blob];
+    }
+
+    public int getMinY(int blob){
+        return blobMinY[blob];
+    }
+
+    /** inclusive */
+    public int getMaxX(int blob){
+        return blobMaxX[blob];
+    }
+
+    /** inclusive */
+    public int getMaxY(int blob){
+        return blobMaxY[blob];
+    }
+
+    public double getCenterX(int blob){
+        return blobCenterX[blob];
+    }
+
+    public double getCenterY(int blob){
+        return blobCenterY[blob];
+    }
+
+    /**
+     * @return the direction of the blob's major axis in degrees, in [-90, 90)
+     */
+    public double getOrientation(int blob){
+        double angle = Math.toDegrees(0.5 * Math.atan2(2 * blobMu11[blob], blobMu20[blob] - blobMu02[blob]));
+        return angle >= 90 ? angle - 180 : angle;
+    }
+
+    /**
+     * @return the index of the blob with the largest area, skipping {@code exclude}, or -1
+     */
+    public int largest(int exclude){
+        int best = -1;
+        for(int b = 0; b < blobCount; b++){
+            if(b != exclude && (best == -1 || blobArea[b] > blobArea[best])) best = b;
+        }
+        return best;
+    }
+
+    /**
+     * Fits a rectangle with the same area, centroid and second moments as the blob: a solid
+     * L x W rectangle has variance L^2/12 along its length and W^2/12 across it.
+     */
+    public void toTargetRect(int blob, TargetRect out){
+        double mu20 = blobMu20[blob], mu02 = blobMu02[blob], mu11 = blobMu11[blob];
+        double mean = (mu20 + mu02) / 2;
+        double spread = Math.sqrt((mu20 - mu02) * (mu20 - mu02) / 4 + mu11 * mu11);
+        double major = Math.max(0, mean + spread);
+        double minor = Math.max(0, mean - spread);
+
+        out.centerX = blobCenterX[blob];
+        out.centerY = blobCenterY[blob];
+        out.length = Math.sqrt(12 * major);
+        out.width = Math.sqrt(12 * minor);
+        out.angle = getOrientation(blob);
+
+        double a = Math.toRadians(out.angle);
+        double ux = Math.cos(a) * out.length / 2, uy = Math.sin(a) * out.length / 2;
+        double vx = -Math.sin(a) * out.width / 2, vy = Math.cos(a) * out.width / 2;
+        out.cornerX[0] = out.centerX - ux - vx;
+        out.cornerY[0] = out.centerY - uy - vy;
+        out.cornerX[1] = out.centerX + ux - vx;
+        out.cornerY[1] = out.centerY + uy - vy;
+        out.cornerX[2] = out.centerX + ux + vx;
+        out.cornerY[2] = out.centerY + uy + vy;
+        out.cornerX[3] = out.centerX - ux + vx;
+        out.cornerY[3] = out.centerY - uy + vy;
+    }
+
+    //region Growth
+    private void growRuns(){
+        int size = curStart.length * 2;
+        curStart = Arrays.copyOf(curStart, size);
+        curEnd = Arrays.copyOf(curEnd, size);
+        curLabel = Arrays.copyOf(curLabel, size);
+        prevStart = Arrays.copyOf(prevStart, size);
+        prevEnd = Arrays.copyOf(prevEnd, size);
+        prevLabel = Arrays.copyOf(prevLabel, size);
+    }
+
+    private void growLabels(){
+        int size = parent.length * 2;
+        parent = Arrays.copyOf(parent, size);
+        area = Arrays.copyOf(area, size);
+        sumX = Arrays.copyOf(sumX, size);
+        sumY = Arrays.copyOf(sumY, size);
+        sumXX = Arrays.copyOf(sumXX, size);
+        sumYY = Arrays.copyOf(sumYY, size);
+        sumXY = Arrays.copyOf(sumXY, size);
+        minX = Arrays.copyOf(minX, size);
+        maxX = Arrays.copyOf(maxX, size);
+        minY = Arrays.copyOf(minY, size);
+        maxY = Arrays.copyOf(maxY, size);
+    }
+
+    private void growBlobs(){
+        int size = blobArea.length * 2;
+        blobArea = Arrays.copyOf(blobArea, size);
+        blobMinX = Arrays.copyOf(blobMinX, size);
+        blobMinY = Arrays.copyOf(blobMinY, size);
+        blobMaxX = Arrays.copyOf(blobMaxX, size);
+        blobMaxY = Arrays.copyOf(blobMaxY, size);
+        blobCenterX = Arrays.copyOf(blobCenterX, size);
+        blobCenterY = Arrays.copyOf(blobCenterY, size);
+        blobMu20 = Arrays.copyOf(blobMu20, size);
+        blobMu02 = Arrays.copyOf(blobMu02, size);
+        blobMu11 = Arrays.copyOf(blobMu11, size);
+    }
+    //endregion
+
+}
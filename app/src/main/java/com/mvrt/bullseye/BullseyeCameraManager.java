@@ -15,13 +15,19 @@ import android.media.ImageReader;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.util.Log;
 import android.util.Size;
 import android.util.SizeF;
 import android.view.Surface;
 
 import com.mvrt.bullseye.util.CameraUtils;
+import com.mvrt.bullseye.util.FrameRing;
 import com.mvrt.bullseye.util.Notifier;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
 public class BullseyeCameraManager implements MainActivity.CameraPermissionsListener, CameraUtils.CameraStateListener, CameraUtils.SizeListener, MVRTCameraView.SurfaceReadyListener, CameraUtils.CaptureCallbacks, CameraUtils.CVLoadListener, CVProcessor.ProcessedMatListener {
 
     Context appContext;
@@ -54,6 +60,7 @@ public class BullseyeCameraManager implements MainActivity.CameraPermissionsList
     }
 
     public void init(){
+        VisionPrefs.getTunedValues().loadFromSharedPrefs(appContext);
         processor.setProcessedMatListener(this);
         startBackgroundThread();
     }
@@ -71,6 +78,7 @@ public class BullseyeCameraManager implements MainActivity.CameraPermissionsList
         }
 
         cameraView.releaseSurface();
+        processor.stopPipeline();
 
         stopBackgroundThread();
     }
@@ -94,6 +102,7 @@ public class BullseyeCameraManager implements MainActivity.CameraPermissionsList
         }
 
         cameraView.releaseSurface();
+        processor.stopPipeline();
 
         if(imageReader != null){
             imageReader.close();
@@ -197,7 +206,107 @@ public class BullseyeCameraManager implements MainActivity.CameraPermissionsList
     //endregion
 
     public void initProcessor(){
+        VisionPrefs prefs = VisionPrefs.getTunedValues();
+        prefs.applyTo(processor);
         processor.init(appContext, imageReaderSize, cameraFOV, this);
+        CameraCalibration calibration = prefs.getCameraCalibration();
+        if(calibration != null && !processor.setCalibration(calibration))
+            Notifier.d(getClass(), "Saved calibration is for another image size, not using it: " + calibration);
+        processor.startPipeline(outputView);
+    }
+
+    /**
+     * Directory the checkerboard captures for {@link #calibrateCamera()} are read from
+     */
+    public File getCalibrationCaptureDir(){
+        return new File(appContext.getFilesDir(), "calibration");
+    }
+
+    /**
+     * @return the checkerboard captures stored so far
+     */
+    public int getCalibrationCaptureCount(){
+        File[] files = getCalibrationCaptureDir().listFiles();
+        return files == null ? 0 : files.length;
+    }
+
+    /**
+     * Saves the next frame as a raw NV12 checkerboard capture for {@link #calibrateCamera()}. The
+     * file is written on the camera background thread.
+     * @param onSaved run on the camera background thread once the capture is saved, or null
+     */
+    public void captureCalibrationImage(final Runnable onSaved){
+        processor.captureNextFrame(new CVProcessor.FrameCaptureListener() {
+            @Override
+            public void onFrameCaptured(final byte[] nv12, int width, int height) {
+                Handler handler = mBackgroundHandler;
+                if(handler == null) return;
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        File dir = getCalibrationCaptureDir();
+                        if(!dir.isDirectory() && !dir.mkdirs()){
+                            Notifier.log(Log.ERROR, getClass(), "Can't create " + dir);
+                            return;
+                        }
+                        File capture = new File(dir, "capture-" + System.currentTimeMillis() + ".nv12");
+                        try {
+                            FileOutputStream out = new FileOutputStream(capture);
+                            try {
+                                out.write(nv12);
+                            } finally {
+                                out.close();
+                            }
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                            return;
+                        }
+                        Notifier.d(getClass(), "Calibration capture " + getCalibrationCaptureCount() + " saved: " + capture);
+                        if(onSaved != null) onSaved.run();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Deletes the stored checkerboard captures, to start a new set
+     */
+    public void clearCalibrationCaptures(){
+        File[] files = getCalibrationCaptureDir().listFiles();
+        if(files == null) return;
+        for(File f : files){
+            if(!f.delete()) Notifier.d(getClass(), "Couldn't delete " + f);
+        }
+    }
+
+    /**
+     * Calibrates the camera from the stored checkerboard captures, then saves and applies the
+     * result. Takes seconds, so runs on the camera background thread.
+     */
+    public void calibrateCamera(){
+        if(mBackgroundHandler == null || imageReaderSize == null) return;
+        final int width = imageReaderSize.getWidth(), height = imageReaderSize.getHeight();
+        mBackgroundHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                CameraCalibration calibration;
+                try {
+                    calibration = CameraCalibration.calibrate(getCalibrationCaptureDir(), width, height);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                if(calibration == null){
+                    Notifier.d(getClass(), "Calibration failed, not enough captures show the board");
+                    return;
+                }
+                VisionPrefs prefs = VisionPrefs.getTunedValues();
+                prefs.setCameraCalibration(calibration);
+                prefs.saveToSharedPrefs(appContext);
+                processor.setCalibration(calibration);
+            }
+        });
     }
 
     public void initCapture(){
@@ -248,8 +357,8 @@ public class BullseyeCameraManager implements MainActivity.CameraPermissionsList
     }
 
     @Override
-    public void onImageCaptured(byte[] data) {
-        processor.processMat(data, System.currentTimeMillis(), outputView);
+    public FrameRing getFrameRing() {
+        return processor.getFrameRing();
     }
 
     public void onImgProcessed(final Bitmap out) {
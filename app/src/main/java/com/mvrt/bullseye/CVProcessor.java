@@ -11,41 +11,43 @@ import android.util.Log;
 import android.util.Size;
 import android.util.SizeF;
 
+import com.mvrt.bullseye.util.FramePipeline;
+import com.mvrt.bullseye.util.FrameRing;
 import com.mvrt.bullseye.util.Notifier;
+import com.mvrt.bullseye.util.ResultPublisher;
+import com.mvrt.bullseye.util.StageTimer;
 
 import org.opencv.android.Utils;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
-import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
-import org.opencv.core.RotatedRect;
+import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.imgproc.Imgproc;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class CVProcessor implements SensorEventListener{
 
     private ProcessedMatListener mProcessedMatListener;
     private OutputSocketServer outputSocketServer;
+    private volatile UdpResultPublisher udpResultPublisher;
+    private volatile DebugStreamer debugStreamer;
+    private volatile MaskStreamer maskStreamer;
+    private final AtomicReference<FrameCaptureListener> captureListener = new AtomicReference<>();
 
     private double mCameraAngle = 0;
 
-    private double focalLengthPixels;
-    private double HALF_IMAGE_HEIGHT;
-    private double HALF_IMAGE_WIDTH;
-
-    private static final int HEIGHT_TARGET_BOTTOM = 66;
-    private static final int HEIGHT_OF_TARGET = 12;
-    private static final int HEIGHT_CAMERA_MOUNT = 7;
-
-    private static final int HEIGHT_TARGET_MIDDLE = HEIGHT_TARGET_BOTTOM + HEIGHT_OF_TARGET/2;
-    private static final int HEIGHT_DIFFERENCE = HEIGHT_TARGET_MIDDLE - HEIGHT_CAMERA_MOUNT;
+    private volatile CameraModel cameraModel;
 
     private int IMAGE_HEIGHT;
+    private int IMAGE_WIDTH;
 
     private double angle1, angle2;
     private double rect1X, rect1Y;
@@ -60,8 +62,65 @@ public class CVProcessor implements SensorEventListener{
 
     final double ASPECT_RATIO = 2.0/5.0;
     final double ASPECT_THRESHOLD = 0.25;
+
+    final int MIN_POINTS = 4;
+    final double MIN_SOLIDITY = 0.75;
     //endregion
 
+    //only used from the contour stage
+    private final CandidateFilter candidateFilter = new CandidateFilter();
+    private final TargetPairMatcher pairMatcher = new TargetPairMatcher();
+    private final PoseEstimator poseEstimator = new PoseEstimator();
+    private double trackedConfidence;
+    /** detection frames where the target wasn't found */
+    private volatile long detectionMisses;
+
+    //scheduled from the ingest stage, tracked from the contour stage
+    private final FlowTracker flowTracker = new FlowTracker();
+
+    //only used from the contour stage, for the strips with lens distortion removed
+    private final TargetRect undistorted1 = new TargetRect(), undistorted2 = new TargetRect();
+    private final double[] undistortedX = new double[4], undistortedY = new double[4];
+    private final double[] undistortedPoint = new double[2];
+    private volatile boolean pointUndistortion = true;
+
+    /**
+     * HSV: NV12 -> RGBA -> HSV, then inRange (the reference path).
+     * YUV: the luma range for each chroma sample from {@link YuvThresholdTable}, compared against the Y plane, no color conversion.
+     * LUT: one pass over the raw NV12 bytes through {@link ColorClassifierLUT}, no Mats until the mask.
+     */
+    public enum ThresholdMode { HSV, YUV, LUT }
+
+    /**
+     * FIND_CONTOURS: Imgproc.findContours, then a minimum-area rect per contour ({@link ContourScorer}).
+     * BLOB_LABELER: run-length connected components in Java ({@link BlobLabeler}), rects from blob moments.
+     */
+    public enum DetectionMethod { FIND_CONTOURS, BLOB_LABELER }
+
+    /**
+     * What {@link #getStageTimer()} times, per frame:
+     * IMAGE_DATA: copying the NV12 bytes into yuvMat. CVT_COLOR: NV12 -> RGBA (HSV mode only).
+     * THRESHOLD: the whole threshold stage (HSV conversion, inRange or the LUT, coarse search).
+     * CONTOURS: findContours or blob labeling. CANDIDATES: the contour loop, filter and pair matching.
+     * MEASURE: angles, distance and pose of a detection. FLOW: a frame tracked by optical flow instead.
+     * PUBLISH: encoding and posting the result. SEND: the socket server's send to every client.
+     * MAT_TO_BITMAP, SET_BITMAP: rendering. FRAME: start of ingest to end of render, queueing included.
+     */
+    public enum TimedStage { IMAGE_DATA, CVT_COLOR, THRESHOLD, CONTOURS, CANDIDATES, MEASURE, FLOW, PUBLISH, SEND, MAT_TO_BITMAP, SET_BITMAP, FRAME }
+
+    /** how long each window of stage times is, before it's published as metrics */
+    private static final long TIMING_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final StageTimer<TimedStage> stageTimer = new StageTimer<>(TimedStage.class);
+
+    private volatile DetectionMethod detectionMethod = DetectionMethod.FIND_CONTOURS;
+
+    private volatile ThresholdMode thresholdMode = ThresholdMode.HSV;
+    private final YuvThresholdTable yuvThresholdTable = new YuvThresholdTable();
+    private Mat lumaLowTable, lumaHighTable;
+    private ColorClassifierLUT colorClassifier = new ColorClassifierLUT();
+    private double[] pendingLowHSV, pendingHighHSV;
+
     final Scalar RED = new Scalar(255, 0, 0);
     final Scalar TEXT_COLOR = new Scalar(255, 255, 255);
 
@@ -83,170 +142,988 @@ public class CVProcessor implements SensorEventListener{
         if(mOrientationSensor != null) mSensorManager.registerListener(this, mOrientationSensor, SensorManager.SENSOR_DELAY_UI);
 
         IMAGE_HEIGHT = size.getHeight();
+        IMAGE_WIDTH = size.getWidth();
 
-        HALF_IMAGE_HEIGHT = size.getHeight()/2 + 0.5;
-        HALF_IMAGE_WIDTH = size.getWidth()/2  + 0.5;
-
-        focalLengthPixels = .5 * size.getWidth()/Math.tan(fov.getWidth()/2);
+        cameraModel = CameraModel.fromFov(size.getWidth(), size.getHeight(), fov.getWidth(), fov.getHeight());
 
         outputCacheBitmap = Bitmap.createBitmap(size.getWidth(), size.getHeight(), Bitmap.Config.RGB_565);
-        yuvMat = new Mat(size.getHeight() + size.getHeight()/2, size.getWidth(), CvType.CV_8UC1);
-        rgbMat = new Mat(size.getHeight(), size.getWidth(), CvType.CV_8UC3);
-        hsvMat = new Mat();
-        heirarchyMat = new Mat();
-        filterMat = new Mat();
-        resultMat = new Mat();
-
-        contours = new ArrayList<>();
-        matOfPoint2f = new MatOfPoint2f();
+
         rect_points = new Point[4];
+        for(int j=0; j<4; j++) rect_points[j] = new Point();
 
         textLines = new Point[3];
         textLines[0] = new Point(100, IMAGE_HEIGHT-150);
         textLines[1] = new Point(100, IMAGE_HEIGHT-100);
         textLines[2] = new Point(100, IMAGE_HEIGHT-50);
 
-        outputBuffer = ByteBuffer.allocate(60);
+        outputBuffer = ByteBuffer.allocate(ResultFrame.SIZE);
+
+        candidateFilter.setAreaLimits(MIN_AREA, MAX_AREA);
+        candidateFilter.setAspect(ASPECT_RATIO, ASPECT_THRESHOLD);
+        candidateFilter.setMinPoints(MIN_POINTS);
+        candidateFilter.setMinSolidity(MIN_SOLIDITY);
+
+        lumaLowTable = new Mat(YuvThresholdTable.SIZE, YuvThresholdTable.SIZE, CvType.CV_8UC1);
+        lumaHighTable = new Mat(YuvThresholdTable.SIZE, YuvThresholdTable.SIZE, CvType.CV_8UC1);
+        updateYuvThresholds();
+        colorClassifier.setThresholds(lowHSV.val, highHSV.val);
+
+        createPipeline();
 
         Notifier.startSection("CVProcessor Initialized");
         Notifier.s("Image Size: " + size.toString());
-        Notifier.s("FLP From Image Width: " + focalLengthPixels);
+        Notifier.s("Camera: " + cameraModel);
         Notifier.s("HSV: " + lowHSV + " -> " + highHSV);
+        Notifier.s("YUV: " + yuvThresholdTable);
+        Notifier.s("Threshold Mode: " + thresholdMode);
+        Notifier.s("Detection Method: " + detectionMethod);
+        Notifier.s("Pyramid Level: " + pyramidLevel);
+        Notifier.s("Pipeline Frames: " + PIPELINE_FRAMES);
+        Notifier.s("ROI Tracking: " + roiTracker.isEnabled());
+        Notifier.s("Flow Tracking: " + flowTracker.isEnabled() + ", detection every " + flowTracker.getDetectionInterval() + " frames");
         Notifier.s("Aspect Ratio: " + ASPECT_RATIO + " +/- " + ASPECT_THRESHOLD);
-        Notifier.s("Min Area: " + MIN_AREA);
-        Notifier.s("Target Height (Bottom): " + HEIGHT_TARGET_BOTTOM);
-        Notifier.s("Target Height (Middle): " + HEIGHT_TARGET_MIDDLE);
-        Notifier.s("Camera Mount Height: " + HEIGHT_CAMERA_MOUNT);
-        Notifier.s("Total Height Difference: " + HEIGHT_DIFFERENCE);
+        Notifier.s("Area: " + MIN_AREA + " -> " + MAX_AREA);
+        Notifier.s("Contour Points: " + MIN_POINTS + ", Solidity: " + MIN_SOLIDITY);
         Notifier.endSection(Log.ASSERT, getClass());
     }
 
+    //region Pipeline
+    private static final int PIPELINE_FRAMES = 4;
+
+    private FramePipeline<VisionFrame> pipeline;
+    private final ArrayList<VisionFrame> pipelineFrames = new ArrayList<>();
+    private VisionFrame syncFrame;
+    private ProcessingOutputView processingOutputView;
+    private FrameRing frameRing;
+    private Thread feederThread;
+
+    /**
+     * (Re)builds the stage graph: ingest -> threshold -> contours -> publish -> render, each stage
+     * on its own thread, with {@link #PIPELINE_FRAMES} pooled {@link VisionFrame}s flowing through.
+     */
+    private synchronized void createPipeline(){
+        boolean wasRunning = pipeline != null && pipeline.isRunning();
+        destroyPipeline();
+
+        int frameSize = IMAGE_WIDTH * IMAGE_HEIGHT * 3/2;
+        if(frameRing == null || frameRing.getFrameSize() != frameSize) frameRing = new FrameRing(frameSize);
+
+        final int width = IMAGE_WIDTH, height = IMAGE_HEIGHT;
+        pipeline = new FramePipeline<>("CVProcessor", PIPELINE_FRAMES, new FramePipeline.FrameFactory<VisionFrame>() {
+            @Override
+            public VisionFrame create() {
+                VisionFrame frame = new VisionFrame(width, height);
+                pipelineFrames.add(frame);
+                return frame;
+            }
+        });
+
+        pipeline.addStage("Ingest", new FramePipeline.Stage<VisionFrame>() {
+            @Override
+            public void process(VisionFrame frame) {
+                prepareFrame(frame);
+            }
+        }).addStage("Threshold", new FramePipeline.Stage<VisionFrame>() {
+            @Override
+            public void process(VisionFrame frame) {
+                thresholdFrame(frame);
+            }
+        }).addStage("Contours", new FramePipeline.Stage<VisionFrame>() {
+            @Override
+            public void process(VisionFrame frame) {
+                findTargets(frame);
+            }
+        }).addStage("Publish", new FramePipeline.Stage<VisionFrame>() {
+            @Override
+            public void process(VisionFrame frame) {
+                publish(frame);
+            }
+        }).addStage("Render", new FramePipeline.Stage<VisionFrame>() {
+            @Override
+            public void process(VisionFrame frame) {
+                render(frame, processingOutputView);
+            }
+        });
+
+        if(wasRunning) startPipeline(processingOutputView);
+    }
+
+    private synchronized void destroyPipeline(){
+        stopPipeline();
+        for(VisionFrame frame : pipelineFrames) frame.release();
+        pipelineFrames.clear();
+        if(syncFrame != null) syncFrame.release();
+        syncFrame = null;
+    }
+
+    /**
+     * Starts the pipeline threads; frames published to {@link #getFrameRing()} are processed on them
+     */
+    public synchronized void startPipeline(ProcessingOutputView outputView){
+        processingOutputView = outputView;
+        if(pipeline == null || pipeline.isRunning()) return;
+        pipeline.start();
+        feederThread = new Thread(new FrameFeeder(pipeline, frameRing), "CVProcessor-Feeder");
+        feederThread.start();
+    }
+
+    public synchronized void stopPipeline(){
+        if(feederThread != null){
+            feederThread.interrupt();
+            try {
+                feederThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            feederThread = null;
+        }
+        if(pipeline != null) pipeline.stop();
+    }
+
+    /**
+     * The ring captured frames are published to; packed NV12 at the size given to {@link #init}.
+     * Only one thread may publish to it.
+     */
+    public FrameRing getFrameRing(){
+        return frameRing;
+    }
+
+    /**
+     * Moves the latest frame from the ring into the pipeline whenever a pooled frame is free, so
+     * the pipeline always works on the newest image and every skipped one is counted by the ring.
+     * The frame takes the slot's buffer and gives the ring its old one, so nothing is copied.
+     */
+    private class FrameFeeder implements Runnable{
+
+        private final FramePipeline<VisionFrame> pipeline;
+        private final FrameRing ring;
+
+        FrameFeeder(FramePipeline<VisionFrame> pipeline, FrameRing ring){
+            this.pipeline = pipeline;
+            this.ring = ring;
+        }
+
+        @Override
+        public void run() {
+            while(!Thread.currentThread().isInterrupted()){
+                VisionFrame frame;
+                try {
+                    frame = pipeline.acquire(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if(frame == null) continue;
+
+                FrameRing.Slot slot = null;
+                while(slot == null && !Thread.currentThread().isInterrupted()){
+                    slot = ring.take(TimeUnit.MILLISECONDS.toNanos(100));
+                }
+                if(slot == null){
+                    pipeline.release(frame);
+                    return;
+                }
+
+                frame.nv12 = slot.swapData(frame.nv12);
+                frame.reset(slot.getTimestamp(), thresholdMode, detectionMethod);
+                frame.sequence = slot.getSequence();
+                frame.framesProduced = ring.getProduced();
+                frame.framesConsumed = ring.getConsumed();
+                frame.framesDropped = ring.getDropped();
+                pipeline.submit(frame);
+            }
+        }
+    }
+
+    public FramePipeline<VisionFrame> getPipeline(){
+        return pipeline;
+    }
+    //endregion
+
     public void setOutputSocketServer(OutputSocketServer outputSocketServer){
         this.outputSocketServer = outputSocketServer;
+        if(outputSocketServer != null) outputSocketServer.getResultPublisher().setSendHistogram(stageTimer.getRecorder(TimedStage.SEND));
+    }
+
+    /**
+     * Also sends every result over UDP, or stops doing so if null
+     */
+    public void setUdpResultPublisher(UdpResultPublisher udpResultPublisher){
+        this.udpResultPublisher = udpResultPublisher;
+    }
+
+    /**
+     * Offers every rendered mask to a remote debug stream, or stops doing so if null
+     */
+    public void setDebugStreamer(DebugStreamer debugStreamer){
+        this.debugStreamer = debugStreamer;
+    }
+
+    /**
+     * Offers every rendered mask to {@link Topic#DEBUG_MASK} subscribers, or stops doing so if null
+     */
+    public void setMaskStreamer(MaskStreamer maskStreamer){
+        this.maskStreamer = maskStreamer;
+    }
+
+    /**
+     * Hands a copy of the next frame to reach the ingest stage to the listener, once, e.g. for
+     * calibration captures. Replaces a capture that hasn't happened yet.
+     */
+    public void captureNextFrame(FrameCaptureListener listener){
+        captureListener.set(listener);
     }
 
     public void setProcessedMatListener(ProcessedMatListener matListener){
         mProcessedMatListener = matListener;
     }
 
-    public void getImageData(byte[] data, Mat yuvReaderMat, Mat rgbMat){
-        yuvReaderMat.put(0, 0, data);
-        Imgproc.cvtColor(yuvReaderMat, rgbMat, Imgproc.COLOR_YUV2RGBA_NV12);
+    public void setThresholdMode(ThresholdMode mode){
+        thresholdMode = mode;
     }
 
-    Mat yuvMat, rgbMat, hsvMat, filterMat, resultMat, heirarchyMat;
-    Bitmap outputCacheBitmap;
+    public ThresholdMode getThresholdMode(){
+        return thresholdMode;
+    }
 
-    ArrayList<MatOfPoint> contours;
-    MatOfPoint2f matOfPoint2f;
-    ByteBuffer outputBuffer;
-    Point[] rect_points;
-    Point[] textLines;
+    public void setDetectionMethod(DetectionMethod method){
+        detectionMethod = method;
+    }
 
-    public void processMat(byte[] input, long timestamp, ProcessingOutputView processingOutputView){
-        contours.clear();
+    public DetectionMethod getDetectionMethod(){
+        return detectionMethod;
+    }
 
-        getImageData(input, yuvMat, rgbMat);
-        Imgproc.cvtColor(rgbMat, hsvMat, Imgproc.COLOR_RGB2HSV);
-        Core.inRange(hsvMat, lowHSV, highHSV, filterMat);
+    /**
+     * Turns region-of-interest tracking on or off (see {@link RoiTracker})
+     */
+    public void setRoiTracking(boolean enabled){
+        roiTracker.setEnabled(enabled);
+    }
 
-        Imgproc.findContours(filterMat, contours, heirarchyMat, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+    public RoiTracker getRoiTracker(){
+        return roiTracker;
+    }
 
-        RotatedRect maxRect1 = null;
-        RotatedRect maxRect2 = null;
+    /**
+     * Turns optical-flow tracking between full detections on or off (see {@link FlowTracker})
+     */
+    public void setFlowTracking(boolean enabled){
+        flowTracker.setEnabled(enabled);
+    }
 
-        if(contours.size() < 2)
-            System.out.println("Not enough contours found");
-        else {
-            for (MatOfPoint mop : contours) {
-                mop.convertTo(matOfPoint2f, CvType.CV_32FC2);
-                RotatedRect rec = Imgproc.minAreaRect(matOfPoint2f);
+    public FlowTracker getFlowTracker(){
+        return flowTracker;
+    }
 
-//                rec.points(rect_points);
+    /**
+     * Per-stage latency histograms, in windows of about a second; the last complete window goes
+     * out with every metrics snapshot
+     */
+    public StageTimer<TimedStage> getStageTimer(){
+        return stageTimer;
+    }
 
-                double tempArea = rec.size.area();
+    /**
+     * The solvePnP pose estimator, with its warm/cold solve counts and cost
+     */
+    public PoseEstimator getPoseEstimator(){
+        return poseEstimator;
+    }
 
-                if(maxRect1 == null || tempArea > maxRect1.size.area()) {
-                    maxRect2 = maxRect1;
-                    maxRect1 = rec;
-                }
-                else if (maxRect2 == null || tempArea > maxRect2.size.area()) {
-                    maxRect2 = rec;
-                }
+    /**
+     * Replaces the camera model angles and distances are computed with, e.g. after calibration.
+     * Must be for the image size given to {@link #init}.
+     */
+    public void setCameraModel(CameraModel model){
+        cameraModel = model;
+    }
+
+    public CameraModel getCameraModel(){
+        return cameraModel;
+    }
+
+    /**
+     * Applies a calibration: its intrinsics and distortion replace the camera model. Ignored if
+     * it's for a different image size than the one given to {@link #init}.
+     * @return false if it was ignored
+     */
+    public boolean setCalibration(CameraCalibration calibration){
+        if(!calibration.matches(IMAGE_WIDTH, IMAGE_HEIGHT)) return false;
+        cameraModel = calibration.toCameraModel();
+        Notifier.d(getClass(), "Calibration applied: " + calibration);
+        return true;
+    }
+
+    /**
+     * With a calibrated camera, undistort the 8 strip corners exactly before measuring (on by
+     * default) rather than relying on the camera model's per-row and per-column tables
+     */
+    public void setPointUndistortion(boolean enabled){
+        pointUndistortion = enabled;
+    }
+
+    public boolean isPointUndistortion(){
+        return pointUndistortion;
+    }
+
+    /**
+     * The filter contours/blobs go through, with its per-tier rejection counts
+     */
+    public CandidateFilter getCandidateFilter(){
+        return candidateFilter;
+    }
+
+    /**
+     * Selects coarse-to-fine detection for full-frame scans: 0 = full resolution only,
+     * 1 = search at 1/2 resolution, 2 = search at 1/4 resolution, then refine at full resolution.
+     */
+    public void setPyramidLevel(int level){
+        pyramidLevel = Math.max(0, Math.min(2, level));
+    }
+
+    public int getPyramidLevel(){
+        return pyramidLevel;
+    }
+
+    /**
+     * Retunes the HSV threshold. Takes effect at the start of the next frame; the YUV table and
+     * the lookup table get rebuilt by the first frame thresholded in their mode.
+     */
+    public synchronized void setHSVThresholds(Scalar low, Scalar high){
+        pendingLowHSV = low.val.clone();
+        pendingHighHSV = high.val.clone();
+    }
+
+    private synchronized void applyPendingThresholds(){
+        if(pendingLowHSV == null) return;
+        System.arraycopy(pendingLowHSV, 0, lowHSV.val, 0, 3);
+        System.arraycopy(pendingHighHSV, 0, highHSV.val, 0, 3);
+        pendingLowHSV = pendingHighHSV = null;
+        Notifier.d(getClass(), "HSV thresholds updated: " + lowHSV + " -> " + highHSV);
+    }
+
+    /**
+     * Rebuilds the YUV table (and its Mats) if the thresholds changed since it was last built.
+     * Only called from init and the threshold stage.
+     */
+    private void updateYuvThresholds(){
+        if(!yuvThresholdTable.setThresholds(lowHSV.val, highHSV.val)) return;
+        lumaLowTable.put(0, 0, yuvThresholdTable.getLumaLow());
+        lumaHighTable.put(0, 0, yuvThresholdTable.getLumaHigh());
+        Notifier.d(getClass(), "YUV table rebuilt: " + yuvThresholdTable);
+    }
 
+    /**
+     * Looks up the accepted luma range of every chroma sample into lumaLow and lumaHigh, which
+     * come out the size of the chroma Mat
+     */
+    private void lookUpLumaRange(VisionFrame frame, Mat chroma){
+        chroma.convertTo(frame.chromaMap, CvType.CV_16S); //(U, V) pairs are (column, row) in the table
+        Imgproc.remap(lumaLowTable, frame.lumaLow, frame.chromaMap, frame.noMap, Imgproc.INTER_NEAREST);
+        Imgproc.remap(lumaHighTable, frame.lumaHigh, frame.chromaMap, frame.noMap, Imgproc.INTER_NEAREST);
+    }
+
+    /**
+     * dst = 255 where low <= luma <= high. Overwrites high.
+     */
+    private static void inLumaRange(Mat luma, Mat low, Mat high, Mat dst){
+        Core.compare(luma, low, dst, Core.CMP_GE);
+        Core.compare(luma, high, high, Core.CMP_LE);
+        Core.bitwise_and(dst, high, dst);
+    }
+
+    public void getImageData(byte[] data, Mat yuvReaderMat){
+        yuvReaderMat.put(0, 0, data);
+    }
+
+    //region Ingest Stage
+    /**
+     * Gets the frame into the Mats its {@link ThresholdMode} reads from
+     */
+    private void prepareFrame(VisionFrame frame){
+        frame.ingestNanos = System.nanoTime();
+        FrameCaptureListener capture = captureListener.getAndSet(null);
+        if(capture != null) capture.onFrameCaptured(Arrays.copyOf(frame.nv12, frame.nv12.length), IMAGE_WIDTH, IMAGE_HEIGHT);
+        if(frame.mode != ThresholdMode.HSV){
+            //the RGBA/HSV mats are ~8MB at full size, don't hold on to them in the other modes
+            frame.releaseRgbWindows();
+            if(!frame.rgbMat.empty()) frame.rgbMat.release();
+            if(!frame.hsvMat.empty()) frame.hsvMat.release();
+        }
+
+        frame.flowFrame = !flowTracker.needsDetection();
+
+        //classified straight from the byte array, but optical flow needs the Y plane
+        if(frame.mode == ThresholdMode.LUT && !flowTracker.isEnabled()) return;
+
+        long t = System.nanoTime();
+        getImageData(frame.nv12, frame.yuvMat);
+        t = stageTimer.record(TimedStage.IMAGE_DATA, t);
+
+        //NV12 can't be converted piecewise, but HSV and inRange only need the windows; optical flow
+        //only needs the Y plane
+        if(frame.mode == ThresholdMode.HSV && !frame.flowFrame) convertColor(frame, t);
+    }
+
+    private void convertColor(VisionFrame frame, long start){
+        Imgproc.cvtColor(frame.yuvMat, frame.rgbMat, Imgproc.COLOR_YUV2RGBA_NV12);
+        stageTimer.record(TimedStage.CVT_COLOR, start);
+    }
+
+    /**
+     * Gives a frame that was scheduled for tracking full detection instead, because the reference
+     * was lost (by a miss or a flow failure on an earlier frame) after ingest scheduled it. Does
+     * the color conversion ingest skipped.
+     */
+    private void detectInstead(VisionFrame frame){
+        frame.flowFrame = false;
+        if(frame.mode == ThresholdMode.HSV) convertColor(frame, System.nanoTime());
+    }
+    //endregion
+
+    //region Threshold Stage
+    /**
+     * Decides where to search this frame (ROI, coarse-to-fine or full frame) and thresholds those
+     * windows into filterMat
+     */
+    private void thresholdFrame(VisionFrame frame){
+        long start = System.nanoTime();
+        applyPendingThresholds();
+
+        if(frame.flowFrame){
+            if(flowTracker.hasReference()){
+                frame.filterMat.setTo(BLACK);
+                frame.pathNanos += System.nanoTime() - start;
+                return;
             }
+            detectInstead(frame);
+        }
 
-            System.out.println(maxRect1.size.area() + " " + maxRect2.size.area());
+        //the contour stage thresholds too, when a frame it was to track has to be detected
+        synchronized(thresholdLock){
+            thresholdWindows(frame);
+        }
+        frame.pathNanos += stageTimer.record(TimedStage.THRESHOLD, start) - start;
+    }
 
-            drawRect(maxRect1);
+    private void thresholdWindows(VisionFrame frame){
+        frame.usedRoi = roiTracker.useRoi();
+        int level = pyramidLevel;
+        if(frame.usedRoi){
+            roiTracker.computeRoi(frame.sequence, IMAGE_WIDTH, IMAGE_HEIGHT, roiBounds);
+            Rect window = frame.windows[0];
+            window.x = roiBounds[0];
+            window.y = roiBounds[1];
+            window.width = roiBounds[2];
+            window.height = roiBounds[3];
+            frame.windowCount = 1;
+            frame.filterMat.setTo(BLACK);
+            threshold(frame, 0);
+        }else if(level > 0){
+            frame.filterMat.setTo(BLACK);
+            thresholdCoarseToFine(frame, 1 << level);
+        }else{
+            frame.searchFullFrame();
+            threshold(frame, 0);
+        }
+    }
 
-            for(int j=0; j<4; j++){
-                Imgproc.line(filterMat, rect_points[j], rect_points[(j+1)%4], TEXT_COLOR);
+    /**
+     * Thresholds one of the frame's search windows into the same window of filterMat, using the
+     * frame's {@link ThresholdMode}. The window must be aligned to even pixels.
+     */
+    private void threshold(VisionFrame frame, int index){
+        Rect window = frame.windows[index];
+        boolean fullFrame = frame.isFullFrame(window);
+        Mat filterWindow = fullFrame ? frame.filterMat : frame.filterWindows[index].set(window);
+
+        if(frame.mode == ThresholdMode.LUT){
+            colorClassifier.setThresholds(lowHSV.val, highHSV.val);
+            colorClassifier.classify(frame.nv12, IMAGE_WIDTH, IMAGE_HEIGHT, window.x, window.y, window.width, window.height, frame.maskData);
+            filterWindow.put(0, 0, frame.maskData);
+        }else if(frame.mode == ThresholdMode.YUV){
+            updateYuvThresholds();
+            if(yuvThresholdTable.isEmpty()){
+                filterWindow.setTo(BLACK); //nothing can pass the thresholds
+                return;
             }
+            Mat yWindow = fullFrame ? frame.yMat : frame.yWindows[index].set(window);
+            Mat uvWindow = fullFrame ? frame.uvMat : frame.uvWindows[index].set(window.x/2, window.y/2, window.width/2, window.height/2);
+            lookUpLumaRange(frame, uvWindow);
+            org.opencv.core.Size size = filterWindow.size();
+            Imgproc.resize(frame.lumaLow, frame.lumaLowFull, size, 0, 0, Imgproc.INTER_NEAREST);
+            Imgproc.resize(frame.lumaHigh, frame.lumaHighFull, size, 0, 0, Imgproc.INTER_NEAREST);
+            inLumaRange(yWindow, frame.lumaLowFull, frame.lumaHighFull, filterWindow);
+        }else{
+            Imgproc.cvtColor(fullFrame ? frame.rgbMat : frame.rgbWindows[index].set(window), frame.hsvMat, Imgproc.COLOR_RGB2HSV);
+            Core.inRange(frame.hsvMat, lowHSV, highHSV, filterWindow);
+        }
+    }
 
-            drawRect(maxRect2);
+    /**
+     * Thresholds the whole frame at 1/step resolution (step = 2 or 4) into coarseMask
+     */
+    private void thresholdCoarse(VisionFrame frame, int step){
+        org.opencv.core.Size coarseSize = frame.coarseSize;
+        coarseSize.width = IMAGE_WIDTH / step;
+        coarseSize.height = IMAGE_HEIGHT / step;
+
+        if(frame.mode == ThresholdMode.LUT){
+            colorClassifier.setThresholds(lowHSV.val, highHSV.val);
+            colorClassifier.classifyDecimated(frame.nv12, IMAGE_WIDTH, IMAGE_HEIGHT, step, frame.maskData);
+            frame.coarseMask.create((int)coarseSize.height, (int)coarseSize.width, CvType.CV_8UC1);
+            frame.coarseMask.put(0, 0, frame.maskData);
+        }else if(frame.mode == ThresholdMode.YUV){
+            frame.coarseMask.create((int)coarseSize.height, (int)coarseSize.width, CvType.CV_8UC1);
+            updateYuvThresholds();
+            if(yuvThresholdTable.isEmpty()){
+                frame.coarseMask.setTo(BLACK);
+                return;
+            }
+            //plain decimation, the chroma plane is already at half resolution
+            Imgproc.resize(frame.yMat, frame.coarseY, coarseSize, 0, 0, Imgproc.INTER_NEAREST);
+            Mat coarseChroma = frame.uvMat;
+            if(step > 2){
+                Imgproc.resize(frame.uvMat, frame.coarseUV, coarseSize, 0, 0, Imgproc.INTER_NEAREST);
+                coarseChroma = frame.coarseUV;
+            }
+            lookUpLumaRange(frame, coarseChroma);
+            inLumaRange(frame.coarseY, frame.lumaLow, frame.lumaHigh, frame.coarseMask);
+        }else{
+            Imgproc.pyrDown(frame.rgbMat, frame.coarseRgb);
+            for(int s = 4; s <= step; s *= 2) Imgproc.pyrDown(frame.coarseRgb, frame.coarseRgb);
+            Imgproc.cvtColor(frame.coarseRgb, frame.hsvMat, Imgproc.COLOR_RGB2HSV);
+            Core.inRange(frame.hsvMat, lowHSV, highHSV, frame.coarseMask);
+        }
+    }
 
-            for(int j=0; j<4; j++){
-                Imgproc.line(filterMat, rect_points[j], rect_points[(j+1)%4], TEXT_COLOR);
+    /**
+     * Coarse-to-fine search: threshold and find blobs at 1/step resolution, then threshold at
+     * full resolution only around the largest coarse blobs, which become the search windows.
+     */
+    private void thresholdCoarseToFine(VisionFrame frame, int step){
+        thresholdCoarse(frame, step);
+
+        //keep the largest few, by bounding box area
+        Rect[] windows = frame.windows;
+        int count = 0;
+        if(frame.detectionMethod == DetectionMethod.BLOB_LABELER){
+            BlobLabeler labeler = frame.blobLabeler;
+            labeler.reset();
+            frame.coarseMask.get(0, 0, frame.maskData);
+            labeler.label(frame.maskData, frame.coarseMask.cols(), frame.coarseMask.rows(), 0, 0);
+            count = SearchWindows.largestBlobs(labeler, windows);
+        }else{
+            frame.coarseContours.clear();
+            Imgproc.findContours(frame.coarseMask, frame.coarseContours, frame.heirarchyMat, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+            for(MatOfPoint mop : frame.coarseContours){
+                Rect box = Imgproc.boundingRect(mop);
+                mop.release();
+                count = SearchWindows.insertLargest(windows, count, box.x, box.y, box.width, box.height);
             }
+            frame.coarseContours.clear();
+        }
+
+        frame.windowCount = SearchWindows.toFullResolution(windows, count, step, IMAGE_WIDTH, IMAGE_HEIGHT);
+        for(int i = 0; i < frame.windowCount; i++){
+            threshold(frame, i);
+        }
+    }
+    //endregion
 
+    final Scalar BLACK = new Scalar(0);
 
-            angle1 = getAngle(maxRect1);
-            angle2 = getAngle(maxRect2);
+    Bitmap outputCacheBitmap;
 
-            Imgproc.putText(filterMat, "Turn:" + (angle1 + angle2) / 2, new Point(250, 50), Core.FONT_HERSHEY_PLAIN, 2.0, TEXT_COLOR);
+    ByteBuffer outputBuffer;
+    Point[] rect_points;
+    Point[] textLines;
+    final Point textPosition = new Point(250, 50);
+    final Point midpoint = new Point();
+    private String turnText;
+    private long turnTextHundredths;
 
-            rect1X = maxRect1.center.x;
-            rect1Y = maxRect1.center.y;
-            rect2X = maxRect2.center.x;
-            rect2Y = maxRect2.center.y;
+    RoiTracker roiTracker = new RoiTracker();
+    /** held while thresholding, which shares the YUV and LUT tables between the two stages that can do it */
+    private final Object thresholdLock = new Object();
+    int[] roiBounds = new int[4];
 
-            Point p = new Point((rect1X + rect2X) / 2, (rect1Y + rect2Y) / 2);
-            Imgproc.circle(filterMat, p, 5, RED);
+    private volatile int pyramidLevel = 0;
 
-            //region buffer
-            //todo: test to see how long this process takes, and if it should be moved to another thread
-            outputBuffer.clear();
-            outputBuffer.putLong(System.currentTimeMillis()-timestamp);
-            outputBuffer.putDouble(getDistance(maxRect1, maxRect2));
-            outputBuffer.putDouble((angle1+angle2)/2);
-            if(outputSocketServer != null){
-                outputSocketServer.sendToAll(outputBuffer.array());
+    /**
+     * Runs every stage for one frame on the calling thread, without the pipeline
+     */
+    public void processMat(byte[] input, long timestamp, ProcessingOutputView processingOutputView){
+        if(syncFrame == null) syncFrame = new VisionFrame(IMAGE_WIDTH, IMAGE_HEIGHT);
+        System.arraycopy(input, 0, syncFrame.nv12, 0, Math.min(input.length, syncFrame.nv12.length));
+        syncFrame.reset(timestamp, thresholdMode, detectionMethod);
+
+        prepareFrame(syncFrame);
+        thresholdFrame(syncFrame);
+        findTargets(syncFrame);
+        publish(syncFrame);
+        render(syncFrame, processingOutputView);
+    }
+
+    //region Contours Stage
+    private void findTargets(VisionFrame frame){
+        if(frame.flowFrame && !flowTracker.hasReference()){
+            //lost after the threshold stage passed this frame over for tracking
+            detectInstead(frame);
+            thresholdFrame(frame);
+        }
+
+        long start = System.nanoTime();
+        if(frame.flowFrame){
+            //the ROI tracker only follows full detections
+            boolean tracked = flowTracker.track(frame.flowWindow, frame.target1, frame.target2);
+            if(tracked){
+                frame.pairConfidence = trackedConfidence; //the pair is still the detected one
+                drawTargets(frame);
+            }else{
+                poseEstimator.reset();
+                Notifier.v(getClass(), "Target lost by optical flow");
             }
-            //endregion
+            flowTracker.recordFlow(frame.pathNanos + stageTimer.record(TimedStage.FLOW, start) - start);
+            return;
+        }
 
+        boolean detected = detectTargets(frame);
+        if(detected){
+            trackedConfidence = frame.pairConfidence;
+            long t = System.nanoTime();
+            drawTargets(frame);
+            stageTimer.record(TimedStage.MEASURE, t);
+        }else{
+            poseEstimator.reset();
         }
+        flowTracker.recordDetection(frame.pathNanos + System.nanoTime() - start);
+    }
 
-        Utils.matToBitmap(filterMat, outputCacheBitmap);
+    /**
+     * Full detection on the thresholded search windows
+     * @return false if the target wasn't found
+     */
+    private boolean detectTargets(VisionFrame frame){
+        TargetRect target1 = frame.target1;
+        TargetRect target2 = frame.target2;
+        boolean found = frame.detectionMethod == DetectionMethod.BLOB_LABELER ? labelBlobs(frame) : scoreContours(frame);
+        if(!found){
+            detectionMisses++;
+            roiTracker.onMissed(frame.usedRoi);
+            flowTracker.onMissed();
+            return false;
+        }
 
-        if(mProcessedMatListener != null)
-            mProcessedMatListener.onImgProcessed(outputCacheBitmap);
+        roiTracker.onDetected(frame.usedRoi, frame.sequence, Math.min(target1.minX(), target2.minX()), Math.min(target1.minY(), target2.minY()),
+                Math.max(target1.maxX(), target2.maxX()), Math.max(target1.maxY(), target2.maxY()));
+        flowTracker.onDetected(frame.flowWindow, target1, target2);
+        return true;
+    }
 
-        processingOutputView.setBitmap(outputCacheBitmap);
+    /**
+     * Draws the strips and the turn onto filterMat and sets the frame's results from them
+     */
+    private void drawTargets(VisionFrame frame){
+        TargetRect target1 = frame.target1;
+        TargetRect target2 = frame.target2;
+        Mat filterMat = frame.filterMat;
+
+        drawRect(filterMat, target1);
+        drawRect(filterMat, target2);
+
+        CameraModel camera = cameraModel;
+        TargetRect measured1 = target1, measured2 = target2;
+        if(pointUndistortion && camera.hasDistortion()){
+            undistort(camera, target1, undistorted1);
+            undistort(camera, target2, undistorted2);
+            measured1 = undistorted1;
+            measured2 = undistorted2;
+            camera = camera.getPinhole();
+        }
+        angle1 = camera.getAzimuth(measured1.centerX);
+        angle2 = camera.getAzimuth(measured2.centerX);
+
+        Imgproc.putText(filterMat, turnLabel((angle1 + angle2) / 2), textPosition, Core.FONT_HERSHEY_PLAIN, 2.0, TEXT_COLOR);
+
+        rect1X = target1.centerX;
+        rect1Y = target1.centerY;
+        rect2X = target2.centerX;
+        rect2Y = target2.centerY;
+
+        midpoint.x = (rect1X + rect2X) / 2;
+        midpoint.y = (rect1Y + rect2Y) / 2;
+        Imgproc.circle(filterMat, midpoint, 5, RED);
+
+        frame.found = true;
+        frame.turnAngle = (angle1 + angle2) / 2;
+        if(poseEstimator.estimate(camera, measured1, measured2)){
+            poseEstimator.getPose(frame.pose);
+            frame.poseValid = true;
+            frame.distance = poseEstimator.getRange();
+        }else{
+            frame.distance = PoseEstimator.rangeFromSpan(camera, measured1, measured2);
+        }
+        frame.verticalAngle = camera.getElevation((measured1.centerY + measured2.centerY) / 2);
     }
 
+    /**
+     * findContours on every search window, then the filtered candidates into {@link #matchPair}
+     * @return false if the target wasn't found
+     */
+    private boolean scoreContours(VisionFrame frame){
+        long t = System.nanoTime();
+        for(int i = 0; i < frame.windowCount; i++){
+            Rect window = frame.windows[i];
+            frame.searchOffset.x = window.x;
+            frame.searchOffset.y = window.y;
+            Imgproc.findContours(frame.isFullFrame(window) ? frame.filterMat : frame.filterWindows[i].set(window),
+                    frame.contours, frame.heirarchyMat, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE, frame.searchOffset);
+        }
+        t = stageTimer.record(TimedStage.CONTOURS, t);
+
+        if(frame.contours.size() < 2) return false;
+
+        CandidateFilter filter = candidateFilter;
+        filter.reset();
+        for (MatOfPoint mop : frame.contours) {
+            int pointCount = mop.rows();
+            if(filter.skipContour(pointCount)) continue;
+            int[] points = filter.pointBuffer(pointCount);
+            mop.get(0, 0, points);
+            filter.addContour(points, pointCount);
+        }
+
+        boolean matched = matchPair(frame);
+        stageTimer.record(TimedStage.CANDIDATES, t);
+        return matched;
+    }
 
+    /**
+     * Labels every search window with {@link BlobLabeler}, then the filtered candidates into {@link #matchPair}
+     * @return false if the target wasn't found
+     */
+    private boolean labelBlobs(VisionFrame frame){
+        long t = System.nanoTime();
+        BlobLabeler labeler = frame.blobLabeler;
+        labeler.reset();
+        for(int i = 0; i < frame.windowCount; i++){
+            Rect window = frame.windows[i];
+            (frame.isFullFrame(window) ? frame.filterMat : frame.filterWindows[i].set(window)).get(0, 0, frame.maskData);
+            labeler.label(frame.maskData, window.width, window.height, window.x, window.y);
+        }
+        t = stageTimer.record(TimedStage.CONTOURS, t);
 
-    private double getAngle(RotatedRect rect) {
-        double preAdjustedTurnAngle = Math.atan((rect.center.x - HALF_IMAGE_WIDTH)/focalLengthPixels);
-        return Math.toDegrees(preAdjustedTurnAngle);
+        CandidateFilter filter = candidateFilter;
+        filter.reset();
+        for(int b = 0; b < labeler.getBlobCount(); b++){
+            filter.addBlob(labeler, b);
+        }
+
+        boolean matched = matchPair(frame);
+        stageTimer.record(TimedStage.CANDIDATES, t);
+        return matched;
     }
 
-    private double getDistance(RotatedRect rect1, RotatedRect rect2) {
-        double w1Pixel = rect1.size.width;
-        double w2Pixel = rect2.size.width;
-        double totalWidth = Math.sqrt(Math.pow(rect1.center.x - rect2.center.x, 2.0) + Math.pow(rect1.center.y - rect2.center.y, 2.0));
-        totalWidth += w1Pixel/2.0 + w2Pixel/2.0;
+    /**
+     * Pairs up the candidates that made it through the filter; the most likely pair becomes the frame's targets
+     * @return false if no pair looks like the target
+     */
+    private boolean matchPair(VisionFrame frame){
+        if(pairMatcher.match(candidateFilter.getCandidates(), candidateFilter.getCandidateCount()) == 0) return false;
+        frame.target1.set(pairMatcher.getLeft(0));
+        frame.target2.set(pairMatcher.getRight(0));
+        frame.pairConfidence = pairMatcher.getConfidence(0);
+        return true;
+    }
 
-        double wReal = 10.25; //10.25 inches in real life
+    /**
+     * Rebuilds a strip from its corners with the lens distortion removed, in the pixel
+     * coordinates of {@link CameraModel#getPinhole()}
+     */
+    private void undistort(CameraModel camera, TargetRect rect, TargetRect out){
+        for(int i = 0; i < 4; i++){
+            camera.undistortPixel(rect.cornerX[i], rect.cornerY[i], undistortedPoint);
+            undistortedX[i] = undistortedPoint[0];
+            undistortedY[i] = undistortedPoint[1];
+        }
+        out.setFromCorners(undistortedX, undistortedY);
+    }
 
-        double hyp = (wReal * focalLengthPixels) / totalWidth; //in inches
-        double hReal = 10.75 + 2.5;
-        return Math.sqrt(Math.pow(hyp, 2.0) + Math.pow(hReal, 2.0));
+    /**
+     * The overlay text for a turn angle, rebuilt only when the shown value (to 0.01 degrees) changes
+     */
+    private String turnLabel(double turn){
+        long hundredths = Math.round(turn * 100);
+        if(turnText == null || hundredths != turnTextHundredths){
+            turnTextHundredths = hundredths;
+            turnText = "Turn:" + hundredths / 100.0;
+        }
+        return turnText;
     }
+    //endregion
 
-    private void drawRect(RotatedRect rect) {
-        rect.points(rect_points);
+    //region Publish Stage
+    //only used from the publish stage
+    private final TargetTracker targetTracker = new TargetTracker();
+    private final double[] prediction = new double[2];
+    private final ResultFrame result = new ResultFrame();
+
+    /**
+     * Publishes the tracked angle and distance, extrapolated to now, with the vertical angle, pose
+     * and pair confidence of the last measurement, as a {@link ResultFrame}. Frames that miss the
+     * target still publish while the tracker is coasting. Only hands the result to the server's
+     * sender thread, so slow clients don't hold up the pipeline.
+     */
+    private void publish(VisionFrame frame){
+        publishMetrics();
+        long start = System.nanoTime();
+
+        if(frame.found){
+            targetTracker.update(frame.timestamp, frame.turnAngle, frame.distance);
+            result.verticalAngle = frame.verticalAngle;
+            result.confidence = frame.pairConfidence;
+            if(frame.poseValid){
+                System.arraycopy(frame.pose, 0, result.rotation, 0, 3);
+                System.arraycopy(frame.pose, 3, result.translation, 0, 3);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        if(!targetTracker.predict(now, prediction)) return;
+
+        result.flags = (frame.found ? ResultFrame.FLAG_MEASURED : 0) | (frame.poseValid ? ResultFrame.FLAG_POSE : 0);
+        result.sequence = frame.sequence;
+        result.captureTimestamp = frame.timestamp;
+        result.predictionAge = now - targetTracker.getLastMeasurementTime();
+        result.turnAngle = prediction[0];
+        result.distance = prediction[1];
+        result.framesProduced = frame.framesProduced;
+        result.framesConsumed = frame.framesConsumed;
+        result.framesDropped = frame.framesDropped;
+
+        outputBuffer.clear();
+        result.encode(outputBuffer);
+        if(outputSocketServer != null){
+            outputSocketServer.publishResult(outputBuffer.array(), frame.timestamp);
+        }
+        UdpResultPublisher udp = udpResultPublisher;
+        if(udp != null){
+            udp.publishResult(outputBuffer.array(), frame.timestamp);
+        }
+        stageTimer.record(TimedStage.PUBLISH, start);
+    }
+
+    public TargetTracker getTargetTracker(){
+        return targetTracker;
+    }
+
+    private final StringBuilder metrics = new StringBuilder();
+
+    /**
+     * Rolls the stage timing window when it's due, and sends a JSON snapshot of the counters and
+     * the last timing window to {@link Topic#METRICS} subscribers; not even built unless one of
+     * them is due for one
+     */
+    private void publishMetrics(){
+        if(stageTimer.getLiveNanos() >= TIMING_WINDOW_NANOS) stageTimer.rollWindow();
+        OutputSocketServer server = outputSocketServer;
+        if(server == null || !server.wants(Topic.METRICS)) return;
+
+        StringBuilder json = metrics;
+        json.setLength(0);
+        json.append("{\"timestamp\":").append(System.currentTimeMillis());
+        FrameRing ring = frameRing;
+        json.append(",\"frameRing\":{\"produced\":").append(ring.getProduced())
+                .append(",\"consumed\":").append(ring.getConsumed())
+                .append(",\"dropped\":").append(ring.getDropped()).append('}');
+        FramePipeline<VisionFrame> p = pipeline;
+        json.append(",\"pipeline\":{\"inFlight\":").append(p.getInFlight())
+                .append(",\"submitted\":").append(p.getSubmitted())
+                .append(",\"completed\":").append(p.getCompleted())
+                .append(",\"dropped\":").append(p.getDropped())
+                .append(",\"failed\":").append(p.getFailed()).append('}');
+        RoiTracker roi = roiTracker;
+        json.append(",\"roi\":{\"hits\":").append(roi.getRoiHits())
+                .append(",\"misses\":").append(roi.getRoiMisses())
+                .append(",\"fullScans\":").append(roi.getFullScans())
+                .append(",\"fullScanHits\":").append(roi.getFullScanHits()).append('}');
+        json.append(",\"flow\":{\"detectionFrames\":").append(flowTracker.getDetectionFrames())
+                .append(",\"detectionMisses\":").append(detectionMisses)
+                .append(",\"flowFrames\":").append(flowTracker.getFlowFrames())
+                .append(",\"flowFailures\":").append(flowTracker.getFlowFailures())
+                .append(",\"detectionMillis\":").append(flowTracker.getDetectionMillis())
+                .append(",\"flowMillis\":").append(flowTracker.getFlowMillis()).append('}');
+        CandidateFilter filter = candidateFilter;
+        json.append(",\"filter\":{\"examined\":").append(filter.getExamined())
+                .append(",\"accepted\":").append(filter.getAccepted())
+                .append(",\"pointCount\":").append(filter.getRejected(CandidateFilter.Rejection.POINT_COUNT))
+                .append(",\"boundingBox\":").append(filter.getRejected(CandidateFilter.Rejection.BOUNDING_BOX))
+                .append(",\"outlineArea\":").append(filter.getRejected(CandidateFilter.Rejection.OUTLINE_AREA))
+                .append(",\"rectArea\":").append(filter.getRejected(CandidateFilter.Rejection.RECT_AREA))
+                .append(",\"aspect\":").append(filter.getRejected(CandidateFilter.Rejection.ASPECT))
+                .append(",\"solidity\":").append(filter.getRejected(CandidateFilter.Rejection.SOLIDITY)).append('}');
+        json.append(",\"pose\":{\"warmSolves\":").append(poseEstimator.getWarmSolves())
+                .append(",\"coldSolves\":").append(poseEstimator.getColdSolves())
+                .append(",\"failures\":").append(poseEstimator.getFailures())
+                .append(",\"solveMillis\":").append(poseEstimator.getSolveMillis()).append('}');
+        ResultPublisher results = server.getResultPublisher();
+        json.append(",\"results\":{\"posted\":").append(results.getPosted())
+                .append(",\"sent\":").append(results.getSent())
+                .append(",\"coalesced\":").append(results.getCoalesced())
+                .append(",\"sendMillis\":").append(results.getSendMillis())
+                .append(",\"maxSendMillis\":").append(results.getMaxSendMillis()).append('}');
+        json.append(",\"stages\":");
+        stageTimer.appendJson(json);
+        json.append(",\"clients\":[");
+        boolean first = true;
+        for(ClientChannel channel : server.getClientChannels()){
+            if(!first) json.append(',');
+            first = false;
+            json.append("{\"name\":\"").append(channel.getName().replace("\\", "\\\\").replace("\"", "\\\""))
+                    .append("\",\"queueDepth\":").append(channel.getQueueDepth())
+                    .append(",\"resultsSent\":").append(channel.getResultsSent())
+                    .append(",\"resultsDropped\":").append(channel.getResultsDropped())
+                    .append(",\"masksSent\":").append(channel.getMasksSent())
+                    .append(",\"masksDropped\":").append(channel.getMasksDropped())
+                    .append(",\"bytesSent\":").append(channel.getBytesSent())
+                    .append(",\"roundTrip\":").append(channel.getClockSync().getRoundTrip()).append('}');
+        }
+        json.append("]}");
+        server.publishMetrics(json.toString());
+    }
+    //endregion
+
+    //region Render Stage
+    private void render(VisionFrame frame, ProcessingOutputView processingOutputView){
+        DebugStreamer streamer = debugStreamer;
+        if(streamer != null) streamer.offer(frame.filterMat, frame.timestamp);
+        MaskStreamer masks = maskStreamer;
+        if(masks != null) masks.offer(frame.filterMat);
+
+        long t = System.nanoTime();
+        Utils.matToBitmap(frame.filterMat, outputCacheBitmap);
+        t = stageTimer.record(TimedStage.MAT_TO_BITMAP, t);
+
+        if(mProcessedMatListener != null)
+            mProcessedMatListener.onImgProcessed(outputCacheBitmap);
+
+        if(processingOutputView != null)
+            processingOutputView.setBitmap(outputCacheBitmap);
+        stageTimer.record(TimedStage.SET_BITMAP, t);
+        stageTimer.record(TimedStage.FRAME, frame.ingestNanos);
+    }
+    //endregion
+
+    private void drawRect(Mat mat, TargetRect rect) {
+        for(int j=0; j<4; j++){
+            rect_points[j].x = rect.cornerX[j];
+            rect_points[j].y = rect.cornerY[j];
+        }
+
+        for(int j=0; j<4; j++){
+            Imgproc.line(mat, rect_points[j], rect_points[(j+1)%4], TEXT_COLOR);
+        }
     }
 
     @Override
@@ -263,4 +1140,9 @@ public class CVProcessor implements SensorEventListener{
         void onImgProcessed(Bitmap out);
     }
 
+    public interface FrameCaptureListener{
+        /** Called from the ingest stage with a frame's packed NV12 data, the listener's to keep */
+        void onFrameCaptured(byte[] nv12, int width, int height);
+    }
+
 }
@@ -0,0 +1,217 @@
+package com.mvrt.bullseye;
+
+import com.mvrt.bullseye.util.Notifier;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point3;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Camera intrinsics (focal lengths, principal point and OpenCV's k1, k2, p1, p2, k3 distortion)
+ * from a checkerboard calibration with {@link Calib3d#calibrateCamera}.
+ *
+ * Calibrating takes seconds, so it's done once from a stored set of checkerboard captures and the
+ * result is persisted with {@link #encode()} (see {@link VisionPrefs}) and loaded at startup.
+ */
+public class CameraCalibration {
+
+    /** inner corners of the checkerboard, across and down */
+    public static final int BOARD_COLUMNS = 9;
+    public static final int BOARD_ROWS = 6;
+    /** size of a checkerboard square, in inches */
+    public static final double SQUARE_SIZE = 1.0;
+
+    /** at least this many captures must show the whole board */
+    public static final int MIN_CAPTURES = 8;
+
+    private static final String ENCODING_VERSION = "1";
+
+    public final int width, height;
+    public final double fx, fy, cx, cy;
+    public final double rmsError;
+    private final double[] distortion;
+
+    public CameraCalibration(int width, int height, double fx, double fy, double cx, double cy, double[] distortion, double rmsError){
+        this.width = width;
+        this.height = height;
+        this.fx = fx;
+        this.fy = fy;
+        this.cx = cx;
+        this.cy = cy;
+        this.distortion = new double[5];
+        System.arraycopy(distortion, 0, this.distortion, 0, Math.min(5, distortion.length));
+        this.rmsError = rmsError;
+    }
+
+    /** @return (k1, k2, p1, p2, k3) */
+    public double[] getDistortion(){
+        return distortion.clone();
+    }
+
+    public boolean matches(int width, int height){
+        return this.width == width && this.height == height;
+    }
+
+    public CameraModel toCameraModel(){
+        return new CameraModel(width, height, fx, fy, cx, cy, distortion);
+    }
+
+    /**
+     * @return the calibration as a single line of text, for {@link #decode}
+     */
+    public String encode(){
+        StringBuilder sb = new StringBuilder(ENCODING_VERSION);
+        sb.append(';').append(width).append(';').append(height);
+        double[] values = {fx, fy, cx, cy, distortion[0], distortion[1], distortion[2], distortion[3], distortion[4], rmsError};
+        for(double v : values) sb.append(';').append(v);
+        return sb.toString();
+    }
+
+    /**
+     * @return the calibration {@link #encode()} made, or null if the text isn't one
+     */
+    public static CameraCalibration decode(String encoded){
+        if(encoded == null) return null;
+        String[] parts = encoded.split(";");
+        if(parts.length != 13 || !ENCODING_VERSION.equals(parts[0])) return null;
+        try {
+            int width = Integer.parseInt(parts[1]);
+            int height = Integer.parseInt(parts[2]);
+            double[] v = new double[10];
+            for(int i = 0; i < v.length; i++) v[i] = Double.parseDouble(parts[3 + i]);
+            return new CameraCalibration(width, height, v[0], v[1], v[2], v[3], new double[]{v[4], v[5], v[6], v[7], v[8]}, v[9]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Calibrates from a directory of checkerboard captures: images (*.jpg, *.png) or raw NV12
+     * dumps (*.nv12) at the given size
+     * @return the calibration, or null if fewer than {@link #MIN_CAPTURES} show the board
+     */
+    public static CameraCalibration calibrate(File captureDir, int width, int height) throws IOException {
+        File[] files = captureDir.listFiles();
+        List<Mat> images = new ArrayList<>();
+        if(files != null){
+            for(File f : files){
+                Mat image = loadGray(f, width, height);
+                if(image != null) images.add(image);
+            }
+        }
+        try {
+            return calibrate(images, width, height);
+        } finally {
+            for(Mat m : images) m.release();
+        }
+    }
+
+    private static Mat loadGray(File f, int width, int height) throws IOException {
+        String name = f.getName().toLowerCase();
+        if(name.endsWith(".nv12")){
+            if(f.length() != width * height * 3/2) return null;
+            byte[] y = new byte[width * height]; //only the Y plane
+            FileInputStream in = new FileInputStream(f);
+            try {
+                int read = 0;
+                while(read < y.length){
+                    int n = in.read(y, read, y.length - read);
+                    if(n < 0) throw new IOException("Truncated capture " + f);
+                    read += n;
+                }
+            } finally {
+                in.close();
+            }
+            Mat image = new Mat(height, width, CvType.CV_8UC1);
+            image.put(0, 0, y);
+            return image;
+        }
+        if(name.endsWith(".jpg") || name.endsWith(".png")){
+            Mat image = Imgcodecs.imread(f.getAbsolutePath(), Imgcodecs.IMREAD_GRAYSCALE);
+            if(image.cols() == width && image.rows() == height) return image;
+            image.release();
+        }
+        return null;
+    }
+
+    /**
+     * Finds the checkerboard in each grayscale image and calibrates from the ones that show it
+     * @return the calibration, or null if fewer than {@link #MIN_CAPTURES} show the board
+     */
+    public static CameraCalibration calibrate(List<Mat> grayImages, int width, int height){
+        Size boardSize = new Size(BOARD_COLUMNS, BOARD_ROWS);
+        Size imageSize = new Size(width, height);
+        TermCriteria subPixCriteria = new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 30, 0.01);
+
+        Point3[] boardPoints = new Point3[BOARD_COLUMNS * BOARD_ROWS];
+        for(int r = 0; r < BOARD_ROWS; r++){
+            for(int c = 0; c < BOARD_COLUMNS; c++) boardPoints[r * BOARD_COLUMNS + c] = new Point3(c * SQUARE_SIZE, r * SQUARE_SIZE, 0);
+        }
+
+        List<Mat> objectPoints = new ArrayList<>();
+        List<Mat> imagePoints = new ArrayList<>();
+        for(Mat image : grayImages){
+            MatOfPoint2f corners = new MatOfPoint2f();
+            if(!Calib3d.findChessboardCorners(image, boardSize, corners,
+                    Calib3d.CALIB_CB_ADAPTIVE_THRESH + Calib3d.CALIB_CB_NORMALIZE_IMAGE + Calib3d.CALIB_CB_FAST_CHECK)){
+                corners.release();
+                continue;
+            }
+            Imgproc.cornerSubPix(image, corners, new Size(11, 11), new Size(-1, -1), subPixCriteria);
+            imagePoints.add(corners);
+            objectPoints.add(new MatOfPoint3f(boardPoints));
+        }
+
+        Notifier.d(CameraCalibration.class, "Board found in " + imagePoints.size() + " of " + grayImages.size() + " captures");
+        if(imagePoints.size() < MIN_CAPTURES){
+            release(objectPoints);
+            release(imagePoints);
+            return null;
+        }
+
+        Mat cameraMatrix = new Mat();
+        Mat distCoeffs = new Mat();
+        List<Mat> rvecs = new ArrayList<>();
+        List<Mat> tvecs = new ArrayList<>();
+        double rms = Calib3d.calibrateCamera(objectPoints, imagePoints, imageSize, cameraMatrix, distCoeffs, rvecs, tvecs);
+
+        double[] k = new double[9];
+        cameraMatrix.get(0, 0, k);
+        double[] d = new double[(int)distCoeffs.total()];
+        distCoeffs.get(0, 0, d);
+
+        CameraCalibration calibration = new CameraCalibration(width, height, k[0], k[4], k[2], k[5], d, rms);
+        cameraMatrix.release();
+        distCoeffs.release();
+        release(rvecs);
+        release(tvecs);
+        release(objectPoints);
+        release(imagePoints);
+        return calibration;
+    }
+
+    private static void release(List<Mat> mats){
+        for(Mat m : mats) m.release();
+        mats.clear();
+    }
+
+    @Override
+    public String toString(){
+        return String.format("CameraCalibration{%dx%d, f=(%.1f, %.1f), c=(%.1f, %.1f), k=(%.4f, %.4f, %.4f), p=(%.4f, %.4f), rms=%.3f px}",
+                width, height, fx, fy, cx, cy, distortion[0], distortion[1], distortion[4], distortion[2], distortion[3], rmsError);
+    }
+
+}
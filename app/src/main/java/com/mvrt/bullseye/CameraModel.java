@@ -0,0 +1,205 @@
+package com.mvrt.bullseye;
+
+/**
+ * Maps image coordinates to viewing angles with tables built once per camera, so the angle and
+ * distance math per frame is a couple of table reads and interpolations instead of atan calls.
+ *
+ * The tables hold, per column, the tangent and the angle of the azimuth (positive right) and, per
+ * row, those of the elevation (positive up). Lens distortion, given as OpenCV's
+ * (k1, k2, p1, p2[, k3]) coefficients, is removed while building them; since a table only has one
+ * dimension, each column is undistorted on the row through the principal point and each row on
+ * the column through it, which is exact on those lines and close near the middle of the image.
+ *
+ * For exact angles, points can be undistorted one at a time with {@link #undistortPixel} and
+ * then looked up in the tables of {@link #getPinhole()}, the same camera without distortion.
+ */
+public class CameraModel {
+
+    private static final int UNDISTORT_ITERATIONS = 20;
+
+    private final int width, height;
+    private final double fx, fy, cx, cy;
+    private final double k1, k2, p1, p2, k3;
+
+    private final double[] azimuthTan, azimuthDegrees;
+    private final double[] elevationTan, elevationDegrees;
+    private final CameraModel pinhole;
+
+    /**
+     * A distortion-free camera from its field of view, with the principal point in the middle
+     * @param horizontalFov in radians
+     * @param verticalFov in radians
+     */
+    public static CameraModel fromFov(int width, int height, double horizontalFov, double verticalFov){
+        double fx = .5 * width / Math.tan(horizontalFov / 2);
+        double fy = .5 * height / Math.tan(verticalFov / 2);
+        return new CameraModel(width, height, fx, fy, width/2 + 0.5, height/2 + 0.5, null);
+    }
+
+    /**
+     * @param fx focal length in pixels, horizontally
+     * @param fy focal length in pixels, vertically
+     * @param cx principal point x, in pixels
+     * @param cy principal point y, in pixels
+     * @param distortion (k1, k2, p1, p2[, k3]) as from calibrateCamera, or null for none
+     */
+    public CameraModel(int width, int height, double fx, double fy, double cx, double cy, double[] distortion){
+        this.width = width;
+        this.height = height;
+        this.fx = fx;
+        this.fy = fy;
+        this.cx = cx;
+        this.cy = cy;
+        k1 = coefficient(distortion, 0);
+        k2 = coefficient(distortion, 1);
+        p1 = coefficient(distortion, 2);
+        p2 = coefficient(distortion, 3);
+        k3 = coefficient(distortion, 4);
+        pinhole = hasDistortion() ? new CameraModel(width, height, fx, fy, cx, cy, null) : this;
+
+        double[] point = new double[2];
+        azimuthTan = new double[width];
+        azimuthDegrees = new double[width];
+        for(int u = 0; u < width; u++){
+            undistort((u - cx) / fx, 0, point);
+            azimuthTan[u] = point[0];
+            azimuthDegrees[u] = Math.toDegrees(Math.atan(point[0]));
+        }
+
+        elevationTan = new double[height];
+        elevationDegrees = new double[height];
+        for(int v = 0; v < height; v++){
+            undistort(0, (v - cy) / fy, point);
+            elevationTan[v] = -point[1];
+            elevationDegrees[v] = -Math.toDegrees(Math.atan(point[1]));
+        }
+    }
+
+    public boolean hasDistortion(){
+        return k1 != 0 || k2 != 0 || p1 != 0 || p2 != 0 || k3 != 0;
+    }
+
+    /**
+     * @return this camera without lens distortion, for looking up points from {@link #undistortPixel}
+     */
+    public CameraModel getPinhole(){
+        return pinhole;
+    }
+
+    /**
+     * Undistorts an image point into the pixel coordinates it would have in {@link #getPinhole()},
+     * like Imgproc.undistortPoints with P = the camera matrix
+     * @param out {x, y}
+     */
+    public void undistortPixel(double x, double y, double[] out){
+        undistort((x - cx) / fx, (y - cy) / fy, out);
+        out[0] = cx + out[0] * fx;
+        out[1] = cy + out[1] * fy;
+    }
+
+    private static double coefficient(double[] distortion, int i){
+        return distortion != null && i < distortion.length ? distortion[i] : 0;
+    }
+
+    /**
+     * Undistorts a point in normalized image coordinates (fixed-point iteration, like
+     * undistortPoints)
+     */
+    void undistort(double xd, double yd, double[] out){
+        double x = xd, y = yd;
+        for(int i = 0; i < UNDISTORT_ITERATIONS; i++){
+            double r2 = x * x + y * y;
+            double radial = 1 + r2 * (k1 + r2 * (k2 + r2 * k3));
+            double dx = 2 * p1 * x * y + p2 * (r2 + 2 * x * x);
+            double dy = p1 * (r2 + 2 * y * y) + 2 * p2 * x * y;
+            x = (xd - dx) / radial;
+            y = (yd - dy) / radial;
+        }
+        out[0] = x;
+        out[1] = y;
+    }
+
+    /**
+     * Distorts a point in normalized image coordinates, the inverse of {@link #undistort}
+     */
+    void distort(double x, double y, double[] out){
+        double r2 = x * x + y * y;
+        double radial = 1 + r2 * (k1 + r2 * (k2 + r2 * k3));
+        out[0] = x * radial + 2 * p1 * x * y + p2 * (r2 + 2 * x * x);
+        out[1] = y * radial + p1 * (r2 + 2 * y * y) + 2 * p2 * x * y;
+    }
+
+    /**
+     * Linear interpolation, extrapolating from the end segments outside the table (undistorted
+     * points can land just outside the image)
+     */
+    private static double interpolate(double[] table, double position){
+        int i = (int)Math.floor(position);
+        if(i < 0) i = 0;
+        else if(i > table.length - 2) i = table.length - 2;
+        double t = position - i;
+        return table[i] + t * (table[i + 1] - table[i]);
+    }
+
+    /** @return the horizontal angle to image column x in degrees, positive to the right */
+    public double getAzimuth(double x){
+        return interpolate(azimuthDegrees, x);
+    }
+
+    /** @return the tangent of {@link #getAzimuth} */
+    public double getAzimuthTan(double x){
+        return interpolate(azimuthTan, x);
+    }
+
+    /** @return the vertical angle to image row y in degrees, positive up */
+    public double getElevation(double y){
+        return interpolate(elevationDegrees, y);
+    }
+
+    /** @return the tangent of {@link #getElevation} */
+    public double getElevationTan(double y){
+        return interpolate(elevationTan, y);
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
+    public double getFocalLengthX(){
+        return fx;
+    }
+
+    public double getFocalLengthY(){
+        return fy;
+    }
+
+    public double getPrincipalX(){
+        return cx;
+    }
+
+    public double getPrincipalY(){
+        return cy;
+    }
+
+    /**
+     * @param out filled with (k1, k2, p1, p2, k3)
+     */
+    public void getDistortion(double[] out){
+        out[0] = k1;
+        out[1] = k2;
+        out[2] = p1;
+        out[3] = p2;
+        out[4] = k3;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("CameraModel{%dx%d, f=(%.1f, %.1f), c=(%.1f, %.1f), k=(%.4f, %.4f, %.4f), p=(%.4f, %.4f)}",
+                width, height, fx, fy, cx, cy, k1, k2, k3, p1, p2);
+    }
+
+}
@@ -0,0 +1,200 @@
+package com.mvrt.bullseye;
+
+import java.util.Arrays;
+
+/**
+ * Decides which contours (or blobs) could be target strips, cheapest checks first, and keeps the
+ * ones that pass.
+ *
+ * Tiers, each only run on what survived the one before:
+ * <ol>
+ *     <li>point count: too few points to outline a strip</li>
+ *     <li>bounding box: the axis-aligned box is smaller than the minimum area (the rotated
+ *     rect can only be smaller), or the outline itself encloses more than the maximum area</li>
+ *     <li>rotated rect: the minimum-area rect is fitted, then its area, aspect ratio and solidity
+ *     (outline area / rect area) are checked</li>
+ * </ol>
+ * Survivors are kept, in the order they came in, for {@link TargetPairMatcher} to pair up.
+ * Rejections are counted per tier.
+ */
+public class CandidateFilter {
+
+    public enum Rejection { POINT_COUNT, BOUNDING_BOX, OUTLINE_AREA, RECT_AREA, ASPECT, SOLIDITY }
+
+    private int minPoints = 4;
+    private double minArea = 0, maxArea = Double.MAX_VALUE;
+    private double aspectRatio = 2.0/5.0, aspectThreshold = 0.25;
+    private double minSolidity = 0.75;
+
+    private final ContourScorer scorer = new ContourScorer();
+    private final TargetRect candidate = new TargetRect();
+    private TargetRect[] candidates = new TargetRect[0];
+    private int acceptedThisFrame;
+
+    //region Counters
+    private final long[] rejected = new long[Rejection.values().length];
+    private long examined = 0;
+    private long accepted = 0;
+    //endregion
+
+    public void setMinPoints(int minPoints){
+        this.minPoints = minPoints;
+    }
+
+    /**
+     * @param minArea smallest rotated rect area, in pixels
+     * @param maxArea largest rotated rect area, in pixels
+     */
+    public void setAreaLimits(double minArea, double maxArea){
+        this.minArea = minArea;
+        this.maxArea = maxArea;
+    }
+
+    /**
+     * @param aspectRatio expected short side / long side
+     * @param aspectThreshold how far (absolute) the measured ratio may be from it
+     */
+    public void setAspect(double aspectRatio, double aspectThreshold){
+        this.aspectRatio = aspectRatio;
+        this.aspectThreshold = aspectThreshold;
+    }
+
+    public void setMinSolidity(double minSolidity){
+        this.minSolidity = minSolidity;
+    }
+
+    /**
+     * Forgets the candidates of the last frame (the counters keep counting)
+     */
+    public void reset(){
+        acceptedThisFrame = 0;
+    }
+
+    /**
+     * @return a buffer that can hold {@code pointCount} interleaved x, y points
+     */
+    public int[] pointBuffer(int pointCount){
+        return scorer.pointBuffer(pointCount);
+    }
+
+    /**
+     * The first tier on its own, so callers can skip fetching the points of a contour that's
+     * going to be rejected anyway. Counts the rejection.
+     * @return true if a contour with this many points can't be a candidate
+     */
+    public boolean skipContour(int pointCount){
+        if(pointCount >= minPoints) return false;
+        examined++;
+        reject(Rejection.POINT_COUNT);
+        return true;
+    }
+
+    /**
+     * Runs a contour (interleaved x, y points, in order along the outline) through the tiers
+     * @return true if it was accepted as a candidate
+     */
+    public boolean addContour(int[] xy, int pointCount){
+        examined++;
+        if(pointCount < minPoints) return reject(Rejection.POINT_COUNT);
+
+        int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+        long twiceArea = 0;
+        for(int i = 0, j = pointCount - 1; i < pointCount; j = i++){
+            int x = xy[2 * i], y = xy[2 * i + 1];
+            if(x < minX) minX = x;
+            if(x > maxX) maxX = x;
+            if(y < minY) minY = y;
+            if(y > maxY) maxY = y;
+            twiceArea += (long)xy[2 * j] * y - (long)x * xy[2 * j + 1];
+        }
+        if((double)(maxX - minX) * (maxY - minY) < minArea) return reject(Rejection.BOUNDING_BOX);
+        double outlineArea = Math.abs(twiceArea) / 2.0;
+        if(outlineArea > maxArea) return reject(Rejection.OUTLINE_AREA);
+
+        scorer.minAreaRect(xy, pointCount, candidate);
+        return scoreCandidate(outlineArea);
+    }
+
+    /**
+     * Runs a labeled blob through the same tiers; the pixel count stands in for the outline area
+     * @return true if it was accepted as a candidate
+     */
+    public boolean addBlob(BlobLabeler labeler, int blob){
+        examined++;
+        double boxWidth = labeler.getMaxX(blob) - labeler.getMinX(blob) + 1;
+        double boxHeight = labeler.getMaxY(blob) - labeler.getMinY(blob) + 1;
+        if(boxWidth * boxHeight < minArea) return reject(Rejection.BOUNDING_BOX);
+        int pixels = labeler.getArea(blob);
+        if(pixels > maxArea) return reject(Rejection.OUTLINE_AREA);
+
+        labeler.toTargetRect(blob, candidate);
+        return scoreCandidate(pixels);
+    }
+
+    private boolean scoreCandidate(double outlineArea){
+        double area = candidate.area();
+        if(area < minArea || area > maxArea) return reject(Rejection.RECT_AREA);
+
+        double aspectError = Math.abs(candidate.width / candidate.length - aspectRatio);
+        if(candidate.length == 0 || aspectError > aspectThreshold) return reject(Rejection.ASPECT);
+
+        double solidity = Math.min(1, outlineArea / area);
+        if(solidity < minSolidity) return reject(Rejection.SOLIDITY);
+
+        if(acceptedThisFrame == candidates.length){
+            int size = Math.max(8, 2 * candidates.length);
+            candidates = Arrays.copyOf(candidates, size);
+            for(int i = acceptedThisFrame; i < size; i++) candidates[i] = new TargetRect();
+        }
+        candidates[acceptedThisFrame].set(candidate);
+        acceptedThisFrame++;
+        accepted++;
+        return true;
+    }
+
+    private boolean reject(Rejection rejection){
+        rejected[rejection.ordinal()]++;
+        return false;
+    }
+
+    /**
+     * @return the number of candidates accepted since {@link #reset()}
+     */
+    public int getCandidateCount(){
+        return acceptedThisFrame;
+    }
+
+    /**
+     * The candidates accepted since {@link #reset()}, valid up to {@link #getCandidateCount()}
+     */
+    public TargetRect[] getCandidates(){
+        return candidates;
+    }
+
+    public long getRejected(Rejection rejection){
+        return rejected[rejection.ordinal()];
+    }
+
+    public long getExamined(){
+        return examined;
+    }
+
+    public long getAccepted(){
+        return accepted;
+    }
+
+    public void resetCounters(){
+        for(int i = 0; i < rejected.length; i++) rejected[i] = 0;
+        examined = accepted = 0;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder builder = new StringBuilder("Candidates examined: ").append(examined).append(", accepted: ").append(accepted);
+        for(Rejection rejection : Rejection.values()){
+            builder.append(", ").append(rejection).append(": ").append(rejected[rejection.ordinal()]);
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,272 @@
+package com.mvrt.bullseye;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * The outbound side of one {@link OutputSocketServer} client, with three lanes:
+ * <ul>
+ *     <li>results: conflated, only the newest unsent result is kept and an older one it replaces
+ *     is counted as dropped</li>
+ *     <li>text (control/log messages): lossless and in order, up to {@link #getTextCapacity()}
+ *     messages; a client that falls that far behind has to be disconnected</li>
+ *     <li>masks ({@link MaskRleCodec}): at most one waiting, and never one whose base the client
+ *     won't have; after a gap only a keyframe is taken</li>
+ * </ul>
+ * Nothing is handed to the socket while it still has data buffered from the last flush, so the
+ * socket library's own (unbounded) queue never holds more than one batch.
+ *
+ * The channel also keeps the client's {@link Topic} subscriptions and their rate limits.
+ */
+public class ClientChannel {
+
+    /**
+     * The socket underneath, so the channel can be tested without a server
+     */
+    interface Connection{
+        /** @return true while earlier sends haven't been written out yet */
+        boolean hasBufferedData();
+        void send(byte[] message);
+        void send(ByteBuffer message);
+        void send(String message);
+    }
+
+    private final String name;
+    private final Connection connection;
+    private final int textCapacity;
+
+    private final byte[] result;
+    private boolean resultPending = false;
+    private final ArrayDeque<String> texts;
+    private final ClockSync clockSync = new ClockSync();
+
+    private byte[] mask = new byte[0];
+    private int maskLength;
+    private boolean maskPending = false;
+    private boolean maskNeedsKeyframe = true;
+
+    private final boolean[] subscribed = new boolean[Topic.values().length];
+    private final double[] maxRates = new double[Topic.values().length];
+    private final long[] lastAdmitted = new long[Topic.values().length];
+    private final boolean[] admittedAny = new boolean[Topic.values().length];
+
+    //region Counters
+    private long resultsSent, resultsDropped;
+    private long textsSent;
+    private long masksSent, masksDropped;
+    private long bytesSent;
+    private final long[] rateLimited = new long[Topic.values().length];
+    //endregion
+
+    ClientChannel(String name, Connection connection, int resultSize, int textCapacity){
+        this.name = name;
+        this.connection = connection;
+        this.textCapacity = textCapacity;
+        result = new byte[resultSize];
+        texts = new ArrayDeque<>(textCapacity);
+        subscribe(Topic.RESULTS, 0);
+    }
+
+    //region Subscriptions
+    /**
+     * @param maxRate messages per second the client wants at most; 0 (or more than the topic
+     *                allows) for the topic's own limit
+     * @return the rate the client will actually get at most, 0 for no limit
+     */
+    public synchronized double subscribe(Topic topic, double maxRate){
+        double rate = topic.maxRate;
+        if(maxRate > 0 && (rate == 0 || maxRate < rate)) rate = maxRate;
+        subscribed[topic.ordinal()] = true;
+        maxRates[topic.ordinal()] = rate;
+        if(topic == Topic.DEBUG_MASK) maskNeedsKeyframe = true;
+        return rate;
+    }
+
+    public synchronized void unsubscribe(Topic topic){
+        subscribed[topic.ordinal()] = false;
+    }
+
+    public synchronized boolean isSubscribed(Topic topic){
+        return subscribed[topic.ordinal()];
+    }
+
+    /** @return messages per second the client gets at most, 0 for no limit */
+    public synchronized double getMaxRate(Topic topic){
+        return maxRates[topic.ordinal()];
+    }
+
+    /**
+     * @return true if the client is subscribed and its rate limit allows a message now
+     */
+    public synchronized boolean isDue(Topic topic, long nowNanos){
+        int t = topic.ordinal();
+        if(!subscribed[t]) return false;
+        return maxRates[t] == 0 || !admittedAny[t] || nowNanos - lastAdmitted[t] >= (long)(1e9 / maxRates[t]);
+    }
+
+    /**
+     * Like {@link #isDue}, but also counts the message against the rate limit if it's allowed, or
+     * as rate limited if it isn't
+     */
+    public synchronized boolean admit(Topic topic, long nowNanos){
+        int t = topic.ordinal();
+        if(!subscribed[t]) return false;
+        if(!isDue(topic, nowNanos)){
+            rateLimited[t]++;
+            return false;
+        }
+        admittedAny[t] = true;
+        lastAdmitted[t] = nowNanos;
+        return true;
+    }
+    //endregion
+
+    /**
+     * Replaces the pending result with this one (copied)
+     */
+    public synchronized void offerResult(byte[] message){
+        if(resultPending) resultsDropped++;
+        System.arraycopy(message, 0, result, 0, result.length);
+        resultPending = true;
+    }
+
+    /**
+     * Queues a text message behind the ones not sent yet
+     * @return false if the text lane is full; the message is not queued and the client should be
+     * disconnected
+     */
+    public synchronized boolean offerText(String message){
+        if(texts.size() >= textCapacity) return false;
+        texts.add(message);
+        return true;
+    }
+
+    /**
+     * Queues an encoded mask (copied) unless the client couldn't decode it: a delta is refused
+     * while another mask is waiting or after one was missed, until a keyframe comes
+     * @param keyframe false if the mask is a delta from the previous one
+     * @return false if the mask was refused; the producer should send a keyframe next
+     */
+    public synchronized boolean offerMask(byte[] message, int length, boolean keyframe){
+        if(!keyframe && (maskNeedsKeyframe || maskPending)){
+            masksDropped++;
+            maskNeedsKeyframe = true;
+            return false;
+        }
+        if(maskPending) masksDropped++;
+        if(mask.length < length) mask = new byte[length];
+        System.arraycopy(message, 0, mask, 0, length);
+        maskLength = length;
+        maskPending = true;
+        maskNeedsKeyframe = false;
+        return true;
+    }
+
+    /**
+     * Records a mask this client didn't get (e.g. for its rate limit), so it waits for a keyframe
+     */
+    public synchronized void skipMask(){
+        maskNeedsKeyframe = true;
+    }
+
+    /**
+     * Hands everything pending to the socket, text first and masks last, unless the socket is
+     * still busy with the last batch
+     * @return false if the socket was busy and nothing was sent
+     */
+    public synchronized boolean flush(){
+        if(!resultPending && texts.isEmpty() && !maskPending) return true;
+        if(connection.hasBufferedData()) return false;
+
+        String text;
+        while((text = texts.poll()) != null){
+            connection.send(text);
+            textsSent++;
+            bytesSent += utf8Length(text);
+        }
+        if(resultPending){
+            connection.send(result);
+            resultPending = false;
+            resultsSent++;
+            bytesSent += result.length;
+        }
+        if(maskPending){
+            connection.send(ByteBuffer.wrap(mask, 0, maskLength));
+            maskPending = false;
+            masksSent++;
+            bytesSent += maskLength;
+        }
+        return true;
+    }
+
+    private static int utf8Length(String s){
+        int bytes = 0;
+        for(int i = 0; i < s.length(); i++){
+            char c = s.charAt(i);
+            if(c < 0x80) bytes++;
+            else if(c < 0x800) bytes += 2;
+            else if(Character.isHighSurrogate(c)){
+                bytes += 4;
+                i++;
+            }
+            else bytes += 3;
+        }
+        return bytes;
+    }
+
+    public String getName(){
+        return name;
+    }
+
+    /** @return the estimate of this client's clock */
+    public ClockSync getClockSync(){
+        return clockSync;
+    }
+
+    public int getTextCapacity(){
+        return textCapacity;
+    }
+
+    /** @return messages waiting in this channel (not yet handed to the socket) */
+    public synchronized int getQueueDepth(){
+        return texts.size() + (resultPending ? 1 : 0) + (maskPending ? 1 : 0);
+    }
+
+    public synchronized long getResultsSent(){
+        return resultsSent;
+    }
+
+    /** @return results replaced by a newer one before the client was ready for them */
+    public synchronized long getResultsDropped(){
+        return resultsDropped;
+    }
+
+    public synchronized long getTextsSent(){
+        return textsSent;
+    }
+
+    public synchronized long getMasksSent(){
+        return masksSent;
+    }
+
+    /** @return masks replaced before they were sent or refused for a missing base */
+    public synchronized long getMasksDropped(){
+        return masksDropped;
+    }
+
+    /** @return messages of a subscribed topic skipped for the client's rate limit */
+    public synchronized long getRateLimited(Topic topic){
+        return rateLimited[topic.ordinal()];
+    }
+
+    public synchronized long getBytesSent(){
+        return bytesSent;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return String.format("%s: depth %d, %d results sent, %d dropped, %d texts sent, %d masks sent, %d dropped, %d bytes, clock %s",
+                name, getQueueDepth(), resultsSent, resultsDropped, textsSent, masksSent, masksDropped, bytesSent, clockSync);
+    }
+
+}
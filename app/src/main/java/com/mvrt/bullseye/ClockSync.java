@@ -0,0 +1,133 @@
+package com.mvrt.bullseye;
+
+/**
+ * Estimates one client's clock offset and round-trip time from NTP-style ping/pong exchanges,
+ * so timestamps can be sent to the client in its own clock.
+ *
+ * The server sends "ping t0" with its send time; the client answers "pong t0 t1 t2" with the time
+ * it received the ping and the time it replied, in its clock; the server notes the time t3 the
+ * pong arrived. Then
+ * <pre>
+ *     offset     = ((t1 - t0) + (t2 - t3)) / 2     (client clock - server clock)
+ *     round trip = (t3 - t0) - (t2 - t1)
+ * </pre>
+ * The offset is exact when both directions take equally long, and off by at most half the round
+ * trip otherwise, so of the last {@link #WINDOW} samples the one with the shortest round trip is
+ * used. All times are in ms.
+ */
+public class ClockSync {
+
+    public static final String PING = "ping";
+    public static final String PONG = "pong";
+
+    /** samples the estimate is picked from */
+    public static final int WINDOW = 8;
+    /** time between pings after the first {@link #WINDOW} */
+    public static final long PING_INTERVAL_MILLIS = 2000;
+    /** time between the first {@link #WINDOW} pings, to fill the window quickly */
+    public static final long FAST_PING_INTERVAL_MILLIS = 200;
+
+    private final long[] offsets = new long[WINDOW];
+    private final long[] roundTrips = new long[WINDOW];
+    private int count = 0, next = 0;
+
+    private long offset = 0;
+    private long roundTrip = -1;
+    private long lastPing = 0;
+    private long pings = 0;
+
+    //region Counters
+    private long pongs, rejected;
+    //endregion
+
+    /**
+     * @return the ping to send now, or null if it isn't time for one yet
+     */
+    public synchronized String nextPing(long now){
+        long interval = pings < WINDOW ? FAST_PING_INTERVAL_MILLIS : PING_INTERVAL_MILLIS;
+        if(pings > 0 && now - lastPing < interval) return null;
+        pings++;
+        lastPing = now;
+        return PING + " " + now;
+    }
+
+    /**
+     * Parses a pong message and adds its sample
+     * @param receivedAt when the message arrived, server clock
+     * @return false if the message isn't a valid pong
+     */
+    public boolean onPong(String message, long receivedAt){
+        String[] parts = message.trim().split("\\s+");
+        if(parts.length != 4 || !parts[0].equals(PONG)) return false;
+        try {
+            return addSample(Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]), receivedAt);
+        } catch (NumberFormatException e) {
+            synchronized (this){
+                rejected++;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Adds one exchange: t0 and t3 in the server's clock, t1 and t2 in the client's
+     * @return false if the times are inconsistent (e.g. a pong for a ping never sent)
+     */
+    public synchronized boolean addSample(long t0, long t1, long t2, long t3){
+        long sampleRoundTrip = (t3 - t0) - (t2 - t1);
+        if(t0 > t3 || t1 > t2 || sampleRoundTrip < 0 || pings == 0 || t0 > lastPing){
+            rejected++;
+            return false;
+        }
+        offsets[next] = ((t1 - t0) + (t2 - t3)) / 2;
+        roundTrips[next] = sampleRoundTrip;
+        next = (next + 1) % WINDOW;
+        if(count < WINDOW) count++;
+        pongs++;
+
+        int best = 0;
+        for(int i = 1; i < count; i++){
+            if(roundTrips[i] < roundTrips[best]) best = i;
+        }
+        offset = offsets[best];
+        roundTrip = roundTrips[best];
+        return true;
+    }
+
+    /** @return true once at least one exchange has completed */
+    public synchronized boolean isSynchronized(){
+        return count > 0;
+    }
+
+    /** @return client clock - server clock, ms; 0 until synchronized */
+    public synchronized long getOffset(){
+        return offset;
+    }
+
+    /** @return the round trip of the sample the offset comes from, ms; -1 until synchronized */
+    public synchronized long getRoundTrip(){
+        return roundTrip;
+    }
+
+    /** @return a server time in the client's clock */
+    public synchronized long toClientTime(long serverMillis){
+        return serverMillis + offset;
+    }
+
+    public synchronized long getPongs(){
+        return pongs;
+    }
+
+    /** @return pongs that couldn't be parsed or had inconsistent times */
+    public synchronized long getRejected(){
+        return rejected;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return isSynchronized()
+                ? String.format("offset %+d ms, rtt %d ms (%d pongs, %d rejected)", offset, roundTrip, pongs, rejected)
+                : String.format("not synchronized (%d rejected)", rejected);
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.mvrt.bullseye;
+
+import com.mvrt.bullseye.util.ColorConversions;
+
+import java.util.Arrays;
+
+/**
+ * A quantised YUV -> {0, 255} lookup table for the HSV threshold.
+ *
+ * Each cell of the table is classified once (by running its center value through the same
+ * NV12 -> RGB -> HSV math OpenCV uses), so per frame the whole mask comes out of a single pass
+ * over the raw NV12 buffer with one table read per pixel. The table is only rebuilt when
+ * the thresholds actually change.
+ */
+public class ColorClassifierLUT {
+
+    public static final int DEFAULT_BITS = 6;
+
+    private final int bits;
+    private final int shift;
+    private final byte[] table;
+
+    private final double[] low = new double[3];
+    private final double[] high = new double[3];
+    private boolean built = false;
+
+    public ColorClassifierLUT(){
+        this(DEFAULT_BITS);
+    }
+
+    /**
+     * @param bits bits kept per channel, 4..8 (the table has 2^(3*bits) entries)
+     */
+    public ColorClassifierLUT(int bits){
+        if(bits < 4 || bits > 8) throw new IllegalArgumentException("bits must be in [4, 8]: " + bits);
+        this.bits = bits;
+        shift = 8 - bits;
+        table = new byte[1 << (3 * bits)];
+    }
+
+    public int getBits(){
+        return bits;
+    }
+
+    /**
+     * Rebuilds the table if (and only if) the thresholds differ from the ones it was built with.
+     * @return true if the table was rebuilt
+     */
+    public boolean setThresholds(double[] lowHSV, double[] highHSV){
+        if(built && sameBounds(lowHSV, highHSV)) return false;
+
+        System.arraycopy(lowHSV, 0, low, 0, 3);
+        System.arraycopy(highHSV, 0, high, 0, 3);
+        rebuild();
+        built = true;
+        return true;
+    }
+
+    private boolean sameBounds(double[] lowHSV, double[] highHSV){
+        for(int i = 0; i < 3; i++){
+            if(lowHSV[i] != low[i] || highHSV[i] != high[i]) return false;
+        }
+        return true;
+    }
+
+    private void rebuild(){
+        Arrays.fill(table, (byte)0);
+
+        int[] rgb = new int[3];
+        int[] hsv = new int[3];
+        int levels = 1 << bits;
+        int half = (1 << shift) >> 1;
+
+        for(int y = 0; y < levels; y++){
+            for(int u = 0; u < levels; u++){
+                for(int v = 0; v < levels; v++){
+                    ColorConversions.yuvToHsv((y << shift) + half, (u << shift) + half, (v << shift) + half, rgb, hsv);
+                    if(ColorConversions.inRange(hsv, low, high))
+                        table[index(y, u, v)] = (byte)255;
+                }
+            }
+        }
+    }
+
+    private int index(int yq, int uq, int vq){
+        return (yq << (2 * bits)) | (uq << bits) | vq;
+    }
+
+    /**
+     * @return 0 or 255 for a single YUV sample
+     */
+    public int classify(int y, int u, int v){
+        return table[index(y >> shift, u >> shift, v >> shift)] & 0xFF;
+    }
+
+    /**
+     * Classifies a packed NV12 frame into a full-resolution mask (0 or 255 per pixel), in one pass.
+     * Chroma is looked up once per 2x2 block and shared by its four luma samples.
+     */
+    public void classify(byte[] nv12, int width, int height, byte[] mask){
+        classify(nv12, width, height, 0, 0, width, height, mask);
+    }
+
+    /**
+     * Classifies only the given region of a packed NV12 frame. The region must start on even
+     * coordinates and have even size; {@code mask} is regionWidth x regionHeight, row by row.
+     */
+    public void classify(byte[] nv12, int width, int height,
+                         int regionX, int regionY, int regionWidth, int regionHeight, byte[] mask){
+        int chromaStart = width * height;
+        int yShift = 2 * bits;
+
+        for(int row = 0; row < regionHeight; row += 2){
+            int top = (regionY + row) * width + regionX;
+            int bottom = top + width;
+            int uv = chromaStart + ((regionY + row) >> 1) * width + regionX;
+            int out = row * regionWidth;
+
+            for(int col = 0; col < regionWidth; col += 2){
+                int chroma = (((nv12[uv + col] & 0xFF) >> shift) << bits) | ((nv12[uv + col + 1] & 0xFF) >> shift);
+
+                mask[out + col] = table[(((nv12[top + col] & 0xFF) >> shift) << yShift) | chroma];
+                mask[out + col + 1] = table[(((nv12[top + col + 1] & 0xFF) >> shift) << yShift) | chroma];
+                mask[out + regionWidth + col] = table[(((nv12[bottom + col] & 0xFF) >> shift) << yShift) | chroma];
+                mask[out + regionWidth + col + 1] = table[(((nv12[bottom + col + 1] & 0xFF) >> shift) << yShift) | chroma];
+            }
+        }
+    }
+
+    /**
+     * Classifies every {@code step}-th pixel of every {@code step}-th row (step = 2 or 4) into a
+     * (width/step) x (height/step) mask, i.e. a decimated mask for coarse detection.
+     */
+    public void classifyDecimated(byte[] nv12, int width, int height, int step, byte[] mask){
+        int chromaStart = width * height;
+        int yShift = 2 * bits;
+        int outWidth = width / step;
+        int outHeight = height / step;
+
+        for(int row = 0; row < outHeight; row++){
+            int luma = row * step * width;
+            int uv = chromaStart + ((row * step) >> 1) * width;
+            int out = row * outWidth;
+
+            for(int col = 0; col < outWidth; col++){
+                int x = col * step;
+                int chroma = (((nv12[uv + x] & 0xFF) >> shift) << bits) | ((nv12[uv + x + 1] & 0xFF) >> shift);
+                mask[out + col] = table[(((nv12[luma + x] & 0xFF) >> shift) << yShift) | chroma];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.mvrt.bullseye;
+
+/**
+ * Fits a minimum-area rotated rectangle to a contour, without creating any objects once its
+ * buffers have grown to the largest contour seen.
+ *
+ * This replaces Imgproc.minAreaRect + RotatedRect on the detection path: points are read into a
+ * reused int buffer, the convex hull is built in place (monotone chain over a heap-sorted array of
+ * packed coordinates) and the rectangle is found by trying each hull edge as a side.
+ */
+public class ContourScorer {
+
+    private int[] points = new int[256];
+    private long[] sorted = new long[128];
+    private int[] hullX = new int[129];
+    private int[] hullY = new int[129];
+
+    /**
+     * @return a buffer that can hold {@code pointCount} interleaved x, y points
+     */
+    public int[] pointBuffer(int pointCount){
+        if(points.length < 2 * pointCount) points = new int[Math.max(2 * pointCount, 2 * points.length)];
+        return points;
+    }
+
+    /**
+     * Fits the minimum-area rectangle around the given points into {@code out}
+     */
+    public void minAreaRect(int[] xy, int pointCount, TargetRect out){
+        int hullSize = convexHull(xy, pointCount);
+
+        if(hullSize == 1){
+            setRect(out, 1, 0, hullX[0], hullX[0], hullY[0], hullY[0]);
+            return;
+        }
+
+        double bestArea = Double.MAX_VALUE;
+        double bestUx = 1, bestUy = 0;
+        double bestMinU = 0, bestMaxU = 0, bestMinV = 0, bestMaxV = 0;
+
+        for(int i = 0; i < hullSize; i++){
+            int j = i + 1 == hullSize ? 0 : i + 1;
+            double dx = hullX[j] - hullX[i];
+            double dy = hullY[j] - hullY[i];
+            double len = Math.sqrt(dx * dx + dy * dy);
+            if(len == 0) continue;
+            double ux = dx / len, uy = dy / len;
+
+            double minU = Double.MAX_VALUE, maxU = -Double.MAX_VALUE;
+            double minV = Double.MAX_VALUE, maxV = -Double.MAX_VALUE;
+            for(int k = 0; k < hullSize; k++){
+                double u = hullX[k] * ux + hullY[k] * uy;
+                double v = hullY[k] * ux - hullX[k] * uy;
+                if(u < minU) minU = u;
+                if(u > maxU) maxU = u;
+                if(v < minV) minV = v;
+                if(v > maxV) maxV = v;
+            }
+
+            double area = (maxU - minU) * (maxV - minV);
+            if(area < bestArea){
+                bestArea = area;
+                bestUx = ux;
+                bestUy = uy;
+                bestMinU = minU;
+                bestMaxU = maxU;
+                bestMinV = minV;
+                bestMaxV = maxV;
+            }
+        }
+
+        setRect(out, bestUx, bestUy, bestMinU, bestMaxU, bestMinV, bestMaxV);
+    }
+
+    /**
+     * Fills {@code out} from extents along u = (ux, uy) and v = (-uy, ux)
+     */
+    private static void setRect(TargetRect out, double ux, double uy, double minU, double maxU, double minV, double maxV){
+        double vx = -uy, vy = ux;
+        double sizeU = maxU - minU, sizeV = maxV - minV;
+        double midU = (minU + maxU) / 2, midV = (minV + maxV) / 2;
+
+        out.centerX = ux * midU + vx * midV;
+        out.centerY = uy * midU + vy * midV;
+
+        double longX = ux, longY = uy;
+        if(sizeU >= sizeV){
+            out.length = sizeU;
+            out.width = sizeV;
+        }else{
+            out.length = sizeV;
+            out.width = sizeU;
+            longX = vx;
+            longY = vy;
+        }
+        double angle = Math.toDegrees(Math.atan2(longY, longX));
+        if(angle >= 90) angle -= 180;
+        else if(angle < -90) angle += 180;
+        out.angle = angle;
+
+        out.cornerX[0] = ux * minU + vx * minV;
+        out.cornerY[0] = uy * minU + vy * minV;
+        out.cornerX[1] = ux * maxU + vx * minV;
+        out.cornerY[1] = uy * maxU + vy * minV;
+        out.cornerX[2] = ux * maxU + vx * maxV;
+        out.cornerY[2] = uy * maxU + vy * maxV;
+        out.cornerX[3] = ux * minU + vx * maxV;
+        out.cornerY[3] = uy * minU + vy * maxV;
+    }
+
+    /**
+     * Andrew's monotone chain into hullX/hullY, counter-clockwise without repeated points.
+     * Coordinates must be non-negative (they're pixels).
+     * @return the number of hull points
+     */
+    private int convexHull(int[] xy, int pointCount){
+        if(sorted.length < pointCount){
+            int capacity = Math.max(pointCount, 2 * sorted.length);
+            sorted = new long[capacity];
+            hullX = new int[capacity + 1];
+            hullY = new int[capacity + 1];
+        }
+
+        for(int i = 0; i < pointCount; i++){
+            sorted[i] = ((long)xy[2 * i] << 32) | (xy[2 * i + 1] & 0xFFFFFFFFL);
+        }
+        heapSort(sorted, pointCount);
+
+        //drop duplicates
+        int n = 0;
+        for(int i = 0; i < pointCount; i++){
+            if(n == 0 || sorted[i] != sorted[n - 1]) sorted[n++] = sorted[i];
+        }
+        if(n < 3){
+            for(int i = 0; i < n; i++){
+                hullX[i] = (int)(sorted[i] >>> 32);
+                hullY[i] = (int)sorted[i];
+            }
+            return n;
+        }
+
+        int k = 0;
+        for(int i = 0; i < n; i++){
+            int x = (int)(sorted[i] >>> 32), y = (int)sorted[i];
+            while(k >= 2 && cross(hullX[k - 2], hullY[k - 2], hullX[k - 1], hullY[k - 1], x, y) <= 0) k--;
+            hullX[k] = x;
+            hullY[k] = y;
+            k++;
+        }
+        for(int i = n - 2, lower = k + 1; i >= 0; i--){
+            int x = (int)(sorted[i] >>> 32), y = (int)sorted[i];
+            while(k >= lower && cross(hullX[k - 2], hullY[k - 2], hullX[k - 1], hullY[k - 1], x, y) <= 0) k--;
+            hullX[k] = x;
+            hullY[k] = y;
+            k++;
+        }
+        return k - 1; //the last point is the first one again
+    }
+
+    private static long cross(int ox, int oy, int ax, int ay, int bx, int by){
+        return (long)(ax - ox) * (by - oy) - (long)(ay - oy) * (bx - ox);
+    }
+
+    /** In-place heap sort; Arrays.sort may allocate a work array for larger inputs */
+    private static void heapSort(long[] a, int n){
+        for(int i = n / 2 - 1; i >= 0; i--) siftDown(a, i, n);
+        for(int end = n - 1; end > 0; end--){
+            long t = a[0];
+            a[0] = a[end];
+            a[end] = t;
+            siftDown(a, 0, end);
+        }
+    }
+
+    private static void siftDown(long[] a, int i, int n){
+        long value = a[i];
+        while(true){
+            int child = 2 * i + 1;
+            if(child >= n) break;
+            if(child + 1 < n && a[child + 1] > a[child]) child++;
+            if(a[child] <= value) break;
+            a[i] = a[child];
+            i = child;
+        }
+        a[i] = value;
+    }
+
+}
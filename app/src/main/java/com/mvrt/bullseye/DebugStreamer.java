@@ -0,0 +1,252 @@
+package com.mvrt.bullseye;
+
+import android.os.Process;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams a downscaled JPEG of the processed mask to remote viewers, so tuning doesn't mean
+ * holding the phone.
+ *
+ * This must never slow down results, so it's strictly best-effort: frames are offered from the
+ * render stage and only taken if a viewer is connected, the frame rate limit allows one, and the
+ * encoder thread (lowest priority) has finished the previous frame. Everything else is skipped,
+ * never queued. The only work on the offering thread is a resize into the staging Mat.
+ */
+public class DebugStreamer {
+
+    public interface Sink{
+        /** @return true if anyone is watching; nothing is encoded otherwise */
+        boolean hasReceivers();
+
+        /**
+         * Sends one JPEG to every receiver, from the encoder thread. The array is reused once
+         * this returns.
+         */
+        void send(byte[] jpeg, int length, long timestamp);
+    }
+
+    public static final double DEFAULT_MAX_FPS = 5;
+    public static final double DEFAULT_SCALE = 0.5;
+    public static final int DEFAULT_QUALITY = 60;
+
+    private final Sink sink;
+    private volatile long intervalNanos;
+    private volatile double scale = DEFAULT_SCALE;
+    private volatile int quality = DEFAULT_QUALITY;
+
+    //region Offering thread
+    private boolean offeredAny = false;
+    private long lastOffer;
+    private final Size noSize = new Size();
+    //endregion
+
+    //region Hand-off: the staged frame belongs to the offering thread unless pending is set
+    private final Object lock = new Object();
+    private Mat staged;
+    private long stagedTimestamp;
+    private boolean pending = false;
+    //endregion
+
+    private volatile Thread encoder;
+    /** how long {@link #stop()} waits for the encoder; a send blocked on a socket ignores interrupts */
+    private static final long JOIN_TIMEOUT_MILLIS = 1000;
+
+    //region Counters
+    private volatile long offered, throttled, busy, encoded;
+    private volatile long encodeNanos, bytesEncoded;
+    //endregion
+
+    public DebugStreamer(Sink sink){
+        this.sink = sink;
+        setMaxFps(DEFAULT_MAX_FPS);
+    }
+
+    public void setMaxFps(double fps){
+        intervalNanos = (long)(TimeUnit.SECONDS.toNanos(1) / fps);
+    }
+
+    public double getMaxFps(){
+        return TimeUnit.SECONDS.toNanos(1) / (double)intervalNanos;
+    }
+
+    /** @param scale size of the streamed image relative to the processed one, (0, 1] */
+    public void setScale(double scale){
+        if(scale <= 0 || scale > 1) throw new IllegalArgumentException("Scale must be in (0, 1]: " + scale);
+        this.scale = scale;
+    }
+
+    public double getScale(){
+        return scale;
+    }
+
+    /** @param quality JPEG quality, 0-100 */
+    public void setQuality(int quality){
+        this.quality = Math.max(0, Math.min(100, quality));
+    }
+
+    public int getQuality(){
+        return quality;
+    }
+
+    public synchronized void start(){
+        if(encoder != null) return;
+        encoder = new Thread(new Encoder(), "DebugStreamer-Encoder");
+        encoder.setPriority(Thread.MIN_PRIORITY);
+        encoder.start();
+    }
+
+    /**
+     * Stops the encoder thread, waiting for it at most {@link #JOIN_TIMEOUT_MILLIS}. Stop the sink
+     * first, so a send can't be holding the thread up.
+     */
+    public synchronized void stop(){
+        if(encoder == null) return;
+        encoder.interrupt();
+        try {
+            encoder.join(JOIN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        encoder = null;
+        synchronized (lock){
+            pending = false;
+        }
+    }
+
+    /**
+     * Offers a frame for streaming, from one thread only. Never waits for the encoder.
+     * @return true if the frame was taken; false if it was skipped
+     */
+    public boolean offer(Mat frame, long timestamp){
+        if(encoder == null || !sink.hasReceivers()) return false;
+
+        long now = System.nanoTime();
+        if(!isDue(now)){
+            throttled++;
+            return false;
+        }
+        synchronized (lock){
+            if(pending){
+                busy++;
+                return false;
+            }
+            if(staged == null) staged = new Mat();
+        }
+
+        double s = scale;
+        if(s < 1) Imgproc.resize(frame, staged, noSize, s, s, Imgproc.INTER_AREA);
+        else frame.copyTo(staged);
+        lastOffer = now;
+        offeredAny = true;
+        offered++;
+
+        synchronized (lock){
+            stagedTimestamp = timestamp;
+            pending = true;
+            lock.notify();
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the frame rate limit allows a frame at this time
+     */
+    boolean isDue(long nowNanos){
+        return !offeredAny || nowNanos - lastOffer >= intervalNanos;
+    }
+
+    private class Encoder implements Runnable{
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+            MatOfByte jpeg = new MatOfByte();
+            MatOfInt params = new MatOfInt();
+            int paramsQuality = -1;
+            byte[] buffer = new byte[0];
+
+            try {
+                while(!Thread.currentThread().isInterrupted()){
+                    long timestamp;
+                    synchronized (lock){
+                        while(!pending) lock.wait();
+                        timestamp = stagedTimestamp;
+                    }
+
+                    long start = System.nanoTime();
+                    int q = quality;
+                    if(q != paramsQuality){
+                        params.fromArray(Imgcodecs.IMWRITE_JPEG_QUALITY, q);
+                        paramsQuality = q;
+                    }
+                    boolean ok = Imgcodecs.imencode(".jpg", staged, jpeg, params);
+                    synchronized (lock){
+                        pending = false; //the next frame can be staged while this one is sent
+                    }
+                    if(!ok) continue;
+
+                    int length = (int)jpeg.total();
+                    if(buffer.length < length) buffer = new byte[length + length / 4];
+                    jpeg.get(0, 0, buffer);
+                    encodeNanos += System.nanoTime() - start;
+                    bytesEncoded += length;
+                    encoded++;
+
+                    try {
+                        sink.send(buffer, length, timestamp);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                jpeg.release();
+                params.release();
+            }
+        }
+    }
+
+    public long getOffered(){
+        return offered;
+    }
+
+    /** frames skipped for the frame rate limit */
+    public long getThrottled(){
+        return throttled;
+    }
+
+    /** frames skipped because the encoder was still on the previous one */
+    public long getBusy(){
+        return busy;
+    }
+
+    public long getEncoded(){
+        return encoded;
+    }
+
+    /** mean time to encode a frame, in ms */
+    public double getEncodeMillis(){
+        long n = encoded;
+        return n == 0 ? 0 : encodeNanos / 1e6 / n;
+    }
+
+    public double getMeanBytes(){
+        long n = encoded;
+        return n == 0 ? 0 : bytesEncoded / (double)n;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("DebugStreamer: %.1f fps max, scale %.2f, q%d: %d offered, %d throttled, %d busy, %d encoded, %.2f ms/frame, %.0f bytes/frame",
+                getMaxFps(), scale, quality, offered, throttled, busy, encoded, getEncodeMillis(), getMeanBytes());
+    }
+
+}
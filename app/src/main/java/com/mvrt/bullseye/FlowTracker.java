@@ -0,0 +1,323 @@
+package com.mvrt.bullseye;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.video.Video;
+
+/**
+ * Follows the 8 strip corners from frame to frame with pyramidal Lucas-Kanade optical flow on the
+ * Y plane, so full detection (threshold + contours) only has to run every Nth frame.
+ *
+ * The ingest stage asks {@link #needsDetection()} whether a frame gets full detection or only
+ * tracking, so a tracked frame skips the color conversion too; the contour stage then either hands
+ * a detection to {@link #onDetected} (which becomes the reference for tracking) or calls
+ * {@link #track}. Tracking is dropped, forcing detection on the next frame, when a corner is lost,
+ * its tracking error is too high or a strip changes size too much between frames.
+ *
+ * That choice is made a few frames ahead of the contour stage, so the reference can be lost after
+ * a frame was scheduled for tracking; the later stages check {@link #hasReference()} and give such
+ * a frame full detection instead.
+ *
+ * Only the part of the reference frame's Y plane around the corners is kept, {@link #MARGIN}
+ * pixels past them on every side (as far as LK can follow a corner), and the flow is computed on
+ * that crop alone.
+ *
+ * How often each path runs and what it costs is recorded with {@link #recordDetection} and
+ * {@link #recordFlow}.
+ */
+public class FlowTracker {
+
+    private static final int CORNERS = 8;
+    private static final int WINDOW_SIZE = 21;
+    private static final int PYRAMID_LEVELS = 3;
+    /** how far past the corners the reference crop reaches: half an LK window at the top level */
+    static final int MARGIN = (WINDOW_SIZE / 2 + 1) << PYRAMID_LEVELS;
+
+    private volatile boolean enabled = false;
+    private volatile int detectionInterval = 5;
+    private double maxError = 20;
+    private double maxSizeChange = 0.25;
+
+    private final Size windowSize = new Size(WINDOW_SIZE, WINDOW_SIZE);
+
+    //region Tracking state (contour stage); the Mats are allocated with the first reference
+    private Mat previousY;
+    private MatWindow previousCrop;
+    private MatOfPoint2f previousPoints, nextPoints;
+    private MatOfByte status;
+    private MatOfFloat error;
+    private final Rect crop = new Rect();
+    private final float[] cropPoints = new float[2 * CORNERS];
+    private final float[] points = new float[2 * CORNERS];
+    private final byte[] statusData = new byte[CORNERS];
+    private final float[] errorData = new float[CORNERS];
+    private final double[] xs = new double[4], ys = new double[4];
+    private final TargetRect tracked = new TargetRect();
+    //endregion
+
+    //region Scheduling (ingest stage)
+    private volatile boolean hasReference = false;
+    private int framesSinceDetection = 0;
+    //endregion
+
+    //region Counters
+    private volatile long detectionFrames, flowFrames, flowFailures;
+    private volatile long detectionNanos, flowNanos;
+    //endregion
+
+    public void setEnabled(boolean enabled){
+        this.enabled = enabled;
+        if(!enabled) hasReference = false;
+    }
+
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * @param interval run full detection at least every this many frames (1 = every frame)
+     */
+    public void setDetectionInterval(int interval){
+        detectionInterval = Math.max(1, interval);
+    }
+
+    public int getDetectionInterval(){
+        return detectionInterval;
+    }
+
+    /**
+     * @param maxError largest LK error for a corner to count as tracked
+     * @param maxSizeChange largest relative change of a strip's length or width between frames
+     */
+    public void setQualityLimits(double maxError, double maxSizeChange){
+        this.maxError = maxError;
+        this.maxSizeChange = maxSizeChange;
+    }
+
+    /**
+     * Decides, for the next frame, between full detection and tracking. Ingest stage only.
+     * @return true if the frame needs full detection; if false, the frame still needs it should
+     * {@link #hasReference()} be false by the time it's tracked
+     */
+    public boolean needsDetection(){
+        if(!enabled || !hasReference || framesSinceDetection + 1 >= detectionInterval){
+            framesSinceDetection = 0;
+            return true;
+        }
+        framesSinceDetection++;
+        return false;
+    }
+
+    /**
+     * @return true if there's a reference to track the next frame from; readable from any stage
+     */
+    public boolean hasReference(){
+        return hasReference;
+    }
+
+    /**
+     * Makes a detection the reference to track from. Contour stage only.
+     * @param y a window on the frame's Y plane
+     */
+    public void onDetected(MatWindow y, TargetRect strip1, TargetRect strip2){
+        if(!enabled) return;
+        setReference(strip1, strip2);
+        keep(y);
+    }
+
+    /**
+     * Takes the strips' corners as the points to track, without the image they're in
+     */
+    void setReference(TargetRect strip1, TargetRect strip2){
+        setPoints(strip1, 0);
+        setPoints(strip2, 4);
+        hasReference = true;
+    }
+
+    /**
+     * Drops the reference after detection missed the target. Contour stage only.
+     */
+    public void onMissed(){
+        hasReference = false;
+    }
+
+    private void setPoints(TargetRect strip, int offset){
+        for(int i = 0; i < 4; i++){
+            points[2 * (offset + i)] = (float)strip.cornerX[i];
+            points[2 * (offset + i) + 1] = (float)strip.cornerY[i];
+        }
+    }
+
+    /**
+     * Copies the crop around the current points out of the frame as the next reference, with the
+     * points in crop coordinates
+     */
+    private void keep(MatWindow y){
+        Mat frame = y.getParent();
+        if(previousY == null){
+            previousY = new Mat();
+            previousCrop = new MatWindow(previousY);
+            previousPoints = new MatOfPoint2f();
+            nextPoints = new MatOfPoint2f();
+            status = new MatOfByte();
+            error = new MatOfFloat();
+        }
+        previousY.create(frame.rows(), frame.cols(), CvType.CV_8UC1);
+        if(!cropAround(points, frame.cols(), frame.rows(), MARGIN, crop)){
+            hasReference = false;
+            return;
+        }
+        y.set(crop).copyTo(previousCrop.set(crop));
+
+        for(int i = 0; i < CORNERS; i++){
+            cropPoints[2 * i] = points[2 * i] - crop.x;
+            cropPoints[2 * i + 1] = points[2 * i + 1] - crop.y;
+        }
+        previousPoints.alloc(CORNERS);
+        previousPoints.put(0, 0, cropPoints);
+    }
+
+    /**
+     * Sets out to the bounding box of the points grown by margin on every side, clipped to the
+     * image
+     * @return false if nothing of it is inside the image
+     */
+    static boolean cropAround(float[] points, int width, int height, int margin, Rect out){
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for(int i = 0; i < points.length; i += 2){
+            minX = Math.min(minX, points[i]);
+            maxX = Math.max(maxX, points[i]);
+            minY = Math.min(minY, points[i + 1]);
+            maxY = Math.max(maxY, points[i + 1]);
+        }
+        int x0 = Math.max(0, (int)Math.floor(minX) - margin);
+        int y0 = Math.max(0, (int)Math.floor(minY) - margin);
+        int x1 = Math.min(width, (int)Math.ceil(maxX) + 1 + margin);
+        int y1 = Math.min(height, (int)Math.ceil(maxY) + 1 + margin);
+        out.x = x0;
+        out.y = y0;
+        out.width = x1 - x0;
+        out.height = y1 - y0;
+        return out.width > 0 && out.height > 0;
+    }
+
+    /**
+     * Tracks the corners from the reference frame into this one and rebuilds the strips from them.
+     * On success this frame becomes the reference. Contour stage only.
+     * @param y a window on the frame's Y plane
+     * @return false if tracking was lost (the next frame will get full detection)
+     */
+    public boolean track(MatWindow y, TargetRect strip1, TargetRect strip2){
+        if(!hasReference) return false;
+
+        //the same crop of this frame, so the points stay in crop coordinates
+        Video.calcOpticalFlowPyrLK(previousCrop.set(crop), y.set(crop), previousPoints, nextPoints, status, error, windowSize, PYRAMID_LEVELS);
+        status.get(0, 0, statusData);
+        error.get(0, 0, errorData);
+        nextPoints.get(0, 0, points);
+        for(int i = 0; i < CORNERS; i++){
+            points[2 * i] += crop.x;
+            points[2 * i + 1] += crop.y;
+        }
+        if(!accept(statusData, errorData, strip1, strip2)) return false;
+
+        keep(y);
+        return true;
+    }
+
+    /**
+     * Checks the tracked points (in {@link #points}, frame coordinates) and rebuilds the strips
+     * from them, or drops tracking
+     * @return false if tracking was lost
+     */
+    boolean accept(byte[] status, float[] errors, TargetRect strip1, TargetRect strip2){
+        for(int i = 0; i < CORNERS; i++){
+            if(status[i] == 0 || errors[i] > maxError) return lost();
+        }
+        if(!rebuild(strip1, 0) || !rebuild(strip2, 4)) return lost();
+        return true;
+    }
+
+    /** @return the tracked corners, x then y for each; strip 1's four and then strip 2's */
+    float[] getPoints(){
+        return points;
+    }
+
+    /** Rebuilds a strip from its tracked corners, if its size is still plausible */
+    private boolean rebuild(TargetRect strip, int offset){
+        for(int i = 0; i < 4; i++){
+            xs[i] = points[2 * (offset + i)];
+            ys[i] = points[2 * (offset + i) + 1];
+        }
+        tracked.setFromCorners(xs, ys);
+        if(Math.abs(tracked.length / strip.length - 1) > maxSizeChange) return false;
+        if(Math.abs(tracked.width / strip.width - 1) > maxSizeChange) return false;
+        strip.set(tracked);
+        return true;
+    }
+
+    private boolean lost(){
+        hasReference = false;
+        flowFailures++;
+        return false;
+    }
+
+    public void recordDetection(long nanos){
+        detectionFrames++;
+        detectionNanos += nanos;
+    }
+
+    public void recordFlow(long nanos){
+        flowFrames++;
+        flowNanos += nanos;
+    }
+
+    public long getDetectionFrames(){
+        return detectionFrames;
+    }
+
+    public long getFlowFrames(){
+        return flowFrames;
+    }
+
+    public long getFlowFailures(){
+        return flowFailures;
+    }
+
+    /** mean cost of a frame with full detection, in ms */
+    public double getDetectionMillis(){
+        return detectionFrames == 0 ? 0 : detectionNanos / 1e6 / detectionFrames;
+    }
+
+    /** mean cost of a frame that was only tracked, in ms */
+    public double getFlowMillis(){
+        return flowFrames == 0 ? 0 : flowNanos / 1e6 / flowFrames;
+    }
+
+    public void resetCounters(){
+        detectionFrames = flowFrames = flowFailures = 0;
+        detectionNanos = flowNanos = 0;
+    }
+
+    public void release(){
+        if(previousY == null) return;
+        previousCrop.release();
+        previousY.release();
+        previousPoints.release();
+        nextPoints.release();
+        status.release();
+        error.release();
+    }
+
+    @Override
+    public String toString(){
+        return String.format("Detection: %d frames, %.2f ms/frame; flow: %d frames, %.2f ms/frame, %d lost",
+                detectionFrames, getDetectionMillis(), flowFrames, getFlowMillis(), flowFailures);
+    }
+
+}
@@ -11,20 +11,44 @@ import android.support.design.widget.Snackbar;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.View;
 import android.view.WindowManager;
+import android.widget.Button;
+import android.widget.CompoundButton;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
+import android.widget.Switch;
+import android.widget.TextView;
+import android.widget.Toast;
 
 import com.mvrt.bullseye.util.Notifier;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+
 public class MainActivity extends AppCompatActivity  {
 
     private static final int REQUEST_PERMISSIONS_CAMERA = 1;
 
+    /**
+     * Where to also send results over UDP, e.g. the roboRIO ("10.1.15.2") or the broadcast
+     * address ("255.255.255.255"); null to only serve them over websockets
+     */
+    private static final String UDP_RESULT_HOST = null;
+    private static final int UDP_RESULT_PORT = 5800;
+
+    /** MJPEG debug stream of the processed mask; costs nothing while no one is watching */
+    private static final int DEBUG_STREAM_PORT = 5802;
+
     BullseyeCameraManager bullseyeCameraManager;
     OutputSocketServer socketServer;
+    UdpResultPublisher udpResultPublisher;
+    MjpegServer debugStreamServer;
+    DebugStreamer debugStreamer;
+    MaskStreamer maskStreamer;
 
     CameraPermissionsListener listener;
 
@@ -40,10 +64,17 @@ public class MainActivity extends AppCompatActivity  {
 
         socketServer = new OutputSocketServer(5801);
         socketServer.start();
+        //only encodes while a client is subscribed to the debug-mask topic
+        maskStreamer = new MaskStreamer(socketServer);
+        maskStreamer.start();
+        CVProcessor.getCvProcessor().setMaskStreamer(maskStreamer);
 
         bullseyeCameraManager = new BullseyeCameraManager(getApplicationContext(), cameraView, processingOutputView, socketServer);
         listener = bullseyeCameraManager;
 
+        if(UDP_RESULT_HOST != null) startUdpResults();
+        startDebugStream();
+
         bullseyeCameraManager.init();
 
         Notifier.v(getClass(), "On Create");
@@ -79,11 +110,49 @@ public class MainActivity extends AppCompatActivity  {
     @Override
     public void onDestroy(){
         super.onDestroy();
+        CVProcessor.getCvProcessor().setMaskStreamer(null);
+        maskStreamer.stop();
         socketServer.stop();
+        if(udpResultPublisher != null){
+            CVProcessor.getCvProcessor().setUdpResultPublisher(null);
+            udpResultPublisher.stop();
+        }
+        if(debugStreamer != null){
+            CVProcessor.getCvProcessor().setDebugStreamer(null);
+            //closing the viewers first unblocks any send the encoder is in
+            debugStreamServer.stop();
+            debugStreamer.stop();
+        }
         Notifier.v(getClass(), "On Destroy");
         bullseyeCameraManager.close();
     }
 
+    private void startUdpResults() {
+        //resolved on the sender's first packet, so a hostname doesn't block the UI thread here
+        udpResultPublisher = new UdpResultPublisher(InetSocketAddress.createUnresolved(UDP_RESULT_HOST, UDP_RESULT_PORT));
+        try {
+            udpResultPublisher.start();
+            CVProcessor.getCvProcessor().setUdpResultPublisher(udpResultPublisher);
+        } catch (SocketException e) {
+            Notifier.log(Log.ERROR, getClass(), "Couldn't open the UDP result socket: " + e.getMessage());
+            udpResultPublisher = null;
+        }
+    }
+
+    private void startDebugStream() {
+        debugStreamServer = new MjpegServer(DEBUG_STREAM_PORT);
+        try {
+            debugStreamServer.start();
+        } catch (IOException e) {
+            Notifier.log(Log.ERROR, getClass(), "Couldn't open the debug stream port: " + e.getMessage());
+            debugStreamServer = null;
+            return;
+        }
+        debugStreamer = new DebugStreamer(debugStreamServer);
+        debugStreamer.start();
+        CVProcessor.getCvProcessor().setDebugStreamer(debugStreamer);
+    }
+
     private void setUIFlags() {
         getWindow().getDecorView().setSystemUiVisibility(
                 View.SYSTEM_UI_FLAG_IMMERSIVE_STICKY | View.SYSTEM_UI_FLAG_HIDE_NAVIGATION | View.SYSTEM_UI_FLAG_FULLSCREEN);
@@ -146,6 +215,117 @@ public class MainActivity extends AppCompatActivity  {
         d.getWindow().clearFlags(WindowManager.LayoutParams.FLAG_NOT_FOCUSABLE);
         /* End magic */
 
+        setupCalibrationControls(dialogView);
+        setupProcessingControls(dialogView);
+    }
+
+    /**
+     * Threshold mode, coarse-to-fine level, ROI and optical-flow tracking from the settings
+     * drawer. Changes apply to the processor right away and are saved to {@link VisionPrefs}.
+     */
+    private void setupProcessingControls(View dialogView){
+        final CVProcessor processor = CVProcessor.getCvProcessor();
+        final VisionPrefs prefs = VisionPrefs.getTunedValues();
+
+        final Button thresholdMode = (Button) dialogView.findViewById(R.id.button_threshold_mode);
+        thresholdMode.setText(getString(R.string.threshold_mode, processor.getThresholdMode()));
+        thresholdMode.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                CVProcessor.ThresholdMode[] modes = CVProcessor.ThresholdMode.values();
+                CVProcessor.ThresholdMode mode = modes[(processor.getThresholdMode().ordinal() + 1) % modes.length];
+                processor.setThresholdMode(mode);
+                prefs.setThresholdMode(mode);
+                prefs.saveToSharedPrefs(MainActivity.this);
+                thresholdMode.setText(getString(R.string.threshold_mode, mode));
+            }
+        });
+
+        final Button pyramidLevel = (Button) dialogView.findViewById(R.id.button_pyramid_level);
+        pyramidLevel.setText(getString(R.string.pyramid_level, processor.getPyramidLevel()));
+        pyramidLevel.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int level = (processor.getPyramidLevel() + 1) % 3;
+                processor.setPyramidLevel(level);
+                prefs.setPyramidLevel(level);
+                prefs.saveToSharedPrefs(MainActivity.this);
+                pyramidLevel.setText(getString(R.string.pyramid_level, level));
+            }
+        });
+
+        Switch roiTracking = (Switch) dialogView.findViewById(R.id.switch_roi_tracking);
+        roiTracking.setChecked(processor.getRoiTracker().isEnabled());
+        roiTracking.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                processor.setRoiTracking(isChecked);
+                prefs.setRoiTracking(isChecked);
+                prefs.saveToSharedPrefs(MainActivity.this);
+            }
+        });
+
+        Switch flowTracking = (Switch) dialogView.findViewById(R.id.switch_flow_tracking);
+        flowTracking.setChecked(processor.getFlowTracker().isEnabled());
+        flowTracking.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                processor.setFlowTracking(isChecked);
+                prefs.setFlowTracking(isChecked);
+                prefs.saveToSharedPrefs(MainActivity.this);
+            }
+        });
+    }
+
+    /**
+     * Checkerboard calibration from the settings drawer: capture frames of the board from
+     * different angles, then calibrate from them (see {@link BullseyeCameraManager#calibrateCamera()})
+     */
+    private void setupCalibrationControls(View dialogView){
+        final TextView captures = (TextView) dialogView.findViewById(R.id.textview_calibration);
+        final Runnable showCaptures = new Runnable() {
+            @Override
+            public void run() {
+                captures.setText(getString(R.string.calibration_captures,
+                        bullseyeCameraManager.getCalibrationCaptureCount(), CameraCalibration.MIN_CAPTURES));
+            }
+        };
+        showCaptures.run();
+
+        dialogView.findViewById(R.id.button_calibration_capture).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                bullseyeCameraManager.captureCalibrationImage(new Runnable() {
+                    @Override
+                    public void run() {
+                        runOnUiThread(showCaptures);
+                    }
+                });
+            }
+        });
+        dialogView.findViewById(R.id.button_calibration_run).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                bullseyeCameraManager.calibrateCamera();
+                Notifier.toast(MainActivity.this, getString(R.string.calibration_started), Toast.LENGTH_SHORT);
+            }
+        });
+        dialogView.findViewById(R.id.button_calibration_clear).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                bullseyeCameraManager.clearCalibrationCaptures();
+                showCaptures.run();
+            }
+        });
+
+        Switch undistortion = (Switch) dialogView.findViewById(R.id.switch_point_undistortion);
+        undistortion.setChecked(CVProcessor.getCvProcessor().isPointUndistortion());
+        undistortion.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                CVProcessor.getCvProcessor().setPointUndistortion(isChecked);
+            }
+        });
     }
 
 
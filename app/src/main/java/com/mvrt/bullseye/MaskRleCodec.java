@@ -0,0 +1,341 @@
+package com.mvrt.bullseye;
+
+/**
+ * Lossless compression for binary masks (e.g. the thresholded {@code filterMat}) sent to remote
+ * tuning clients: a few hundred bytes to a few KB per frame instead of the hundreds of KB of the
+ * raw mask, and without JPEG's smearing of edges.
+ *
+ * A message is a header followed by run lengths:
+ * <pre>
+ *  offset  type     field
+ *   0      u16      magic, 'B' 'M'
+ *   2      u8       version
+ *   3      u8       flags (FLAG_*)
+ *   4      u32      sequence number of this mask
+ *   8      u32      sequence number of the mask a delta applies to (= sequence if not a delta)
+ *  12      u16      width
+ *  14      u16      height
+ *  16      varint*  run lengths
+ * </pre>
+ * Pixels are read row by row, top to bottom, as one sequence; runs continue across row ends. Runs
+ * alternate between off and on pixels, starting with off (so the first run may be 0), and add up
+ * to width * height. Run lengths are unsigned LEB128 varints: 7 bits per byte, low bits first,
+ * high bit set on all but the last byte.
+ *
+ * With {@link #FLAG_DELTA} the runs are of the XOR with the base mask, i.e. "off" means unchanged
+ * and "on" means flipped. That's much shorter while the scene holds still (e.g. tuning with the
+ * robot parked), but a moving edge flips a band on both of its sides, so the encoder only sends a
+ * delta when it has fewer runs than the mask itself. A decoder can only apply a delta to the base
+ * mask; a decoder that has missed it has to wait for the next keyframe. webViewer/scripts.js
+ * decodes the same format.
+ */
+public class MaskRleCodec {
+
+    public static final int MAGIC = ('B' << 8) | 'M';
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+
+    /** the runs are of the XOR with the mask {@code baseSequence} */
+    public static final int FLAG_DELTA = 1;
+
+    /** @return the most bytes a width x height mask can take, header included */
+    public static int maxEncodedSize(int width, int height){
+        //every run but a leading empty one covers at least one pixel per byte it takes
+        return HEADER_SIZE + 1 + width * height;
+    }
+
+    /**
+     * Encodes a sequence of masks, each as a delta from the previous one where that's shorter,
+     * with a keyframe at least every {@link #getKeyframeInterval()} masks and whenever one is
+     * requested.
+     */
+    public static class Encoder{
+
+        public static final int DEFAULT_KEYFRAME_INTERVAL = 30;
+
+        private final int width, height;
+        /** the last mask encoded, 0/1 per pixel */
+        private final byte[] previous;
+        private boolean hasPrevious = false;
+        private long previousSequence;
+        private int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+        private int sinceKeyframe = 0;
+        private volatile boolean keyframeRequested = false;
+
+        //region Counters
+        private long keyframes, deltas;
+        //endregion
+
+        public Encoder(int width, int height){
+            if(width <= 0 || width > 0xFFFF || height <= 0 || height > 0xFFFF)
+                throw new IllegalArgumentException("Bad mask size " + width + "x" + height);
+            this.width = width;
+            this.height = height;
+            previous = new byte[width * height];
+        }
+
+        /**
+         * @param interval masks from one keyframe to the next; 1 turns deltas off
+         */
+        public void setKeyframeInterval(int interval){
+            keyframeInterval = Math.max(1, interval);
+        }
+
+        public int getKeyframeInterval(){
+            return keyframeInterval;
+        }
+
+        public int getWidth(){
+            return width;
+        }
+
+        public int getHeight(){
+            return height;
+        }
+
+        /**
+         * Makes the next mask a keyframe, e.g. for a client that just connected. Can be called
+         * from any thread.
+         */
+        public void requestKeyframe(){
+            keyframeRequested = true;
+        }
+
+        /**
+         * @param mask width * height pixels, nonzero is on
+         * @param out at least {@link #maxEncodedSize} bytes
+         * @return the number of bytes written to out
+         */
+        public int encode(byte[] mask, long sequence, byte[] out){
+            if(mask.length < width * height) throw new IllegalArgumentException("Mask is smaller than " + width + "x" + height);
+
+            boolean delta = hasPrevious && !keyframeRequested && sinceKeyframe + 1 < keyframeInterval
+                    && deltaTransitions(mask) < maskTransitions(mask);
+            if(delta){
+                sinceKeyframe++;
+                deltas++;
+            }
+            else{
+                sinceKeyframe = 0;
+                keyframeRequested = false;
+                keyframes++;
+            }
+
+            int pos = writeHeader(out, delta ? FLAG_DELTA : 0, sequence, delta ? previousSequence : sequence);
+            int n = width * height;
+            int run = 0;
+            int state = 0; //of the run being counted
+            for(int i = 0; i < n; i++){
+                int on = mask[i] != 0 ? 1 : 0;
+                int bit = delta ? on ^ previous[i] : on;
+                previous[i] = (byte)on;
+                if(bit != state){
+                    pos = writeVarint(out, pos, run);
+                    run = 0;
+                    state = bit;
+                }
+                run++;
+            }
+            pos = writeVarint(out, pos, run);
+
+            hasPrevious = true;
+            previousSequence = sequence;
+            return pos;
+        }
+
+        private int maskTransitions(byte[] mask){
+            int n = width * height;
+            int transitions = 0;
+            int state = 0;
+            for(int i = 0; i < n; i++){
+                int on = mask[i] != 0 ? 1 : 0;
+                transitions += on ^ state;
+                state = on;
+            }
+            return transitions;
+        }
+
+        private int deltaTransitions(byte[] mask){
+            int n = width * height;
+            int transitions = 0;
+            int state = 0;
+            for(int i = 0; i < n; i++){
+                int bit = (mask[i] != 0 ? 1 : 0) ^ previous[i];
+                transitions += bit ^ state;
+                state = bit;
+            }
+            return transitions;
+        }
+
+        public long getKeyframes(){
+            return keyframes;
+        }
+
+        public long getDeltas(){
+            return deltas;
+        }
+
+        private int writeHeader(byte[] out, int flags, long sequence, long baseSequence){
+            out[0] = (byte)(MAGIC >> 8);
+            out[1] = (byte)MAGIC;
+            out[2] = (byte)VERSION;
+            out[3] = (byte)flags;
+            putInt(out, 4, (int)sequence);
+            putInt(out, 8, (int)baseSequence);
+            out[12] = (byte)(width >> 8);
+            out[13] = (byte)width;
+            out[14] = (byte)(height >> 8);
+            out[15] = (byte)height;
+            return HEADER_SIZE;
+        }
+    }
+
+    /**
+     * Decodes a sequence of masks from one {@link Encoder}
+     */
+    public static class Decoder{
+
+        private byte[] mask = new byte[0];
+        private int width, height;
+        private boolean hasMask = false;
+        private long sequence;
+        private final long[] varint = new long[1];
+
+        //region Counters
+        private long decoded, missingBase, invalid;
+        //endregion
+
+        /**
+         * Decodes a message into the current mask
+         * @return false if the message is malformed, of another version, or a delta from a mask
+         * this decoder doesn't have; the current mask is unchanged then
+         */
+        public boolean decode(byte[] in, int length){
+            if(length < HEADER_SIZE || (((in[0] & 0xFF) << 8) | (in[1] & 0xFF)) != MAGIC || (in[2] & 0xFF) != VERSION){
+                invalid++;
+                return false;
+            }
+            int flags = in[3] & 0xFF;
+            long seq = getInt(in, 4) & 0xFFFFFFFFL;
+            long base = getInt(in, 8) & 0xFFFFFFFFL;
+            int w = ((in[12] & 0xFF) << 8) | (in[13] & 0xFF);
+            int h = ((in[14] & 0xFF) << 8) | (in[15] & 0xFF);
+            boolean delta = (flags & FLAG_DELTA) != 0;
+            if(delta && (!hasMask || base != sequence || w != width || h != height)){
+                missingBase++;
+                return false;
+            }
+
+            //runs are checked before anything is written, so a bad message leaves the mask alone
+            int n = w * h;
+            if(!checkRuns(in, length, n)){
+                invalid++;
+                return false;
+            }
+            if(mask.length != n) mask = new byte[n];
+
+            int pos = HEADER_SIZE;
+            int i = 0;
+            int state = 0;
+            while(i < n){
+                pos = readVarint(in, pos, length, varint);
+                int end = i + (int)varint[0];
+                if(state == 1){
+                    if(delta) for(; i < end; i++) mask[i] ^= (byte)0xFF;
+                    else for(; i < end; i++) mask[i] = (byte)0xFF;
+                }
+                else if(!delta) for(; i < end; i++) mask[i] = 0;
+                i = end;
+                state ^= 1;
+            }
+
+            width = w;
+            height = h;
+            sequence = seq;
+            hasMask = true;
+            decoded++;
+            return true;
+        }
+
+        private boolean checkRuns(byte[] in, int length, long pixels){
+            int pos = HEADER_SIZE;
+            long total = 0;
+            while(total < pixels){
+                pos = readVarint(in, pos, length, varint);
+                if(pos < 0) return false;
+                total += varint[0];
+            }
+            return total == pixels && pos == length;
+        }
+
+        /** @return the last mask decoded, 0 or 255 per pixel, row by row; reused */
+        public byte[] getMask(){
+            return mask;
+        }
+
+        public int getWidth(){
+            return width;
+        }
+
+        public int getHeight(){
+            return height;
+        }
+
+        /** @return the sequence number of the current mask */
+        public long getSequence(){
+            return sequence;
+        }
+
+        public long getDecoded(){
+            return decoded;
+        }
+
+        /** @return deltas dropped for not having their base mask */
+        public long getMissingBase(){
+            return missingBase;
+        }
+
+        public long getInvalid(){
+            return invalid;
+        }
+    }
+
+    static int writeVarint(byte[] out, int pos, int value){
+        while((value & ~0x7F) != 0){
+            out[pos++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[pos++] = (byte)value;
+        return pos;
+    }
+
+    /**
+     * @param value receives the value
+     * @return the position after the varint, or -1 if it's cut off or longer than 5 bytes
+     */
+    static int readVarint(byte[] in, int pos, int length, long[] value){
+        long v = 0;
+        for(int shift = 0; shift < 35; shift += 7){
+            if(pos >= length) return -1;
+            int b = in[pos++] & 0xFF;
+            v |= (long)(b & 0x7F) << shift;
+            if((b & 0x80) == 0){
+                value[0] = v;
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private static void putInt(byte[] out, int pos, int value){
+        out[pos] = (byte)(value >> 24);
+        out[pos + 1] = (byte)(value >> 16);
+        out[pos + 2] = (byte)(value >> 8);
+        out[pos + 3] = (byte)value;
+    }
+
+    private static int getInt(byte[] in, int pos){
+        return ((in[pos] & 0xFF) << 24) | ((in[pos + 1] & 0xFF) << 16) | ((in[pos + 2] & 0xFF) << 8) | (in[pos + 3] & 0xFF);
+    }
+
+}
@@ -0,0 +1,222 @@
+package com.mvrt.bullseye;
+
+import android.os.Process;
+
+import org.opencv.core.Mat;
+
+/**
+ * Streams the processed mask, losslessly compressed with {@link MaskRleCodec}, to clients
+ * subscribed to {@link Topic#DEBUG_MASK}.
+ *
+ * Like {@link DebugStreamer} this is strictly best-effort: a mask is only taken if the sink wants
+ * one right now and the encoder thread (lowest priority) has finished the previous one. The only
+ * work on the offering thread is copying the mask out of its Mat; nothing is copied while no one
+ * is subscribed.
+ */
+public class MaskStreamer {
+
+    public interface Sink{
+        /** @return true if a subscriber's rate limit allows a mask now; nothing is encoded otherwise */
+        boolean wantsMask();
+
+        /**
+         * Sends one encoded mask to every subscriber that's due, from the encoder thread. The
+         * array is reused once this returns.
+         * @return false if a subscriber couldn't take it and the next mask should be a keyframe
+         */
+        boolean sendMask(byte[] message, int length);
+    }
+
+    private final Sink sink;
+    private volatile int keyframeInterval = MaskRleCodec.Encoder.DEFAULT_KEYFRAME_INTERVAL;
+
+    //region Hand-off: the staged mask belongs to the offering thread unless pending is set
+    private final Object lock = new Object();
+    private byte[] staged = new byte[0];
+    private int stagedWidth, stagedHeight;
+    private boolean pending = false;
+    //endregion
+
+    private volatile Thread encoder;
+
+    //region Counters
+    private volatile long offered, busy, encoded, keyframes;
+    private volatile long encodeNanos, bytesEncoded;
+    //endregion
+
+    public MaskStreamer(Sink sink){
+        this.sink = sink;
+    }
+
+    /**
+     * @param interval masks from one keyframe to the next; 1 turns deltas off. Applies from the
+     *                 next start or mask size change.
+     */
+    public void setKeyframeInterval(int interval){
+        keyframeInterval = Math.max(1, interval);
+    }
+
+    public int getKeyframeInterval(){
+        return keyframeInterval;
+    }
+
+    public synchronized void start(){
+        if(encoder != null) return;
+        encoder = new Thread(new Encoder(), "MaskStreamer-Encoder");
+        encoder.setPriority(Thread.MIN_PRIORITY);
+        encoder.start();
+    }
+
+    public synchronized void stop(){
+        if(encoder == null) return;
+        encoder.interrupt();
+        try {
+            encoder.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        encoder = null;
+        synchronized (lock){
+            pending = false;
+        }
+    }
+
+    /**
+     * Offers a mask (CV_8UC1, nonzero is on) for streaming, from one thread only. Never waits for
+     * the encoder.
+     * @return true if the mask was taken; false if it was skipped
+     */
+    public boolean offer(Mat mask){
+        if(encoder == null || !sink.wantsMask()) return false;
+
+        int width = mask.cols(), height = mask.rows();
+        byte[] buffer = reserve(width, height);
+        if(buffer == null) return false;
+        mask.get(0, 0, buffer);
+        hand(width, height);
+        return true;
+    }
+
+    /**
+     * {@link #offer(Mat)} for a mask already in an array (width * height, row by row)
+     */
+    boolean offer(byte[] mask, int width, int height){
+        if(encoder == null || !sink.wantsMask()) return false;
+
+        byte[] buffer = reserve(width, height);
+        if(buffer == null) return false;
+        System.arraycopy(mask, 0, buffer, 0, width * height);
+        hand(width, height);
+        return true;
+    }
+
+    /**
+     * @return the array to copy a mask into, or null if the encoder still has the last one
+     */
+    private byte[] reserve(int width, int height){
+        synchronized (lock){
+            if(pending){
+                busy++;
+                return null;
+            }
+            if(staged.length != width * height) staged = new byte[width * height];
+            return staged;
+        }
+    }
+
+    /**
+     * Hands the mask copied into the reserved array over to the encoder
+     */
+    private void hand(int width, int height){
+        offered++;
+        synchronized (lock){
+            stagedWidth = width;
+            stagedHeight = height;
+            pending = true;
+            lock.notify();
+        }
+    }
+
+    private class Encoder implements Runnable{
+        @Override
+        public void run() {
+            try {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+            } catch (RuntimeException e) {
+                //not on Android (unit tests against the stub android.jar): the Java priority from start() has to do
+            }
+            MaskRleCodec.Encoder codec = null;
+            byte[] out = new byte[0];
+            long sequence = 0;
+
+            try {
+                while(!Thread.currentThread().isInterrupted()){
+                    int width, height;
+                    synchronized (lock){
+                        while(!pending) lock.wait();
+                        width = stagedWidth;
+                        height = stagedHeight;
+                    }
+
+                    long start = System.nanoTime();
+                    if(codec == null || width != codec.getWidth() || height != codec.getHeight()){
+                        codec = new MaskRleCodec.Encoder(width, height);
+                        codec.setKeyframeInterval(keyframeInterval);
+                        out = new byte[MaskRleCodec.maxEncodedSize(width, height)];
+                    }
+                    int length = codec.encode(staged, sequence++, out);
+                    synchronized (lock){
+                        pending = false; //the next mask can be staged while this one is sent
+                    }
+                    encodeNanos += System.nanoTime() - start;
+                    bytesEncoded += length;
+                    encoded++;
+                    if((out[3] & MaskRleCodec.FLAG_DELTA) == 0) keyframes++;
+
+                    try {
+                        if(!sink.sendMask(out, length)) codec.requestKeyframe();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public long getOffered(){
+        return offered;
+    }
+
+    /** masks skipped because the encoder was still on the previous one */
+    public long getBusy(){
+        return busy;
+    }
+
+    public long getEncoded(){
+        return encoded;
+    }
+
+    public long getKeyframes(){
+        return keyframes;
+    }
+
+    /** mean time to encode a mask, in ms */
+    public double getEncodeMillis(){
+        long n = encoded;
+        return n == 0 ? 0 : encodeNanos / 1e6 / n;
+    }
+
+    public double getMeanBytes(){
+        long n = encoded;
+        return n == 0 ? 0 : bytesEncoded / (double)n;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("MaskStreamer: %d offered, %d busy, %d encoded (%d keyframes), %.2f ms/mask, %.0f bytes/mask",
+                offered, busy, encoded, keyframes, getEncodeMillis(), getMeanBytes());
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.mvrt.bullseye;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * A view of a rectangle of a parent Mat that can be moved to another rectangle, with one
+ * long-lived view per window instead of a {@link Mat#submat(Rect)} per window per frame.
+ *
+ * Moving isn't free: the Java binding of {@link Mat#adjustROI} moves the view in place but also
+ * returns a copy of its header, a new Java Mat and native header. That copy is released straight
+ * away so it doesn't hold a reference to the parent's data; its small header is only freed when
+ * the garbage collector finalizes it. A window that doesn't move costs nothing.
+ *
+ * If the parent's data is reallocated (e.g. by create, release or an OpenCV call writing into it
+ * at a different size), the next {@link #set} makes a new view. The view holds a reference to the
+ * parent's data, so {@link #release} it along with the parent.
+ */
+class MatWindow {
+
+    private final Mat parent;
+    private Mat view;
+    private long parentData;
+    private int parentRows, parentCols;
+    private int x, y, width, height;
+
+    MatWindow(Mat parent){
+        this.parent = parent;
+    }
+
+    Mat getParent(){
+        return parent;
+    }
+
+    /**
+     * Moves the view, which must lie inside the parent
+     * @return the view, only valid until the next call
+     */
+    Mat set(Rect r){
+        return set(r.x, r.y, r.width, r.height);
+    }
+
+    Mat set(int x, int y, int width, int height){
+        if(view == null || parent.dataAddr() != parentData || parent.rows() != parentRows || parent.cols() != parentCols){
+            if(view != null) view.release();
+            view = parent.submat(y, y + height, x, x + width);
+            parentData = parent.dataAddr();
+            parentRows = parent.rows();
+            parentCols = parent.cols();
+        }else if(x != this.x || y != this.y || width != this.width || height != this.height){
+            view.adjustROI(this.y - y, (y + height) - (this.y + this.height), this.x - x, (x + width) - (this.x + this.width)).release();
+        }
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        return view;
+    }
+
+    void release(){
+        if(view == null) return;
+        view.release();
+        view = null;
+    }
+
+}
@@ -0,0 +1,254 @@
+package com.mvrt.bullseye;
+
+import com.mvrt.bullseye.util.Notifier;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves {@link DebugStreamer}'s JPEGs as an MJPEG stream over plain HTTP
+ * (multipart/x-mixed-replace), which any browser shows in an img tag, e.g.
+ * {@code <img src="http://phone:5802/">}. Every request gets the stream, whatever its path.
+ *
+ * This is a separate port from {@link OutputSocketServer} so the debug images never share a
+ * socket (or its buffers) with results. Each viewer has its own writer thread holding at most one
+ * frame: the encoder only copies the frame over, and a viewer still writing the previous one
+ * skips it. A stalled viewer (socket writes have no timeout) only stalls its own writer, until
+ * {@link #stop()} closes its socket.
+ */
+public class MjpegServer implements DebugStreamer.Sink {
+
+    private static final String BOUNDARY = "bullseyeframe";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    /** how long a new connection gets to send its request */
+    private static final int REQUEST_TIMEOUT_MILLIS = 2000;
+
+    private final int port;
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    private final CopyOnWriteArrayList<Viewer> viewers = new CopyOnWriteArrayList<>();
+
+    //region Counters
+    private final AtomicLong framesSent = new AtomicLong();
+    private volatile long framesSkipped = 0; //encoder thread
+    private final AtomicLong viewersDropped = new AtomicLong();
+    //endregion
+
+    /** how long {@link #stop()} waits for each thread once its socket is closed */
+    private static final long JOIN_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * @param port the port to serve on, 0 for any free one
+     */
+    public MjpegServer(int port){
+        this.port = port;
+    }
+
+    public synchronized void start() throws IOException {
+        if(serverSocket != null) return;
+        serverSocket = new ServerSocket(port);
+        acceptThread = new Thread(new Acceptor(serverSocket), "MjpegServer-Accept");
+        acceptThread.setPriority(Thread.MIN_PRIORITY);
+        acceptThread.start();
+        Notifier.d(getClass(), "Serving debug stream on port " + serverSocket.getLocalPort());
+    }
+
+    /**
+     * Closes the server and every viewer's socket, which also unblocks writes stuck on a stalled
+     * viewer, then waits (bounded) for the threads to finish
+     */
+    public synchronized void stop(){
+        if(serverSocket == null) return;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for(Viewer viewer : viewers) viewer.close();
+        try {
+            acceptThread.join(JOIN_TIMEOUT_MILLIS);
+            for(Viewer viewer : viewers) viewer.thread.join(JOIN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        serverSocket = null;
+        acceptThread = null;
+        viewers.clear();
+    }
+
+    /** @return the port being served on, or -1 if stopped */
+    public synchronized int getPort(){
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    private class Acceptor implements Runnable{
+        private final ServerSocket server;
+
+        Acceptor(ServerSocket server){
+            this.server = server;
+        }
+
+        @Override
+        public void run() {
+            while(!server.isClosed()){
+                Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (IOException e) {
+                    return; //closed
+                }
+                try {
+                    socket.setTcpNoDelay(true);
+                    socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+                    skipRequest(socket.getInputStream());
+                    OutputStream out = socket.getOutputStream();
+                    out.write(("HTTP/1.0 200 OK\r\n" +
+                            "Content-Type: multipart/x-mixed-replace; boundary=" + BOUNDARY + "\r\n" +
+                            "Cache-Control: no-cache\r\n" +
+                            "Connection: close\r\n\r\n").getBytes(ASCII));
+                    out.flush();
+                    Viewer viewer = new Viewer(socket);
+                    viewers.add(viewer);
+                    viewer.thread.start();
+                    Notifier.d(MjpegServer.class, "Debug stream viewer connected: " + socket.getRemoteSocketAddress());
+                } catch (IOException e) {
+                    close(socket);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads up to the blank line ending the request headers; the request itself doesn't matter
+     */
+    private static void skipRequest(InputStream in) throws IOException {
+        int matched = 0; //of \r\n\r\n
+        while(matched < 4){
+            int b = in.read();
+            if(b < 0) throw new IOException("Connection closed during the request");
+            if(b == (matched % 2 == 0 ? '\r' : '\n')) matched++;
+            else matched = b == '\r' ? 1 : 0;
+        }
+    }
+
+    @Override
+    public boolean hasReceivers() {
+        return !viewers.isEmpty();
+    }
+
+    /**
+     * Hands the frame (copied) to every viewer's writer that's free; never waits for a socket
+     */
+    @Override
+    public void send(byte[] jpeg, int length, long timestamp) {
+        for(Viewer viewer : viewers){
+            if(!viewer.offer(jpeg, length, timestamp)) framesSkipped++;
+        }
+    }
+
+    /**
+     * One viewer's socket and writer thread, with a single-frame mailbox
+     */
+    private class Viewer implements Runnable{
+        final Socket socket;
+        final Thread thread;
+        private byte[] frame = new byte[0];
+        private int length;
+        private long timestamp;
+        private boolean pending = false;
+
+        Viewer(Socket socket){
+            this.socket = socket;
+            thread = new Thread(this, "MjpegServer-Viewer");
+            thread.setPriority(Thread.MIN_PRIORITY);
+        }
+
+        /** @return false if the writer is still busy with the previous frame */
+        synchronized boolean offer(byte[] jpeg, int length, long timestamp){
+            if(pending) return false;
+            if(frame.length < length) frame = new byte[length + length / 4];
+            System.arraycopy(jpeg, 0, frame, 0, length);
+            this.length = length;
+            this.timestamp = timestamp;
+            pending = true;
+            notify();
+            return true;
+        }
+
+        void close(){
+            MjpegServer.close(socket);
+            thread.interrupt();
+        }
+
+        @Override
+        public void run() {
+            try {
+                OutputStream out = socket.getOutputStream();
+                while(!socket.isClosed()){
+                    synchronized (this){
+                        while(!pending) wait();
+                    }
+                    //the encoder doesn't touch the frame until pending is cleared
+                    byte[] header = ("--" + BOUNDARY + "\r\n" +
+                            "Content-Type: image/jpeg\r\n" +
+                            "Content-Length: " + length + "\r\n" +
+                            "X-Timestamp: " + timestamp + "\r\n\r\n").getBytes(ASCII);
+                    out.write(header);
+                    out.write(frame, 0, length);
+                    synchronized (this){
+                        pending = false;
+                    }
+                    framesSent.incrementAndGet();
+                    out.write('\r');
+                    out.write('\n');
+                    out.flush();
+                }
+            } catch (IOException e) {
+                if(viewers.remove(this)) viewersDropped.incrementAndGet();
+                MjpegServer.close(socket);
+            } catch (InterruptedException e) {
+                //stopping
+            }
+        }
+    }
+
+    private static void close(Socket socket){
+        try {
+            socket.close();
+        } catch (IOException e) {
+            //already gone
+        }
+    }
+
+    public int getViewerCount(){
+        return viewers.size();
+    }
+
+    /** @return frames written out, counted once per viewer */
+    public long getFramesSent(){
+        return framesSent.get();
+    }
+
+    /** @return frames a viewer skipped because it was still writing the previous one */
+    public long getFramesSkipped(){
+        return framesSkipped;
+    }
+
+    /** viewers disconnected because a write failed (usually: they went away) */
+    public long getViewersDropped(){
+        return viewersDropped.get();
+    }
+
+    @Override
+    public String toString(){
+        return String.format("MjpegServer :%d: %d viewers, %d frames sent, %d skipped, %d dropped viewers",
+                getPort(), viewers.size(), framesSent.get(), framesSkipped, viewersDropped.get());
+    }
+
+}
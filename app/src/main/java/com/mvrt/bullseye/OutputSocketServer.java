@@ -1,27 +1,93 @@
 package com.mvrt.bullseye;
 
 import com.mvrt.bullseye.util.Notifier;
+import com.mvrt.bullseye.util.ResultPublisher;
 
 import org.java_websocket.WebSocket;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class OutputSocketServer extends WebSocketServer{
+/**
+ * Serves results and text messages to WebSocket clients. Each client gets a {@link ClientChannel}
+ * so a slow one only falls behind itself: its results are conflated to the newest and nothing
+ * more is handed to its socket until the last batch has gone out.
+ *
+ * Clients are also pinged for a {@link ClockSync} estimate of their clock; once a client has
+ * answered, the capture timestamps it's sent are in its own clock.
+ *
+ * What a client gets beyond results is up to its {@link Topic} subscriptions, each with its own
+ * rate limit. Producers of the other topics ask {@link #wants(Topic)} first, so metric snapshots
+ * and mask encoding cost nothing while no one is subscribed.
+ */
+public class OutputSocketServer extends WebSocketServer implements MaskStreamer.Sink, Notifier.LogListener {
 
-    private int connections = 0;
+    /** text messages a client may have waiting before it's disconnected as too slow */
+    public static final int TEXT_CAPACITY = 256;
+    /** close code for clients that fall too far behind (policy violation) */
+    private static final int CLOSE_TOO_SLOW = 1008;
+
+    public static final String SUBSCRIBE = "subscribe";
+    public static final String UNSUBSCRIBE = "unsubscribe";
+
+    private final Map<WebSocket, ClientChannel> channels = new ConcurrentHashMap<>();
+
+    private final ResultPublisher resultPublisher;
+    /** a result moved to one client's clock; sender thread only */
+    private final byte[] translated = new byte[ResultFrame.SIZE];
+    /** set while a log line is being forwarded, so logging from the forwarding isn't forwarded */
+    private final ThreadLocal<Boolean> forwardingLog = new ThreadLocal<>();
 
     public OutputSocketServer(int port) {
         super(new InetSocketAddress(port));
+        resultPublisher = new ResultPublisher("OutputSocketServer", ResultFrame.SIZE, new ResultPublisher.Sink() {
+            @Override
+            public void send(byte[] message) {
+                long now = System.currentTimeMillis();
+                long nowNanos = System.nanoTime();
+                for(Map.Entry<WebSocket, ClientChannel> entry : channels.entrySet()){
+                    ClientChannel channel = entry.getValue();
+                    ClockSync clock = channel.getClockSync();
+                    if(channel.admit(Topic.RESULTS, nowNanos)){
+                        if(clock.isSynchronized()){
+                            System.arraycopy(message, 0, translated, 0, translated.length);
+                            ResultFrame.toClientClock(translated, clock.getOffset());
+                            channel.offerResult(translated);
+                        }
+                        else channel.offerResult(message);
+                    }
+                    ping(entry.getKey(), channel, now);
+                    channel.flush();
+                }
+            }
+
+            @Override
+            public void idle() {
+                long now = System.currentTimeMillis();
+                for(Map.Entry<WebSocket, ClientChannel> entry : channels.entrySet()){
+                    ping(entry.getKey(), entry.getValue(), now);
+                    entry.getValue().flush();
+                }
+            }
+        });
     }
 
     public void start(){
         Notifier.d(getClass(), "Starting Output Socket Server");
+        resultPublisher.start();
+        Notifier.setLogListener(this);
         super.start();
     }
 
     public void stop(){
+        Notifier.setLogListener(null);
+        resultPublisher.stop();
         try {
             super.stop();
         } catch (Exception e) {
@@ -29,37 +95,223 @@ public class OutputSocketServer extends WebSocketServer{
         }
     }
 
-    public void sendToAll(byte[] bytes){
-        if(connections < 1) return; //quick check for connections (in an attempt to speed it up)
-        for(WebSocket conn:connections()){
-            conn.send(bytes);
+    /**
+     * Queues an encoded {@link ResultFrame} for every client without waiting for the sends; if the
+     * previous result hasn't gone out yet, only the newer one is sent
+     */
+    public void publishResult(byte[] message, long timestamp){
+        if(!hasSubscribers(Topic.RESULTS)) return;
+        resultPublisher.post(message, timestamp);
+    }
+
+    /**
+     * @return true if any client is subscribed to the topic
+     */
+    public boolean hasSubscribers(Topic topic){
+        for(ClientChannel channel : channels.values()){
+            if(channel.isSubscribed(topic)) return true;
         }
+        return false;
     }
 
+    /**
+     * @return true if any client is subscribed to the topic and its rate limit allows a message
+     * now, i.e. whether it's worth producing one
+     */
+    public boolean wants(Topic topic){
+        long now = System.nanoTime();
+        for(ClientChannel channel : channels.values()){
+            if(channel.isDue(topic, now)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sends a metrics snapshot ("metrics " + json) to every {@link Topic#METRICS} subscriber whose
+     * rate limit allows one
+     */
+    public void publishMetrics(String json){
+        publishText(Topic.METRICS, Topic.METRICS.wireName + " " + json);
+    }
+
+    /**
+     * Sends a log line ("logs " + line) to every {@link Topic#LOGS} subscriber whose rate limit
+     * allows one; lines over the limit are dropped
+     */
+    public void publishLog(String line){
+        if(forwardingLog.get() != null) return;
+        forwardingLog.set(Boolean.TRUE);
+        try {
+            publishText(Topic.LOGS, Topic.LOGS.wireName + " " + line);
+        } finally {
+            forwardingLog.remove();
+        }
+    }
+
+    @Override
+    public void onLog(int logType, String logText) {
+        if(!channels.isEmpty()) publishLog(logText);
+    }
+
+    private void publishText(Topic topic, String msg){
+        long now = System.nanoTime();
+        for(Map.Entry<WebSocket, ClientChannel> entry : channels.entrySet()){
+            if(entry.getValue().admit(topic, now)) send(entry.getKey(), entry.getValue(), msg);
+        }
+    }
+
+    @Override
+    public boolean wantsMask() {
+        return wants(Topic.DEBUG_MASK);
+    }
+
+    /**
+     * Sends an encoded {@link MaskRleCodec} mask to every {@link Topic#DEBUG_MASK} subscriber whose
+     * rate limit allows one. A delta only goes to clients that got its base.
+     * @return false if a subscriber needs a keyframe before it can take deltas again
+     */
+    @Override
+    public boolean sendMask(byte[] message, int length) {
+        boolean keyframe = (message[3] & MaskRleCodec.FLAG_DELTA) == 0;
+        boolean ok = true;
+        long now = System.nanoTime();
+        for(ClientChannel channel : channels.values()){
+            if(!channel.isSubscribed(Topic.DEBUG_MASK)) continue;
+            if(!channel.admit(Topic.DEBUG_MASK, now)){
+                channel.skipMask();
+                ok = false;
+            }
+            else if(channel.offerMask(message, length, keyframe)) channel.flush();
+            else ok = false;
+        }
+        return ok;
+    }
+
+    public ResultPublisher getResultPublisher(){
+        return resultPublisher;
+    }
+
+    /**
+     * Sends a text message to every client, losslessly and in order
+     */
     public void sendToAll(String msg){
-        if(connections < 1) return; //quick check for connections (in an attempt to speed it up)
-        for(WebSocket conn:connections()){
-            conn.send(msg);
+        if(channels.isEmpty()) return;
+        for(Map.Entry<WebSocket, ClientChannel> entry : channels.entrySet()){
+            send(entry.getKey(), entry.getValue(), msg);
+        }
+    }
+
+    /**
+     * Sends a text message to one client, losslessly and in order
+     */
+    public void sendTo(WebSocket conn, String msg){
+        ClientChannel channel = channels.get(conn);
+        if(channel != null) send(conn, channel, msg);
+    }
+
+    private void send(WebSocket conn, ClientChannel channel, String msg){
+        if(!channel.offerText(msg)){
+            Notifier.d(getClass(), "Disconnecting slow client: " + channel);
+            channels.remove(conn);
+            conn.close(CLOSE_TOO_SLOW);
+            return;
         }
+        channel.flush();
+    }
+
+    private void ping(WebSocket conn, ClientChannel channel, long now){
+        String ping = channel.getClockSync().nextPing(now);
+        if(ping != null) send(conn, channel, ping);
+    }
+
+    /**
+     * @return the connected clients' channels, with their queue depths and counters
+     */
+    public List<ClientChannel> getClientChannels(){
+        return new ArrayList<>(channels.values());
     }
 
     @Override
-    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+    public void onOpen(final WebSocket conn, ClientHandshake handshake) {
         Notifier.d(getClass(), "Websocket Connected: " + conn.getLocalSocketAddress().getHostString());
-        connections++;
+        ClientChannel.Connection connection = new ClientChannel.Connection() {
+            @Override
+            public boolean hasBufferedData() {
+                return conn.hasBufferedData();
+            }
+
+            @Override
+            public void send(byte[] message) {
+                conn.send(message);
+            }
+
+            @Override
+            public void send(ByteBuffer message) {
+                conn.send(message);
+            }
+
+            @Override
+            public void send(String message) {
+                conn.send(message);
+            }
+        };
+        channels.put(conn, new ClientChannel(String.valueOf(conn.getRemoteSocketAddress()), connection, ResultFrame.SIZE, TEXT_CAPACITY));
     }
 
     @Override
     public void onClose(WebSocket conn, int code, String reason, boolean remote) {
-        Notifier.d(getClass(), "Websocket Closed: " + conn.getLocalSocketAddress().getHostString() + ", reason: " + reason);
-        connections--;
+        ClientChannel channel = channels.remove(conn);
+        Notifier.d(getClass(), "Websocket Closed: " + conn.getLocalSocketAddress().getHostString() + ", reason: " + reason
+                + (channel != null ? ", " + channel : ""));
     }
 
     @Override
     public void onMessage(WebSocket conn, String message) {
+        if(message.startsWith(ClockSync.PONG)){
+            long receivedAt = System.currentTimeMillis();
+            ClientChannel channel = channels.get(conn);
+            if(channel != null && !channel.getClockSync().onPong(message, receivedAt)){
+                Notifier.d(getClass(), "Bad pong from " + channel.getName() + ": " + message);
+            }
+            return;
+        }
+        if(message.startsWith(SUBSCRIBE + " ") || message.startsWith(UNSUBSCRIBE + " ")){
+            ClientChannel channel = channels.get(conn);
+            if(channel != null) send(conn, channel, subscription(channel, message));
+            return;
+        }
         Notifier.d(getClass(), conn + ": " + message);
     }
 
+    /**
+     * Handles "subscribe &lt;topic&gt; [max rate]" or "unsubscribe &lt;topic&gt;"
+     * @return the reply: "subscribed &lt;topic&gt; &lt;max rate&gt;", "unsubscribed &lt;topic&gt;", or
+     * "error &lt;reason&gt;"
+     */
+    static String subscription(ClientChannel channel, String message){
+        String[] parts = message.trim().split(" +");
+        Topic topic = parts.length > 1 ? Topic.fromWireName(parts[1]) : null;
+        if(topic == null) return "error unknown topic: " + message;
+
+        if(parts[0].equals(UNSUBSCRIBE) && parts.length == 2){
+            channel.unsubscribe(topic);
+            return "unsubscribed " + topic.wireName;
+        }
+        if(parts[0].equals(SUBSCRIBE) && parts.length <= 3){
+            double maxRate = 0;
+            if(parts.length == 3){
+                try {
+                    maxRate = Double.parseDouble(parts[2]);
+                } catch (NumberFormatException e) {
+                    maxRate = -1;
+                }
+                if(!(maxRate > 0) || Double.isInfinite(maxRate)) return "error bad rate: " + message;
+            }
+            return "subscribed " + topic.wireName + " " + channel.subscribe(topic, maxRate);
+        }
+        return "error bad subscription: " + message;
+    }
+
     @Override
     public void onError(WebSocket conn, Exception ex) {
         ex.printStackTrace();
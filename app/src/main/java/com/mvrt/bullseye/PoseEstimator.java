@@ -0,0 +1,237 @@
+package com.mvrt.bullseye;
+
+import org.opencv.calib3d.Calib3d;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfPoint3f;
+import org.opencv.core.Point3;
+
+/**
+ * Estimates the target's full pose relative to the camera with {@link Calib3d#solvePnP} on the 8
+ * strip corners.
+ *
+ * The target frame has its origin in the middle of the target, x to the right, y down and z into
+ * the wall, in inches; each strip is 2in x 5in and their centers are 8.25in apart. The pose is the
+ * Rodrigues rotation vector and the translation taking target points into camera coordinates, so
+ * the translation is where the target's middle is as seen from the camera.
+ *
+ * While the target keeps being found, each solve starts from the previous frame's pose
+ * (SOLVEPNP_ITERATIVE with useExtrinsicGuess), which needs only a few Levenberg-Marquardt steps;
+ * after a miss, or a pose that ends up behind the camera, the next solve starts from scratch.
+ *
+ * Only used from the contour stage.
+ */
+public class PoseEstimator {
+
+    public static final double STRIP_WIDTH = 2;
+    public static final double STRIP_HEIGHT = 5;
+    public static final double STRIP_SPACING = 8.25;
+
+    private final MatOfPoint3f objectPoints;
+    private final MatOfPoint2f imagePoints = new MatOfPoint2f();
+    private final Mat cameraMatrix = new Mat(3, 3, CvType.CV_64F);
+    private final MatOfDouble distortionCoefficients = new MatOfDouble();
+    private final Mat rvec = new Mat(3, 1, CvType.CV_64F);
+    private final Mat tvec = new Mat(3, 1, CvType.CV_64F);
+
+    private final float[] points = new float[16];
+    private final double[] cameraValues = new double[9];
+    private final double[] distortion = new double[5];
+    private final double[] rotation = new double[3];
+    private final double[] translation = new double[3];
+    private CameraModel camera;
+
+    private boolean hasGuess = false;
+
+    //region Counters
+    private long warmSolves, coldSolves, failures;
+    private long solveNanos;
+    //endregion
+
+    public PoseEstimator(){
+        double left = -STRIP_SPACING / 2, right = STRIP_SPACING / 2;
+        double halfWidth = STRIP_WIDTH / 2, halfHeight = STRIP_HEIGHT / 2;
+        //same order as orderCorners: each strip top-left, top-right, bottom-right, bottom-left
+        objectPoints = new MatOfPoint3f(
+                new Point3(left - halfWidth, -halfHeight, 0), new Point3(left + halfWidth, -halfHeight, 0),
+                new Point3(left + halfWidth, halfHeight, 0), new Point3(left - halfWidth, halfHeight, 0),
+                new Point3(right - halfWidth, -halfHeight, 0), new Point3(right + halfWidth, -halfHeight, 0),
+                new Point3(right + halfWidth, halfHeight, 0), new Point3(right - halfWidth, halfHeight, 0));
+        imagePoints.alloc(8);
+    }
+
+    /**
+     * Solves for the target's pose from its two strips, in the pixel coordinates of {@code camera}
+     * @return false if there's no sensible pose (the next solve then starts from scratch)
+     */
+    public boolean estimate(CameraModel camera, TargetRect left, TargetRect right){
+        long start = System.nanoTime();
+        if(left.centerX > right.centerX){
+            TargetRect t = left;
+            left = right;
+            right = t;
+        }
+        orderCorners(left, points, 0);
+        orderCorners(right, points, 8);
+        imagePoints.put(0, 0, points);
+        setCamera(camera);
+
+        boolean warm = hasGuess;
+        boolean solved = Calib3d.solvePnP(objectPoints, imagePoints, cameraMatrix, distortionCoefficients,
+                rvec, tvec, warm, Calib3d.SOLVEPNP_ITERATIVE);
+        if(solved){
+            rvec.get(0, 0, rotation);
+            tvec.get(0, 0, translation);
+            solved = translation[2] > 0 && !Double.isNaN(translation[0] + rotation[0]);
+        }
+
+        solveNanos += System.nanoTime() - start;
+        if(!solved){
+            failures++;
+            hasGuess = false;
+            return false;
+        }
+        if(warm) warmSolves++;
+        else coldSolves++;
+        hasGuess = true;
+        return true;
+    }
+
+    /**
+     * Drops the previous pose, so the next solve isn't warm started from it
+     */
+    public void reset(){
+        hasGuess = false;
+    }
+
+    private void setCamera(CameraModel model){
+        if(model == camera) return;
+        camera = model;
+        cameraValues[0] = model.getFocalLengthX();
+        cameraValues[2] = model.getPrincipalX();
+        cameraValues[4] = model.getFocalLengthY();
+        cameraValues[5] = model.getPrincipalY();
+        cameraValues[8] = 1;
+        cameraMatrix.put(0, 0, cameraValues);
+        model.getDistortion(distortion);
+        distortionCoefficients.fromArray(distortion);
+        hasGuess = false;
+    }
+
+    /**
+     * Writes a strip's corners as top-left, top-right, bottom-right, bottom-left (x, y pairs) from
+     * {@code offset}, whichever corner the rect's own order starts at
+     */
+    static void orderCorners(TargetRect strip, float[] out, int offset){
+        //the two highest corners (smallest y) are the top ones
+        int top1 = 0, top2 = 1;
+        if(strip.cornerY[top2] < strip.cornerY[top1]){
+            top1 = 1;
+            top2 = 0;
+        }
+        for(int i = 2; i < 4; i++){
+            if(strip.cornerY[i] < strip.cornerY[top1]){
+                top2 = top1;
+                top1 = i;
+            }else if(strip.cornerY[i] < strip.cornerY[top2]){
+                top2 = i;
+            }
+        }
+        int bottom1 = -1, bottom2 = -1;
+        for(int i = 0; i < 4; i++){
+            if(i == top1 || i == top2) continue;
+            if(bottom1 < 0) bottom1 = i;
+            else bottom2 = i;
+        }
+
+        int topLeft = strip.cornerX[top1] <= strip.cornerX[top2] ? top1 : top2;
+        int topRight = topLeft == top1 ? top2 : top1;
+        int bottomLeft = strip.cornerX[bottom1] <= strip.cornerX[bottom2] ? bottom1 : bottom2;
+        int bottomRight = bottomLeft == bottom1 ? bottom2 : bottom1;
+
+        put(strip, topLeft, out, offset);
+        put(strip, topRight, out, offset + 2);
+        put(strip, bottomRight, out, offset + 4);
+        put(strip, bottomLeft, out, offset + 6);
+    }
+
+    private static void put(TargetRect strip, int corner, float[] out, int offset){
+        out[offset] = (float)strip.cornerX[corner];
+        out[offset + 1] = (float)strip.cornerY[corner];
+    }
+
+    /**
+     * @param out filled with the pose: rotation vector (rx, ry, rz), then translation (tx, ty, tz) in inches
+     */
+    public void getPose(double[] out){
+        System.arraycopy(rotation, 0, out, 0, 3);
+        System.arraycopy(translation, 0, out, 3, 3);
+    }
+
+    /** @return straight-line distance from the camera to the middle of the target, in inches */
+    public double getRange(){
+        return Math.sqrt(translation[0] * translation[0] + translation[1] * translation[1] + translation[2] * translation[2]);
+    }
+
+    /**
+     * The same distance as {@link #getRange()}, without solving for a pose: the target's depth from
+     * the span between its outer strip edges (assuming it faces the camera), along the ray to its
+     * middle. Measured in view-angle tangents so the camera model's undistortion applies. For frames
+     * where the solve fails, so the tracked distance doesn't jump between two different measures.
+     * @return the distance in inches
+     */
+    public static double rangeFromSpan(CameraModel camera, TargetRect left, TargetRect right){
+        if(left.centerX > right.centerX){
+            TargetRect t = left;
+            left = right;
+            right = t;
+        }
+        double spanX = camera.getAzimuthTan(right.centerX + right.width/2.0) - camera.getAzimuthTan(left.centerX - left.width/2.0);
+        double spanY = camera.getElevationTan(right.centerY) - camera.getElevationTan(left.centerY);
+        double depth = (STRIP_SPACING + STRIP_WIDTH) / Math.sqrt(spanX * spanX + spanY * spanY);
+
+        double tanX = camera.getAzimuthTan((left.centerX + right.centerX) / 2);
+        double tanY = camera.getElevationTan((left.centerY + right.centerY) / 2);
+        return depth * Math.sqrt(1 + tanX * tanX + tanY * tanY);
+    }
+
+    public long getWarmSolves(){
+        return warmSolves;
+    }
+
+    public long getColdSolves(){
+        return coldSolves;
+    }
+
+    public long getFailures(){
+        return failures;
+    }
+
+    /** mean time per solve, in ms */
+    public double getSolveMillis(){
+        long solves = warmSolves + coldSolves + failures;
+        return solves == 0 ? 0 : solveNanos / 1e6 / solves;
+    }
+
+    public void resetCounters(){
+        warmSolves = coldSolves = failures = 0;
+        solveNanos = 0;
+    }
+
+    public void release(){
+        objectPoints.release();
+        imagePoints.release();
+        cameraMatrix.release();
+        distortionCoefficients.release();
+        rvec.release();
+        tvec.release();
+    }
+
+    @Override
+    public String toString(){
+        return String.format("Pose: %d warm, %d cold, %d failed, %.3f ms/solve", warmSolves, coldSolves, failures, getSolveMillis());
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.mvrt.bullseye;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * One published result: the binary message {@link OutputSocketServer} clients receive per frame.
+ *
+ * The layout is fixed for a given {@link #VERSION}, big-endian, {@link #SIZE} bytes:
+ * <pre>
+ *  offset  type     field
+ *   0      u16      magic, 'B' 'E'
+ *   2      u8       version
+ *   3      u8       flags (FLAG_*)
+ *   4      u32      sequence number of the frame
+ *   8      i64      capture timestamp (start of exposure), ms since the epoch
+ *  16      u16      age of the prediction (publish time - last measurement), ms, saturating
+ *  18      u8       pair confidence, 0-255 for 0-1
+ *  19      u8       reserved, 0
+ *  20      f32      turn angle, degrees, positive right (predicted)
+ *  24      f32      distance, inches (predicted)
+ *  28      f32      vertical angle, degrees, positive up
+ *  32      f32 x3   target rotation vector (Rodrigues), radians
+ *  44      f32 x3   target translation, inches, camera coordinates
+ *  56      u32      frames produced by the camera
+ *  60      u32      frames consumed by the pipeline
+ *  64      u32      frames dropped
+ * </pre>
+ * Angles and distances only need a few significant digits, so they're float32; the counters
+ * wrap at 2^32. webViewer/scripts.js decodes the same layout.
+ */
+public class ResultFrame {
+
+    public static final int MAGIC = ('B' << 8) | 'E';
+    public static final int VERSION = 1;
+    public static final int SIZE = 68;
+
+    /** the values come from a measurement in this frame, not a coasting prediction */
+    public static final int FLAG_MEASURED = 1;
+    /** the pose was solved in this frame, not repeated from an earlier one */
+    public static final int FLAG_POSE = 2;
+    /** the capture timestamp is in the receiving client's clock (see {@link ClockSync}) */
+    public static final int FLAG_CLIENT_CLOCK = 4;
+
+    private static final int FLAGS_OFFSET = 3;
+    private static final int CAPTURE_TIMESTAMP_OFFSET = 8;
+
+    public int flags;
+    public long sequence;
+    public long captureTimestamp;
+    public long predictionAge;
+    public double confidence;
+    public double turnAngle;
+    public double distance;
+    public double verticalAngle;
+    public final double[] rotation = new double[3];
+    public final double[] translation = new double[3];
+    public long framesProduced, framesConsumed, framesDropped;
+
+    /**
+     * Writes the frame at the buffer's position, advancing it by {@link #SIZE}
+     */
+    public void encode(ByteBuffer out){
+        out.order(ByteOrder.BIG_ENDIAN);
+        out.putShort((short)MAGIC);
+        out.put((byte)VERSION);
+        out.put((byte)flags);
+        out.putInt((int)sequence);
+        out.putLong(captureTimestamp);
+        out.putShort((short)Math.max(0, Math.min(0xFFFF, predictionAge)));
+        out.put((byte)Math.round(Math.max(0, Math.min(1, confidence)) * 255));
+        out.put((byte)0);
+        out.putFloat((float)turnAngle);
+        out.putFloat((float)distance);
+        out.putFloat((float)verticalAngle);
+        for(int i = 0; i < 3; i++) out.putFloat((float)rotation[i]);
+        for(int i = 0; i < 3; i++) out.putFloat((float)translation[i]);
+        out.putInt((int)framesProduced);
+        out.putInt((int)framesConsumed);
+        out.putInt((int)framesDropped);
+    }
+
+    /**
+     * Reads a frame from the buffer's position into this one. Unsigned fields come back as their
+     * unsigned values.
+     * @return false (with the buffer's position unchanged) if the buffer doesn't start with a
+     * complete frame of this version
+     */
+    public boolean decode(ByteBuffer in){
+        in.order(ByteOrder.BIG_ENDIAN);
+        int start = in.position();
+        if(in.remaining() < SIZE) return false;
+        if((in.getShort(start) & 0xFFFF) != MAGIC || (in.get(start + 2) & 0xFF) != VERSION) return false;
+
+        in.position(start + 3);
+        flags = in.get() & 0xFF;
+        sequence = in.getInt() & 0xFFFFFFFFL;
+        captureTimestamp = in.getLong();
+        predictionAge = in.getShort() & 0xFFFF;
+        confidence = (in.get() & 0xFF) / 255.0;
+        in.get();
+        turnAngle = in.getFloat();
+        distance = in.getFloat();
+        verticalAngle = in.getFloat();
+        for(int i = 0; i < 3; i++) rotation[i] = in.getFloat();
+        for(int i = 0; i < 3; i++) translation[i] = in.getFloat();
+        framesProduced = in.getInt() & 0xFFFFFFFFL;
+        framesConsumed = in.getInt() & 0xFFFFFFFFL;
+        framesDropped = in.getInt() & 0xFFFFFFFFL;
+        return true;
+    }
+
+    /**
+     * Moves an encoded frame's capture timestamp into a client's clock and sets
+     * {@link #FLAG_CLIENT_CLOCK}, without decoding the rest of it
+     * @param offsetMillis client clock - this device's clock
+     */
+    public static void toClientClock(byte[] message, long offsetMillis){
+        //by hand rather than through a ByteBuffer, this runs per client per frame
+        long timestamp = 0;
+        for(int i = 0; i < 8; i++) timestamp = (timestamp << 8) | (message[CAPTURE_TIMESTAMP_OFFSET + i] & 0xFF);
+        timestamp += offsetMillis;
+        for(int i = 7; i >= 0; i--){
+            message[CAPTURE_TIMESTAMP_OFFSET + i] = (byte)timestamp;
+            timestamp >>= 8;
+        }
+        message[FLAGS_OFFSET] |= FLAG_CLIENT_CLOCK;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("ResultFrame{#%d @%d, flags=%d, age=%dms, turn=%.2f, distance=%.1f, vertical=%.2f, confidence=%.2f}",
+                sequence, captureTimestamp, flags, predictionAge, turnAngle, distance, verticalAngle, confidence);
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.mvrt.bullseye;
+
+/**
+ * Keeps track of where the target was last seen, so the next frame only needs to be thresholded
+ * and searched near it.
+ *
+ * The region is the bounding box of the last detection, moved by the target's motion per frame
+ * times the frames since that detection, and grown by a margin that also scales with that
+ * motion. Frames are counted by sequence number, so misses, frames only tracked by optical flow
+ * and frames dropped before processing all count. After {@link #getMaxMisses()} consecutive
+ * misses inside the region, frames go back to full-frame scans until the target is found again.
+ *
+ * With the pipelined processor, the region is picked by the threshold stage while the previous
+ * frame may still be in the contour stage, so the last detection can be a frame older than it
+ * would be otherwise; extrapolating by sequence number covers that.
+ */
+public class RoiTracker {
+
+    private boolean enabled = false;
+    private int baseMargin = 40;
+    private double velocityGain = 2.0;
+    private int maxMisses = 3;
+
+    private boolean tracking = false;
+    private int consecutiveMisses = 0;
+    private double minX, minY, maxX, maxY;
+    private double centerX, centerY;
+    /** motion per frame, from the last two detections */
+    private double velocityX, velocityY;
+    private long lastSequence;
+
+    //region Counters
+    private long roiHits = 0;
+    private long roiMisses = 0;
+    private long fullScans = 0;
+    private long fullScanHits = 0;
+    //endregion
+
+    public synchronized void setEnabled(boolean enabled){
+        this.enabled = enabled;
+        if(!enabled) tracking = false;
+    }
+
+    public synchronized boolean isEnabled(){
+        return enabled;
+    }
+
+    /**
+     * @param baseMargin pixels added on every side of the last bounding box
+     * @param velocityGain extra pixels of margin per pixel/frame of target motion
+     */
+    public synchronized void setMargin(int baseMargin, double velocityGain){
+        this.baseMargin = baseMargin;
+        this.velocityGain = velocityGain;
+    }
+
+    public synchronized void setMaxMisses(int maxMisses){
+        this.maxMisses = maxMisses;
+    }
+
+    public synchronized int getMaxMisses(){
+        return maxMisses;
+    }
+
+    /**
+     * @return true if the next frame should only be scanned inside {@link #computeRoi}
+     */
+    public synchronized boolean useRoi(){
+        return enabled && tracking && consecutiveMisses < maxMisses;
+    }
+
+    /**
+     * Fills {@code roi} with {x, y, width, height} for a frame, clamped to the image and aligned
+     * to even pixels so it maps cleanly onto the half-resolution chroma plane.
+     * @param sequence the frame's sequence number
+     */
+    public synchronized void computeRoi(long sequence, int imageWidth, int imageHeight, int[] roi){
+        long frames = framesSince(sequence);
+        double dx = velocityX * frames, dy = velocityY * frames;
+        double margin = baseMargin + velocityGain * Math.max(Math.abs(dx), Math.abs(dy));
+
+        int left = (int)Math.floor(minX + dx - margin);
+        int top = (int)Math.floor(minY + dy - margin);
+        int right = (int)Math.ceil(maxX + dx + margin);
+        int bottom = (int)Math.ceil(maxY + dy + margin);
+
+        left = Math.max(0, left) & ~1;
+        top = Math.max(0, top) & ~1;
+        right = Math.min(imageWidth, (right + 1) & ~1);
+        bottom = Math.min(imageHeight, (bottom + 1) & ~1);
+
+        if(right - left < 2 || bottom - top < 2){
+            roi[0] = 0;
+            roi[1] = 0;
+            roi[2] = imageWidth;
+            roi[3] = imageHeight;
+            return;
+        }
+
+        roi[0] = left;
+        roi[1] = top;
+        roi[2] = right - left;
+        roi[3] = bottom - top;
+    }
+
+    /** @return frames from the last detection to the given one, at least 1 */
+    private long framesSince(long sequence){
+        return Math.max(1, sequence - lastSequence);
+    }
+
+    /**
+     * Records a frame where the target was found, with the bounding box around both strips.
+     * @param usedRoi whether this frame was only scanned inside the region
+     * @param sequence the frame's sequence number
+     */
+    public synchronized void onDetected(boolean usedRoi, long sequence, double minX, double minY, double maxX, double maxY){
+        if(usedRoi) roiHits++;
+        else{
+            fullScans++;
+            fullScanHits++;
+        }
+
+        double cx = (minX + maxX) / 2;
+        double cy = (minY + maxY) / 2;
+        if(tracking){
+            long frames = framesSince(sequence);
+            velocityX = (cx - centerX) / frames;
+            velocityY = (cy - centerY) / frames;
+        }else{
+            velocityX = 0;
+            velocityY = 0;
+        }
+
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        centerX = cx;
+        centerY = cy;
+        lastSequence = sequence;
+        tracking = true;
+        consecutiveMisses = 0;
+    }
+
+    /**
+     * Records a frame where the target was not found.
+     * @param usedRoi whether this frame was only scanned inside the region
+     */
+    public synchronized void onMissed(boolean usedRoi){
+        if(usedRoi){
+            roiMisses++;
+            consecutiveMisses++;
+        }else{
+            fullScans++;
+            tracking = false;
+        }
+    }
+
+    public synchronized long getRoiHits(){
+        return roiHits;
+    }
+
+    public synchronized long getRoiMisses(){
+        return roiMisses;
+    }
+
+    public synchronized long getFullScans(){
+        return fullScans;
+    }
+
+    public synchronized long getFullScanHits(){
+        return fullScanHits;
+    }
+
+    public synchronized void resetCounters(){
+        roiHits = roiMisses = fullScans = fullScanHits = 0;
+    }
+
+    @Override
+    public synchronized String toString(){
+        return "ROI hits: " + roiHits + ", ROI misses: " + roiMisses + ", full scans: " + fullScans + " (" + fullScanHits + " found)";
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.mvrt.bullseye;
+
+import org.opencv.core.Rect;
+
+/**
+ * Places the full-resolution search windows of a coarse-to-fine search: the bounding boxes of the
+ * largest coarse blobs, scaled back up, padded, aligned and merged. Plain Java over
+ * {@link Rect}s, so the windows (and detection inside them) can be checked without OpenCV.
+ */
+class SearchWindows {
+
+    private SearchWindows(){}
+
+    /**
+     * Inserts a box into windows (sorted by area, largest first) if it's among the largest
+     * @return the new number of windows
+     */
+    static int insertLargest(Rect[] windows, int count, int x, int y, int width, int height){
+        int area = width * height;
+        int i = Math.min(count, windows.length - 1);
+        if(count == windows.length && area <= windows[i].area()) return count;
+        while(i > 0 && windows[i - 1].area() < area){
+            copyRect(windows[i - 1], windows[i]);
+            i--;
+        }
+        Rect r = windows[i];
+        r.x = x;
+        r.y = y;
+        r.width = width;
+        r.height = height;
+        return Math.min(count + 1, windows.length);
+    }
+
+    /**
+     * Keeps the bounding boxes of the largest labeled blobs, in the labeler's coordinates
+     * @return the number of windows
+     */
+    static int largestBlobs(BlobLabeler labeler, Rect[] windows){
+        int count = 0;
+        for(int b = 0; b < labeler.getBlobCount(); b++){
+            count = insertLargest(windows, count, labeler.getMinX(b), labeler.getMinY(b),
+                    labeler.getMaxX(b) - labeler.getMinX(b) + 1, labeler.getMaxY(b) - labeler.getMinY(b) + 1);
+        }
+        return count;
+    }
+
+    /**
+     * Scales coarse boxes back to full resolution, padded by one coarse pixel each side to cover
+     * the decimation, aligned to the image and merged where they overlap
+     * @return the number of windows left at the front of the array
+     */
+    static int toFullResolution(Rect[] windows, int count, int step, int imageWidth, int imageHeight){
+        for(int i = 0; i < count; i++){
+            Rect r = windows[i];
+            align(r, (r.x - 1) * step, (r.y - 1) * step, (r.x + r.width + 1) * step, (r.y + r.height + 1) * step,
+                    imageWidth, imageHeight);
+        }
+        return mergeOverlapping(windows, count);
+    }
+
+    private static void copyRect(Rect from, Rect to){
+        to.x = from.x;
+        to.y = from.y;
+        to.width = from.width;
+        to.height = from.height;
+    }
+
+    /**
+     * Clamps a window to the image and aligns it to even pixels (for the half-resolution chroma plane)
+     */
+    static void align(Rect r, int left, int top, int right, int bottom, int imageWidth, int imageHeight){
+        left = Math.max(0, left) & ~1;
+        top = Math.max(0, top) & ~1;
+        right = Math.min(imageWidth, (right + 1) & ~1);
+        bottom = Math.min(imageHeight, (bottom + 1) & ~1);
+        r.x = left;
+        r.y = top;
+        r.width = Math.max(0, right - left);
+        r.height = Math.max(0, bottom - top);
+    }
+
+    /**
+     * Merges overlapping windows in place, so no part of the image is searched twice
+     * @return the number of windows left at the front of the array
+     */
+    static int mergeOverlapping(Rect[] windows, int count){
+        boolean merged = true;
+        while(merged){
+            merged = false;
+            for(int i = 0; i < count && !merged; i++){
+                for(int j = i + 1; j < count; j++){
+                    Rect a = windows[i], b = windows[j];
+                    if(a.x < b.x + b.width && b.x < a.x + a.width && a.y < b.y + b.height && b.y < a.y + a.height){
+                        int right = Math.max(a.x + a.width, b.x + b.width);
+                        int bottom = Math.max(a.y + a.height, b.y + b.height);
+                        a.x = Math.min(a.x, b.x);
+                        a.y = Math.min(a.y, b.y);
+                        a.width = right - a.x;
+                        a.height = bottom - a.y;
+
+                        //swap the merged-away window to the end so its Rect can be reused
+                        windows[j] = windows[count - 1];
+                        windows[count - 1] = b;
+                        count--;
+                        merged = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.mvrt.bullseye;
+
+/**
+ * Picks the target out of the strip candidates by scoring pairs of them, instead of assuming the
+ * two largest are the target.
+ *
+ * The target is two 2in x 5in strips with 10.25in between their outer edges, so the strip
+ * centers are 8.25in (1.65 strip lengths) apart. A pair is scored on:
+ * <ul>
+ *     <li>spacing: center distance against 1.65x their mean length</li>
+ *     <li>parallelism: the difference between the strip angles</li>
+ *     <li>height similarity: shorter length / longer length</li>
+ *     <li>vertical alignment: center height difference, relative to their length</li>
+ * </ul>
+ * Each score is in [0, 1] (a pair outside any tolerance is dropped) and the confidence is their
+ * product. Candidates are sorted by x first, so each one is only paired with the ones to its
+ * right that are close enough to be its partner: O(n log n) for the sort plus the (few) pairs
+ * inside the spacing window, rather than every pair.
+ */
+public class TargetPairMatcher {
+
+    public static final int MAX_PAIRS = 8;
+
+    private double spacingRatio = 8.25 / 5;
+    private double spacingTolerance = 0.35;
+    private double angleTolerance = 20;
+    private double minHeightRatio = 0.6;
+    private double verticalTolerance = 0.5;
+
+    private int[] order = new int[16];
+    private final TargetRect[] pairLeft = new TargetRect[MAX_PAIRS];
+    private final TargetRect[] pairRight = new TargetRect[MAX_PAIRS];
+    private final double[] pairConfidence = new double[MAX_PAIRS];
+    private int pairCount;
+
+    /**
+     * @param spacingRatio distance between strip centers / strip length
+     * @param spacingTolerance how far (relative) the measured spacing may be from it
+     */
+    public void setSpacing(double spacingRatio, double spacingTolerance){
+        this.spacingRatio = spacingRatio;
+        this.spacingTolerance = spacingTolerance;
+    }
+
+    /**
+     * @param angleTolerance largest difference between the strip angles, in degrees
+     * @param minHeightRatio smallest shorter/longer strip length
+     * @param verticalTolerance largest center height difference, relative to the mean strip length
+     */
+    public void setShapeTolerances(double angleTolerance, double minHeightRatio, double verticalTolerance){
+        this.angleTolerance = angleTolerance;
+        this.minHeightRatio = minHeightRatio;
+        this.verticalTolerance = verticalTolerance;
+    }
+
+    /**
+     * Scores the pairs among the first {@code count} candidates and ranks the best
+     * {@link #MAX_PAIRS} by confidence. The candidates must not change until the results are used.
+     * @return the number of pairs found
+     */
+    public int match(TargetRect[] candidates, int count){
+        pairCount = 0;
+        if(count < 2) return 0;
+
+        if(order.length < count) order = new int[Math.max(count, 2 * order.length)];
+        for(int i = 0; i < count; i++) order[i] = i;
+        sortByX(candidates, order, count);
+
+        for(int i = 0; i < count; i++){
+            TargetRect a = candidates[order[i]];
+            //the farthest a partner can be, horizontally, given a's size and the most lenient height ratio
+            double reach = spacingRatio * (1 + spacingTolerance) * a.length / minHeightRatio;
+
+            for(int j = i + 1; j < count; j++){
+                TargetRect b = candidates[order[j]];
+                if(b.centerX - a.centerX > reach) break;
+
+                double confidence = score(a, b);
+                if(confidence > 0) insertPair(a, b, confidence);
+            }
+        }
+        return pairCount;
+    }
+
+    /**
+     * @return the pair's confidence in (0, 1], or 0 if any criterion is out of tolerance
+     */
+    double score(TargetRect a, TargetRect b){
+        double meanLength = (a.length + b.length) / 2;
+        if(meanLength <= 0) return 0;
+
+        double dx = b.centerX - a.centerX, dy = b.centerY - a.centerY;
+        double spacing = Math.sqrt(dx * dx + dy * dy) / (spacingRatio * meanLength);
+        double spacingScore = 1 - Math.abs(spacing - 1) / spacingTolerance;
+        if(spacingScore <= 0) return 0;
+
+        double angleDifference = Math.abs(a.angle - b.angle) % 180;
+        angleDifference = Math.min(angleDifference, 180 - angleDifference);
+        double angleScore = 1 - angleDifference / angleTolerance;
+        if(angleScore <= 0) return 0;
+
+        double heightRatio = Math.min(a.length, b.length) / Math.max(a.length, b.length);
+        if(heightRatio < minHeightRatio) return 0;
+        double heightScore = (heightRatio - minHeightRatio) / (1 - minHeightRatio);
+
+        double verticalScore = 1 - Math.abs(dy) / meanLength / verticalTolerance;
+        if(verticalScore <= 0) return 0;
+
+        return spacingScore * angleScore * heightScore * verticalScore;
+    }
+
+    private void insertPair(TargetRect left, TargetRect right, double confidence){
+        int i = Math.min(pairCount, MAX_PAIRS - 1);
+        if(pairCount == MAX_PAIRS && confidence <= pairConfidence[i]) return;
+        while(i > 0 && pairConfidence[i - 1] < confidence){
+            pairLeft[i] = pairLeft[i - 1];
+            pairRight[i] = pairRight[i - 1];
+            pairConfidence[i] = pairConfidence[i - 1];
+            i--;
+        }
+        pairLeft[i] = left;
+        pairRight[i] = right;
+        pairConfidence[i] = confidence;
+        if(pairCount < MAX_PAIRS) pairCount++;
+    }
+
+    /** Heap sort of candidate indices by center x */
+    private static void sortByX(TargetRect[] candidates, int[] order, int n){
+        for(int i = n / 2 - 1; i >= 0; i--) siftDown(candidates, order, i, n);
+        for(int end = n - 1; end > 0; end--){
+            int t = order[0];
+            order[0] = order[end];
+            order[end] = t;
+            siftDown(candidates, order, 0, end);
+        }
+    }
+
+    private static void siftDown(TargetRect[] candidates, int[] order, int i, int n){
+        int value = order[i];
+        double x = candidates[value].centerX;
+        while(true){
+            int child = 2 * i + 1;
+            if(child >= n) break;
+            if(child + 1 < n && candidates[order[child + 1]].centerX > candidates[order[child]].centerX) child++;
+            if(candidates[order[child]].centerX <= x) break;
+            order[i] = order[child];
+            i = child;
+        }
+        order[i] = value;
+    }
+
+    public int getPairCount(){
+        return pairCount;
+    }
+
+    /**
+     * @param rank 0 for the most likely pair
+     * @return the pair's left strip
+     */
+    public TargetRect getLeft(int rank){
+        return pairLeft[rank];
+    }
+
+    /**
+     * @param rank 0 for the most likely pair
+     * @return the pair's right strip
+     */
+    public TargetRect getRight(int rank){
+        return pairRight[rank];
+    }
+
+    public double getConfidence(int rank){
+        return pairConfidence[rank];
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.mvrt.bullseye;
+
+/**
+ * A reusable rotated rectangle, standing in for OpenCV's {@link org.opencv.core.RotatedRect} on the
+ * detection path so no objects are created per contour.
+ *
+ * {@code width} is always the shorter side and {@code length} the longer one, and
+ * {@code angle} is the direction of the long side in degrees, in [-90, 90). The corners go
+ * around the rectangle in order.
+ */
+public class TargetRect {
+
+    public double centerX, centerY;
+    public double width, length;
+    public double angle;
+
+    public final double[] cornerX = new double[4];
+    public final double[] cornerY = new double[4];
+
+    public double area(){
+        return width * length;
+    }
+
+    public double minX(){
+        return Math.min(Math.min(cornerX[0], cornerX[1]), Math.min(cornerX[2], cornerX[3]));
+    }
+
+    public double maxX(){
+        return Math.max(Math.max(cornerX[0], cornerX[1]), Math.max(cornerX[2], cornerX[3]));
+    }
+
+    public double minY(){
+        return Math.min(Math.min(cornerY[0], cornerY[1]), Math.min(cornerY[2], cornerY[3]));
+    }
+
+    public double maxY(){
+        return Math.max(Math.max(cornerY[0], cornerY[1]), Math.max(cornerY[2], cornerY[3]));
+    }
+
+    public void set(TargetRect other){
+        centerX = other.centerX;
+        centerY = other.centerY;
+        width = other.width;
+        length = other.length;
+        angle = other.angle;
+        System.arraycopy(other.cornerX, 0, cornerX, 0, 4);
+        System.arraycopy(other.cornerY, 0, cornerY, 0, 4);
+    }
+
+    /**
+     * Rebuilds the rect from four corners going around it in order (e.g. corners that have been
+     * tracked from frame to frame), averaging opposite sides.
+     */
+    public void setFromCorners(double[] xs, double[] ys){
+        System.arraycopy(xs, 0, cornerX, 0, 4);
+        System.arraycopy(ys, 0, cornerY, 0, 4);
+        centerX = (xs[0] + xs[1] + xs[2] + xs[3]) / 4;
+        centerY = (ys[0] + ys[1] + ys[2] + ys[3]) / 4;
+
+        //side a: 0 -> 1 and 3 -> 2, side b: 1 -> 2 and 0 -> 3
+        double ax = (xs[1] - xs[0] + xs[2] - xs[3]) / 2, ay = (ys[1] - ys[0] + ys[2] - ys[3]) / 2;
+        double bx = (xs[2] - xs[1] + xs[3] - xs[0]) / 2, by = (ys[2] - ys[1] + ys[3] - ys[0]) / 2;
+        double a = Math.sqrt(ax * ax + ay * ay), b = Math.sqrt(bx * bx + by * by);
+
+        double longX = ax, longY = ay;
+        if(a >= b){
+            length = a;
+            width = b;
+        }else{
+            length = b;
+            width = a;
+            longX = bx;
+            longY = by;
+        }
+        double degrees = Math.toDegrees(Math.atan2(longY, longX));
+        if(degrees >= 90) degrees -= 180;
+        else if(degrees < -90) degrees += 180;
+        angle = degrees;
+    }
+
+    @Override
+    public String toString(){
+        return "TargetRect{center=(" + centerX + ", " + centerY + "), " + width + "x" + length + ", angle=" + angle + "}";
+    }
+
+}
@@ -0,0 +1,152 @@
+package com.mvrt.bullseye;
+
+/**
+ * Smooths the target's turn angle and distance with a constant-velocity Kalman filter per value,
+ * and extrapolates them to whenever they're needed.
+ *
+ * Results reach the robot some time after the frame was captured, so rather than the raw values
+ * from that frame, the tracker gives its estimate for the moment of publishing. When a frame
+ * misses the target the estimate keeps coasting on the last velocity for up to
+ * {@link #getMaxCoastMillis()}, after which the track is dropped.
+ *
+ * Times are in milliseconds on the same clock as the frame timestamps.
+ */
+public class TargetTracker {
+
+    /**
+     * A 1D constant-velocity Kalman filter: state (value, rate), white-noise acceleration.
+     */
+    static class Axis {
+
+        private final double measurementVariance;
+        private final double accelerationVariance;
+
+        double value, rate;
+        private double p00, p01, p11;
+
+        /**
+         * @param measurementNoise standard deviation of a single measurement
+         * @param accelerationNoise standard deviation of the unmodelled acceleration, per second squared
+         */
+        Axis(double measurementNoise, double accelerationNoise){
+            measurementVariance = measurementNoise * measurementNoise;
+            accelerationVariance = accelerationNoise * accelerationNoise;
+        }
+
+        void init(double measurement){
+            value = measurement;
+            rate = 0;
+            p00 = measurementVariance;
+            p01 = 0;
+            p11 = 1e6;
+        }
+
+        void predict(double dt){
+            if(dt <= 0) return;
+            value += rate * dt;
+
+            double dt2 = dt * dt;
+            double n00 = p00 + 2 * dt * p01 + dt2 * p11 + accelerationVariance * dt2 * dt / 3;
+            double n01 = p01 + dt * p11 + accelerationVariance * dt2 / 2;
+            double n11 = p11 + accelerationVariance * dt;
+            p00 = n00;
+            p01 = n01;
+            p11 = n11;
+        }
+
+        void correct(double measurement){
+            double s = p00 + measurementVariance;
+            double k0 = p00 / s, k1 = p01 / s;
+            double innovation = measurement - value;
+            value += k0 * innovation;
+            rate += k1 * innovation;
+
+            double n11 = p11 - k1 * p01;
+            p01 = (1 - k0) * p01;
+            p00 = (1 - k0) * p00;
+            p11 = n11;
+        }
+
+        double extrapolate(double dt){
+            return value + rate * Math.max(0, dt);
+        }
+    }
+
+    private final Axis angle = new Axis(0.3, 60);
+    private final Axis distance = new Axis(2, 60);
+
+    private long maxCoastMillis = 300;
+    private boolean tracking = false;
+    private long stateTime;
+    private long lastMeasurementTime;
+
+    public void setMaxCoastMillis(long maxCoastMillis){
+        this.maxCoastMillis = maxCoastMillis;
+    }
+
+    public long getMaxCoastMillis(){
+        return maxCoastMillis;
+    }
+
+    /**
+     * Adds a measurement taken at {@code time}. Measurements must come in time order; an older
+     * one than the current state is ignored.
+     */
+    public void update(long time, double turnAngle, double targetDistance){
+        if(!isTracking(time)){
+            angle.init(turnAngle);
+            distance.init(targetDistance);
+            tracking = true;
+        }else{
+            if(time < stateTime) return;
+            double dt = (time - stateTime) / 1000.0;
+            angle.predict(dt);
+            distance.predict(dt);
+            angle.correct(turnAngle);
+            distance.correct(targetDistance);
+        }
+        stateTime = time;
+        lastMeasurementTime = time;
+    }
+
+    /**
+     * @return true if there's a track to predict from at {@code time}, i.e. the last measurement
+     * is at most {@link #getMaxCoastMillis()} older. Drops the track otherwise.
+     */
+    public boolean isTracking(long time){
+        if(tracking && time - lastMeasurementTime > maxCoastMillis) tracking = false;
+        return tracking;
+    }
+
+    /**
+     * Fills {@code out} with {turn angle, distance} extrapolated to {@code time}, without changing
+     * the filter state.
+     * @return false if there's no track
+     */
+    public boolean predict(long time, double[] out){
+        if(!isTracking(time)) return false;
+        double dt = (time - stateTime) / 1000.0;
+        out[0] = angle.extrapolate(dt);
+        out[1] = distance.extrapolate(dt);
+        return true;
+    }
+
+    public long getLastMeasurementTime(){
+        return lastMeasurementTime;
+    }
+
+    /** degrees per second */
+    public double getAngleRate(){
+        return angle.rate;
+    }
+
+    /** inches per second */
+    public double getDistanceRate(){
+        return distance.rate;
+    }
+
+    public void reset(){
+        tracking = false;
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.mvrt.bullseye;
+
+/**
+ * What an {@link OutputSocketServer} client can subscribe to. Clients send
+ * "subscribe &lt;topic&gt; [max rate]" and "unsubscribe &lt;topic&gt;" text messages; a new client
+ * is subscribed to {@link #RESULTS} only.
+ *
+ * Each topic caps how often a client gets it. A client can ask for less, e.g.
+ * "subscribe metrics 0.5" for one snapshot every two seconds, but not more.
+ */
+public enum Topic {
+
+    /** binary {@link ResultFrame}s, every frame */
+    RESULTS("results", 0),
+    /** text "metrics {json}" snapshots of the pipeline's counters */
+    METRICS("metrics", 2),
+    /** binary {@link MaskRleCodec} masks */
+    DEBUG_MASK("debug-mask", 10),
+    /** text "logs &lt;line&gt;" for every log line; lines over the rate are dropped */
+    LOGS("logs", 50);
+
+    /** name on the wire */
+    public final String wireName;
+    /** most messages per second per client, 0 for no limit */
+    public final double maxRate;
+
+    Topic(String wireName, double maxRate){
+        this.wireName = wireName;
+        this.maxRate = maxRate;
+    }
+
+    /** @return the topic with this wire name, or null */
+    public static Topic fromWireName(String name){
+        for(Topic topic : values()){
+            if(topic.wireName.equals(name)) return topic;
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.mvrt.bullseye;
+
+import com.mvrt.bullseye.util.Notifier;
+import com.mvrt.bullseye.util.ResultPublisher;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+
+/**
+ * Sends each {@link ResultFrame} as one UDP datagram to a unicast or broadcast address, for
+ * receivers (the robot controller) that want the newest result as soon as possible and have no
+ * use for the ordering and retransmission of the WebSocket path.
+ *
+ * Datagrams can be lost or reordered; receivers use the frame's sequence number to drop stale
+ * ones (see {@link UdpResultReceiver}). Like the WebSocket server, sending happens on a
+ * {@link ResultPublisher} thread.
+ */
+public class UdpResultPublisher {
+
+    private final InetSocketAddress target;
+    private final ResultPublisher resultPublisher;
+    private DatagramSocket socket;
+    private final DatagramPacket packet = new DatagramPacket(new byte[ResultFrame.SIZE], ResultFrame.SIZE);
+    private InetSocketAddress resolved;
+
+    //region Counters (sender thread)
+    private volatile long packetsSent = 0;
+    private volatile long sendErrors = 0;
+    //endregion
+
+    /**
+     * @param target where to send results, e.g. the robot controller or 255.255.255.255 and a port.
+     *               An unresolved address is looked up on the sender thread, and again after a
+     *               failed send.
+     */
+    public UdpResultPublisher(InetSocketAddress target){
+        this.target = target;
+        resultPublisher = new ResultPublisher("UdpResultPublisher", ResultFrame.SIZE, new ResultPublisher.Sink() {
+            @Override
+            public void send(byte[] message) {
+                sendPacket(message);
+            }
+
+            @Override
+            public void idle() {
+            }
+        });
+    }
+
+    /**
+     * Opens the socket and starts the sender thread
+     */
+    public synchronized void start() throws SocketException {
+        if(socket != null) return;
+        socket = new DatagramSocket();
+        socket.setBroadcast(true);
+        resultPublisher.start();
+        Notifier.d(getClass(), "Sending results to udp://" + target);
+    }
+
+    public synchronized void stop(){
+        resultPublisher.stop();
+        if(socket != null){
+            socket.close();
+            socket = null;
+        }
+    }
+
+    /**
+     * Queues an encoded {@link ResultFrame}; never blocks, a result that hasn't gone out yet is
+     * replaced
+     */
+    public void publishResult(byte[] message, long timestamp){
+        resultPublisher.post(message, timestamp);
+    }
+
+    private void sendPacket(byte[] message){
+        DatagramSocket s = socket;
+        if(s == null) return;
+        if(resolved == null || resolved.isUnresolved()){
+            resolved = target.isUnresolved() ? new InetSocketAddress(target.getHostName(), target.getPort()) : target;
+            if(resolved.isUnresolved()){
+                sendErrors++;
+                return;
+            }
+            packet.setSocketAddress(resolved);
+        }
+        packet.setData(message, 0, message.length);
+        try {
+            s.send(packet);
+            packetsSent++;
+        } catch (IOException e) {
+            //e.g. no route while the network is coming up; the next result is another chance
+            sendErrors++;
+            if(target.isUnresolved()) resolved = null;
+        }
+    }
+
+    public InetSocketAddress getTarget(){
+        return target;
+    }
+
+    public ResultPublisher getResultPublisher(){
+        return resultPublisher;
+    }
+
+    public long getPacketsSent(){
+        return packetsSent;
+    }
+
+    public long getSendErrors(){
+        return sendErrors;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("udp://%s: %d sent, %d errors", target, packetsSent, sendErrors);
+    }
+
+}
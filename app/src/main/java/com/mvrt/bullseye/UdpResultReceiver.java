@@ -0,0 +1,107 @@
+package com.mvrt.bullseye;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the datagrams {@link UdpResultPublisher} sends, keeping only results newer than the
+ * last one accepted. Meant for the receiving side (e.g. robot code) and for testing.
+ *
+ * Sequence numbers are compared as wrapping 32-bit counters, the way they're sent. A sequence
+ * number far behind the last one (e.g. the phone app restarted) resets the receiver after
+ * {@link #RESTART_GAP} rather than discarding everything from then on.
+ */
+public class UdpResultReceiver {
+
+    /** a jump back by more than this many frames is taken as the sender restarting */
+    public static final long RESTART_GAP = 1000;
+
+    private final DatagramSocket socket;
+    private final byte[] buffer = new byte[ResultFrame.SIZE + 1];
+    private final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+    private final ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+
+    private boolean hasLast = false;
+    private long lastSequence;
+
+    //region Counters
+    private long accepted, stale, invalid;
+    //endregion
+
+    /**
+     * @param port the port to listen on, 0 for any free one
+     */
+    public UdpResultReceiver(int port) throws SocketException {
+        socket = new DatagramSocket(port);
+    }
+
+    public int getPort(){
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Waits for the next result that's newer than the last one accepted
+     * @param out filled with the result (and may be overwritten by stale ones if this returns false)
+     * @return false if none arrived within the timeout
+     */
+    public boolean receive(ResultFrame out, int timeoutMillis) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while(true){
+            int remaining = (int)(deadline - System.currentTimeMillis());
+            if(remaining <= 0) return false;
+            socket.setSoTimeout(remaining);
+            packet.setLength(buffer.length);
+            try {
+                socket.receive(packet);
+            } catch (SocketTimeoutException e) {
+                return false;
+            }
+
+            wrapped.clear();
+            wrapped.limit(packet.getLength());
+            if(packet.getLength() != ResultFrame.SIZE || !out.decode(wrapped)){
+                invalid++;
+                continue;
+            }
+            if(accept(out.sequence)) return true;
+        }
+    }
+
+    /**
+     * @return true if the sequence number is newer than the last accepted one (and records it)
+     */
+    boolean accept(long sequence){
+        int ahead = (int)(sequence - lastSequence); //serial number arithmetic on 32 bits
+        if(hasLast && ahead <= 0 && -(long)ahead < RESTART_GAP){
+            stale++;
+            return false;
+        }
+        hasLast = true;
+        lastSequence = sequence;
+        accepted++;
+        return true;
+    }
+
+    public void close(){
+        socket.close();
+    }
+
+    public long getAccepted(){
+        return accepted;
+    }
+
+    /** results dropped for arriving after a newer one */
+    public long getStale(){
+        return stale;
+    }
+
+    /** datagrams that weren't a result frame of a known version */
+    public long getInvalid(){
+        return invalid;
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.mvrt.bullseye;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+
+/**
+ * Everything one frame needs on its way through {@link CVProcessor}'s stages: the raw NV12 data,
+ * the working Mats, the windows to search and the results.
+ *
+ * Frames are pooled and reused, so all of this is allocated once per frame in the pool rather
+ * than once per captured image, and several frames can be in different stages at the same time
+ * without sharing any Mats.
+ */
+public class VisionFrame {
+
+    static final int MAX_SEARCH_WINDOWS = 8;
+
+    final int width, height;
+
+    //region Input
+    /** swapped with the {@link com.mvrt.bullseye.util.FrameRing} slot's buffer, never copied */
+    byte[] nv12;
+    long timestamp;
+    CVProcessor.ThresholdMode mode;
+    CVProcessor.DetectionMethod detectionMethod;
+    //endregion
+
+    //region Frame accounting (from the FrameRing, published with the results)
+    long sequence;
+    long framesProduced, framesConsumed, framesDropped;
+    //endregion
+
+    //region Working Mats
+    final Mat yuvMat, yMat, uvMat;
+    /** a view on yMat for {@link FlowTracker}'s crop */
+    final MatWindow flowWindow;
+    final Mat rgbMat, hsvMat;
+    /** YUV mode: the chroma plane as remap coordinates, and the luma range looked up for it */
+    final Mat chromaMap, noMap, lumaLow, lumaHigh, lumaLowFull, lumaHighFull;
+    final Mat filterMat, heirarchyMat;
+    final Mat coarseMask, coarseY, coarseUV, coarseRgb;
+    final byte[] maskData;
+    final org.opencv.core.Size coarseSize = new org.opencv.core.Size();
+
+    final ArrayList<MatOfPoint> contours = new ArrayList<>();
+    final ArrayList<MatOfPoint> coarseContours = new ArrayList<>();
+    final BlobLabeler blobLabeler = new BlobLabeler();
+    final Point searchOffset = new Point();
+    //endregion
+
+    //region Search windows (set by the threshold stage, searched by the contour stage)
+    final Rect[] windows = new Rect[MAX_SEARCH_WINDOWS];
+    /** views on the same window of filterMat, yMat, uvMat and rgbMat, one per search window */
+    final MatWindow[] filterWindows = new MatWindow[MAX_SEARCH_WINDOWS];
+    final MatWindow[] yWindows = new MatWindow[MAX_SEARCH_WINDOWS];
+    final MatWindow[] uvWindows = new MatWindow[MAX_SEARCH_WINDOWS];
+    final MatWindow[] rgbWindows = new MatWindow[MAX_SEARCH_WINDOWS];
+    int windowCount;
+    boolean usedRoi;
+    /**
+     * the strips are tracked from the previous frame by {@link FlowTracker}, nothing is converted
+     * or thresholded; decided by the ingest stage
+     */
+    boolean flowFrame;
+    //endregion
+
+    //region Results
+    boolean found;
+    final TargetRect target1 = new TargetRect();
+    final TargetRect target2 = new TargetRect();
+    double pairConfidence;
+    double turnAngle;
+    double distance;
+    double verticalAngle;
+    /** rotation vector, then translation, see {@link PoseEstimator} */
+    final double[] pose = new double[6];
+    boolean poseValid;
+    //endregion
+
+    /** time spent in the threshold and contour stages, for {@link FlowTracker}'s per-path costs */
+    long pathNanos;
+    /** System.nanoTime() when the ingest stage started on this frame, for the whole-frame time */
+    long ingestNanos;
+
+    VisionFrame(int width, int height){
+        this.width = width;
+        this.height = height;
+
+        nv12 = new byte[width * height * 3/2];
+        maskData = new byte[width * height];
+
+        yuvMat = new Mat(height + height/2, width, CvType.CV_8UC1);
+        yMat = yuvMat.submat(0, height, 0, width);
+        uvMat = yuvMat.submat(height, yuvMat.rows(), 0, width).reshape(2);
+        flowWindow = new MatWindow(yMat);
+        rgbMat = new Mat();
+        hsvMat = new Mat();
+        chromaMap = new Mat();
+        noMap = new Mat();
+        lumaLow = new Mat();
+        lumaHigh = new Mat();
+        lumaLowFull = new Mat();
+        lumaHighFull = new Mat();
+        filterMat = new Mat(height, width, CvType.CV_8UC1);
+        heirarchyMat = new Mat();
+        coarseMask = new Mat();
+        coarseY = new Mat();
+        coarseUV = new Mat();
+        coarseRgb = new Mat();
+
+        for(int i = 0; i < MAX_SEARCH_WINDOWS; i++){
+            windows[i] = new Rect();
+            filterWindows[i] = new MatWindow(filterMat);
+            yWindows[i] = new MatWindow(yMat);
+            uvWindows[i] = new MatWindow(uvMat);
+            rgbWindows[i] = new MatWindow(rgbMat);
+        }
+    }
+
+    /**
+     * Clears the results and search windows of the previous use of this frame, once the new
+     * image is in {@link #nv12}
+     */
+    void reset(long timestamp, CVProcessor.ThresholdMode mode, CVProcessor.DetectionMethod detectionMethod){
+        this.timestamp = timestamp;
+        this.mode = mode;
+        this.detectionMethod = detectionMethod;
+        sequence = framesProduced = framesConsumed = framesDropped = 0;
+
+        for(MatOfPoint mop : contours) mop.release();
+        contours.clear();
+        windowCount = 0;
+        usedRoi = false;
+        flowFrame = false;
+        pathNanos = 0;
+        found = false;
+        poseValid = false;
+        pairConfidence = 0;
+    }
+
+    /**
+     * Sets the single search window to the whole frame
+     */
+    void searchFullFrame(){
+        Rect r = windows[0];
+        r.x = 0;
+        r.y = 0;
+        r.width = width;
+        r.height = height;
+        windowCount = 1;
+    }
+
+    boolean isFullFrame(Rect window){
+        return window.width == width && window.height == height;
+    }
+
+    /**
+     * Lets go of rgbMat's data, which the windows on it would otherwise keep alive
+     */
+    void releaseRgbWindows(){
+        for(MatWindow window : rgbWindows) window.release();
+    }
+
+    /**
+     * Frees the native memory behind the Mats; the frame can't be used afterwards
+     */
+    void release(){
+        for(MatOfPoint mop : contours) mop.release();
+        contours.clear();
+        for(int i = 0; i < MAX_SEARCH_WINDOWS; i++){
+            filterWindows[i].release();
+            yWindows[i].release();
+            uvWindows[i].release();
+            rgbWindows[i].release();
+        }
+        flowWindow.release();
+        yMat.release();
+        uvMat.release();
+        yuvMat.release();
+        rgbMat.release();
+        hsvMat.release();
+        chromaMap.release();
+        noMap.release();
+        lumaLow.release();
+        lumaHigh.release();
+        lumaLowFull.release();
+        lumaHighFull.release();
+        filterMat.release();
+        heirarchyMat.release();
+        coarseMask.release();
+        coarseY.release();
+        coarseUV.release();
+        coarseRgb.release();
+    }
+
+}
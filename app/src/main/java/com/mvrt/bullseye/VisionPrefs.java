@@ -7,6 +7,11 @@ public class VisionPrefs {
 
     /** Static Stuff */
     private static final String SHAREDPREFS_VISIONPREFS = "com.mvrt.bullseye.VISIONPREFS";
+    private static final String KEY_CAMERA_CALIBRATION = "camera_calibration";
+    private static final String KEY_THRESHOLD_MODE = "threshold_mode";
+    private static final String KEY_PYRAMID_LEVEL = "pyramid_level";
+    private static final String KEY_ROI_TRACKING = "roi_tracking";
+    private static final String KEY_FLOW_TRACKING = "flow_tracking";
 
     private static VisionPrefs tunedValues;
 
@@ -21,7 +26,11 @@ public class VisionPrefs {
     /** END Static Nonsense */
 
     /** Tuning Variables */
-
+    private CameraCalibration cameraCalibration;
+    private CVProcessor.ThresholdMode thresholdMode = CVProcessor.ThresholdMode.HSV;
+    private int pyramidLevel = 0;
+    private boolean roiTracking = false;
+    private boolean flowTracking = false;
 
     /** END Tuning Variables */
 
@@ -31,10 +40,88 @@ public class VisionPrefs {
 
     public void loadFromSharedPrefs(Context c){
         SharedPreferences prefs = c.getSharedPreferences(SHAREDPREFS_VISIONPREFS, Context.MODE_PRIVATE);
+        cameraCalibration = CameraCalibration.decode(prefs.getString(KEY_CAMERA_CALIBRATION, null));
+        thresholdMode = decodeThresholdMode(prefs.getString(KEY_THRESHOLD_MODE, null));
+        pyramidLevel = prefs.getInt(KEY_PYRAMID_LEVEL, 0);
+        roiTracking = prefs.getBoolean(KEY_ROI_TRACKING, false);
+        flowTracking = prefs.getBoolean(KEY_FLOW_TRACKING, false);
+    }
+
+    private static CVProcessor.ThresholdMode decodeThresholdMode(String name){
+        if(name == null) return CVProcessor.ThresholdMode.HSV;
+        try{
+            return CVProcessor.ThresholdMode.valueOf(name);
+        }catch(IllegalArgumentException e){
+            return CVProcessor.ThresholdMode.HSV;
+        }
     }
 
     public void saveToSharedPrefs(Context c){
         SharedPreferences prefs = c.getSharedPreferences(SHAREDPREFS_VISIONPREFS, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = prefs.edit();
+        if(cameraCalibration != null) editor.putString(KEY_CAMERA_CALIBRATION, cameraCalibration.encode());
+        else editor.remove(KEY_CAMERA_CALIBRATION);
+        editor.putString(KEY_THRESHOLD_MODE, thresholdMode.name());
+        editor.putInt(KEY_PYRAMID_LEVEL, pyramidLevel);
+        editor.putBoolean(KEY_ROI_TRACKING, roiTracking);
+        editor.putBoolean(KEY_FLOW_TRACKING, flowTracking);
+        editor.apply();
+    }
+
+    /**
+     * @return the last saved camera calibration, or null if the camera hasn't been calibrated
+     */
+    public CameraCalibration getCameraCalibration(){
+        return cameraCalibration;
+    }
+
+    public void setCameraCalibration(CameraCalibration calibration){
+        cameraCalibration = calibration;
+    }
+
+    public CVProcessor.ThresholdMode getThresholdMode(){
+        return thresholdMode;
+    }
+
+    public void setThresholdMode(CVProcessor.ThresholdMode mode){
+        thresholdMode = mode;
+    }
+
+    /**
+     * @return the coarse-to-fine level (see {@link CVProcessor#setPyramidLevel(int)})
+     */
+    public int getPyramidLevel(){
+        return pyramidLevel;
+    }
+
+    public void setPyramidLevel(int level){
+        pyramidLevel = level;
+    }
+
+    public boolean isRoiTracking(){
+        return roiTracking;
+    }
+
+    public void setRoiTracking(boolean enabled){
+        roiTracking = enabled;
+    }
+
+    public boolean isFlowTracking(){
+        return flowTracking;
+    }
+
+    public void setFlowTracking(boolean enabled){
+        flowTracking = enabled;
+    }
+
+    /**
+     * Applies the saved processing modes to the processor
+     */
+    public void applyTo(CVProcessor processor){
+        processor.setThresholdMode(thresholdMode);
+        processor.setPyramidLevel(pyramidLevel);
+        processor.setRoiTracking(roiTracking);
+        processor.setFlowTracking(flowTracking);
     }
 
     public interface PrefsUpdatedListener{
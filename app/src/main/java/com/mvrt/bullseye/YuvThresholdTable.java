@@ -0,0 +1,115 @@
+package com.mvrt.bullseye;
+
+import com.mvrt.bullseye.util.ColorConversions;
+
+import java.util.Arrays;
+
+/**
+ * The HSV threshold translated into NV12 (Y, U, V) space as a 256x256 chroma table holding, for
+ * every (U, V), the range of luma whose HSV conversion passes the threshold.
+ *
+ * For a fixed chroma, raising Y shifts R, G and B together, which raises HSV value and lowers
+ * saturation while the hue stays put, so the accepted luma is (up to clipping) one interval. The
+ * table keeps its ends: it never rejects a pixel the HSV path keeps and only lets through the
+ * odd pixel where clipping splits the interval. Cells nothing passes in hold the empty range
+ * [255, 0].
+ *
+ * The tables are laid out row = V, column = U, so a frame can be looked up with a remap of the
+ * chroma plane. They're only rebuilt when the thresholds actually change.
+ */
+public class YuvThresholdTable {
+
+    public static final int SIZE = 256;
+
+    private final byte[] lumaLow = new byte[SIZE * SIZE];
+    private final byte[] lumaHigh = new byte[SIZE * SIZE];
+    private int cells;
+
+    private final double[] low = new double[3];
+    private final double[] high = new double[3];
+    private boolean built = false;
+
+    /**
+     * Rebuilds the table if (and only if) the thresholds differ from the ones it was built with.
+     * Sweeps the whole YUV cube, so this is much slower than a frame.
+     * @return true if the table was rebuilt
+     */
+    public boolean setThresholds(double[] lowHSV, double[] highHSV){
+        if(built && sameBounds(lowHSV, highHSV)) return false;
+
+        System.arraycopy(lowHSV, 0, low, 0, 3);
+        System.arraycopy(highHSV, 0, high, 0, 3);
+        rebuild();
+        built = true;
+        return true;
+    }
+
+    private boolean sameBounds(double[] lowHSV, double[] highHSV){
+        for(int i = 0; i < 3; i++){
+            if(lowHSV[i] != low[i] || highHSV[i] != high[i]) return false;
+        }
+        return true;
+    }
+
+    private void rebuild(){
+        Arrays.fill(lumaLow, (byte)255);
+        Arrays.fill(lumaHigh, (byte)0);
+        cells = 0;
+
+        int[] rgb = new int[3];
+        int[] hsv = new int[3];
+
+        for(int v = 0; v < SIZE; v++){
+            for(int u = 0; u < SIZE; u++){
+                int yMin = -1, yMax = -1;
+                for(int y = 0; y < 256; y++){
+                    ColorConversions.yuvToHsv(y, u, v, rgb, hsv);
+                    if(!ColorConversions.inRange(hsv, low, high)) continue;
+                    if(yMin < 0) yMin = y;
+                    yMax = y;
+                }
+                if(yMin < 0) continue;
+
+                lumaLow[index(u, v)] = (byte)yMin;
+                lumaHigh[index(u, v)] = (byte)yMax;
+                cells++;
+            }
+        }
+    }
+
+    private static int index(int u, int v){
+        return (v << 8) | u;
+    }
+
+    /**
+     * @return true if no YUV value passes the thresholds
+     */
+    public boolean isEmpty(){
+        return cells == 0;
+    }
+
+    public boolean contains(int y, int u, int v){
+        int i = index(u, v);
+        return y >= (lumaLow[i] & 0xFF) && y <= (lumaHigh[i] & 0xFF);
+    }
+
+    /**
+     * @return the lowest accepted luma per chroma, row = V, column = U; not a copy
+     */
+    byte[] getLumaLow(){
+        return lumaLow;
+    }
+
+    /**
+     * @return the highest accepted luma per chroma, row = V, column = U; not a copy
+     */
+    byte[] getLumaHigh(){
+        return lumaHigh;
+    }
+
+    @Override
+    public String toString(){
+        return cells + " of " + (SIZE * SIZE) + " chroma cells";
+    }
+
+}
@@ -14,7 +14,9 @@ import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.params.StreamConfigurationMap;
 import android.media.Image;
 import android.media.ImageReader;
+import android.os.Build;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
@@ -29,6 +31,7 @@ import org.opencv.android.OpenCVLoader;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 public class CameraUtils {
 
@@ -37,6 +40,9 @@ public class CameraUtils {
     final static Size MAX_IMGREADER_SIZE = new Size(1280, 960);
     /** End config vars */
 
+    /** whether the camera's sensor timestamps count from boot including deep sleep (else: uptime) */
+    private static volatile boolean sensorTimestampRealtime = false;
+
     //region Load OpenCV
     /**
      * Loads the OpenCV libraries asynchronously
@@ -92,6 +98,12 @@ public class CameraUtils {
 
             assert (streamConfigMap != null);
 
+            if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.M){
+                Integer timestampSource = characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+                sensorTimestampRealtime = timestampSource != null
+                        && timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+            }
+
             SizeF sensorSize = characteristics.get(CameraCharacteristics.SENSOR_INFO_PHYSICAL_SIZE);
             float focalLength = characteristics.get(CameraCharacteristics.LENS_INFO_AVAILABLE_FOCAL_LENGTHS)[0];
 
@@ -104,6 +116,7 @@ public class CameraUtils {
             Notifier.s("Focal length (mm): " + focalLength);
             Notifier.s("Horizontal FOV: " + horizFOV);
             Notifier.s("Vertical FOV: " + vertFOV);
+            Notifier.s("Timestamp source: " + (sensorTimestampRealtime ? "realtime" : "uptime"));
             Notifier.endSection(Log.INFO, CameraUtils.class);
 
             Size[] sizes = streamConfigMap.getOutputSizes(ImageFormat.JPEG);
@@ -124,6 +137,16 @@ public class CameraUtils {
         }
     }
 
+    /**
+     * Converts a sensor timestamp (the start of exposure, {@link android.hardware.camera2.CaptureResult#SENSOR_TIMESTAMP},
+     * which {@link Image#getTimestamp()} also reports) to ms since the epoch, like
+     * {@link System#currentTimeMillis()}
+     */
+    public static long sensorTimestampToMillis(long sensorNanos){
+        long sensorNow = sensorTimestampRealtime ? SystemClock.elapsedRealtimeNanos() : System.nanoTime();
+        return System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(sensorNow - sensorNanos);
+    }
+
     public interface SizeListener{
         void onCameraSizeCalculated(Size preview, Size imgReader, SizeF fieldOfView);
     }
@@ -224,7 +247,8 @@ public class CameraUtils {
     public interface CaptureCallbacks{
         CaptureRequest.Builder editCaptureRequest(CaptureRequest.Builder builder);
         void onCaptureSessionConfigured(CameraCaptureSession session, CaptureRequest.Builder captureRequestBuilder, ImageReader imgReader);
-        void onImageCaptured(byte[] data);
+        /** Captured frames are packed into and published to this ring; null to drop them */
+        FrameRing getFrameRing();
     }
 
     private static CameraCaptureSession.CaptureCallback captureCallback = new CameraCaptureSession.CaptureCallback() {
@@ -284,33 +308,34 @@ public class CameraUtils {
             callbacks = onImageCaptured;
         }
 
-        byte[] data;
+        YuvPlaneAdapter planeAdapter;
 
         @Override
         public void onImageAvailable(ImageReader reader) {
             Image img = reader.acquireLatestImage();
             if(img == null)return;
+            long timestamp = sensorTimestampToMillis(img.getTimestamp());
 
-                Image.Plane Y = img.getPlanes()[0];
-                Image.Plane U = img.getPlanes()[1];
-                Image.Plane V = img.getPlanes()[2];
-
-                int Yb = Y.getBuffer().remaining();
-                int Ub = U.getBuffer().remaining();
-                int Vb = V.getBuffer().remaining();
+                if(planeAdapter == null || planeAdapter.getWidth() != img.getWidth() || planeAdapter.getHeight() != img.getHeight()) {
+                    planeAdapter = new YuvPlaneAdapter(img.getWidth(), img.getHeight());
+                    Notifier.v(this, "creating plane adapter");
+                }
 
-                if(data == null || data.length != Yb + Ub + Vb) {
-                    data = new byte[Yb + Ub + Vb];
-                    Notifier.v(this, "creating data buffer");
+                FrameRing ring = callbacks.getFrameRing();
+                if(ring == null || ring.getFrameSize() != planeAdapter.getPackedSize()){
+                    img.close();
+                    return;
                 }
 
-                Y.getBuffer().get(data, 0, Yb);
-                U.getBuffer().get(data, Yb, Ub);
-                V.getBuffer().get(data, Yb + Ub, Vb);
+                //pack straight into the ring's free buffer in NV12, skipping row padding (U and V share strides in YUV_420_888)
+                Image.Plane[] planes = img.getPlanes();
+                planeAdapter.packNV12(planes[0].getBuffer(), planes[0].getRowStride(),
+                        planes[1].getBuffer(), planes[2].getBuffer(),
+                        planes[1].getRowStride(), planes[1].getPixelStride(), ring.beginWrite());
 
                 img.close();
 
-            callbacks.onImageCaptured(data);
+            ring.publish(timestamp);
 
         }
 
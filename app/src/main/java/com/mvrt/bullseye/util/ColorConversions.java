@@ -0,0 +1,91 @@
+package com.mvrt.bullseye.util;
+
+/**
+ * Per-pixel color conversions that reproduce OpenCV's 8-bit integer math, so thresholds can be
+ * reasoned about (and tested) in Java without running a full-frame cvtColor.
+ */
+public class ColorConversions {
+
+    //region NV12 -> RGB (ITU-R BT.601, as in OpenCV's COLOR_YUV2RGB_NV12)
+    private static final int BT601_CY = 1220542;
+    private static final int BT601_CUB = 2116026;
+    private static final int BT601_CUG = -409993;
+    private static final int BT601_CVG = -852492;
+    private static final int BT601_CVR = 1673527;
+    private static final int BT601_SHIFT = 20;
+    private static final int BT601_HALF = 1 << (BT601_SHIFT - 1);
+    //endregion
+
+    //region RGB -> HSV (as in OpenCV's COLOR_RGB2HSV for 8-bit images, hue in 0..180)
+    private static final int HSV_SHIFT = 12;
+    private static final int[] S_DIV = new int[256];
+    private static final int[] H_DIV = new int[256];
+
+    static {
+        for(int i = 1; i < 256; i++){
+            S_DIV[i] = (int)Math.round((255 << HSV_SHIFT) / (1.0 * i));
+            H_DIV[i] = (int)Math.round((180 << HSV_SHIFT) / (6.0 * i));
+        }
+    }
+    //endregion
+
+    private static int clamp(int x){
+        return x < 0 ? 0 : (x > 255 ? 255 : x);
+    }
+
+    /**
+     * Converts one NV12 sample to RGB.
+     * @param rgb output, {r, g, b}
+     */
+    public static void yuvToRgb(int y, int u, int v, int[] rgb){
+        u -= 128;
+        v -= 128;
+        int yy = Math.max(0, y - 16) * BT601_CY;
+        rgb[0] = clamp((yy + BT601_HALF + BT601_CVR * v) >> BT601_SHIFT);
+        rgb[1] = clamp((yy + BT601_HALF + BT601_CVG * v + BT601_CUG * u) >> BT601_SHIFT);
+        rgb[2] = clamp((yy + BT601_HALF + BT601_CUB * u) >> BT601_SHIFT);
+    }
+
+    /**
+     * Converts one RGB pixel to HSV.
+     * @param hsv output, {h (0..180), s (0..255), v (0..255)}
+     */
+    public static void rgbToHsv(int r, int g, int b, int[] hsv){
+        int v = Math.max(b, Math.max(g, r));
+        int vmin = Math.min(b, Math.min(g, r));
+        int diff = v - vmin;
+
+        int s = (diff * S_DIV[v] + (1 << (HSV_SHIFT - 1))) >> HSV_SHIFT;
+
+        int h;
+        if(v == r) h = g - b;
+        else if(v == g) h = b - r + 2 * diff;
+        else h = r - g + 4 * diff;
+        h = (h * H_DIV[diff] + (1 << (HSV_SHIFT - 1))) >> HSV_SHIFT;
+        if(h < 0) h += 180;
+
+        hsv[0] = h;
+        hsv[1] = s;
+        hsv[2] = v;
+    }
+
+    /**
+     * Converts one NV12 sample straight to HSV, i.e. what YUV2RGBA_NV12 followed by RGB2HSV gives.
+     * @param rgb scratch array of length 3
+     * @param hsv output, {h, s, v}
+     */
+    public static void yuvToHsv(int y, int u, int v, int[] rgb, int[] hsv){
+        yuvToRgb(y, u, v, rgb);
+        rgbToHsv(rgb[0], rgb[1], rgb[2], hsv);
+    }
+
+    /**
+     * @return true if the pixel lies inside the bounds, inclusive on both ends (like Core.inRange)
+     */
+    public static boolean inRange(int[] hsv, double[] low, double[] high){
+        return hsv[0] >= low[0] && hsv[0] <= high[0]
+                && hsv[1] >= low[1] && hsv[1] <= high[1]
+                && hsv[2] >= low[2] && hsv[2] <= high[2];
+    }
+
+}
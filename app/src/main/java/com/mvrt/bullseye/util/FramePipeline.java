@@ -0,0 +1,202 @@
+package com.mvrt.bullseye.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A chain of processing stages, each running on its own thread, that pooled frames flow through
+ * in order.
+ *
+ * Frames are preallocated by a {@link FrameFactory} and recycled once the last stage is done
+ * with them, so the number of frames in flight (and with it memory and latency) is bounded by
+ * the pool size. When every frame is busy, {@link #acquire()} returns null and the caller should
+ * drop its input instead of waiting. Nothing here depends on Android, so a pipeline can be run
+ * against a replayed frame source on a plain JVM.
+ */
+public class FramePipeline<F> {
+
+    public interface FrameFactory<F>{
+        F create();
+    }
+
+    public interface Stage<F>{
+        void process(F frame) throws Exception;
+    }
+
+    private final String name;
+    private final BlockingQueue<F> pool;
+    private final List<String> stageNames = new ArrayList<>();
+    private final List<Stage<F>> stages = new ArrayList<>();
+    private final List<BlockingQueue<F>> queues = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final int poolSize;
+
+    private volatile boolean running = false;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public FramePipeline(String name, int poolSize, FrameFactory<F> factory){
+        this.name = name;
+        this.poolSize = poolSize;
+        pool = new ArrayBlockingQueue<>(poolSize);
+        for(int i = 0; i < poolSize; i++) pool.add(factory.create());
+    }
+
+    /**
+     * Adds a stage after the ones already added. Only allowed before {@link #start()}.
+     */
+    public FramePipeline<F> addStage(String stageName, Stage<F> stage){
+        if(running) throw new IllegalStateException("Can't add stages to a running pipeline");
+        stageNames.add(stageName);
+        stages.add(stage);
+        queues.add(new ArrayBlockingQueue<F>(poolSize));
+        return this;
+    }
+
+    public synchronized void start(){
+        if(running) return;
+        if(stages.isEmpty()) throw new IllegalStateException("Pipeline has no stages");
+        running = true;
+        threads.clear();
+        for(int i = 0; i < stages.size(); i++){
+            Thread t = new Thread(new StageRunner(i), name + "-" + stageNames.get(i));
+            threads.add(t);
+            t.start();
+        }
+    }
+
+    /**
+     * Stops every stage thread, waits for them, and returns all frames to the pool
+     */
+    public synchronized void stop(){
+        if(!running) return;
+        running = false;
+        for(Thread t : threads) t.interrupt();
+        for(Thread t : threads){
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        threads.clear();
+        for(BlockingQueue<F> queue : queues) queue.drainTo(pool);
+    }
+
+    public boolean isRunning(){
+        return running;
+    }
+
+    /**
+     * @return a free frame, or null if all of them are in flight (counted as a drop)
+     */
+    public F acquire(){
+        F frame = pool.poll();
+        if(frame == null) dropped.incrementAndGet();
+        return frame;
+    }
+
+    /**
+     * Waits up to the timeout for a free frame. Unlike {@link #acquire()}, running out of frames
+     * is expected here (the caller is pacing itself to the pipeline) and isn't counted as a drop.
+     * @return a free frame, or null on timeout
+     */
+    public F acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.poll(timeout, unit);
+    }
+
+    /**
+     * Hands an acquired frame to the first stage
+     */
+    public void submit(F frame){
+        if(!running){
+            release(frame);
+            return;
+        }
+        submitted.incrementAndGet();
+        queues.get(0).add(frame);
+    }
+
+    /**
+     * Returns an acquired frame to the pool without processing it
+     */
+    public void release(F frame){
+        pool.offer(frame);
+    }
+
+    /**
+     * Frames handed out by {@link #acquire()} that are still being processed
+     */
+    public int getInFlight(){
+        return poolSize - pool.size();
+    }
+
+    public long getSubmitted(){
+        return submitted.get();
+    }
+
+    public long getCompleted(){
+        return completed.get();
+    }
+
+    public long getDropped(){
+        return dropped.get();
+    }
+
+    public long getFailed(){
+        return failed.get();
+    }
+
+    private class StageRunner implements Runnable{
+
+        private final int index;
+
+        StageRunner(int index){
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            Stage<F> stage = stages.get(index);
+            BlockingQueue<F> in = queues.get(index);
+            BlockingQueue<F> out = index + 1 < queues.size() ? queues.get(index + 1) : null;
+
+            while(running){
+                F frame;
+                try {
+                    frame = in.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                try {
+                    stage.process(frame);
+                } catch (InterruptedException e) {
+                    release(frame);
+                    return;
+                } catch (Exception e) {
+                    failed.incrementAndGet();
+                    e.printStackTrace();
+                    release(frame);
+                    continue;
+                }
+
+                if(out == null){
+                    completed.incrementAndGet();
+                    release(frame);
+                }else{
+                    //never blocks: every queue can hold the whole pool
+                    out.add(frame);
+                }
+            }
+        }
+    }
+
+}
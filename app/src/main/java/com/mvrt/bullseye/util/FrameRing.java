@@ -0,0 +1,166 @@
+package com.mvrt.bullseye.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free, single-producer/single-consumer hand-off of preallocated frame buffers where the
+ * latest frame wins.
+ *
+ * There are three slots: one the producer is writing, one the consumer is reading, and the most
+ * recently published one in between. Publishing swaps the written slot into the middle; if the
+ * consumer hadn't taken the previous one yet, that frame is counted as dropped and its buffer is
+ * reused. The producer never waits and the consumer always gets the newest frame. Every published
+ * frame gets a sequence number, so gaps are visible downstream.
+ *
+ * {@link #beginWrite()} and {@link #publish(long)} must only be called from the producer thread,
+ * {@link #poll()}, {@link #take(long)} and {@link Slot#swapData} only from the consumer thread.
+ *
+ * A consumer that keeps frames longer than until its next poll can take the buffer itself with
+ * {@link Slot#swapData}, giving the ring one of its own in return, instead of copying it out.
+ */
+public class FrameRing {
+
+    private static final int SLOTS = 3;
+    private static final int FRESH = 4;
+    private static final int INDEX_MASK = 3;
+
+    public static class Slot {
+        /** the frame; replaced by {@link #swapData} */
+        public byte[] data;
+        long sequence;
+        long timestamp;
+
+        Slot(int frameSize){
+            data = new byte[frameSize];
+        }
+
+        /**
+         * Takes this slot's buffer and puts the given one in its place, for the ring to write
+         * a later frame into (consumer only, on the slot it polled last). Neither is copied.
+         * @param replacement a buffer of the ring's frame size, which the caller must not touch
+         *                    afterwards
+         * @return the frame's buffer, the caller's to keep
+         */
+        public byte[] swapData(byte[] replacement){
+            if(replacement.length != data.length) throw new IllegalArgumentException("Invalid buffer size: " + replacement.length);
+            byte[] frame = data;
+            data = replacement;
+            return frame;
+        }
+
+        public long getSequence(){
+            return sequence;
+        }
+
+        public long getTimestamp(){
+            return timestamp;
+        }
+    }
+
+    private final Slot[] slots = new Slot[SLOTS];
+    private final int frameSize;
+
+    /** index of the published slot, plus {@link #FRESH} if the consumer hasn't taken it yet */
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int writeIndex = 0; //producer only
+    private int readIndex = 2; //consumer only
+
+    private volatile Thread waitingConsumer;
+
+    //region Counters
+    private volatile long produced = 0;
+    private volatile long consumed = 0;
+    private volatile long dropped = 0;
+    //endregion
+
+    public FrameRing(int frameSize){
+        if(frameSize <= 0) throw new IllegalArgumentException("Invalid frame size: " + frameSize);
+        this.frameSize = frameSize;
+        for(int i = 0; i < SLOTS; i++) slots[i] = new Slot(frameSize);
+    }
+
+    public int getFrameSize(){
+        return frameSize;
+    }
+
+    /**
+     * @return the buffer to write the next frame into (producer only)
+     */
+    public byte[] beginWrite(){
+        return slots[writeIndex].data;
+    }
+
+    /**
+     * Publishes the frame written into {@link #beginWrite()}'s buffer, replacing any frame the
+     * consumer hasn't taken yet (producer only).
+     * @return the sequence number given to the frame
+     */
+    public long publish(long timestamp){
+        Slot slot = slots[writeIndex];
+        long sequence = produced + 1;
+        slot.sequence = sequence;
+        slot.timestamp = timestamp;
+        produced = sequence;
+
+        int previous = middle.getAndSet(writeIndex | FRESH);
+        if((previous & FRESH) != 0) dropped++;
+        writeIndex = previous & INDEX_MASK;
+
+        Thread consumer = waitingConsumer;
+        if(consumer != null) LockSupport.unpark(consumer);
+        return sequence;
+    }
+
+    /**
+     * @return the latest published frame, or null if there is nothing newer than the last one
+     * taken (consumer only). The slot stays valid until the next poll/take.
+     */
+    public Slot poll(){
+        if((middle.get() & FRESH) == 0) return null;
+        int previous = middle.getAndSet(readIndex);
+        readIndex = previous & INDEX_MASK;
+        consumed++;
+        return slots[readIndex];
+    }
+
+    /**
+     * Like {@link #poll()}, but waits up to {@code timeoutNanos} for a new frame
+     */
+    public Slot take(long timeoutNanos){
+        Slot slot = poll();
+        if(slot != null || timeoutNanos <= 0) return slot;
+
+        long deadline = System.nanoTime() + timeoutNanos;
+        //register before polling again, so a publish in between still unparks us
+        waitingConsumer = Thread.currentThread();
+        try{
+            while((slot = poll()) == null){
+                long remaining = deadline - System.nanoTime();
+                if(remaining <= 0 || Thread.currentThread().isInterrupted()) break;
+                LockSupport.parkNanos(this, remaining);
+            }
+        }finally{
+            waitingConsumer = null;
+        }
+        return slot;
+    }
+
+    public long getProduced(){
+        return produced;
+    }
+
+    public long getConsumed(){
+        return consumed;
+    }
+
+    public long getDropped(){
+        return dropped;
+    }
+
+    @Override
+    public String toString(){
+        return "Frames produced: " + produced + ", consumed: " + consumed + ", dropped: " + dropped;
+    }
+
+}
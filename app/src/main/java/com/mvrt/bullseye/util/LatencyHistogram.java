@@ -0,0 +1,121 @@
+package com.mvrt.bullseye.util;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-size, log-linear histogram of durations in ns, in the style of HdrHistogram: every
+ * power of two is split into {@link #SUB_BUCKETS} equal buckets, so any recorded value is known to
+ * within 1/{@link #SUB_BUCKETS} (~3%) from 0 ns up to {@link #HIGHEST_TRACKABLE} (~17 s, longer
+ * durations are counted as that). The exact max is kept on the side.
+ *
+ * Recording is a few shifts and an increment into a preallocated array, never an allocation.
+ * Every method is synchronized, so one thread can record while another reads or takes a window
+ * with {@link #moveTo}; the lock is uncontended on the recording thread except during a move.
+ */
+public class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 5;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    public static final long HIGHEST_TRACKABLE = (1L << 34) - 1;
+    static final int BUCKET_COUNT = bucketIndex(HIGHEST_TRACKABLE) + 1;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count, total, max;
+
+    /**
+     * Values below 2 * {@link #SUB_BUCKETS} get a bucket each; above that, a value with its
+     * highest bit at 2^k shares a bucket with the 2^(k - {@link #SUB_BUCKET_BITS}) values that
+     * only differ below it
+     */
+    static int bucketIndex(long value){
+        if(value < 2 * SUB_BUCKETS) return (int)value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int)(value >>> shift);
+    }
+
+    /** @return the smallest value that falls in the bucket */
+    static long lowestValueAt(int index){
+        if(index < 2 * SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        return (long)(index - shift * SUB_BUCKETS) << shift;
+    }
+
+    /** @return the largest value that falls in the bucket */
+    static long highestValueAt(int index){
+        if(index < 2 * SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        return lowestValueAt(index) + (1L << shift) - 1;
+    }
+
+    /** @param nanos a duration; negative ones are counted as 0 */
+    public synchronized void record(long nanos){
+        if(nanos < 0) nanos = 0;
+        counts[bucketIndex(Math.min(nanos, HIGHEST_TRACKABLE))]++;
+        count++;
+        total += nanos;
+        if(nanos > max) max = nanos;
+    }
+
+    public synchronized long getCount(){
+        return count;
+    }
+
+    /** @return the longest duration recorded, exact, in ns */
+    public synchronized long getMax(){
+        return max;
+    }
+
+    /** @return the mean duration, exact, in ns */
+    public synchronized double getMean(){
+        return count == 0 ? 0 : total / (double)count;
+    }
+
+    /**
+     * @param percentile 0 to 100, e.g. 99.9
+     * @return the duration, in ns, at or below which that share of the recorded ones fall: the top
+     * of its bucket, so at most ~3% over the true value, and never over the max; 0 if empty
+     */
+    public synchronized long getValueAtPercentile(double percentile){
+        if(count == 0) return 0;
+        long rank = (long)Math.ceil(Math.max(0, Math.min(100, percentile)) / 100 * count);
+        if(rank < 1) rank = 1;
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++){
+            seen += counts[i];
+            if(seen >= rank) return Math.min(highestValueAt(i), max);
+        }
+        return max;
+    }
+
+    public synchronized void reset(){
+        if(count == 0) return;
+        Arrays.fill(counts, 0);
+        count = total = max = 0;
+    }
+
+    /**
+     * Replaces out's contents with this histogram's and resets this one, in one step, so nothing
+     * recorded meanwhile is lost or counted twice
+     */
+    public void moveTo(LatencyHistogram out){
+        synchronized (this){
+            synchronized (out){
+                System.arraycopy(counts, 0, out.counts, 0, counts.length);
+                out.count = count;
+                out.total = total;
+                out.max = max;
+            }
+            reset();
+        }
+    }
+
+    /**
+     * @return "n=1234 p50=1.234 p99=2.345 p999=3.456 max=4.567", in ms
+     */
+    @Override
+    public synchronized String toString(){
+        return String.format("n=%d p50=%.3f p99=%.3f p999=%.3f max=%.3f", count,
+                getValueAtPercentile(50) / 1e6, getValueAtPercentile(99) / 1e6, getValueAtPercentile(99.9) / 1e6, max / 1e6);
+    }
+
+}
@@ -12,6 +12,21 @@ public class Notifier {
 
     public static final String LOG_TAG = "MVRTLOG";
 
+    /**
+     * Gets every line logged through this class, e.g. to forward it to remote clients. Called on
+     * the logging thread, so it must not block.
+     */
+    public interface LogListener{
+        void onLog(int logType, String logText);
+    }
+
+    private static volatile LogListener logListener;
+
+    /** @param listener gets every line logged from now on; null to stop */
+    public static void setLogListener(LogListener listener){
+        logListener = listener;
+    }
+
     public static void i(Object obj, String logText){
         log(Log.INFO, obj.getClass(), logText);
     }
@@ -60,6 +75,8 @@ public class Notifier {
                 Log.i(LOG_TAG, logText);
                 break;
         }
+        LogListener listener = logListener;
+        if(listener != null) listener.onLog(logType, logText);
     }
 
     public static void toast(Context act, String toastText, int toastTime){
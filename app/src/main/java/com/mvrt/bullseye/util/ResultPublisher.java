@@ -0,0 +1,163 @@
+package com.mvrt.bullseye.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends fixed-size messages from a dedicated thread, so however slow the receivers are, posting
+ * a message never blocks the thread that produced it.
+ *
+ * Messages go through a {@link FrameRing} used as a single-slot mailbox: the producer copies the
+ * newest message in and moves on, and the sender thread takes whatever is newest when it's free.
+ * A message that's replaced before the sender gets to it is coalesced away (counted by
+ * {@link #getCoalesced()}), since receivers only care about the latest result.
+ *
+ * {@link #post} must only be called from one thread at a time.
+ */
+public class ResultPublisher {
+
+    public interface Sink{
+        /**
+         * Sends a message to every receiver. The array is reused once this returns.
+         */
+        void send(byte[] message);
+
+        /**
+         * Called on the sender thread when no message has come in for {@link #IDLE_MILLIS}, e.g.
+         * to retry sends that had to be held back
+         */
+        void idle();
+    }
+
+    public static final long IDLE_MILLIS = 100;
+
+    private final String name;
+    private final FrameRing mailbox;
+    private final Sink sink;
+    private Thread sender;
+
+    //region Counters (sender thread)
+    private volatile long sent = 0;
+    private volatile long failed = 0;
+    private volatile long sendNanos = 0;
+    private volatile long maxSendNanos = 0;
+    //endregion
+
+    private volatile LatencyHistogram sendHistogram;
+
+    public ResultPublisher(String name, int messageSize, Sink sink){
+        this.name = name;
+        this.sink = sink;
+        mailbox = new FrameRing(messageSize);
+    }
+
+    public int getMessageSize(){
+        return mailbox.getFrameSize();
+    }
+
+    /**
+     * Also records how long each send takes into the histogram, or stops doing so if null
+     */
+    public void setSendHistogram(LatencyHistogram histogram){
+        sendHistogram = histogram;
+    }
+
+    public synchronized void start(){
+        if(sender != null) return;
+        sender = new Thread(new Sender(), name + "-Sender");
+        sender.start();
+    }
+
+    /**
+     * Stops the sender thread once its current send returns; unsent messages are dropped
+     */
+    public synchronized void stop(){
+        if(sender == null) return;
+        sender.interrupt();
+        try {
+            sender.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sender = null;
+    }
+
+    public synchronized boolean isRunning(){
+        return sender != null;
+    }
+
+    /**
+     * Copies a message into the mailbox, replacing one that hasn't been sent yet. Never blocks.
+     * @return the message's sequence number
+     */
+    public long post(byte[] message, long timestamp){
+        if(message.length != mailbox.getFrameSize())
+            throw new IllegalArgumentException("Message is " + message.length + " bytes, expected " + mailbox.getFrameSize());
+        System.arraycopy(message, 0, mailbox.beginWrite(), 0, message.length);
+        return mailbox.publish(timestamp);
+    }
+
+    private class Sender implements Runnable{
+        @Override
+        public void run() {
+            while(!Thread.currentThread().isInterrupted()){
+                FrameRing.Slot slot = mailbox.take(TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS));
+                if(slot == null){
+                    try {
+                        sink.idle();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                    continue;
+                }
+
+                long start = System.nanoTime();
+                try {
+                    sink.send(slot.data);
+                    sent++;
+                } catch (RuntimeException e) {
+                    failed++;
+                    e.printStackTrace();
+                }
+                long elapsed = System.nanoTime() - start;
+                sendNanos += elapsed;
+                if(elapsed > maxSendNanos) maxSendNanos = elapsed;
+                LatencyHistogram histogram = sendHistogram;
+                if(histogram != null) histogram.record(elapsed);
+            }
+        }
+    }
+
+    public long getPosted(){
+        return mailbox.getProduced();
+    }
+
+    public long getSent(){
+        return sent;
+    }
+
+    /** messages replaced by a newer one before they could be sent */
+    public long getCoalesced(){
+        return mailbox.getDropped();
+    }
+
+    public long getFailed(){
+        return failed;
+    }
+
+    /** mean time the sink took per message, in ms */
+    public double getSendMillis(){
+        long n = sent + failed;
+        return n == 0 ? 0 : sendNanos / 1e6 / n;
+    }
+
+    public double getMaxSendMillis(){
+        return maxSendNanos / 1e6;
+    }
+
+    @Override
+    public String toString(){
+        return String.format("%s: %d posted, %d sent, %d coalesced, %d failed, %.3f ms/send (max %.3f)",
+                name, getPosted(), sent, getCoalesced(), failed, getSendMillis(), getMaxSendMillis());
+    }
+
+}
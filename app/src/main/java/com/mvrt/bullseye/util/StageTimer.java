@@ -0,0 +1,123 @@
+package com.mvrt.bullseye.util;
+
+import java.util.Locale;
+
+/**
+ * Times the stages of processing a frame into one {@link LatencyHistogram} per stage, with the
+ * stages given by an enum:
+ * <pre>
+ *     long t = System.nanoTime();
+ *     convert();
+ *     t = timer.record(Stage.CONVERT, t);
+ *     threshold();
+ *     t = timer.record(Stage.THRESHOLD, t);
+ * </pre>
+ * Each {@link #record} is one {@link System#nanoTime()} and a histogram increment, so it can stay
+ * on in production. Each stage can be recorded from any thread.
+ *
+ * The histograms are read in windows: {@link #rollWindow()} moves everything recorded since the
+ * last roll into the window histograms and starts over, so percentiles describe the last window
+ * rather than the whole run. Rolling and reading the window must happen on one thread.
+ */
+public class StageTimer<S extends Enum<S>> {
+
+    private final S[] stages;
+    private final LatencyHistogram[] live;
+    private final LatencyHistogram[] window;
+    private volatile long liveStart = System.nanoTime();
+    private long windowNanos = 0;
+
+    public StageTimer(Class<S> stageType){
+        stages = stageType.getEnumConstants();
+        live = new LatencyHistogram[stages.length];
+        window = new LatencyHistogram[stages.length];
+        for(int i = 0; i < stages.length; i++){
+            live[i] = new LatencyHistogram();
+            window[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records the time from start to now for a stage
+     * @return now, from {@link System#nanoTime()}, to start the next stage from
+     */
+    public long record(S stage, long startNanos){
+        long now = System.nanoTime();
+        live[stage.ordinal()].record(now - startNanos);
+        return now;
+    }
+
+    /**
+     * @return the histogram a stage is being recorded into, e.g. for code that measures its own
+     * durations; recording into it is the same as {@link #record}
+     */
+    public LatencyHistogram getRecorder(S stage){
+        return live[stage.ordinal()];
+    }
+
+    /** @return ns since the current window started */
+    public long getLiveNanos(){
+        return System.nanoTime() - liveStart;
+    }
+
+    /**
+     * Ends the current window: what's been recorded since the last roll becomes the window
+     * returned by {@link #getWindow}, and recording starts over
+     */
+    public void rollWindow(){
+        long now = System.nanoTime();
+        for(int i = 0; i < live.length; i++) live[i].moveTo(window[i]);
+        windowNanos = now - liveStart;
+        liveStart = now;
+    }
+
+    /** @return a stage's durations in the last window rolled */
+    public LatencyHistogram getWindow(S stage){
+        return window[stage.ordinal()];
+    }
+
+    /** @return the length of the last window rolled, in ns */
+    public long getWindowNanos(){
+        return windowNanos;
+    }
+
+    /**
+     * Clears the live histograms, e.g. after changing settings, so the next window only has
+     * durations from after the change
+     */
+    public void reset(){
+        for(LatencyHistogram histogram : live) histogram.reset();
+        liveStart = System.nanoTime();
+    }
+
+    /**
+     * Appends the last window as JSON, durations in ms:
+     * {"windowMillis":1000.1,"threshold":{"count":30,"p50":1.2,"p99":2.3,"p999":2.3,"max":2.4},...}
+     * Stages are keyed by their lower-case names. Stages with nothing recorded are left out.
+     */
+    public void appendJson(StringBuilder out){
+        out.append("{\"windowMillis\":").append(windowNanos / 1e6);
+        for(int i = 0; i < stages.length; i++){
+            LatencyHistogram h = window[i];
+            if(h.getCount() == 0) continue;
+            out.append(",\"").append(stages[i].name().toLowerCase(Locale.US)).append("\":{\"count\":").append(h.getCount())
+                    .append(",\"p50\":").append(h.getValueAtPercentile(50) / 1e6)
+                    .append(",\"p99\":").append(h.getValueAtPercentile(99) / 1e6)
+                    .append(",\"p999\":").append(h.getValueAtPercentile(99.9) / 1e6)
+                    .append(",\"max\":").append(h.getMax() / 1e6)
+                    .append('}');
+        }
+        out.append('}');
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder out = new StringBuilder(String.format("StageTimer, %.0f ms window:", windowNanos / 1e6));
+        for(int i = 0; i < stages.length; i++){
+            if(window[i].getCount() == 0) continue;
+            out.append("\n  ").append(stages[i].name().toLowerCase(Locale.US)).append(": ").append(window[i]);
+        }
+        return out.toString();
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.mvrt.bullseye.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs the three planes of a YUV_420_888 image into one tightly packed NV12 buffer
+ * (full-size Y plane, followed by interleaved U/V at half resolution).
+ *
+ * Row and pixel strides are honoured, so padded rows and both planar (pixelStride 1) and
+ * semi-planar (pixelStride 2) chroma layouts come out the same. No Android classes are used,
+ * so this can be tested on a plain JVM.
+ */
+public class YuvPlaneAdapter {
+
+    private final int width;
+    private final int height;
+    private final int chromaWidth;
+    private final int chromaHeight;
+
+    private byte[] uRow, vRow;
+
+    public YuvPlaneAdapter(int width, int height){
+        if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+            throw new IllegalArgumentException("Image size must be positive and even: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        chromaWidth = width/2;
+        chromaHeight = height/2;
+    }
+
+    public int getWidth(){
+        return width;
+    }
+
+    public int getHeight(){
+        return height;
+    }
+
+    /**
+     * @return number of bytes in a packed NV12 frame (width * height * 3/2)
+     */
+    public int getPackedSize(){
+        return width * height + 2 * chromaWidth * chromaHeight;
+    }
+
+    /**
+     * Copies the planes into {@code out}. U and V must share a row and pixel stride, which
+     * YUV_420_888 guarantees. The buffers' positions are moved; their contents are not.
+     */
+    public void packNV12(ByteBuffer y, int yRowStride,
+                         ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride,
+                         byte[] out){
+        if(out.length < getPackedSize())
+            throw new IllegalArgumentException("Output buffer too small: " + out.length + " < " + getPackedSize());
+
+        //luma: one bulk copy if the rows are tight, otherwise row by row skipping the padding
+        if(yRowStride == width){
+            y.position(0);
+            y.get(out, 0, width * height);
+        }else{
+            for(int row = 0; row < height; row++){
+                y.position(row * yRowStride);
+                y.get(out, row * width, width);
+            }
+        }
+
+        //chroma: pull one row of each plane, then pick every pixelStride-th byte into U,V pairs
+        int rowBytes = (chromaWidth - 1) * uvPixelStride + 1;
+        if(uRow == null || uRow.length < rowBytes){
+            uRow = new byte[rowBytes];
+            vRow = new byte[rowBytes];
+        }
+
+        int o = width * height;
+        for(int row = 0; row < chromaHeight; row++){
+            u.position(row * uvRowStride);
+            u.get(uRow, 0, rowBytes);
+            v.position(row * uvRowStride);
+            v.get(vRow, 0, rowBytes);
+
+            for(int i = 0; i < rowBytes; i += uvPixelStride){
+                out[o++] = uRow[i];
+                out[o++] = vRow[i];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,224 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BlobLabelerTest {
+
+    private static final int W = 1280;
+    private static final int H = 960;
+
+    private static byte[] mask(String... rows){
+        byte[] mask = new byte[rows.length * rows[0].length()];
+        for(int y = 0; y < rows.length; y++){
+            for(int x = 0; x < rows[y].length(); x++){
+                if(rows[y].charAt(x) == '#') mask[y * rows[0].length() + x] = (byte)255;
+            }
+        }
+        return mask;
+    }
+
+    @Test
+    public void separateAndMergedBlobs(){
+        BlobLabeler labeler = new BlobLabeler();
+        //a U that only joins at the bottom, a diagonal pair, and a lone pixel
+        byte[] mask = mask(
+                "#..#......",
+                "#..#...#..",
+                "####....#.",
+                "..........",
+                ".........#");
+        labeler.label(mask, 10, 5, 0, 0);
+
+        assertEquals(3, labeler.getBlobCount());
+        int u = labeler.largest(-1);
+        assertEquals(8, labeler.getArea(u));
+        assertEquals(0, labeler.getMinX(u));
+        assertEquals(3, labeler.getMaxX(u));
+        assertEquals(0, labeler.getMinY(u));
+        assertEquals(2, labeler.getMaxY(u));
+
+        int diagonal = labeler.largest(u);
+        assertEquals(2, labeler.getArea(diagonal));
+        assertEquals(7.5, labeler.getCenterX(diagonal), 1e-9);
+        assertEquals(1.5, labeler.getCenterY(diagonal), 1e-9);
+    }
+
+    @Test
+    public void offsetsAndAccumulation(){
+        BlobLabeler labeler = new BlobLabeler();
+        byte[] mask = mask("##", "##");
+        labeler.label(mask, 2, 2, 100, 50);
+        labeler.label(mask, 2, 2, 200, 60);
+
+        assertEquals(2, labeler.getBlobCount());
+        assertEquals(100.5, labeler.getCenterX(0), 1e-9);
+        assertEquals(50.5, labeler.getCenterY(0), 1e-9);
+        assertEquals(201, labeler.getMaxX(1));
+        assertEquals(61, labeler.getMaxY(1));
+
+        labeler.reset();
+        assertEquals(0, labeler.getBlobCount());
+    }
+
+    @Test
+    public void momentsGiveRectangleShape(){
+        BlobLabeler labeler = new BlobLabeler();
+        TargetRect rect = new TargetRect();
+        for(int degrees = -80; degrees <= 80; degrees += 20){
+            byte[] mask = new byte[400 * 400];
+            fillRotatedRect(mask, 400, 200, 200, 30, 120, degrees);
+            labeler.reset();
+            labeler.label(mask, 400, 400, 0, 0);
+
+            assertEquals(1, labeler.getBlobCount());
+            labeler.toTargetRect(0, rect);
+            assertEquals(200, rect.centerX, 0.5);
+            assertEquals(200, rect.centerY, 0.5);
+            assertEquals(30, rect.width, 1.5);
+            assertEquals(120, rect.length, 1.5);
+            assertEquals("at " + degrees, degrees, rect.angle, 1);
+        }
+    }
+
+    private static void fillRotatedRect(byte[] mask, int width, double cx, double cy, double w, double l, double degrees){
+        double a = Math.toRadians(degrees);
+        double ux = Math.cos(a), uy = Math.sin(a);
+        for(int y = 0; y < mask.length / width; y++){
+            for(int x = 0; x < width; x++){
+                double dx = x - cx, dy = y - cy;
+                if(Math.abs(dx * ux + dy * uy) <= l / 2 && Math.abs(-dx * uy + dy * ux) <= w / 2) mask[y * width + x] = (byte)255;
+            }
+        }
+    }
+
+    /** Compares against a plain 8-connected flood fill on random noise, where blobs have every shape */
+    @Test
+    public void matchesFloodFillOnNoise(){
+        Random random = new Random(9);
+        int width = 200, height = 150;
+        BlobLabeler labeler = new BlobLabeler();
+        for(int trial = 0; trial < 20; trial++){
+            byte[] mask = new byte[width * height];
+            for(int i = 0; i < mask.length; i++) if(random.nextInt(100) < 35 + trial) mask[i] = (byte)255;
+
+            labeler.reset();
+            labeler.label(mask, width, height, 0, 0);
+            int[] expected = floodFillAreas(mask, width, height);
+            int[] actual = new int[labeler.getBlobCount()];
+            for(int b = 0; b < actual.length; b++) actual[b] = labeler.getArea(b);
+            Arrays.sort(actual);
+            assertArrayEquals(expected, actual);
+        }
+    }
+
+    private static int[] floodFillAreas(byte[] mask, int width, int height){
+        boolean[] seen = new boolean[mask.length];
+        int[] stack = new int[mask.length];
+        List<Integer> areas = new ArrayList<>();
+        for(int start = 0; start < mask.length; start++){
+            if(mask[start] == 0 || seen[start]) continue;
+            int top = 0, area = 0;
+            stack[top++] = start;
+            seen[start] = true;
+            while(top > 0){
+                int p = stack[--top];
+                area++;
+                int px = p % width, py = p / width;
+                for(int dy = -1; dy <= 1; dy++){
+                    for(int dx = -1; dx <= 1; dx++){
+                        int x = px + dx, y = py + dy;
+                        if(x < 0 || y < 0 || x >= width || y >= height) continue;
+                        int q = y * width + x;
+                        if(mask[q] != 0 && !seen[q]){
+                            seen[q] = true;
+                            stack[top++] = q;
+                        }
+                    }
+                }
+            }
+            areas.add(area);
+        }
+        int[] result = new int[areas.size()];
+        for(int i = 0; i < result.length; i++) result[i] = areas.get(i);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /** Two target strips plus specks of noise on a full-size mask */
+    private static byte[] targetMask(Random random){
+        byte[] mask = new byte[W * H];
+        for(int i = 0; i < 300; i++) mask[random.nextInt(mask.length)] = (byte)255;
+        int height = 40 + random.nextInt(120);
+        int left = random.nextInt(W / 2);
+        int top = random.nextInt(H - height);
+        fillRotatedRect(mask, W, left + height / 5.0, top + height / 2.0, height * 2 / 5.0, height, 90 + random.nextInt(10) - 5);
+        fillRotatedRect(mask, W, left + height * 1.85, top + height / 2.0, height * 2 / 5.0, height, 90 + random.nextInt(10) - 5);
+        return mask;
+    }
+
+    /**
+     * Times the labeler on full-size masks, and findContours + minAreaRect on the same masks when
+     * the OpenCV native library can be loaded (it isn't on a plain JVM without -Djava.library.path).
+     */
+    @Test
+    public void benchmarkAgainstFindContours(){
+        Random random = new Random(10);
+        List<byte[]> masks = new ArrayList<>();
+        for(int i = 0; i < 20; i++) masks.add(targetMask(random));
+
+        BlobLabeler labeler = new BlobLabeler();
+        TargetRect rect = new TargetRect();
+        for(byte[] mask : masks){
+            labeler.reset();
+            labeler.label(mask, W, H, 0, 0);
+        }
+        long start = System.nanoTime();
+        for(byte[] mask : masks){
+            labeler.reset();
+            labeler.label(mask, W, H, 0, 0);
+            assertTrue(labeler.getBlobCount() >= 2);
+            labeler.toTargetRect(labeler.largest(-1), rect);
+        }
+        double labelerMillis = (System.nanoTime() - start) / 1e6 / masks.size();
+        System.out.println(String.format("BlobLabeler: %.3f ms/frame", labelerMillis));
+
+        try{
+            System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        }catch(UnsatisfiedLinkError e){
+            System.out.println("findContours + minAreaRect: skipped, OpenCV native library not available");
+            return;
+        }
+
+        Mat mat = new Mat(H, W, CvType.CV_8UC1);
+        Mat hierarchy = new Mat();
+        MatOfPoint2f points = new MatOfPoint2f();
+        List<MatOfPoint> contours = new ArrayList<>();
+        start = System.nanoTime();
+        for(byte[] mask : masks){
+            mat.put(0, 0, mask);
+            contours.clear();
+            Imgproc.findContours(mat, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+            for(MatOfPoint mop : contours){
+                mop.convertTo(points, CvType.CV_32FC2);
+                Imgproc.minAreaRect(points);
+                mop.release();
+            }
+        }
+        double contourMillis = (System.nanoTime() - start) / 1e6 / masks.size();
+        System.out.println(String.format("findContours + minAreaRect: %.3f ms/frame", contourMillis));
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CameraCalibrationTest {
+
+    @Test
+    public void encodingRoundTrips(){
+        CameraCalibration calibration = new CameraCalibration(1280, 960, 1043.7, 1041.2, 641.3, 478.9,
+                new double[]{-0.213, 0.0871, 0.00042, -0.0011, -0.0123}, 0.284);
+        CameraCalibration decoded = CameraCalibration.decode(calibration.encode());
+
+        assertNotNull(decoded);
+        assertEquals(calibration.width, decoded.width);
+        assertEquals(calibration.height, decoded.height);
+        assertEquals(calibration.fx, decoded.fx, 0);
+        assertEquals(calibration.fy, decoded.fy, 0);
+        assertEquals(calibration.cx, decoded.cx, 0);
+        assertEquals(calibration.cy, decoded.cy, 0);
+        assertEquals(calibration.rmsError, decoded.rmsError, 0);
+        double[] d = decoded.getDistortion();
+        double[] expected = calibration.getDistortion();
+        for(int i = 0; i < 5; i++) assertEquals(expected[i], d[i], 0);
+        assertTrue(decoded.matches(1280, 960));
+        assertFalse(decoded.matches(640, 480));
+    }
+
+    @Test
+    public void fourCoefficientsMeanNoK3(){
+        CameraCalibration calibration = new CameraCalibration(640, 480, 500, 500, 320, 240, new double[]{-0.1, 0.01, 0, 0}, 0.3);
+        assertEquals(0, calibration.getDistortion()[4], 0);
+        assertTrue(calibration.toCameraModel().hasDistortion());
+    }
+
+    @Test
+    public void rejectsMalformedText(){
+        assertNull(CameraCalibration.decode(null));
+        assertNull(CameraCalibration.decode(""));
+        assertNull(CameraCalibration.decode("2;1280;960;1;1;1;1;0;0;0;0;0;0"));
+        assertNull(CameraCalibration.decode("1;1280;960;1;1;1;1;0;0;0;0;0"));
+        assertNull(CameraCalibration.decode("1;1280;960;1;x;1;1;0;0;0;0;0;0"));
+    }
+
+}
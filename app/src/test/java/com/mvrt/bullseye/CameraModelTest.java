@@ -0,0 +1,92 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CameraModelTest {
+
+    private static final int W = 1280;
+    private static final int H = 960;
+
+    @Test
+    public void matchesPinholeWithoutDistortion(){
+        CameraModel camera = CameraModel.fromFov(W, H, Math.toRadians(60), Math.toRadians(47));
+        double f = camera.getFocalLengthX();
+        double cx = W/2 + 0.5;
+        for(double x = 0; x < W; x += 37.3){
+            assertEquals(Math.toDegrees(Math.atan((x - cx) / f)), camera.getAzimuth(x), 1e-4);
+            assertEquals((x - cx) / f, camera.getAzimuthTan(x), 1e-12);
+        }
+        double cy = H/2 + 0.5;
+        for(double y = 0; y < H - 1; y += 41.7){
+            assertEquals(-Math.toDegrees(Math.atan((y - cy) / camera.getFocalLengthY())), camera.getElevation(y), 1e-4);
+        }
+        assertTrue(camera.getElevation(0) > 0); //up is positive
+    }
+
+    @Test
+    public void removesDistortion(){
+        double f = 1000, cx = 640, cy = 480;
+        CameraModel camera = new CameraModel(W, H, f, f, cx, cy, new double[]{-0.2, 0.05, 0.001, -0.0005, 0});
+
+        //project known angles through the distortion, then look them up
+        double[] distorted = new double[2];
+        for(double tan = -0.6; tan <= 0.6; tan += 0.1){
+            camera.distort(tan, 0, distorted);
+            assertEquals(tan, camera.getAzimuthTan(cx + distorted[0] * f), 1e-5);
+        }
+        for(double tan = -0.45; tan <= 0.45; tan += 0.05){
+            camera.distort(0, tan, distorted);
+            assertEquals(-tan, camera.getElevationTan(cy + distorted[1] * f), 1e-5);
+        }
+    }
+
+    @Test
+    public void extrapolatesOutsideImage(){
+        CameraModel camera = CameraModel.fromFov(W, H, Math.toRadians(60), Math.toRadians(47));
+        double f = camera.getFocalLengthX();
+        double cx = W/2 + 0.5;
+        assertEquals((-10 - cx) / f, camera.getAzimuthTan(-10), 1e-12);
+        assertEquals((W + 10 - cx) / f, camera.getAzimuthTan(W + 10), 1e-12);
+    }
+
+    @Test
+    public void undistortsPixelsExactly(){
+        double f = 1000, cx = 650, cy = 470;
+        CameraModel camera = new CameraModel(W, H, f, f, cx, cy, new double[]{-0.2, 0.05, 0.001, -0.0005, 0.01});
+        assertTrue(camera.hasDistortion());
+        assertFalse(camera.getPinhole().hasDistortion());
+
+        double[] distorted = new double[2], pixel = new double[2];
+        for(double x = -0.55; x <= 0.55; x += 0.11){
+            for(double y = -0.4; y <= 0.4; y += 0.1){
+                //off both axes, where the tables alone are only approximate
+                camera.distort(x, y, distorted);
+                camera.undistortPixel(cx + distorted[0] * f, cy + distorted[1] * f, pixel);
+                assertEquals(cx + x * f, pixel[0], 1e-3);
+                assertEquals(cy + y * f, pixel[1], 1e-3);
+                assertEquals(x, camera.getPinhole().getAzimuthTan(pixel[0]), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void lookupIsCheaperThanAtan(){
+        CameraModel camera = CameraModel.fromFov(W, H, Math.toRadians(60), Math.toRadians(47));
+        double f = camera.getFocalLengthX();
+        int n = 2000000;
+        double sum = 0;
+        for(int round = 0; round < 3; round++){
+            long start = System.nanoTime();
+            for(int i = 0; i < n; i++) sum += camera.getAzimuth((i % W) + 0.25);
+            long table = System.nanoTime() - start;
+            start = System.nanoTime();
+            for(int i = 0; i < n; i++) sum += Math.toDegrees(Math.atan(((i % W) + 0.25 - 640.5) / f));
+            long atan = System.nanoTime() - start;
+            if(round == 2) System.out.println(String.format("Azimuth: table %.1f ns, atan %.1f ns", table / (double)n, atan / (double)n));
+        }
+        assertFalse(Double.isNaN(sum)); //keeps the loops from being optimized away
+    }
+
+}
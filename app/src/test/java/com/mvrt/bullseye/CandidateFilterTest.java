@@ -0,0 +1,159 @@
+package com.mvrt.bullseye;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CandidateFilterTest {
+
+    private CandidateFilter filter;
+
+    @Before
+    public void setUp(){
+        filter = new CandidateFilter();
+        filter.setAreaLimits(1000, 3000);
+        filter.setAspect(2.0/5.0, 0.25);
+    }
+
+    /** Corner points of an axis-aligned rectangle, the way CHAIN_APPROX_SIMPLE outlines a solid one */
+    private static int[] box(int x, int y, int width, int height){
+        return new int[]{x, y, x, y + height, x + width, y + height, x + width, y};
+    }
+
+    private boolean add(int[] xy){
+        return filter.addContour(xy, xy.length / 2);
+    }
+
+    @Test
+    public void eachTierRejectsWhatItShould(){
+        assertTrue(filter.skipContour(2));
+        assertFalse(add(new int[]{10, 10, 11, 11}));
+        assertEquals(2, filter.getRejected(CandidateFilter.Rejection.POINT_COUNT));
+
+        assertFalse(add(box(0, 0, 10, 20)));
+        assertEquals(1, filter.getRejected(CandidateFilter.Rejection.BOUNDING_BOX));
+
+        assertFalse(add(box(0, 0, 60, 150)));
+        assertEquals(1, filter.getRejected(CandidateFilter.Rejection.OUTLINE_AREA));
+
+        //a thin diagonal line: big bounding box, tiny rotated rect
+        assertFalse(add(new int[]{0, 0, 100, 100, 101, 100, 1, 0}));
+        assertEquals(1, filter.getRejected(CandidateFilter.Rejection.RECT_AREA));
+
+        assertFalse(add(box(0, 0, 40, 50)));
+        assertEquals(1, filter.getRejected(CandidateFilter.Rejection.ASPECT));
+
+        //an L: the outline covers much less than its rotated rect
+        assertFalse(add(new int[]{0, 0, 0, 60, 25, 60, 25, 52, 8, 52, 8, 0}));
+        assertEquals(1, filter.getRejected(CandidateFilter.Rejection.SOLIDITY));
+
+        assertEquals(7, filter.getExamined());
+        assertEquals(0, filter.getAccepted());
+        assertEquals(0, filter.getCandidateCount());
+    }
+
+    @Test
+    public void keepsEveryStrip(){
+        filter.reset();
+        assertTrue(add(box(100, 100, 20, 50)));
+        assertTrue(add(box(300, 100, 30, 75)));
+        assertTrue(add(box(500, 100, 25, 60)));
+        //about the same area as the largest strip, but square-ish
+        assertTrue(add(box(700, 100, 36, 60)));
+
+        assertEquals(4, filter.getCandidateCount());
+        TargetRect[] candidates = filter.getCandidates();
+        assertEquals(110, candidates[0].centerX, 1e-9);
+        assertEquals(315, candidates[1].centerX, 1e-9);
+        assertEquals(512.5, candidates[2].centerX, 1e-9);
+        assertEquals(718, candidates[3].centerX, 1e-9);
+
+        filter.reset();
+        assertEquals(0, filter.getCandidateCount());
+        assertEquals(4, filter.getAccepted());
+    }
+
+    @Test
+    public void blobsGoThroughTheSameTiers(){
+        BlobLabeler labeler = new BlobLabeler();
+        int width = 200, height = 100;
+        byte[] mask = new byte[width * height];
+        fill(mask, width, 10, 10, 22, 55);   //strip
+        fill(mask, width, 60, 10, 5, 5);     //speck
+        fill(mask, width, 100, 10, 50, 50);  //square
+        labeler.label(mask, width, height, 0, 0);
+        assertEquals(3, labeler.getBlobCount());
+
+        filter.reset();
+        int accepted = 0;
+        for(int b = 0; b < labeler.getBlobCount(); b++) if(filter.addBlob(labeler, b)) accepted++;
+
+        assertEquals(1, accepted);
+        assertEquals(20.5, filter.getCandidates()[0].centerX, 1e-9);
+        assertEquals(1, filter.getRejected(CandidateFilter.Rejection.BOUNDING_BOX));
+        assertEquals(1, filter.getRejected(CandidateFilter.Rejection.ASPECT));
+    }
+
+    /**
+     * Replays a pooled set of contours per "frame" through the filter and the pair matcher, and
+     * fails if the steady state allocates. The budget is per frame, so a regression of even one
+     * object per contour shows up.
+     */
+    @Test
+    public void steadyStateDoesNotAllocate(){
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(!(threads instanceof com.sun.management.ThreadMXBean)) return;
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean)threads;
+        if(!allocations.isThreadAllocatedMemorySupported()) return;
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        //the two strips of a target, then clutter
+        Random random = new Random(8);
+        int[][] contours = new int[12][];
+        contours[0] = ContourScorerTest.rectangleContour(400, 300, 24, 60, 90, 20);
+        contours[1] = ContourScorerTest.rectangleContour(499, 300, 24, 60, 90, 20);
+        for(int i = 2; i < contours.length; i++){
+            contours[i] = ContourScorerTest.rectangleContour(200 + random.nextInt(800), 200 + random.nextInt(500),
+                    5 + random.nextInt(40), 20 + random.nextInt(100), random.nextInt(180) - 90, 5 + random.nextInt(40));
+        }
+
+        TargetPairMatcher matcher = new TargetPairMatcher();
+        long[] pairs = new long[1];
+        //warm up: buffers grow to the largest contour and the JIT settles
+        for(int frame = 0; frame < 2000; frame++) filterFrame(matcher, contours, pairs);
+
+        int frames = 2000;
+        long thread = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(thread);
+        for(int frame = 0; frame < frames; frame++) filterFrame(matcher, contours, pairs);
+        long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+        System.out.println(String.format("Candidate filtering: %d bytes allocated over %d frames", allocated, frames));
+        assertTrue("allocated " + allocated + " bytes over " + frames + " frames", allocated / (double)frames < 1);
+        assertTrue(pairs[0] >= 2 * frames); //the target pairs up in every frame, warm-up included
+    }
+
+    private void filterFrame(TargetPairMatcher matcher, int[][] contours, long[] pairs){
+        filter.reset();
+        for(int[] contour : contours){
+            int pointCount = contour.length / 2;
+            if(filter.skipContour(pointCount)) continue;
+            int[] points = filter.pointBuffer(pointCount);
+            System.arraycopy(contour, 0, points, 0, contour.length);
+            filter.addContour(points, pointCount);
+        }
+        pairs[0] += matcher.match(filter.getCandidates(), filter.getCandidateCount());
+    }
+
+    private static void fill(byte[] mask, int width, int x, int y, int w, int h){
+        for(int row = y; row < y + h; row++){
+            for(int col = x; col < x + w; col++) mask[row * width + col] = (byte)255;
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ClientChannelTest {
+
+    /** A socket that stays busy until drained by hand */
+    private static class FakeConnection implements ClientChannel.Connection{
+        boolean busy = false;
+        final List<Object> sent = new ArrayList<>();
+
+        @Override
+        public boolean hasBufferedData() {
+            return busy;
+        }
+
+        @Override
+        public void send(byte[] message) {
+            sent.add(message.clone());
+            busy = true;
+        }
+
+        @Override
+        public void send(ByteBuffer message) {
+            byte[] copy = new byte[message.remaining()];
+            message.get(copy);
+            sent.add(copy);
+            busy = true;
+        }
+
+        @Override
+        public void send(String message) {
+            sent.add(message);
+            busy = true;
+        }
+    }
+
+    private static byte[] result(int value){
+        return new byte[]{(byte)value, 0, 0, 0};
+    }
+
+    @Test
+    public void slowClientOnlyGetsNewestResult(){
+        FakeConnection connection = new FakeConnection();
+        ClientChannel channel = new ClientChannel("test", connection, 4, 8);
+
+        channel.offerResult(result(1));
+        assertTrue(channel.flush());
+        assertEquals(1, connection.sent.size());
+
+        //the socket is still busy with result 1 while 2-5 come in
+        for(int i = 2; i <= 5; i++){
+            channel.offerResult(result(i));
+            assertFalse(channel.flush());
+        }
+        assertEquals(1, channel.getQueueDepth());
+        assertEquals(3, channel.getResultsDropped());
+
+        connection.busy = false;
+        assertTrue(channel.flush());
+        assertEquals(2, connection.sent.size());
+        assertEquals(5, ((byte[])connection.sent.get(1))[0]);
+        assertEquals(0, channel.getQueueDepth());
+        assertEquals(2, channel.getResultsSent());
+        assertEquals(8, channel.getBytesSent());
+    }
+
+    @Test
+    public void textsAreLosslessAndInOrder(){
+        FakeConnection connection = new FakeConnection();
+        connection.busy = true;
+        ClientChannel channel = new ClientChannel("test", connection, 4, 8);
+
+        for(int i = 0; i < 5; i++) assertTrue(channel.offerText("log " + i));
+        channel.offerResult(result(9));
+        assertFalse(channel.flush());
+        assertEquals(6, channel.getQueueDepth());
+
+        connection.busy = false;
+        assertTrue(channel.flush());
+        assertEquals(6, connection.sent.size());
+        for(int i = 0; i < 5; i++) assertEquals("log " + i, connection.sent.get(i));
+        assertTrue(connection.sent.get(5) instanceof byte[]);
+        assertEquals(5, channel.getTextsSent());
+        assertEquals(5 * 5 + 4, channel.getBytesSent());
+    }
+
+    @Test
+    public void fullTextLaneRefusesInsteadOfDropping(){
+        FakeConnection connection = new FakeConnection();
+        connection.busy = true;
+        ClientChannel channel = new ClientChannel("test", connection, 4, 3);
+
+        assertTrue(channel.offerText("a"));
+        assertTrue(channel.offerText("b"));
+        assertTrue(channel.offerText("c"));
+        assertFalse(channel.offerText("d"));
+        assertEquals(3, channel.getQueueDepth());
+    }
+
+    @Test
+    public void countsUtf8Bytes(){
+        FakeConnection connection = new FakeConnection();
+        ClientChannel channel = new ClientChannel("test", connection, 4, 8);
+        channel.offerText("\u00e9\u20ac\ud83d\ude00"); //2 + 3 + 4 bytes
+        channel.flush();
+        assertEquals(9, channel.getBytesSent());
+    }
+
+    @Test
+    public void subscriptionsHaveRateLimits(){
+        ClientChannel channel = new ClientChannel("test", new FakeConnection(), 4, 8);
+        assertTrue(channel.isSubscribed(Topic.RESULTS));
+        assertFalse(channel.isSubscribed(Topic.METRICS));
+        assertFalse(channel.admit(Topic.METRICS, 0));
+
+        assertEquals(Topic.METRICS.maxRate, channel.subscribe(Topic.METRICS, 0), 0);
+        assertEquals(Topic.METRICS.maxRate, channel.subscribe(Topic.METRICS, 100), 0);
+        assertEquals(0.5, channel.subscribe(Topic.METRICS, 0.5), 0);
+
+        long second = 1000000000L;
+        assertTrue(channel.admit(Topic.METRICS, 5 * second));
+        assertFalse(channel.isDue(Topic.METRICS, 6 * second));
+        assertFalse(channel.admit(Topic.METRICS, 6 * second));
+        assertTrue(channel.admit(Topic.METRICS, 7 * second));
+        assertEquals(1, channel.getRateLimited(Topic.METRICS));
+
+        //results have no limit of their own
+        for(int i = 0; i < 10; i++) assertTrue(channel.admit(Topic.RESULTS, 5 * second));
+
+        channel.unsubscribe(Topic.METRICS);
+        assertFalse(channel.isDue(Topic.METRICS, 100 * second));
+    }
+
+    @Test
+    public void subscriptionMessages(){
+        ClientChannel channel = new ClientChannel("test", new FakeConnection(), 4, 8);
+        assertEquals("subscribed metrics 0.5", OutputSocketServer.subscription(channel, "subscribe metrics 0.5"));
+        assertEquals("subscribed debug-mask 10.0", OutputSocketServer.subscription(channel, "subscribe debug-mask"));
+        assertEquals("unsubscribed results", OutputSocketServer.subscription(channel, "unsubscribe results"));
+        assertFalse(channel.isSubscribed(Topic.RESULTS));
+        assertTrue(channel.isSubscribed(Topic.DEBUG_MASK));
+
+        assertTrue(OutputSocketServer.subscription(channel, "subscribe video").startsWith("error"));
+        assertTrue(OutputSocketServer.subscription(channel, "subscribe logs fast").startsWith("error"));
+        assertTrue(OutputSocketServer.subscription(channel, "subscribe logs -1").startsWith("error"));
+        assertTrue(OutputSocketServer.subscription(channel, "unsubscribe logs 5").startsWith("error"));
+        assertFalse(channel.isSubscribed(Topic.LOGS));
+    }
+
+    private static byte[] maskMessage(int value){
+        return new byte[]{'B', 'M', 1, 0, (byte)value, 0};
+    }
+
+    @Test
+    public void masksNeverArriveWithoutTheirBase(){
+        FakeConnection connection = new FakeConnection();
+        ClientChannel channel = new ClientChannel("test", connection, 4, 8);
+        channel.subscribe(Topic.DEBUG_MASK, 0);
+
+        //a new subscriber has no base for a delta
+        assertFalse(channel.offerMask(maskMessage(1), 6, false));
+        assertTrue(channel.offerMask(maskMessage(2), 5, true));
+        assertTrue(channel.flush());
+        assertArrayEquals(new byte[]{'B', 'M', 1, 0, 2}, (byte[])connection.sent.get(0));
+        connection.busy = false;
+        assertTrue(channel.offerMask(maskMessage(3), 6, false));
+        assertTrue(channel.flush());
+
+        //the socket is busy, so the next delta would have to replace this one
+        assertTrue(channel.offerMask(maskMessage(4), 6, false));
+        assertFalse(channel.offerMask(maskMessage(5), 6, false));
+        connection.busy = false;
+        assertTrue(channel.flush());
+        assertEquals(4, ((byte[])connection.sent.get(2))[4]);
+        connection.busy = false;
+        assertFalse(channel.offerMask(maskMessage(6), 6, false));
+
+        //a keyframe replaces whatever is waiting
+        assertTrue(channel.offerMask(maskMessage(7), 6, true));
+        connection.busy = true;
+        assertTrue(channel.offerMask(maskMessage(8), 6, true));
+        connection.busy = false;
+        assertTrue(channel.flush());
+        assertEquals(8, ((byte[])connection.sent.get(3))[4]);
+        assertEquals(4, channel.getMasksSent());
+        assertEquals(4, channel.getMasksDropped());
+
+        channel.skipMask();
+        assertFalse(channel.offerMask(maskMessage(9), 6, false));
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClockSyncTest {
+
+    /** Plays one exchange with a client whose clock is {@code offset} ahead */
+    private static boolean exchange(ClockSync sync, long t0, long offset, long up, long turnaround, long down){
+        String ping = sync.nextPing(t0);
+        assertNotNull(ping);
+        long t1 = t0 + up + offset;
+        long t2 = t1 + turnaround;
+        long t3 = t0 + up + turnaround + down;
+        return sync.onPong(ClockSync.PONG + " " + ping.substring(ClockSync.PING.length() + 1) + " " + t1 + " " + t2, t3);
+    }
+
+    @Test
+    public void symmetricDelaysGiveTheExactOffset(){
+        ClockSync sync = new ClockSync();
+        assertFalse(sync.isSynchronized());
+        assertTrue(exchange(sync, 1000, 5000, 4, 1, 4));
+        assertTrue(sync.isSynchronized());
+        assertEquals(5000, sync.getOffset());
+        assertEquals(8, sync.getRoundTrip());
+        assertEquals(6000, sync.toClientTime(1000));
+    }
+
+    @Test
+    public void shortestRoundTripWins(){
+        ClockSync sync = new ClockSync();
+        long now = 1000;
+        //asymmetric, slow exchanges are off by up to half their round trip
+        assertTrue(exchange(sync, now, -250, 40, 0, 2));
+        assertEquals(-250 + 19, sync.getOffset());
+        now += ClockSync.FAST_PING_INTERVAL_MILLIS;
+        assertTrue(exchange(sync, now, -250, 2, 0, 2));
+        now += ClockSync.FAST_PING_INTERVAL_MILLIS;
+        assertTrue(exchange(sync, now, -250, 2, 0, 60));
+        assertEquals(-250, sync.getOffset());
+        assertEquals(4, sync.getRoundTrip());
+    }
+
+    @Test
+    public void oldSamplesLeaveTheWindow(){
+        ClockSync sync = new ClockSync();
+        long now = 0;
+        assertTrue(exchange(sync, now, 100, 1, 0, 1));
+        for(int i = 0; i < ClockSync.WINDOW; i++){
+            now += ClockSync.PING_INTERVAL_MILLIS;
+            assertTrue(exchange(sync, now, 300, 5, 0, 5));
+        }
+        assertEquals(300, sync.getOffset());
+    }
+
+    @Test
+    public void pingsFastUntilTheWindowIsFull(){
+        ClockSync sync = new ClockSync();
+        long last = 0;
+        for(int i = 0; i < ClockSync.WINDOW; i++){
+            last = i * ClockSync.FAST_PING_INTERVAL_MILLIS;
+            assertNotNull(sync.nextPing(last));
+            assertNull(sync.nextPing(last + ClockSync.FAST_PING_INTERVAL_MILLIS - 1));
+        }
+        assertNull(sync.nextPing(last + ClockSync.FAST_PING_INTERVAL_MILLIS));
+        assertNotNull(sync.nextPing(last + ClockSync.PING_INTERVAL_MILLIS));
+    }
+
+    @Test
+    public void rejectsBadPongs(){
+        ClockSync sync = new ClockSync();
+        //no ping sent yet
+        assertFalse(sync.onPong("pong 0 10 10", 5));
+        sync.nextPing(100);
+        assertFalse(sync.onPong("pong 100 abc 10", 105));
+        assertFalse(sync.onPong("pong 100 10", 105));
+        assertFalse(sync.onPong("hello", 105));
+        //answered before it was sent
+        assertFalse(sync.onPong("pong 100 10 10", 95));
+        //a ping from the future
+        assertFalse(sync.onPong("pong 200 10 10", 205));
+        //replied before receiving
+        assertFalse(sync.onPong("pong 100 20 10", 105));
+        assertFalse(sync.isSynchronized());
+        assertEquals(5, sync.getRejected());
+
+        assertTrue(sync.onPong("pong 100 10 11", 105));
+        assertEquals(1, sync.getPongs());
+    }
+
+}
@@ -0,0 +1,139 @@
+package com.mvrt.bullseye;
+
+import com.mvrt.bullseye.util.ColorConversions;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the LUT mask against the HSV + inRange mask (via {@link ColorConversions}, which
+ * mirrors OpenCV's integer math) on synthetic NV12 frames.
+ */
+public class ColorClassifierLUTTest {
+
+    private static final double[] LOW_HSV = {60, 90, 150};
+    private static final double[] HIGH_HSV = {85, 255, 255};
+
+    private static final int W = 320;
+    private static final int H = 240;
+
+    /**
+     * Noise background, a smooth sweep through U/V (so plenty of pixels sit on the threshold
+     * boundary), and two bright green strips like the real target.
+     */
+    private static byte[] syntheticFrame(long seed){
+        Random random = new Random(seed);
+        byte[] frame = new byte[W * H * 3/2];
+
+        for(int y = 0; y < H; y++){
+            for(int x = 0; x < W; x++){
+                int luma;
+                if(y < H/3) luma = random.nextInt(256);
+                else luma = 40 + (x * 215) / W;
+                frame[y * W + x] = (byte)luma;
+            }
+        }
+
+        int chroma = W * H;
+        for(int y = 0; y < H/2; y++){
+            for(int x = 0; x < W/2; x++){
+                int u, v;
+                if(y < H/6){
+                    u = random.nextInt(256);
+                    v = random.nextInt(256);
+                }else{
+                    u = (x * 255) / (W/2);
+                    v = ((y - H/6) * 255) / (H/2 - H/6);
+                }
+                frame[chroma + y * W + 2*x] = (byte)u;
+                frame[chroma + y * W + 2*x + 1] = (byte)v;
+            }
+        }
+
+        drawStrip(frame, 80, 60, 20, 50);
+        drawStrip(frame, 200, 60, 20, 50);
+        return frame;
+    }
+
+    private static void drawStrip(byte[] frame, int left, int top, int width, int height){
+        //roughly RGB(60, 230, 90)
+        for(int y = top; y < top + height; y++)
+            for(int x = left; x < left + width; x++)
+                frame[y * W + x] = (byte)160;
+        for(int y = top/2; y < (top + height)/2; y++){
+            for(int x = left/2; x < (left + width)/2; x++){
+                frame[W * H + y * W + 2*x] = (byte)90;
+                frame[W * H + y * W + 2*x + 1] = (byte)70;
+            }
+        }
+    }
+
+    private static byte[] referenceMask(byte[] frame){
+        byte[] mask = new byte[W * H];
+        int[] rgb = new int[3];
+        int[] hsv = new int[3];
+        for(int y = 0; y < H; y++){
+            for(int x = 0; x < W; x++){
+                int uv = W * H + (y/2) * W + (x/2) * 2;
+                ColorConversions.yuvToHsv(frame[y * W + x] & 0xFF, frame[uv] & 0xFF, frame[uv + 1] & 0xFF, rgb, hsv);
+                mask[y * W + x] = ColorConversions.inRange(hsv, LOW_HSV, HIGH_HSV) ? (byte)255 : 0;
+            }
+        }
+        return mask;
+    }
+
+    private static double mismatchRate(int bits, byte[][] frames, byte[][] references){
+        ColorClassifierLUT lut = new ColorClassifierLUT(bits);
+        lut.setThresholds(LOW_HSV, HIGH_HSV);
+
+        byte[] mask = new byte[W * H];
+        long mismatched = 0;
+        for(int f = 0; f < frames.length; f++){
+            lut.classify(frames[f], W, H, mask);
+            for(int i = 0; i < mask.length; i++){
+                if(mask[i] != references[f][i]) mismatched++;
+            }
+        }
+        return mismatched / (double)(frames.length * W * H);
+    }
+
+    @Test
+    public void mismatchRatePerQuantisationLevel() {
+        byte[][] frames = new byte[3][];
+        byte[][] references = new byte[3][];
+        for(int f = 0; f < frames.length; f++){
+            frames[f] = syntheticFrame(f);
+            references[f] = referenceMask(frames[f]);
+        }
+
+        double[] rates = new double[9];
+        for(int bits = 4; bits <= 8; bits++){
+            rates[bits] = mismatchRate(bits, frames, references);
+            System.out.println(String.format("ColorClassifierLUT %d bits/channel: %.4f%% mismatched", bits, rates[bits] * 100));
+        }
+
+        assertEquals(0, rates[8], 0);
+        assertTrue("6-bit LUT mismatch too high: " + rates[6], rates[6] < 0.01);
+        assertTrue(rates[6] <= rates[4]);
+    }
+
+    @Test
+    public void stripsAreClassifiedAsTarget() {
+        ColorClassifierLUT lut = new ColorClassifierLUT();
+        lut.setThresholds(LOW_HSV, HIGH_HSV);
+        assertEquals(255, lut.classify(160, 90, 70));
+        assertEquals(0, lut.classify(160, 128, 128));
+    }
+
+    @Test
+    public void rebuildsOnlyWhenThresholdsChange() {
+        ColorClassifierLUT lut = new ColorClassifierLUT(4);
+        assertTrue(lut.setThresholds(LOW_HSV, HIGH_HSV));
+        assertFalse(lut.setThresholds(LOW_HSV.clone(), HIGH_HSV.clone()));
+        assertTrue(lut.setThresholds(new double[]{50, 90, 150}, HIGH_HSV));
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ContourScorerTest {
+
+    private static final double EPSILON = 1e-6;
+
+    /** Outline of a rectangle rotated about its center, as traced pixel points */
+    static int[] rectangleContour(double cx, double cy, double width, double length, double degrees, int pointsPerSide){
+        double a = Math.toRadians(degrees);
+        double ux = Math.cos(a), uy = Math.sin(a);
+        double vx = -uy, vy = ux;
+        double[][] corners = {
+                {-length / 2, -width / 2}, {length / 2, -width / 2}, {length / 2, width / 2}, {-length / 2, width / 2}
+        };
+        int[] xy = new int[8 * pointsPerSide];
+        int n = 0;
+        for(int c = 0; c < 4; c++){
+            double[] from = corners[c], to = corners[(c + 1) % 4];
+            for(int i = 0; i < pointsPerSide; i++){
+                double t = i / (double)pointsPerSide;
+                double u = from[0] + (to[0] - from[0]) * t;
+                double v = from[1] + (to[1] - from[1]) * t;
+                xy[n++] = (int)Math.round(cx + u * ux + v * vx);
+                xy[n++] = (int)Math.round(cy + u * uy + v * vy);
+            }
+        }
+        return xy;
+    }
+
+    @Test
+    public void axisAlignedStrip(){
+        ContourScorer scorer = new ContourScorer();
+        TargetRect rect = new TargetRect();
+        //a 20x50 pixel strip traced by its corner pixels, like CHAIN_APPROX_SIMPLE gives
+        int[] xy = {100, 200, 100, 249, 119, 249, 119, 200};
+        scorer.minAreaRect(xy, 4, rect);
+
+        assertEquals(109.5, rect.centerX, EPSILON);
+        assertEquals(224.5, rect.centerY, EPSILON);
+        assertEquals(19, rect.width, EPSILON);
+        assertEquals(49, rect.length, EPSILON);
+        assertEquals(90, Math.abs(rect.angle), EPSILON);
+        assertEquals(100, rect.minX(), EPSILON);
+        assertEquals(249, rect.maxY(), EPSILON);
+    }
+
+    @Test
+    public void rotatedRectangles(){
+        ContourScorer scorer = new ContourScorer();
+        TargetRect rect = new TargetRect();
+        for(int degrees = -85; degrees < 90; degrees += 5){
+            int[] xy = rectangleContour(400, 300, 40, 100, degrees, 25);
+            scorer.minAreaRect(xy, xy.length / 2, rect);
+
+            assertEquals(400, rect.centerX, 1);
+            assertEquals(300, rect.centerY, 1);
+            assertEquals(40, rect.width, 2);
+            assertEquals(100, rect.length, 2);
+            assertEquals("at " + degrees, degrees, rect.angle, 2);
+        }
+    }
+
+    @Test
+    public void degenerateContours(){
+        ContourScorer scorer = new ContourScorer();
+        TargetRect rect = new TargetRect();
+
+        scorer.minAreaRect(new int[]{5, 7}, 1, rect);
+        assertEquals(5, rect.centerX, EPSILON);
+        assertEquals(7, rect.centerY, EPSILON);
+        assertEquals(0, rect.area(), EPSILON);
+
+        //a one pixel wide line traced there and back
+        scorer.minAreaRect(new int[]{10, 10, 20, 10, 30, 10, 20, 10}, 4, rect);
+        assertEquals(0, rect.width, EPSILON);
+        assertEquals(20, rect.length, EPSILON);
+        assertEquals(20, rect.centerX, EPSILON);
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DebugStreamerTest {
+
+    private static class Viewers implements DebugStreamer.Sink{
+        volatile boolean watching;
+        volatile int sent;
+
+        @Override
+        public boolean hasReceivers() {
+            return watching;
+        }
+
+        @Override
+        public void send(byte[] jpeg, int length, long timestamp) {
+            sent++;
+        }
+    }
+
+    @Test
+    public void skipsWithoutEncoderOrViewers(){
+        Viewers viewers = new Viewers();
+        DebugStreamer streamer = new DebugStreamer(viewers);
+        //not started: the frame isn't touched
+        viewers.watching = true;
+        assertFalse(streamer.offer(null, 0));
+        assertEquals(0, streamer.getOffered());
+    }
+
+    @Test
+    public void firstFrameIsAlwaysDue(){
+        DebugStreamer streamer = new DebugStreamer(new Viewers());
+        streamer.setMaxFps(1);
+        assertTrue(streamer.isDue(0));
+        assertTrue(streamer.isDue(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void settings(){
+        DebugStreamer streamer = new DebugStreamer(new Viewers());
+        streamer.setMaxFps(2.5);
+        assertEquals(2.5, streamer.getMaxFps(), 1e-9);
+        streamer.setQuality(150);
+        assertEquals(100, streamer.getQuality());
+        streamer.setScale(0.25);
+        assertEquals(0.25, streamer.getScale(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUpscaling(){
+        new DebugStreamer(new Viewers()).setScale(2);
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import static org.junit.Assert.*;
+
+public class FlowTrackerTest {
+
+    private static final byte[] ALL_FOUND = {1, 1, 1, 1, 1, 1, 1, 1};
+    private static final float[] NO_ERROR = new float[8];
+
+    private static TargetRect strip(double x, double y, double width, double height){
+        TargetRect rect = new TargetRect();
+        rect.setFromCorners(new double[]{x, x + width, x + width, x}, new double[]{y, y, y + height, y + height});
+        return rect;
+    }
+
+    /** A tracker with a reference on two 10x40 strips, as if the last frame was a detection */
+    private static FlowTracker tracking(TargetRect strip1, TargetRect strip2){
+        FlowTracker tracker = new FlowTracker();
+        tracker.setEnabled(true);
+        tracker.setDetectionInterval(3);
+        assertTrue(tracker.needsDetection());
+        tracker.setReference(strip1, strip2);
+        return tracker;
+    }
+
+    private static void move(FlowTracker tracker, float dx, float dy){
+        float[] points = tracker.getPoints();
+        for(int i = 0; i < points.length; i += 2){
+            points[i] += dx;
+            points[i + 1] += dy;
+        }
+    }
+
+    @Test
+    public void detectsEveryFrameWithoutAReference(){
+        FlowTracker tracker = new FlowTracker();
+        tracker.setEnabled(true);
+        for(int i = 0; i < 10; i++) assertTrue(tracker.needsDetection());
+    }
+
+    @Test
+    public void tracksBetweenDetections(){
+        FlowTracker tracker = tracking(strip(100, 100, 10, 40), strip(150, 100, 10, 40));
+        assertFalse(tracker.needsDetection());
+        assertFalse(tracker.needsDetection());
+        assertTrue(tracker.needsDetection());
+        assertFalse(tracker.needsDetection());
+    }
+
+    @Test
+    public void disablingDropsTheReference(){
+        FlowTracker tracker = tracking(strip(100, 100, 10, 40), strip(150, 100, 10, 40));
+        tracker.setEnabled(false);
+        assertTrue(tracker.needsDetection());
+        tracker.setEnabled(true);
+        assertTrue(tracker.needsDetection());
+    }
+
+    @Test
+    public void missDropsTheReference(){
+        FlowTracker tracker = tracking(strip(100, 100, 10, 40), strip(150, 100, 10, 40));
+        tracker.onMissed();
+        assertFalse(tracker.hasReference());
+        assertTrue(tracker.needsDetection());
+        assertTrue(tracker.needsDetection());
+    }
+
+    @Test
+    public void scheduledFrameSeesALaterLoss(){
+        TargetRect strip1 = strip(100, 100, 10, 40), strip2 = strip(150, 100, 10, 40);
+        FlowTracker tracker = tracking(strip1, strip2);
+        //ingest schedules two frames for tracking, then the contour stage loses the target
+        assertFalse(tracker.needsDetection());
+        assertFalse(tracker.needsDetection());
+        assertTrue(tracker.hasReference());
+        byte[] status = ALL_FOUND.clone();
+        status[0] = 0;
+        assertFalse(tracker.accept(status, NO_ERROR, strip1, strip2));
+
+        //so the second one has to be detected after all
+        assertFalse(tracker.hasReference());
+        assertTrue(tracker.needsDetection());
+    }
+
+    @Test
+    public void rebuildsMovedStrips(){
+        TargetRect strip1 = strip(100, 100, 10, 40), strip2 = strip(150, 100, 10, 40);
+        FlowTracker tracker = tracking(strip1, strip2);
+        move(tracker, 5, -3);
+
+        assertTrue(tracker.accept(ALL_FOUND, NO_ERROR, strip1, strip2));
+        assertEquals(110, strip1.centerX, 1e-6);
+        assertEquals(117, strip1.centerY, 1e-6);
+        assertEquals(160, strip2.centerX, 1e-6);
+        assertEquals(40, strip1.length, 1e-6);
+        assertEquals(10, strip1.width, 1e-6);
+        assertEquals(0, tracker.getFlowFailures());
+        assertFalse(tracker.needsDetection());
+    }
+
+    @Test
+    public void lostCornerDropsTracking(){
+        TargetRect strip1 = strip(100, 100, 10, 40), strip2 = strip(150, 100, 10, 40);
+        FlowTracker tracker = tracking(strip1, strip2);
+        byte[] status = ALL_FOUND.clone();
+        status[6] = 0;
+
+        assertFalse(tracker.accept(status, NO_ERROR, strip1, strip2));
+        assertEquals(1, tracker.getFlowFailures());
+        assertTrue(tracker.needsDetection());
+    }
+
+    @Test
+    public void highErrorDropsTracking(){
+        TargetRect strip1 = strip(100, 100, 10, 40), strip2 = strip(150, 100, 10, 40);
+        FlowTracker tracker = tracking(strip1, strip2);
+        tracker.setQualityLimits(20, 0.25);
+        float[] errors = NO_ERROR.clone();
+        errors[0] = 25;
+
+        assertFalse(tracker.accept(ALL_FOUND, errors, strip1, strip2));
+        assertEquals(1, tracker.getFlowFailures());
+        assertTrue(tracker.needsDetection());
+    }
+
+    @Test
+    public void implausibleSizeChangeDropsTracking(){
+        TargetRect strip1 = strip(100, 100, 10, 40), strip2 = strip(150, 100, 10, 40);
+        FlowTracker tracker = tracking(strip1, strip2);
+        tracker.setQualityLimits(20, 0.25);
+        //strip 2's bottom corners slide down, stretching it to 60 long
+        float[] points = tracker.getPoints();
+        points[13] += 20;
+        points[15] += 20;
+
+        assertFalse(tracker.accept(ALL_FOUND, NO_ERROR, strip1, strip2));
+        assertEquals(1, tracker.getFlowFailures());
+        assertEquals(150, strip2.minX(), 1e-6);
+        assertEquals(140, strip2.maxY(), 1e-6); //left as detected
+        assertTrue(tracker.needsDetection());
+    }
+
+    @Test
+    public void cropReachesMarginPastTheCorners(){
+        Rect crop = new Rect();
+        assertTrue(FlowTracker.cropAround(new float[]{200.5f, 150, 260, 190.2f}, 640, 480, 88, crop));
+        assertEquals(200 - 88, crop.x);
+        assertEquals(150 - 88, crop.y);
+        assertEquals(261 + 88, crop.x + crop.width);
+        assertEquals(192 + 88, crop.y + crop.height);
+    }
+
+    @Test
+    public void cropIsClippedToTheImage(){
+        Rect crop = new Rect();
+        assertTrue(FlowTracker.cropAround(new float[]{10, 20, 630, 470}, 640, 480, 88, crop));
+        assertEquals(0, crop.x);
+        assertEquals(0, crop.y);
+        assertEquals(640, crop.width);
+        assertEquals(480, crop.height);
+
+        assertFalse(FlowTracker.cropAround(new float[]{-200, -300, -150, -250}, 640, 480, 88, crop));
+    }
+
+}
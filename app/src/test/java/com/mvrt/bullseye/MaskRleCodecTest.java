@@ -0,0 +1,275 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips and compression ratios of {@link MaskRleCodec}.
+ *
+ * The compression benchmark runs on synthetic sequences by default. Recorded frames can be used
+ * instead by pointing the {@code bullseye.recordedFrames} system property at a directory of raw
+ * 1280x960 NV12 dumps (*.nv12), in capture order; they're thresholded with the default HSV range.
+ */
+public class MaskRleCodecTest {
+
+    private static final int W = 1280;
+    private static final int H = 960;
+
+    private static final double[] LOW_HSV = {60, 90, 150};
+    private static final double[] HIGH_HSV = {85, 255, 255};
+
+    private static byte[] mask(String... rows){
+        byte[] mask = new byte[rows.length * rows[0].length()];
+        for(int y = 0; y < rows.length; y++){
+            for(int x = 0; x < rows[y].length(); x++){
+                if(rows[y].charAt(x) == '#') mask[y * rows[0].length() + x] = (byte)255;
+            }
+        }
+        return mask;
+    }
+
+    private static byte[] normalized(byte[] mask){
+        byte[] out = new byte[mask.length];
+        for(int i = 0; i < mask.length; i++) out[i] = mask[i] != 0 ? (byte)255 : 0;
+        return out;
+    }
+
+    private static boolean roundTrip(MaskRleCodec.Encoder encoder, MaskRleCodec.Decoder decoder, byte[] mask, long sequence, int w, int h){
+        byte[] out = new byte[MaskRleCodec.maxEncodedSize(w, h)];
+        int length = encoder.encode(mask, sequence, out);
+        return decoder.decode(out, length);
+    }
+
+    @Test
+    public void encodesRowsAsRunsAcrossRowEnds(){
+        byte[] mask = mask(
+                "##..",
+                "...#",
+                "#...");
+        MaskRleCodec.Encoder encoder = new MaskRleCodec.Encoder(4, 3);
+        byte[] out = new byte[MaskRleCodec.maxEncodedSize(4, 3)];
+        int length = encoder.encode(mask, 7, out);
+
+        //off 0, on 2, off 5, on 2 (end of row 1, start of row 2), off 3
+        assertEquals(MaskRleCodec.HEADER_SIZE + 5, length);
+        assertArrayEquals(new byte[]{0, 2, 5, 2, 3}, Arrays.copyOfRange(out, MaskRleCodec.HEADER_SIZE, length));
+        assertArrayEquals(new byte[]{'B', 'M', 1, 0, 0, 0, 0, 7, 0, 0, 0, 7, 0, 4, 0, 3}, Arrays.copyOf(out, MaskRleCodec.HEADER_SIZE));
+    }
+
+    @Test
+    public void longRunsUseVarints(){
+        byte[] out = new byte[5];
+        assertEquals(1, MaskRleCodec.writeVarint(out, 0, 127));
+        assertEquals(2, MaskRleCodec.writeVarint(out, 0, 128));
+        assertEquals((byte)0x80, out[0]);
+        assertEquals(1, out[1]);
+        assertEquals(3, MaskRleCodec.writeVarint(out, 0, W * H));
+
+        long[] value = new long[1];
+        assertEquals(3, MaskRleCodec.readVarint(out, 0, 3, value));
+        assertEquals(W * H, value[0]);
+        assertEquals(-1, MaskRleCodec.readVarint(out, 0, 2, value));
+    }
+
+    @Test
+    public void deltasRoundTrip(){
+        Random random = new Random(23);
+        int w = 64, h = 48;
+        MaskRleCodec.Encoder encoder = new MaskRleCodec.Encoder(w, h);
+        encoder.setKeyframeInterval(5);
+        MaskRleCodec.Decoder decoder = new MaskRleCodec.Decoder();
+
+        byte[] mask = new byte[w * h];
+        for(int frame = 0; frame < 12; frame++){
+            for(int k = 0; k < 50; k++) mask[random.nextInt(mask.length)] = (byte)(random.nextBoolean() ? 1 + random.nextInt(255) : 0);
+            assertTrue(roundTrip(encoder, decoder, mask, frame, w, h));
+            assertArrayEquals(normalized(mask), decoder.getMask());
+            assertEquals(frame, decoder.getSequence());
+        }
+        assertEquals(12, decoder.getDecoded());
+    }
+
+    @Test
+    public void deltaWithoutItsBaseIsRefused(){
+        int w = 8, h = 2;
+        MaskRleCodec.Encoder encoder = new MaskRleCodec.Encoder(w, h);
+        MaskRleCodec.Decoder decoder = new MaskRleCodec.Decoder();
+        byte[] out = new byte[MaskRleCodec.maxEncodedSize(w, h)];
+        //busy enough that flipping one pixel is shorter as a delta
+        byte[] mask = mask(
+                "#.#.#.#.",
+                ".#.#.#.#");
+
+        assertTrue(decoder.decode(out, encoder.encode(mask, 1, out)));
+        mask[3] = 1;
+        encoder.encode(mask, 2, out); //lost on the way
+        assertEquals(MaskRleCodec.FLAG_DELTA, out[3] & MaskRleCodec.FLAG_DELTA);
+        mask[5] = 1;
+        assertFalse(decoder.decode(out, encoder.encode(mask, 3, out)));
+        assertEquals(1, decoder.getMissingBase());
+        assertEquals(0, decoder.getMask()[3]);
+
+        encoder.requestKeyframe();
+        int length = encoder.encode(mask, 4, out);
+        assertEquals(0, out[3] & MaskRleCodec.FLAG_DELTA);
+        assertTrue(decoder.decode(out, length));
+        assertArrayEquals(normalized(mask), decoder.getMask());
+    }
+
+    @Test
+    public void malformedMessagesLeaveTheMaskAlone(){
+        int w = 8, h = 2;
+        MaskRleCodec.Encoder encoder = new MaskRleCodec.Encoder(w, h);
+        encoder.setKeyframeInterval(1);
+        MaskRleCodec.Decoder decoder = new MaskRleCodec.Decoder();
+        byte[] out = new byte[MaskRleCodec.maxEncodedSize(w, h)];
+        byte[] mask = new byte[w * h];
+        mask[0] = 1;
+        assertTrue(decoder.decode(out, encoder.encode(mask, 1, out)));
+
+        mask[0] = 0;
+        mask[9] = 1;
+        int length = encoder.encode(mask, 2, out);
+        assertFalse(decoder.decode(out, length - 1)); //cut off
+        assertFalse(decoder.decode(out, MaskRleCodec.HEADER_SIZE - 1));
+        byte[] extra = Arrays.copyOf(out, length + 1);
+        assertFalse(decoder.decode(extra, length + 1)); //trailing bytes
+        out[MaskRleCodec.HEADER_SIZE + 1] = 100; //runs no longer add up
+        assertFalse(decoder.decode(out, length));
+        out[2] = 2; //version
+        assertFalse(decoder.decode(out, length));
+
+        assertEquals(5, decoder.getInvalid());
+        assertEquals(1, decoder.getSequence());
+        assertEquals((byte)255, decoder.getMask()[0]);
+        assertEquals(0, decoder.getMask()[9]);
+    }
+
+    //region Compression benchmark
+
+    private static List<byte[]> recordedMasks() throws IOException {
+        List<byte[]> masks = new ArrayList<>();
+        String dir = System.getProperty("bullseye.recordedFrames");
+        if(dir == null) return masks;
+        File[] files = new File(dir).listFiles();
+        if(files == null) return masks;
+        Arrays.sort(files);
+
+        ColorClassifierLUT lut = new ColorClassifierLUT();
+        lut.setThresholds(LOW_HSV, HIGH_HSV);
+        byte[] frame = new byte[W * H * 3/2];
+        for(File f : files){
+            if(!f.getName().endsWith(".nv12") || f.length() != frame.length) continue;
+            FileInputStream in = new FileInputStream(f);
+            try{
+                int read = 0;
+                while(read < frame.length) read += in.read(frame, read, frame.length - read);
+            }finally{
+                in.close();
+            }
+            byte[] mask = new byte[W * H];
+            lut.classify(frame, W, H, mask);
+            masks.add(mask);
+        }
+        return masks;
+    }
+
+    /**
+     * Two strips with ragged, flickering edges plus sparse speckle from reflections, roughly what
+     * the thresholded camera image looks like; drifting a few pixels per frame if moving
+     */
+    private static List<byte[]> syntheticMasks(int frames, boolean moving){
+        Random random = new Random(2016);
+        List<byte[]> masks = new ArrayList<>();
+        double left = 300, top = 350;
+        for(int f = 0; f < frames; f++){
+            byte[] mask = new byte[W * H];
+            if(moving){
+                left += 3 + random.nextGaussian();
+                top += random.nextGaussian();
+            }
+            int height = 150, width = 60, spacing = 250;
+            for(int strip = 0; strip < 2; strip++){
+                int x0 = (int)left + strip * spacing;
+                for(int y = (int)top; y < top + height; y++){
+                    //an edge pixel flickers now and then
+                    int x1 = x0 + (random.nextInt(8) == 0 ? 1 : 0), x2 = x0 + width - (random.nextInt(8) == 0 ? 1 : 0);
+                    for(int x = x1; x < x2; x++) mask[y * W + x] = (byte)255;
+                }
+            }
+            for(int k = 0; k < 40; k++) mask[random.nextInt(mask.length)] = (byte)255;
+            masks.add(mask);
+        }
+        return masks;
+    }
+
+    /**
+     * @return mean bytes per mask, encoding with and without deltas
+     */
+    private static double[] measure(String name, List<byte[]> masks){
+        byte[] out = new byte[MaskRleCodec.maxEncodedSize(W, H)];
+        double[] mean = new double[2];
+        int[] worst = new int[2];
+        String deltaCount = "";
+        double encodeMillis = 0;
+        for(int mode = 0; mode < 2; mode++){
+            MaskRleCodec.Encoder encoder = new MaskRleCodec.Encoder(W, H);
+            if(mode == 0) encoder.setKeyframeInterval(1);
+            MaskRleCodec.Decoder decoder = new MaskRleCodec.Decoder();
+            long total = 0;
+            long encodeNanos = 0;
+            for(int i = 0; i < masks.size(); i++){
+                long start = System.nanoTime();
+                int length = encoder.encode(masks.get(i), i, out);
+                encodeNanos += System.nanoTime() - start;
+                total += length;
+                worst[mode] = Math.max(worst[mode], length);
+                assertTrue(decoder.decode(out, length));
+                if(i % 10 == 0) assertArrayEquals(normalized(masks.get(i)), decoder.getMask());
+            }
+            mean[mode] = total / (double)masks.size();
+            if(mode == 1){
+                encodeMillis = encodeNanos / 1e6 / masks.size();
+                deltaCount = encoder.getDeltas() + "/" + masks.size();
+            }
+        }
+
+        double raw = W * H;
+        System.out.println(String.format("%s, %d masks %dx%d (raw %.0f bytes, 1-bit %.0f bytes):", name, masks.size(), W, H, raw, raw / 8));
+        System.out.println(String.format("  RLE keyframes: %.0f bytes/frame (max %d), %.0fx raw", mean[0], worst[0], raw / mean[0]));
+        System.out.println(String.format("  RLE + deltas:  %.0f bytes/frame (max %d), %.0fx raw, %s deltas, %.2f ms/frame to encode",
+                mean[1], worst[1], raw / mean[1], deltaCount, encodeMillis));
+        return mean;
+    }
+
+    @Test
+    public void compressionRatio() throws IOException {
+        List<byte[]> recorded = recordedMasks();
+        if(!recorded.isEmpty()){
+            double[] mean = measure("Recorded", recorded);
+            assertTrue(mean[1] <= mean[0] * 1.05);
+            return;
+        }
+
+        //a few KB per frame, where JPEG takes tens to hundreds
+        double[] moving = measure("Synthetic, moving", syntheticMasks(60, true));
+        assertTrue(moving[0] < 4096);
+        //deltas are only used where they're shorter
+        assertTrue(moving[1] <= moving[0] * 1.05);
+
+        double[] still = measure("Synthetic, still", syntheticMasks(60, false));
+        assertTrue(still[0] < 4096);
+        assertTrue(still[1] < still[0] * 0.75);
+    }
+    //endregion
+
+}
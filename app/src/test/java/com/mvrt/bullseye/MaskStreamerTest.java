@@ -0,0 +1,144 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MaskStreamerTest {
+
+    private static class Subscribers implements MaskStreamer.Sink{
+        volatile boolean wanted;
+        volatile boolean accepting = true;
+        volatile int sent;
+        final BlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+
+        @Override
+        public boolean wantsMask() {
+            return wanted;
+        }
+
+        @Override
+        public boolean sendMask(byte[] message, int length) {
+            sent++;
+            boolean accepted = accepting; //read before the test can see the message and change it
+            messages.add(Arrays.copyOf(message, length));
+            return accepted;
+        }
+
+        byte[] next() throws InterruptedException {
+            byte[] message = messages.poll(5, TimeUnit.SECONDS);
+            assertNotNull("no mask sent", message);
+            return message;
+        }
+    }
+
+    private static final int W = 8, H = 2;
+
+    /** Busy enough that flipping one pixel is shorter as a delta */
+    private static byte[] checkerboard(){
+        byte[] mask = new byte[W * H];
+        for(int i = 0; i < mask.length; i++) mask[i] = (i / W + i) % 2 == 0 ? (byte)255 : 0;
+        return mask;
+    }
+
+    private static boolean isDelta(byte[] message){
+        return (message[3] & MaskRleCodec.FLAG_DELTA) != 0;
+    }
+
+    @Test
+    public void skipsWithoutEncoderOrSubscribers(){
+        Subscribers subscribers = new Subscribers();
+        MaskStreamer streamer = new MaskStreamer(subscribers);
+        //not started: the mask isn't touched
+        subscribers.wanted = true;
+        assertFalse(streamer.offer(null));
+
+        //started, but no one is due for a mask
+        subscribers.wanted = false;
+        streamer.start();
+        try {
+            assertFalse(streamer.offer(null));
+        } finally {
+            streamer.stop();
+        }
+        assertEquals(0, streamer.getOffered());
+        assertEquals(0, subscribers.sent);
+    }
+
+    @Test
+    public void streamsAKeyframeThenDeltas() throws Exception {
+        Subscribers subscribers = new Subscribers();
+        subscribers.wanted = true;
+        MaskStreamer streamer = new MaskStreamer(subscribers);
+        MaskRleCodec.Decoder decoder = new MaskRleCodec.Decoder();
+        byte[] mask = checkerboard();
+
+        streamer.start();
+        try {
+            assertTrue(streamer.offer(mask, W, H));
+            byte[] first = subscribers.next();
+            assertFalse(isDelta(first));
+            assertTrue(decoder.decode(first, first.length));
+            assertArrayEquals(mask, decoder.getMask());
+
+            //the encoder frees the staged mask before sending, so this one is taken too
+            mask[1] = (byte)255;
+            assertTrue(streamer.offer(mask, W, H));
+            byte[] second = subscribers.next();
+            assertTrue(isDelta(second));
+            assertTrue(decoder.decode(second, second.length));
+            assertArrayEquals(mask, decoder.getMask());
+        } finally {
+            streamer.stop();
+        }
+        assertEquals(2, streamer.getEncoded());
+        assertEquals(1, streamer.getKeyframes());
+    }
+
+    @Test
+    public void refusedMaskForcesAKeyframe() throws Exception {
+        Subscribers subscribers = new Subscribers();
+        subscribers.wanted = true;
+        MaskStreamer streamer = new MaskStreamer(subscribers);
+        MaskRleCodec.Decoder decoder = new MaskRleCodec.Decoder();
+        byte[] mask = checkerboard();
+
+        streamer.start();
+        try {
+            assertTrue(streamer.offer(mask, W, H));
+            byte[] first = subscribers.next();
+            assertTrue(decoder.decode(first, first.length));
+
+            //a subscriber couldn't take this delta, so it never reaches the decoder
+            subscribers.accepting = false;
+            mask[1] = (byte)255;
+            assertTrue(streamer.offer(mask, W, H));
+            assertTrue(isDelta(subscribers.next()));
+
+            subscribers.accepting = true;
+            mask[3] = (byte)255;
+            assertTrue(streamer.offer(mask, W, H));
+            byte[] third = subscribers.next();
+            assertFalse(isDelta(third));
+            assertTrue(decoder.decode(third, third.length));
+            assertArrayEquals(mask, decoder.getMask());
+        } finally {
+            streamer.stop();
+        }
+        assertEquals(2, streamer.getKeyframes());
+    }
+
+    @Test
+    public void keyframeInterval(){
+        MaskStreamer streamer = new MaskStreamer(new Subscribers());
+        assertEquals(MaskRleCodec.Encoder.DEFAULT_KEYFRAME_INTERVAL, streamer.getKeyframeInterval());
+        streamer.setKeyframeInterval(0);
+        assertEquals(1, streamer.getKeyframeInterval());
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.mvrt.bullseye;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class MjpegServerTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private MjpegServer server;
+    private Socket viewer;
+
+    @After
+    public void close() throws IOException {
+        if(viewer != null) viewer.close();
+        if(server != null) server.stop();
+    }
+
+    private void connect() throws IOException, InterruptedException {
+        server = new MjpegServer(0);
+        server.start();
+        assertFalse(server.hasReceivers());
+
+        viewer = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        viewer.setSoTimeout(2000);
+        OutputStream out = viewer.getOutputStream();
+        out.write("GET / HTTP/1.1\r\nHost: phone\r\n\r\n".getBytes(ASCII));
+        out.flush();
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while(!server.hasReceivers() && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        assertTrue(server.hasReceivers());
+    }
+
+    /** Reads up to and including the next blank line */
+    private static String readHeaders(InputStream in) throws IOException {
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        while(true){
+            int b = in.read();
+            assertTrue(b >= 0);
+            headers.write(b);
+            String s = new String(headers.toByteArray(), ASCII);
+            if(s.endsWith("\r\n\r\n")) return s;
+        }
+    }
+
+    @Test
+    public void streamsFramesAsMultipart() throws IOException, InterruptedException {
+        connect();
+        InputStream in = viewer.getInputStream();
+        String response = readHeaders(in);
+        assertTrue(response.startsWith("HTTP/1.0 200 OK\r\n"));
+        assertTrue(response.contains("Content-Type: multipart/x-mixed-replace; boundary=bullseyeframe\r\n"));
+
+        byte[] jpeg = {(byte)0xFF, (byte)0xD8, 1, 2, 3, (byte)0xFF, (byte)0xD9, 99, 99};
+        for(int frame = 0; frame < 3; frame++){
+            jpeg[2] = (byte)frame;
+            server.send(jpeg, 7, 1000 + frame);
+
+            String part = readHeaders(in);
+            assertTrue(part.startsWith("--bullseyeframe\r\n"));
+            assertTrue(part.contains("Content-Type: image/jpeg\r\n"));
+            assertTrue(part.contains("Content-Length: 7\r\n"));
+            assertTrue(part.contains("X-Timestamp: " + (1000 + frame) + "\r\n"));
+            for(int i = 0; i < 7; i++) assertEquals(jpeg[i] & 0xFF, in.read());
+            assertEquals('\r', in.read());
+            assertEquals('\n', in.read());
+        }
+        assertEquals(3, server.getFramesSent());
+    }
+
+    @Test
+    public void viewerThatLeftIsDropped() throws IOException, InterruptedException {
+        connect();
+        viewer.close();
+        viewer = null;
+
+        //the first writes after the peer closes can still succeed
+        byte[] jpeg = new byte[64 * 1024];
+        long deadline = System.currentTimeMillis() + 5000;
+        while(server.hasReceivers() && System.currentTimeMillis() < deadline){
+            server.send(jpeg, jpeg.length, 0);
+            Thread.sleep(10);
+        }
+        assertFalse(server.hasReceivers());
+        assertEquals(1, server.getViewersDropped());
+    }
+
+    @Test
+    public void stalledViewerDoesntHoldUpOthers() throws IOException, InterruptedException {
+        connect();
+        //a second viewer that never reads, so its socket buffers fill up and its writes block
+        Socket stalled = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        try {
+            stalled.getOutputStream().write("GET / HTTP/1.1\r\n\r\n".getBytes(ASCII));
+            long deadline = System.currentTimeMillis() + 2000;
+            while(server.getViewerCount() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+            assertEquals(2, server.getViewerCount());
+
+            InputStream in = viewer.getInputStream();
+            readHeaders(in);
+            byte[] jpeg = new byte[256 * 1024];
+            long start = System.nanoTime();
+            for(int frame = 0; frame < 40; frame++){
+                server.send(jpeg, jpeg.length, frame);
+                //the reading viewer keeps up
+                String part = readHeaders(in);
+                assertTrue(part.contains("X-Timestamp: " + frame + "\r\n"));
+                for(int read = 0; read < jpeg.length + 2; ) read += in.skip(jpeg.length + 2 - read);
+            }
+            //megabytes past what the stalled socket can buffer, and send never waited on it
+            assertTrue(System.nanoTime() - start < 5000000000L);
+            assertTrue(server.getFramesSkipped() > 0);
+        } finally {
+            long start = System.nanoTime();
+            server.stop();
+            assertTrue(System.nanoTime() - start < 3000000000L);
+            stalled.close();
+        }
+    }
+
+}
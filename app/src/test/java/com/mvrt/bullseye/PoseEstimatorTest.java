@@ -0,0 +1,71 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PoseEstimatorTest {
+
+    private static TargetRect strip(double[] xs, double[] ys){
+        TargetRect r = new TargetRect();
+        r.setFromCorners(xs, ys);
+        return r;
+    }
+
+    @Test
+    public void ordersCornersWhereverTheRectStarts(){
+        //top-left (10, 20), top-right (30, 21), bottom-right (29, 71), bottom-left (9, 70)
+        double[] xs = {10, 30, 29, 9};
+        double[] ys = {20, 21, 71, 70};
+        float[] expected = {10, 20, 30, 21, 29, 71, 9, 70};
+
+        float[] out = new float[8];
+        for(int start = 0; start < 4; start++){
+            for(int direction = -1; direction <= 1; direction += 2){
+                double[] rx = new double[4], ry = new double[4];
+                for(int i = 0; i < 4; i++){
+                    int j = ((start + direction * i) % 4 + 4) % 4;
+                    rx[i] = xs[j];
+                    ry[i] = ys[j];
+                }
+                PoseEstimator.orderCorners(strip(rx, ry), out, 0);
+                assertArrayEquals(expected, out, 0);
+            }
+        }
+    }
+
+    @Test
+    public void writesAtOffset(){
+        float[] out = new float[16];
+        PoseEstimator.orderCorners(strip(new double[]{0, 20, 20, 0}, new double[]{0, 0, 50, 50}), out, 8);
+        for(int i = 0; i < 8; i++) assertEquals(0, out[i], 0);
+        assertArrayEquals(new float[]{0, 0, 20, 0, 20, 50, 0, 50}, Arrays.copyOfRange(out, 8, 16), 0);
+    }
+
+    /** A strip facing the camera with its middle at (x, y, z) inches, projected through a pinhole */
+    private static TargetRect projectStrip(CameraModel camera, double x, double y, double z){
+        double[] xs = new double[4], ys = new double[4];
+        double[] dx = {-1, 1, 1, -1}, dy = {-1, -1, 1, 1};
+        for(int i = 0; i < 4; i++){
+            xs[i] = camera.getPrincipalX() + camera.getFocalLengthX() * (x + dx[i] * PoseEstimator.STRIP_WIDTH / 2) / z;
+            ys[i] = camera.getPrincipalY() + camera.getFocalLengthY() * (y + dy[i] * PoseEstimator.STRIP_HEIGHT / 2) / z;
+        }
+        return strip(xs, ys);
+    }
+
+    @Test
+    public void rangeFromSpanIsTheRangeToTheMiddle(){
+        CameraModel camera = CameraModel.fromFov(1280, 960, Math.toRadians(60), Math.toRadians(47));
+        double[][] middles = {{0, 0, 120}, {-20, 15, 90}, {30, -25, 200}};
+        for(double[] m : middles){
+            TargetRect left = projectStrip(camera, m[0] - PoseEstimator.STRIP_SPACING / 2, m[1], m[2]);
+            TargetRect right = projectStrip(camera, m[0] + PoseEstimator.STRIP_SPACING / 2, m[1], m[2]);
+            double range = Math.sqrt(m[0] * m[0] + m[1] * m[1] + m[2] * m[2]);
+            assertEquals(range, PoseEstimator.rangeFromSpan(camera, left, right), range * 0.01);
+            assertEquals(range, PoseEstimator.rangeFromSpan(camera, right, left), range * 0.01);
+        }
+    }
+
+}
@@ -0,0 +1,207 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.opencv.core.Rect;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that coarse-to-fine search (pyramid levels 1 and 2) finds the same target as searching
+ * the full-resolution frame, running the detector's own steps with the LUT classifier and the
+ * blob labeler: the decimated mask, {@link SearchWindows} around its largest blobs, and then
+ * thresholding, labeling, {@link CandidateFilter} and {@link TargetPairMatcher} inside those
+ * windows only.
+ *
+ * Runs on synthetic frames by default. Recorded frames can be used instead by pointing the
+ * {@code bullseye.recordedFrames} system property at a directory of raw 1280x960 NV12 dumps
+ * (*.nv12); the full-resolution result is the reference either way.
+ */
+public class PyramidAccuracyTest {
+
+    private static final int W = 1280;
+    private static final int H = 960;
+    private static final double FOCAL_LENGTH_PIXELS = .5 * W / Math.tan(Math.toRadians(30));
+
+    private static final double[] LOW_HSV = {60, 90, 150};
+    private static final double[] HIGH_HSV = {85, 255, 255};
+
+    /** the same limits CVProcessor gives its candidate filter */
+    private static final double MIN_AREA = 1000, MAX_AREA = 3000;
+
+    private static List<byte[]> frames() throws IOException {
+        List<byte[]> frames = new ArrayList<>();
+        String dir = System.getProperty("bullseye.recordedFrames");
+        if(dir != null){
+            File[] files = new File(dir).listFiles();
+            if(files != null){
+                for(File f : files){
+                    if(!f.getName().endsWith(".nv12") || f.length() != W * H * 3/2) continue;
+                    byte[] frame = new byte[W * H * 3/2];
+                    FileInputStream in = new FileInputStream(f);
+                    try{
+                        int read = 0;
+                        while(read < frame.length) read += in.read(frame, read, frame.length - read);
+                    }finally{
+                        in.close();
+                    }
+                    frames.add(frame);
+                }
+            }
+        }
+        if(frames.isEmpty()){
+            Random random = new Random(115);
+            for(int i = 0; i < 10; i++) frames.add(syntheticFrame(random));
+        }
+        return frames;
+    }
+
+    /** Dim noisy background with two target strips of random size and position */
+    private static byte[] syntheticFrame(Random random){
+        byte[] frame = new byte[W * H * 3/2];
+        for(int i = 0; i < W * H; i++) frame[i] = (byte)(20 + random.nextInt(40));
+        for(int i = W * H; i < frame.length; i++) frame[i] = (byte)(118 + random.nextInt(20));
+
+        int height = 52 + random.nextInt(32); //inside the candidate filter's area limits
+        int width = height * 2/5;
+        int spacing = height * 33/20; //8.25in between centers, strips 5in tall
+        int left = random.nextInt(W - spacing - 2 * width);
+        int top = random.nextInt(H - height);
+        double subpixel = random.nextDouble();
+
+        drawStrip(frame, left + subpixel, top, width, height);
+        drawStrip(frame, left + spacing + subpixel, top, width, height);
+        return frame;
+    }
+
+    private static void drawStrip(byte[] frame, double left, int top, int width, int height){
+        for(int y = top; y < top + height; y++){
+            for(int x = (int)Math.ceil(left); x < left + width; x++){
+                frame[y * W + x] = (byte)160;
+                int uv = W * H + (y/2) * W + (x/2) * 2;
+                frame[uv] = (byte)90;
+                frame[uv + 1] = (byte)70;
+            }
+        }
+    }
+
+    /** One detector, the way CVProcessor runs the blob labeler on a frame in LUT mode */
+    private static class Detector {
+        final ColorClassifierLUT lut = new ColorClassifierLUT();
+        final BlobLabeler labeler = new BlobLabeler();
+        final CandidateFilter filter = new CandidateFilter();
+        final TargetPairMatcher matcher = new TargetPairMatcher();
+        final Rect[] windows = new Rect[VisionFrame.MAX_SEARCH_WINDOWS];
+        final byte[] mask = new byte[W * H];
+        final TargetRect left = new TargetRect(), right = new TargetRect();
+        int windowCount;
+        long searchedPixels;
+
+        Detector(){
+            lut.setThresholds(LOW_HSV, HIGH_HSV);
+            filter.setAreaLimits(MIN_AREA, MAX_AREA);
+            filter.setAspect(2.0/5.0, 0.25);
+            for(int i = 0; i < windows.length; i++) windows[i] = new Rect();
+        }
+
+        /**
+         * @param step 1 for the full frame, 2 or 4 for coarse-to-fine
+         * @return true if a pair was found, into left and right
+         */
+        boolean detect(byte[] nv12, int step){
+            if(step == 1){
+                Rect r = windows[0];
+                r.x = 0;
+                r.y = 0;
+                r.width = W;
+                r.height = H;
+                windowCount = 1;
+            }else{
+                lut.classifyDecimated(nv12, W, H, step, mask);
+                labeler.reset();
+                labeler.label(mask, W / step, H / step, 0, 0);
+                int count = SearchWindows.largestBlobs(labeler, windows);
+                windowCount = SearchWindows.toFullResolution(windows, count, step, W, H);
+            }
+
+            labeler.reset();
+            for(int i = 0; i < windowCount; i++){
+                Rect r = windows[i];
+                lut.classify(nv12, W, H, r.x, r.y, r.width, r.height, mask);
+                labeler.label(mask, r.width, r.height, r.x, r.y);
+                searchedPixels += r.width * r.height;
+            }
+
+            filter.reset();
+            for(int b = 0; b < labeler.getBlobCount(); b++) filter.addBlob(labeler, b);
+            if(matcher.match(filter.getCandidates(), filter.getCandidateCount()) == 0) return false;
+            left.set(matcher.getLeft(0));
+            right.set(matcher.getRight(0));
+            return true;
+        }
+    }
+
+    private static double angle(double x){
+        return Math.toDegrees(Math.atan((x - W/2.0) / FOCAL_LENGTH_PIXELS));
+    }
+
+    private static void assertSameStrip(String message, TargetRect expected, TargetRect actual){
+        assertEquals(message + " center x", expected.centerX, actual.centerX, 1);
+        assertEquals(message + " center y", expected.centerY, actual.centerY, 1);
+        assertEquals(message + " length", expected.length, actual.length, 2);
+        assertEquals(message + " width", expected.width, actual.width, 2);
+    }
+
+    @Test
+    public void coarseToFineFindsTheFullResolutionTarget() throws IOException {
+        List<byte[]> frames = frames();
+        Detector full = new Detector();
+        TargetRect[][] reference = new TargetRect[frames.size()][];
+        int found = 0;
+        long fullNanos = 0;
+        for(int f = 0; f < frames.size(); f++){
+            long start = System.nanoTime();
+            boolean detected = full.detect(frames.get(f), 1);
+            fullNanos += System.nanoTime() - start;
+            if(!detected) continue;
+            reference[f] = new TargetRect[]{new TargetRect(), new TargetRect()};
+            reference[f][0].set(full.left);
+            reference[f][1].set(full.right);
+            found++;
+        }
+        System.out.println(String.format("Pyramid level 0: %.2f ms/frame, target found in %d/%d frames",
+                fullNanos / 1e6 / frames.size(), found, frames.size()));
+        assertTrue("no frame to compare with", found > 0);
+
+        for(int level = 1; level <= 2; level++){
+            int step = 1 << level;
+            Detector coarse = new Detector();
+            double maxError = 0;
+            long nanos = 0;
+            for(int f = 0; f < frames.size(); f++){
+                if(reference[f] == null) continue;
+                long start = System.nanoTime();
+                boolean detected = coarse.detect(frames.get(f), step);
+                nanos += System.nanoTime() - start;
+
+                String message = "level " + level + ", frame " + f;
+                assertTrue(message + " not found", detected);
+                assertSameStrip(message + " left", reference[f][0], coarse.left);
+                assertSameStrip(message + " right", reference[f][1], coarse.right);
+                double turn = (angle(coarse.left.centerX) + angle(coarse.right.centerX)) / 2;
+                double referenceTurn = (angle(reference[f][0].centerX) + angle(reference[f][1].centerX)) / 2;
+                maxError = Math.max(maxError, Math.abs(turn - referenceTurn));
+            }
+            System.out.println(String.format("Pyramid level %d: %.2f ms/frame, %.1f%% of the pixels searched at full resolution, turn angle error max %.4f deg",
+                    level, nanos / 1e6 / found, 100.0 * coarse.searchedPixels / ((long)W * H * found), maxError));
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ResultFrameTest {
+
+    private static ResultFrame sample(){
+        ResultFrame frame = new ResultFrame();
+        frame.flags = ResultFrame.FLAG_MEASURED | ResultFrame.FLAG_POSE;
+        frame.sequence = 123456;
+        frame.captureTimestamp = 1476812345678L;
+        frame.predictionAge = 42;
+        frame.confidence = 0.8;
+        frame.turnAngle = -12.345;
+        frame.distance = 118.75;
+        frame.verticalAngle = 21.5;
+        frame.rotation[0] = 0.01;
+        frame.rotation[1] = -0.35;
+        frame.rotation[2] = 0.002;
+        frame.translation[0] = -24.5;
+        frame.translation[1] = 40.25;
+        frame.translation[2] = 105;
+        frame.framesProduced = 1000;
+        frame.framesConsumed = 900;
+        frame.framesDropped = 100;
+        return frame;
+    }
+
+    @Test
+    public void movesTimestampToClientClock(){
+        ResultFrame frame = sample();
+        ByteBuffer buffer = ByteBuffer.allocate(ResultFrame.SIZE);
+        frame.encode(buffer);
+
+        byte[] message = buffer.array();
+        ResultFrame.toClientClock(message, -3600000 - 17);
+        ResultFrame decoded = new ResultFrame();
+        assertTrue(decoded.decode(ByteBuffer.wrap(message)));
+        assertEquals(frame.captureTimestamp - 3600000 - 17, decoded.captureTimestamp);
+        assertEquals(frame.flags | ResultFrame.FLAG_CLIENT_CLOCK, decoded.flags);
+        assertEquals(frame.sequence, decoded.sequence);
+        assertEquals(frame.predictionAge, decoded.predictionAge);
+    }
+
+    @Test
+    public void roundTrips(){
+        ResultFrame frame = sample();
+        ByteBuffer buffer = ByteBuffer.allocate(ResultFrame.SIZE);
+        frame.encode(buffer);
+        assertEquals(ResultFrame.SIZE, buffer.position());
+
+        buffer.flip();
+        ResultFrame decoded = new ResultFrame();
+        assertTrue(decoded.decode(buffer));
+        assertEquals(ResultFrame.SIZE, buffer.position());
+
+        assertEquals(frame.flags, decoded.flags);
+        assertEquals(frame.sequence, decoded.sequence);
+        assertEquals(frame.captureTimestamp, decoded.captureTimestamp);
+        assertEquals(frame.predictionAge, decoded.predictionAge);
+        assertEquals(frame.confidence, decoded.confidence, 0.5 / 255);
+        //float32 keeps ~7 significant digits
+        assertEquals(frame.turnAngle, decoded.turnAngle, 1e-5);
+        assertEquals(frame.distance, decoded.distance, 1e-4);
+        assertEquals(frame.verticalAngle, decoded.verticalAngle, 1e-5);
+        assertArrayEquals(frame.rotation, decoded.rotation, 1e-7);
+        assertArrayEquals(frame.translation, decoded.translation, 1e-4);
+        assertEquals(frame.framesProduced, decoded.framesProduced);
+        assertEquals(frame.framesConsumed, decoded.framesConsumed);
+        assertEquals(frame.framesDropped, decoded.framesDropped);
+    }
+
+    @Test
+    public void headerLayout(){
+        ByteBuffer buffer = ByteBuffer.allocate(ResultFrame.SIZE);
+        sample().encode(buffer);
+        assertEquals('B', buffer.get(0));
+        assertEquals('E', buffer.get(1));
+        assertEquals(ResultFrame.VERSION, buffer.get(2));
+        assertEquals(3, buffer.get(3));
+        assertEquals(123456, buffer.getInt(4));
+        assertEquals(1476812345678L, buffer.getLong(8));
+        assertEquals(-12.345f, buffer.getFloat(20), 0);
+        assertEquals(118.75f, buffer.getFloat(24), 0);
+    }
+
+    @Test
+    public void saturatesAndWraps(){
+        ResultFrame frame = sample();
+        frame.predictionAge = 100000;
+        frame.confidence = 1.7;
+        frame.sequence = (1L << 32) + 5;
+        ByteBuffer buffer = ByteBuffer.allocate(ResultFrame.SIZE);
+        frame.encode(buffer);
+        buffer.flip();
+
+        ResultFrame decoded = new ResultFrame();
+        assertTrue(decoded.decode(buffer));
+        assertEquals(0xFFFF, decoded.predictionAge);
+        assertEquals(1, decoded.confidence, 0);
+        assertEquals(5, decoded.sequence);
+
+        frame.sequence = 0xFFFFFFF0L;
+        buffer.clear();
+        frame.encode(buffer);
+        buffer.flip();
+        assertTrue(decoded.decode(buffer));
+        assertEquals(0xFFFFFFF0L, decoded.sequence); //unsigned, not negative
+    }
+
+    @Test
+    public void rejectsOtherMessages(){
+        ResultFrame decoded = new ResultFrame();
+        ByteBuffer buffer = ByteBuffer.allocate(ResultFrame.SIZE);
+        sample().encode(buffer);
+
+        buffer.put(2, (byte)(ResultFrame.VERSION + 1));
+        buffer.position(0);
+        assertFalse(decoded.decode(buffer));
+        assertEquals(0, buffer.position());
+
+        buffer.put(2, (byte)ResultFrame.VERSION);
+        buffer.put(0, (byte)0);
+        assertFalse(decoded.decode(buffer));
+
+        buffer.put(0, (byte)'B');
+        buffer.limit(ResultFrame.SIZE - 1);
+        assertFalse(decoded.decode(buffer));
+    }
+
+}
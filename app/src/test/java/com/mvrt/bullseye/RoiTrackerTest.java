@@ -0,0 +1,149 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RoiTrackerTest {
+
+    private static final int W = 1280;
+    private static final int H = 960;
+
+    private static RoiTracker tracker(){
+        RoiTracker tracker = new RoiTracker();
+        tracker.setEnabled(true);
+        tracker.setMargin(40, 2.0);
+        tracker.setMaxMisses(3);
+        return tracker;
+    }
+
+    private static int[] roi(RoiTracker tracker, long sequence){
+        int[] roi = new int[4];
+        tracker.computeRoi(sequence, W, H, roi);
+        return roi;
+    }
+
+    @Test
+    public void fullScansUntilFirstDetection(){
+        RoiTracker tracker = tracker();
+        assertFalse(tracker.useRoi());
+        tracker.onMissed(false);
+        assertFalse(tracker.useRoi());
+        tracker.onDetected(false, 1, 100, 100, 200, 150);
+        assertTrue(tracker.useRoi());
+    }
+
+    @Test
+    public void disabledNeverUsesRoi(){
+        RoiTracker tracker = tracker();
+        tracker.onDetected(false, 1, 100, 100, 200, 150);
+        tracker.setEnabled(false);
+        assertFalse(tracker.useRoi());
+        tracker.setEnabled(true);
+        assertFalse(tracker.useRoi()); //the old detection is forgotten
+    }
+
+    @Test
+    public void marginAroundStillTarget(){
+        RoiTracker tracker = tracker();
+        tracker.onDetected(false, 1, 100, 100, 200, 150);
+        assertArrayEquals(new int[]{60, 60, 180, 130}, roi(tracker, 2));
+    }
+
+    @Test
+    public void alignedToEvenPixels(){
+        RoiTracker tracker = tracker();
+        tracker.onDetected(false, 1, 101.5, 99.2, 200.5, 150.5);
+        int[] roi = roi(tracker, 2);
+        assertArrayEquals(new int[]{60, 58, 182, 134}, roi);
+        for(int v : roi) assertEquals(0, v % 2);
+    }
+
+    @Test
+    public void clampedToTheImage(){
+        RoiTracker tracker = tracker();
+        tracker.onDetected(false, 1, 10, 5, W - 10, H - 3);
+        assertArrayEquals(new int[]{0, 0, W, H}, roi(tracker, 2));
+
+        tracker = tracker();
+        tracker.onDetected(false, 1, 1250, 900, 1270, 950);
+        assertArrayEquals(new int[]{1210, 860, W - 1210, H - 860}, roi(tracker, 3));
+    }
+
+    @Test
+    public void regionOutsideTheImageFallsBackToFullFrame(){
+        RoiTracker tracker = tracker();
+        tracker.setMargin(0, 0);
+        tracker.onDetected(false, 1, -300, -300, -200, -200);
+        assertArrayEquals(new int[]{0, 0, W, H}, roi(tracker, 2));
+    }
+
+    @Test
+    public void leadsAndWidensForMotion(){
+        RoiTracker tracker = tracker();
+        tracker.onDetected(false, 1, 100, 100, 200, 150);
+        tracker.onDetected(true, 2, 110, 100, 210, 150);
+        //10 px/frame: moved 10 ahead, margin 40 + 2 * 10
+        assertArrayEquals(new int[]{60, 40, 220, 170}, roi(tracker, 3));
+    }
+
+    @Test
+    public void velocityIsPerFrameAcrossMisses(){
+        RoiTracker tracker = tracker();
+        tracker.onDetected(false, 1, 100, 100, 200, 150);
+        tracker.onMissed(true);
+        tracker.onMissed(true);
+        tracker.onDetected(true, 4, 130, 100, 230, 150);
+        //30 px over 3 frames is 10 px/frame, same as one frame later
+        assertArrayEquals(new int[]{80, 40, 220, 170}, roi(tracker, 5));
+        //and 30 px further ahead, with a margin of 40 + 2 * 30, three frames on
+        assertArrayEquals(new int[]{60, 0, 300, 250}, roi(tracker, 7));
+    }
+
+    @Test
+    public void velocityStartsOverAfterFullScanMiss(){
+        RoiTracker tracker = tracker();
+        tracker.onDetected(false, 1, 100, 100, 200, 150);
+        tracker.onDetected(true, 2, 150, 100, 250, 150);
+        tracker.onMissed(true);
+        tracker.onMissed(true);
+        tracker.onMissed(true);
+        tracker.onMissed(false);
+        tracker.onDetected(false, 7, 400, 300, 500, 350);
+        assertArrayEquals(new int[]{360, 260, 180, 130}, roi(tracker, 8));
+    }
+
+    @Test
+    public void missesGoBackToFullScans(){
+        RoiTracker tracker = tracker();
+        tracker.onDetected(false, 1, 100, 100, 200, 150);
+        for(int i = 0; i < 3; i++){
+            assertTrue(tracker.useRoi());
+            tracker.onMissed(true);
+        }
+        assertFalse(tracker.useRoi());
+
+        //found again by the full scan
+        tracker.onDetected(false, 5, 100, 100, 200, 150);
+        assertTrue(tracker.useRoi());
+
+        assertEquals(0, tracker.getRoiHits());
+        assertEquals(3, tracker.getRoiMisses());
+        assertEquals(2, tracker.getFullScans());
+        assertEquals(2, tracker.getFullScanHits());
+    }
+
+    @Test
+    public void hitResetsMissCount(){
+        RoiTracker tracker = tracker();
+        tracker.onDetected(false, 1, 100, 100, 200, 150);
+        tracker.onMissed(true);
+        tracker.onMissed(true);
+        tracker.onDetected(true, 4, 100, 100, 200, 150);
+        tracker.onMissed(true);
+        tracker.onMissed(true);
+        assertTrue(tracker.useRoi());
+        assertEquals(1, tracker.getRoiHits());
+    }
+
+}
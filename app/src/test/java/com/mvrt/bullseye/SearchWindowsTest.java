@@ -0,0 +1,77 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+import org.opencv.core.Rect;
+
+import static org.junit.Assert.*;
+
+public class SearchWindowsTest {
+
+    private static Rect[] windows(int count){
+        Rect[] windows = new Rect[count];
+        for(int i = 0; i < count; i++) windows[i] = new Rect();
+        return windows;
+    }
+
+    @Test
+    public void keepsTheLargestSortedByArea(){
+        Rect[] windows = windows(3);
+        int count = 0;
+        count = SearchWindows.insertLargest(windows, count, 0, 0, 2, 2);
+        count = SearchWindows.insertLargest(windows, count, 10, 0, 5, 5);
+        count = SearchWindows.insertLargest(windows, count, 20, 0, 1, 1);
+        count = SearchWindows.insertLargest(windows, count, 30, 0, 3, 3);
+        count = SearchWindows.insertLargest(windows, count, 40, 0, 1, 2);
+
+        assertEquals(3, count);
+        assertEquals(10, windows[0].x);
+        assertEquals(30, windows[1].x);
+        assertEquals(0, windows[2].x);
+    }
+
+    @Test
+    public void scalesUpWithOneCoarsePixelOfPadding(){
+        Rect[] windows = windows(1);
+        windows[0].x = 10;
+        windows[0].y = 5;
+        windows[0].width = 3;
+        windows[0].height = 7;
+
+        assertEquals(1, SearchWindows.toFullResolution(windows, 1, 4, 1280, 960));
+        assertEquals(36, windows[0].x);
+        assertEquals(16, windows[0].y);
+        assertEquals(56 - 36, windows[0].width);
+        assertEquals(52 - 16, windows[0].height);
+    }
+
+    @Test
+    public void clampsAndAlignsToEvenPixels(){
+        Rect r = new Rect();
+        SearchWindows.align(r, -3, 5, 1283, 960, 1280, 960);
+        assertEquals(0, r.x);
+        assertEquals(4, r.y);
+        assertEquals(1280, r.width);
+        assertEquals(956, r.height);
+
+        SearchWindows.align(r, 7, 9, 14, 20, 1280, 960);
+        assertEquals(6, r.x);
+        assertEquals(8, r.y);
+        assertEquals(14 - 6, r.width);
+        assertEquals(20 - 8, r.height);
+    }
+
+    @Test
+    public void mergesOverlappingWindows(){
+        Rect[] windows = windows(3);
+        windows[0].set(new double[]{0, 0, 10, 10});
+        windows[1].set(new double[]{100, 100, 10, 10});
+        windows[2].set(new double[]{5, 5, 10, 10});
+
+        assertEquals(2, SearchWindows.mergeOverlapping(windows, 3));
+        assertEquals(0, windows[0].x);
+        assertEquals(15, windows[0].width);
+        assertEquals(15, windows[0].height);
+        assertEquals(100, windows[1].x);
+    }
+
+}
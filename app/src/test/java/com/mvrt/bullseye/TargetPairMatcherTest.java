@@ -0,0 +1,111 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TargetPairMatcherTest {
+
+    /** A vertical strip (angle 90) with the 2:5 shape of the real ones */
+    private static TargetRect strip(double cx, double cy, double length){
+        return rect(cx, cy, length * 2 / 5, length, 90);
+    }
+
+    private static TargetRect rect(double cx, double cy, double width, double length, double angle){
+        TargetRect r = new TargetRect();
+        r.centerX = cx;
+        r.centerY = cy;
+        r.width = width;
+        r.length = length;
+        r.angle = angle;
+        return r;
+    }
+
+    /** The two strips of a target seen head on, left strip centered at x */
+    private static TargetRect[] target(double x, double y, double length){
+        return new TargetRect[]{strip(x, y, length), strip(x + 1.65 * length, y, length)};
+    }
+
+    @Test
+    public void findsTargetDespiteBiggerReflection(){
+        TargetRect[] t = target(300, 400, 100);
+        TargetRect reflection = rect(800, 300, 90, 220, 90); //bigger than either strip
+        TargetRect light = rect(600, 420, 60, 150, -88);
+        TargetRect[] candidates = {reflection, t[1], light, t[0]};
+
+        TargetPairMatcher matcher = new TargetPairMatcher();
+        assertTrue(matcher.match(candidates, candidates.length) >= 1);
+        assertSame(t[0], matcher.getLeft(0));
+        assertSame(t[1], matcher.getRight(0));
+        assertEquals(1, matcher.getConfidence(0), 1e-9);
+    }
+
+    @Test
+    public void ranksPairsByConfidence(){
+        TargetRect[] good = target(100, 200, 80);
+        TargetRect[] tilted = target(600, 200, 80);
+        tilted[1].angle = 80;
+        tilted[1].centerY += 10;
+        TargetRect[] candidates = {tilted[0], good[1], tilted[1], good[0]};
+
+        TargetPairMatcher matcher = new TargetPairMatcher();
+        assertEquals(2, matcher.match(candidates, candidates.length));
+        assertSame(good[0], matcher.getLeft(0));
+        assertSame(tilted[0], matcher.getLeft(1));
+        assertTrue(matcher.getConfidence(0) > matcher.getConfidence(1));
+        assertTrue(matcher.getConfidence(1) > 0);
+    }
+
+    @Test
+    public void rejectsPairsOutOfTolerance(){
+        TargetPairMatcher matcher = new TargetPairMatcher();
+        TargetRect a = strip(100, 100, 100);
+
+        assertEquals(0, matcher.score(a, strip(100 + 3 * 165, 100, 100)), 0);      //too far apart
+        assertEquals(0, matcher.score(a, strip(100 + 165, 100 + 80, 100)), 0);     //not level
+        assertEquals(0, matcher.score(a, strip(100 + 140, 100, 40)), 0);           //very different heights
+        assertEquals(0, matcher.score(a, rect(100 + 165, 100, 40, 100, 45)), 0);   //not parallel
+        assertTrue(matcher.score(a, strip(100 + 165, 100, 100)) > 0.99);
+
+        assertEquals(0, matcher.match(new TargetRect[]{a}, 1));
+    }
+
+    @Test
+    public void anglesWrapAround(){
+        TargetPairMatcher matcher = new TargetPairMatcher();
+        //-89 and 89 degrees are 2 degrees apart
+        double score = matcher.score(rect(100, 100, 40, 100, -89), rect(265, 100, 40, 100, 89));
+        assertEquals(0.9, score, 1e-9);
+    }
+
+    @Test
+    public void manyCandidatesStillFindTarget(){
+        Random random = new Random(11);
+        TargetRect[] t = target(640, 480, 60);
+        TargetRect[] candidates = new TargetRect[500];
+        candidates[0] = t[1];
+        candidates[1] = t[0];
+        for(int i = 2; i < candidates.length; i++){
+            //noise: random sizes and angles all over the frame
+            candidates[i] = rect(random.nextInt(1280), random.nextInt(960), 5 + random.nextInt(30), 10 + random.nextInt(60), random.nextInt(180) - 90);
+        }
+
+        TargetPairMatcher matcher = new TargetPairMatcher();
+        long start = System.nanoTime();
+        int pairs = matcher.match(candidates, candidates.length);
+        System.out.println(String.format("Matched %d candidates in %.3f ms, %d pairs kept",
+                candidates.length, (System.nanoTime() - start) / 1e6, pairs));
+
+        boolean found = false;
+        for(int rank = 0; rank < pairs; rank++){
+            if(matcher.getLeft(rank) == t[0] && matcher.getRight(rank) == t[1]){
+                found = true;
+                assertEquals(1, matcher.getConfidence(rank), 1e-9);
+            }
+        }
+        assertTrue(found);
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TargetRectTest {
+
+    @Test
+    public void rebuildsFromCorners(){
+        //a 20x50 strip centered at (100, 200) with its long side at 30 degrees
+        double a = Math.toRadians(30);
+        double lx = 25 * Math.cos(a), ly = 25 * Math.sin(a);
+        double wx = -10 * Math.sin(a), wy = 10 * Math.cos(a);
+        double[] xs = {100 - lx - wx, 100 + lx - wx, 100 + lx + wx, 100 - lx + wx};
+        double[] ys = {200 - ly - wy, 200 + ly - wy, 200 + ly + wy, 200 - ly + wy};
+
+        TargetRect rect = new TargetRect();
+        rect.setFromCorners(xs, ys);
+        assertEquals(100, rect.centerX, 1e-9);
+        assertEquals(200, rect.centerY, 1e-9);
+        assertEquals(20, rect.width, 1e-9);
+        assertEquals(50, rect.length, 1e-9);
+        assertEquals(30, rect.angle, 1e-9);
+
+        //same rect, corners starting on the short side and going the other way round
+        double[] xs2 = {xs[1], xs[0], xs[3], xs[2]};
+        double[] ys2 = {ys[1], ys[0], ys[3], ys[2]};
+        rect.setFromCorners(xs2, ys2);
+        assertEquals(20, rect.width, 1e-9);
+        assertEquals(50, rect.length, 1e-9);
+        assertEquals(30, rect.angle, 1e-9);
+    }
+
+    @Test
+    public void verticalStripAngleIsInRange(){
+        TargetRect rect = new TargetRect();
+        rect.setFromCorners(new double[]{0, 20, 20, 0}, new double[]{0, 0, 50, 50});
+        assertEquals(-90, rect.angle, 1e-9);
+        assertEquals(10, rect.centerX, 1e-9);
+        assertEquals(25, rect.centerY, 1e-9);
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.mvrt.bullseye;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TargetTrackerTest {
+
+    private static final long FRAME_MILLIS = 33;
+
+    @Test
+    public void noTrackBeforeFirstMeasurement(){
+        TargetTracker tracker = new TargetTracker();
+        assertFalse(tracker.predict(1000, new double[2]));
+    }
+
+    /** A target turning at a steady rate, measured with noise: the estimate should be smoother and on time */
+    @Test
+    public void smoothsAndExtrapolates(){
+        Random random = new Random(12);
+        TargetTracker tracker = new TargetTracker();
+        double[] out = new double[2];
+        double angleRate = 20; //deg/s
+        double distanceRate = -24; //in/s
+
+        double rawError = 0, filteredError = 0;
+        int samples = 0;
+        for(int frame = 0; frame < 120; frame++){
+            long time = 1000 + frame * FRAME_MILLIS;
+            double trueAngle = -10 + angleRate * (time - 1000) / 1000.0;
+            double trueDistance = 200 + distanceRate * (time - 1000) / 1000.0;
+            double measuredAngle = trueAngle + random.nextGaussian() * 0.3;
+            tracker.update(time, measuredAngle, trueDistance + random.nextGaussian() * 2);
+
+            if(frame >= 30){
+                //consumer reads 80ms after capture
+                long later = time + 80;
+                assertTrue(tracker.predict(later, out));
+                double expected = -10 + angleRate * (later - 1000) / 1000.0;
+                filteredError += Math.abs(out[0] - expected);
+                rawError += Math.abs(measuredAngle - expected);
+                samples++;
+            }
+        }
+
+        System.out.println(String.format("Angle error at consumer time: raw %.3f deg, tracked %.3f deg",
+                rawError / samples, filteredError / samples));
+        assertTrue(filteredError < rawError / 2);
+        assertEquals(angleRate, tracker.getAngleRate(), 1);
+        assertEquals(distanceRate, tracker.getDistanceRate(), 10);
+    }
+
+    @Test
+    public void coastsThroughShortDropouts(){
+        TargetTracker tracker = new TargetTracker();
+        tracker.setMaxCoastMillis(200);
+        double[] out = new double[2];
+        long time = 0;
+        for(int frame = 0; frame < 60; frame++, time += FRAME_MILLIS){
+            tracker.update(time, 5 + 10 * time / 1000.0, 100);
+        }
+        long last = time - FRAME_MILLIS;
+
+        assertTrue(tracker.predict(last + 150, out));
+        assertEquals(5 + 10 * (last + 150) / 1000.0, out[0], 0.2);
+        assertEquals(100, out[1], 0.5);
+
+        assertFalse(tracker.predict(last + 250, out));
+
+        //a new measurement after losing the track starts over instead of jumping from the old state
+        tracker.update(last + 300, -20, 50);
+        assertTrue(tracker.predict(last + 300, out));
+        assertEquals(-20, out[0], 1e-9);
+        assertEquals(50, out[1], 1e-9);
+    }
+
+    @Test
+    public void ignoresOutOfOrderMeasurements(){
+        TargetTracker tracker = new TargetTracker();
+        double[] out = new double[2];
+        tracker.update(100, 1, 100);
+        tracker.update(50, 40, 10);
+        assertTrue(tracker.predict(100, out));
+        assertEquals(1, out[0], 1e-9);
+    }
+
+}
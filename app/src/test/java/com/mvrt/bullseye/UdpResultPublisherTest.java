@@ -0,0 +1,203 @@
+package com.mvrt.bullseye;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class UdpResultPublisherTest {
+
+    private static final int FRAMES = 200;
+    /** median loopback latency either transport must stay under, far above what either needs */
+    private static final long MAX_MEDIAN_NANOS = 20000000;
+
+    private UdpResultPublisher publisher;
+    private UdpResultReceiver receiver;
+
+    @After
+    public void close(){
+        if(publisher != null) publisher.stop();
+        if(receiver != null) receiver.close();
+    }
+
+    private static byte[] encode(ResultFrame frame){
+        ByteBuffer buffer = ByteBuffer.allocate(ResultFrame.SIZE);
+        frame.encode(buffer);
+        return buffer.array();
+    }
+
+    private void startLoopback() throws IOException {
+        receiver = new UdpResultReceiver(0);
+        publisher = new UdpResultPublisher(new InetSocketAddress(InetAddress.getLoopbackAddress(), receiver.getPort()));
+        publisher.start();
+    }
+
+    @Test
+    public void staleSequenceNumbersAreDropped() throws IOException {
+        receiver = new UdpResultReceiver(0);
+        assertTrue(receiver.accept(10));
+        assertTrue(receiver.accept(12));
+        assertFalse(receiver.accept(11));
+        assertFalse(receiver.accept(12));
+        assertTrue(receiver.accept(13));
+
+        //a big jump back is the sender restarting
+        assertTrue(receiver.accept(5000));
+        assertTrue(receiver.accept(1));
+        assertEquals(5, receiver.getAccepted());
+        assertEquals(2, receiver.getStale());
+    }
+
+    @Test
+    public void sequenceNumbersWrapAround() throws IOException {
+        receiver = new UdpResultReceiver(0);
+        assertTrue(receiver.accept(0xFFFFFFFEL));
+        assertTrue(receiver.accept(0xFFFFFFFFL));
+        assertTrue(receiver.accept(0));
+        assertFalse(receiver.accept(0xFFFFFFFFL));
+        assertTrue(receiver.accept(1));
+    }
+
+    @Test
+    public void resultsArriveOverLoopback() throws IOException {
+        startLoopback();
+
+        ResultFrame sent = new ResultFrame();
+        sent.flags = ResultFrame.FLAG_MEASURED;
+        sent.turnAngle = -3.5;
+        sent.distance = 120;
+        ResultFrame received = new ResultFrame();
+        for(int i = 1; i <= 20; i++){
+            sent.sequence = i;
+            sent.captureTimestamp = 1000 + i;
+            publisher.publishResult(encode(sent), sent.captureTimestamp);
+            assertTrue(receiver.receive(received, 1000));
+            assertEquals(i, received.sequence);
+            assertEquals(1000 + i, received.captureTimestamp);
+            assertEquals(-3.5, received.turnAngle, 0);
+            assertEquals(120, received.distance, 0);
+        }
+        assertEquals(20, publisher.getPacketsSent());
+        assertEquals(0, receiver.getInvalid());
+    }
+
+    /** Receives results over a websocket, the way the web viewer does */
+    private static class LatencyClient extends WebSocketClient {
+        final ResultFrame frame = new ResultFrame();
+        volatile long lastSequence = -1;
+        volatile long latencyNanos;
+
+        LatencyClient(URI uri){
+            super(uri);
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+        }
+
+        @Override
+        public void onMessage(String message) {
+        }
+
+        @Override
+        public void onMessage(ByteBuffer bytes) {
+            if(!frame.decode(bytes)) return;
+            latencyNanos = System.nanoTime() - frame.captureTimestamp;
+            lastSequence = frame.sequence;
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+
+    /** @param nanos sorted */
+    private static long median(long[] nanos){
+        return nanos[nanos.length / 2];
+    }
+
+    /** Sorts nanos and describes them */
+    private static String describe(long[] nanos){
+        Arrays.sort(nanos);
+        long total = 0;
+        for(long n : nanos) total += n;
+        return String.format("mean %.3f ms, p50 %.3f ms, p99 %.3f ms",
+                total / 1e6 / nanos.length, nanos[nanos.length / 2] / 1e6, nanos[nanos.length * 99 / 100] / 1e6);
+    }
+
+    /**
+     * End-to-end latency from publishing a result to a receiver decoding it, on localhost. The
+     * capture timestamp carries the publish time (System.nanoTime(), same process) for this.
+     * Both medians must stay well under a frame; how UDP compares to the websocket is printed as a
+     * benchmark, since on a loaded machine either can come out ahead.
+     */
+    @Test
+    public void publishLatencyUdpVsWebSocket() throws Exception {
+        startLoopback();
+        int port = freePort();
+        OutputSocketServer server = new OutputSocketServer(port);
+        server.start();
+        LatencyClient client = null;
+        try {
+            client = new LatencyClient(new URI("ws://localhost:" + port));
+            assertTrue(client.connectBlocking());
+            long deadline = System.currentTimeMillis() + 5000;
+            while(server.getClientChannels().isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(1);
+            assertFalse(server.getClientChannels().isEmpty());
+
+            ResultFrame frame = new ResultFrame();
+            ResultFrame received = new ResultFrame();
+            long[] udp = new long[FRAMES], ws = new long[FRAMES];
+            for(int i = 0; i < FRAMES; i++){
+                frame.sequence = i + 1;
+
+                frame.captureTimestamp = System.nanoTime();
+                publisher.publishResult(encode(frame), i);
+                assertTrue(receiver.receive(received, 1000));
+                udp[i] = System.nanoTime() - received.captureTimestamp;
+                assertEquals(frame.sequence, received.sequence);
+
+                frame.captureTimestamp = System.nanoTime();
+                server.publishResult(encode(frame), i);
+                deadline = System.currentTimeMillis() + 1000;
+                while(client.lastSequence != frame.sequence && System.currentTimeMillis() < deadline) Thread.yield();
+                assertEquals(frame.sequence, client.lastSequence);
+                ws[i] = client.latencyNanos;
+            }
+
+            System.out.println("UDP:       " + describe(udp));
+            System.out.println("WebSocket: " + describe(ws));
+            System.out.println(publisher + "; " + receiver.getStale() + " stale");
+            System.out.println(String.format("UDP median / WebSocket median: %.2f", median(udp) / (double)median(ws)));
+
+            assertTrue("UDP median " + median(udp) + " ns", median(udp) < MAX_MEDIAN_NANOS);
+            assertTrue("WebSocket median " + median(ws) + " ns", median(ws) < MAX_MEDIAN_NANOS);
+        } finally {
+            if(client != null) client.close();
+            server.stop();
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.mvrt.bullseye;
+
+import com.mvrt.bullseye.util.ColorConversions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the YUV table against HSV + inRange (via {@link ColorConversions}) over the whole
+ * NV12 cube.
+ */
+public class YuvThresholdTableTest {
+
+    private static final double[] LOW_HSV = {60, 90, 150};
+    private static final double[] HIGH_HSV = {85, 255, 255};
+
+    /** the most extra pixels the table may let through, as a fraction of what HSV accepts */
+    private static final double MAX_FALSE_ACCEPT_RATE = 0.01;
+
+    @Test
+    public void matchesHsvThreshold(){
+        YuvThresholdTable table = new YuvThresholdTable();
+        assertTrue(table.setThresholds(LOW_HSV, HIGH_HSV));
+
+        int[] rgb = new int[3], hsv = new int[3];
+        long accepted = 0, falseAccepts = 0, falseRejects = 0;
+        for(int y = 0; y < 256; y++){
+            for(int u = 0; u < 256; u++){
+                for(int v = 0; v < 256; v++){
+                    ColorConversions.yuvToHsv(y, u, v, rgb, hsv);
+                    boolean expected = ColorConversions.inRange(hsv, LOW_HSV, HIGH_HSV);
+                    boolean actual = table.contains(y, u, v);
+                    if(expected) accepted++;
+                    if(actual && !expected) falseAccepts++;
+                    if(expected && !actual) falseRejects++;
+                }
+            }
+        }
+
+        assertTrue(accepted > 0);
+        assertEquals(0, falseRejects);
+        assertTrue("false accepts: " + falseAccepts + " of " + accepted,
+                falseAccepts <= accepted * MAX_FALSE_ACCEPT_RATE);
+    }
+
+    @Test
+    public void keepsTheBrightnessBound(){
+        YuvThresholdTable table = new YuvThresholdTable();
+        table.setThresholds(LOW_HSV, HIGH_HSV);
+
+        //a saturated green: passes bright, fails dark on HSV value (about 100) alone
+        assertTrue(table.contains(150, 80, 60));
+        assertFalse(table.contains(40, 80, 60));
+    }
+
+    @Test
+    public void rebuildsOnlyOnChange(){
+        YuvThresholdTable table = new YuvThresholdTable();
+        assertTrue(table.setThresholds(LOW_HSV, HIGH_HSV));
+        assertFalse(table.setThresholds(LOW_HSV.clone(), HIGH_HSV.clone()));
+        assertTrue(table.setThresholds(new double[]{0, 0, 0}, new double[]{180, 255, 255}));
+        assertTrue(table.contains(0, 128, 128));
+    }
+
+    @Test
+    public void emptyThresholdsAcceptNothing(){
+        YuvThresholdTable table = new YuvThresholdTable();
+        table.setThresholds(new double[]{100, 0, 0}, new double[]{50, 255, 255});
+        assertTrue(table.isEmpty());
+        assertFalse(table.contains(0, 0, 0));
+        assertFalse(table.contains(255, 0, 0));
+        assertFalse(table.contains(128, 128, 128));
+    }
+
+}
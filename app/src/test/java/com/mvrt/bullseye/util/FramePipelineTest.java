@@ -0,0 +1,183 @@
+package com.mvrt.bullseye.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a {@link FramePipeline} against a replayed frame source, with stages that do the same kind
+ * of bookkeeping CVProcessor's do (copy in, threshold, count, publish) on plain byte arrays.
+ */
+public class FramePipelineTest {
+
+    private static final int FRAME_SIZE = 64 * 48;
+    private static final int POOL_SIZE = 4;
+
+    private static class TestFrame {
+        final byte[] data = new byte[FRAME_SIZE];
+        final byte[] mask = new byte[FRAME_SIZE];
+        int sequence;
+        int count;
+    }
+
+    private FramePipeline<TestFrame> pipeline;
+    private final List<Integer> published = Collections.synchronizedList(new ArrayList<Integer>());
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private static List<byte[]> replay(int frames){
+        List<byte[]> source = new ArrayList<>();
+        for(int f = 0; f < frames; f++){
+            byte[] frame = new byte[FRAME_SIZE];
+            for(int i = 0; i < FRAME_SIZE; i++) frame[i] = (byte)((i + f) % 7 == 0 ? 200 : 10);
+            source.add(frame);
+        }
+        return source;
+    }
+
+    private FramePipeline<TestFrame> createPipeline(final long stageDelayMillis, final CountDownLatch done){
+        final FramePipeline<TestFrame> p = new FramePipeline<>("Test", POOL_SIZE, new FramePipeline.FrameFactory<TestFrame>() {
+            @Override
+            public TestFrame create() {
+                return new TestFrame();
+            }
+        });
+        p.addStage("Threshold", new FramePipeline.Stage<TestFrame>() {
+            @Override
+            public void process(TestFrame frame) throws Exception {
+                if(stageDelayMillis > 0) Thread.sleep(stageDelayMillis);
+                for(int i = 0; i < FRAME_SIZE; i++) frame.mask[i] = (byte)((frame.data[i] & 0xFF) > 100 ? 255 : 0);
+            }
+        }).addStage("Count", new FramePipeline.Stage<TestFrame>() {
+            @Override
+            public void process(TestFrame frame) {
+                int count = 0;
+                for(int i = 0; i < FRAME_SIZE; i++) if(frame.mask[i] != 0) count++;
+                frame.count = count;
+                maxInFlight.set(Math.max(maxInFlight.get(), p.getInFlight()));
+            }
+        }).addStage("Publish", new FramePipeline.Stage<TestFrame>() {
+            @Override
+            public void process(TestFrame frame) {
+                published.add(frame.sequence);
+                if(done != null) done.countDown();
+            }
+        });
+        return p;
+    }
+
+    /** Acquires a frame and submits a copy of data */
+    private boolean submit(byte[] data, int sequence){
+        TestFrame frame = pipeline.acquire();
+        if(frame == null) return false;
+        System.arraycopy(data, 0, frame.data, 0, FRAME_SIZE);
+        frame.sequence = sequence;
+        pipeline.submit(frame);
+        return true;
+    }
+
+    @After
+    public void tearDown(){
+        if(pipeline != null) pipeline.stop();
+    }
+
+    @Test
+    public void framesCompleteInOrder() throws InterruptedException {
+        List<byte[]> source = replay(200);
+        CountDownLatch done = new CountDownLatch(source.size());
+        pipeline = createPipeline(0, done);
+        pipeline.start();
+
+        for(int f = 0; f < source.size(); f++){
+            //a camera would drop here; the replay waits for a free frame instead
+            while(!submit(source.get(f), f)) Thread.sleep(1);
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for(int f = 0; f < source.size(); f++) assertEquals(f, (int)published.get(f));
+        assertEquals(source.size(), pipeline.getSubmitted());
+        assertEquals(source.size(), pipeline.getCompleted());
+        assertEquals(0, pipeline.getFailed());
+        assertTrue(maxInFlight.get() <= POOL_SIZE);
+    }
+
+    @Test
+    public void dropsWhenEveryFrameIsBusy() throws InterruptedException {
+        pipeline = createPipeline(20, null);
+        pipeline.start();
+
+        byte[] data = replay(1).get(0);
+        int accepted = 0;
+        for(int f = 0; f < POOL_SIZE * 3; f++){
+            if(submit(data, f)) accepted++;
+        }
+
+        assertEquals(POOL_SIZE, accepted);
+        assertEquals(POOL_SIZE * 2, pipeline.getDropped());
+        assertEquals(POOL_SIZE, pipeline.getInFlight());
+    }
+
+    @Test
+    public void stopReturnsFramesAndCanRestart() throws InterruptedException {
+        pipeline = createPipeline(50, null);
+        pipeline.start();
+        byte[] data = replay(1).get(0);
+        for(int f = 0; f < POOL_SIZE; f++) assertTrue(submit(data, f));
+
+        pipeline.stop();
+        assertFalse(pipeline.isRunning());
+        assertEquals(0, pipeline.getInFlight());
+
+        CountDownLatch done = new CountDownLatch(1);
+        published.clear();
+        pipeline = createPipeline(0, done);
+        pipeline.start();
+        assertTrue(submit(data, 42));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(42, (int)published.get(0));
+    }
+
+    @Test
+    public void failedStageRecyclesFrame() throws InterruptedException {
+        final CountDownLatch failed = new CountDownLatch(1);
+        pipeline = new FramePipeline<>("Failing", 1, new FramePipeline.FrameFactory<TestFrame>() {
+            @Override
+            public TestFrame create() {
+                return new TestFrame();
+            }
+        });
+        pipeline.addStage("Throw", new FramePipeline.Stage<TestFrame>() {
+            @Override
+            public void process(TestFrame frame) {
+                failed.countDown();
+                throw new IllegalStateException("expected by test");
+            }
+        });
+        pipeline.start();
+
+        assertTrue(submit(replay(1).get(0), 0));
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        for(int i = 0; i < 100 && pipeline.getInFlight() > 0; i++) Thread.sleep(5);
+        assertEquals(0, pipeline.getInFlight());
+        assertEquals(1, pipeline.getFailed());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotAddStagesWhileRunning(){
+        pipeline = createPipeline(0, null);
+        pipeline.start();
+        pipeline.addStage("Late", new FramePipeline.Stage<TestFrame>() {
+            @Override
+            public void process(TestFrame frame) {
+            }
+        });
+    }
+
+}
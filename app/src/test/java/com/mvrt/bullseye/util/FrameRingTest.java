@@ -0,0 +1,156 @@
+package com.mvrt.bullseye.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class FrameRingTest {
+
+    private static final int FRAME_SIZE = 16;
+
+    private static void write(FrameRing ring, int value){
+        byte[] buffer = ring.beginWrite();
+        for(int i = 0; i < FRAME_SIZE; i++) buffer[i] = (byte)value;
+    }
+
+    @Test
+    public void emptyRingHasNothingToTake(){
+        FrameRing ring = new FrameRing(FRAME_SIZE);
+        assertNull(ring.poll());
+        assertNull(ring.take(TimeUnit.MILLISECONDS.toNanos(5)));
+        assertEquals(0, ring.getConsumed());
+    }
+
+    @Test
+    public void latestFrameWins(){
+        FrameRing ring = new FrameRing(FRAME_SIZE);
+        for(int f = 1; f <= 5; f++){
+            write(ring, f);
+            assertEquals(f, ring.publish(f * 10));
+        }
+
+        FrameRing.Slot slot = ring.poll();
+        assertNotNull(slot);
+        assertEquals(5, slot.getSequence());
+        assertEquals(50, slot.getTimestamp());
+        assertEquals(5, slot.data[0]);
+        assertNull(ring.poll());
+
+        assertEquals(5, ring.getProduced());
+        assertEquals(1, ring.getConsumed());
+        assertEquals(4, ring.getDropped());
+    }
+
+    @Test
+    public void slotIsNotOverwrittenWhileBeingRead(){
+        FrameRing ring = new FrameRing(FRAME_SIZE);
+        write(ring, 1);
+        ring.publish(0);
+        FrameRing.Slot slot = ring.poll();
+
+        //the producer keeps going while the consumer holds the slot
+        for(int f = 2; f < 10; f++){
+            write(ring, f);
+            ring.publish(0);
+        }
+        for(int i = 0; i < FRAME_SIZE; i++) assertEquals(1, slot.data[i]);
+        assertEquals(9, ring.poll().data[0]);
+    }
+
+    @Test
+    public void swappedBufferIsKeptAndReplacementReused(){
+        FrameRing ring = new FrameRing(FRAME_SIZE);
+        write(ring, 1);
+        ring.publish(0);
+        byte[] mine = new byte[FRAME_SIZE];
+        byte[] frame = ring.poll().swapData(mine);
+        assertEquals(1, frame[0]);
+
+        //the ring writes later frames into the buffer it was given, never the one taken
+        for(int f = 2; f < 6; f++){
+            write(ring, f);
+            ring.publish(0);
+            ring.poll();
+        }
+        for(int i = 0; i < FRAME_SIZE; i++) assertEquals(1, frame[i]);
+        boolean reused = false;
+        for(int f = 6; f < 9 && !reused; f++){
+            reused = ring.beginWrite() == mine;
+            write(ring, f);
+            ring.publish(0);
+            ring.poll();
+        }
+        assertTrue(reused);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void swapNeedsAFrameSizedBuffer(){
+        FrameRing ring = new FrameRing(FRAME_SIZE);
+        write(ring, 1);
+        ring.publish(0);
+        ring.poll().swapData(new byte[FRAME_SIZE - 1]);
+    }
+
+    @Test
+    public void takeWakesUpOnPublish() throws InterruptedException {
+        final FrameRing ring = new FrameRing(FRAME_SIZE);
+        final AtomicReference<FrameRing.Slot> taken = new AtomicReference<>();
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                taken.set(ring.take(TimeUnit.SECONDS.toNanos(5)));
+            }
+        });
+        consumer.start();
+        Thread.sleep(20);
+
+        long start = System.nanoTime();
+        write(ring, 7);
+        ring.publish(0);
+        consumer.join();
+
+        assertNotNull(taken.get());
+        assertEquals(7, taken.get().data[0]);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /** Every frame is either consumed, dropped or still waiting, and the consumer never sees one twice or out of order */
+    @Test
+    public void countersAddUpUnderContention() throws InterruptedException {
+        final FrameRing ring = new FrameRing(FRAME_SIZE);
+        final int frames = 200000;
+        final long[] lastSeen = {0};
+        final boolean[] ordered = {true};
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while(lastSeen[0] < frames){
+                    FrameRing.Slot slot = ring.take(TimeUnit.MILLISECONDS.toNanos(100));
+                    if(slot == null) continue;
+                    byte first = slot.data[0];
+                    for(int i = 1; i < FRAME_SIZE; i++) if(slot.data[i] != first) ordered[0] = false; //torn frame
+                    if(slot.getSequence() <= lastSeen[0] || (byte)slot.getSequence() != first) ordered[0] = false;
+                    lastSeen[0] = slot.getSequence();
+                }
+            }
+        });
+        consumer.start();
+
+        for(int f = 1; f <= frames; f++){
+            write(ring, f);
+            ring.publish(f);
+        }
+        consumer.join(10000);
+
+        assertFalse(consumer.isAlive());
+        assertTrue(ordered[0]);
+        assertEquals(frames, lastSeen[0]);
+        assertEquals(ring.getProduced(), ring.getConsumed() + ring.getDropped());
+        System.out.println(ring);
+    }
+
+}
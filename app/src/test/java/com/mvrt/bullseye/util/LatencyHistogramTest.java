@@ -0,0 +1,87 @@
+package com.mvrt.bullseye.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueOnce(){
+        assertEquals(0, LatencyHistogram.lowestValueAt(0));
+        for(int i = 1; i < LatencyHistogram.BUCKET_COUNT; i++){
+            assertEquals(LatencyHistogram.highestValueAt(i - 1) + 1, LatencyHistogram.lowestValueAt(i));
+            assertEquals(i, LatencyHistogram.bucketIndex(LatencyHistogram.lowestValueAt(i)));
+            assertEquals(i, LatencyHistogram.bucketIndex(LatencyHistogram.highestValueAt(i)));
+        }
+        assertEquals(LatencyHistogram.HIGHEST_TRACKABLE, LatencyHistogram.highestValueAt(LatencyHistogram.BUCKET_COUNT - 1));
+    }
+
+    @Test
+    public void bucketsAreWithinPrecision(){
+        for(int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++){
+            long low = LatencyHistogram.lowestValueAt(i), high = LatencyHistogram.highestValueAt(i);
+            assertTrue(high - low <= low / LatencyHistogram.SUB_BUCKETS);
+        }
+    }
+
+    @Test
+    public void percentilesMatchSortedValues(){
+        Random random = new Random(25);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[10000];
+        for(int i = 0; i < values.length; i++){
+            //mostly a few ms, with a long tail
+            values[i] = (long)(2e6 * Math.exp(random.nextGaussian() * 0.5)) + (random.nextInt(200) == 0 ? 40000000 : 0);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertEquals(values.length, histogram.getCount());
+        assertEquals(values[values.length - 1], histogram.getMax());
+        for(double p : new double[]{50, 90, 99, 99.9}){
+            long exact = values[(int)Math.ceil(p / 100 * values.length) - 1];
+            long estimate = histogram.getValueAtPercentile(p);
+            assertTrue(p + ": " + estimate + " vs " + exact, estimate >= exact);
+            assertTrue(p + ": " + estimate + " vs " + exact, estimate <= exact + exact / LatencyHistogram.SUB_BUCKETS);
+        }
+        assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+        assertEquals(values[0], histogram.getValueAtPercentile(0), values[0] / LatencyHistogram.SUB_BUCKETS);
+    }
+
+    @Test
+    public void outOfRangeValues(){
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getMax());
+        assertEquals(LatencyHistogram.HIGHEST_TRACKABLE, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void moveToStartsANewWindow(){
+        LatencyHistogram live = new LatencyHistogram();
+        LatencyHistogram window = new LatencyHistogram();
+        live.record(1000);
+        live.record(3000);
+        live.moveTo(window);
+
+        assertEquals(0, live.getCount());
+        assertEquals(0, live.getMax());
+        assertEquals(2, window.getCount());
+        assertEquals(2000, window.getMean(), 0);
+        assertEquals(3000, window.getMax());
+
+        live.record(500);
+        live.moveTo(window);
+        assertEquals(1, window.getCount());
+        assertEquals(500, window.getValueAtPercentile(99.9), 500 / LatencyHistogram.SUB_BUCKETS);
+    }
+
+}
@@ -0,0 +1,151 @@
+package com.mvrt.bullseye.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ResultPublisherTest {
+
+    private static final int MESSAGE_SIZE = 68;
+
+    private ResultPublisher publisher;
+
+    @After
+    public void stopPublisher(){
+        if(publisher != null) publisher.stop();
+    }
+
+    /** Stands in for a server whose clients each take {@code millisPerClient} to send to */
+    private static class SlowClients implements ResultPublisher.Sink{
+        final int clients;
+        final long millisPerClient;
+        volatile int lastValue = -1;
+
+        SlowClients(int clients, long millisPerClient){
+            this.clients = clients;
+            this.millisPerClient = millisPerClient;
+        }
+
+        @Override
+        public void send(byte[] message) {
+            for(int c = 0; c < clients; c++){
+                try {
+                    Thread.sleep(millisPerClient);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            lastValue = message[0];
+        }
+
+        @Override
+        public void idle() {
+        }
+    }
+
+    private static void waitFor(SlowClients sink, int value) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(sink.lastValue != value && System.currentTimeMillis() < deadline) Thread.sleep(1);
+    }
+
+    @Test
+    public void latestMessageIsSentAndOlderOnesCoalesce() throws InterruptedException {
+        SlowClients sink = new SlowClients(1, 20);
+        publisher = new ResultPublisher("Test", MESSAGE_SIZE, sink);
+        publisher.start();
+
+        byte[] message = new byte[MESSAGE_SIZE];
+        for(int i = 1; i <= 50; i++){
+            Arrays.fill(message, (byte)i);
+            publisher.post(message, i);
+            Thread.sleep(1);
+        }
+        waitFor(sink, 50);
+
+        assertEquals(50, sink.lastValue);
+        assertEquals(50, publisher.getPosted());
+        assertTrue(publisher.getSent() < 50);
+        assertEquals(50, publisher.getSent() + publisher.getCoalesced());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWrongSize(){
+        publisher = new ResultPublisher("Test", MESSAGE_SIZE, new SlowClients(1, 0));
+        publisher.post(new byte[MESSAGE_SIZE + 1], 0);
+    }
+
+    @Test
+    public void senderSurvivesFailingSink() throws InterruptedException {
+        final int[] calls = {0};
+        publisher = new ResultPublisher("Test", MESSAGE_SIZE, new ResultPublisher.Sink() {
+            @Override
+            public void send(byte[] message) {
+                calls[0]++;
+                if(message[0] == 1) throw new IllegalStateException("client went away");
+            }
+
+            @Override
+            public void idle() {
+            }
+        });
+        publisher.start();
+
+        byte[] message = new byte[MESSAGE_SIZE];
+        message[0] = 1;
+        publisher.post(message, 0);
+        long deadline = System.currentTimeMillis() + 5000;
+        while(publisher.getFailed() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+
+        message[0] = 2;
+        publisher.post(message, 0);
+        while(publisher.getSent() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        assertEquals(1, publisher.getFailed());
+        assertEquals(1, publisher.getSent());
+    }
+
+    /**
+     * Sending inline costs the producer the time of every client's send; posting costs a copy,
+     * however many (slow) clients there are
+     */
+    @Test
+    public void postingCostDoesNotDependOnClients() throws InterruptedException {
+        int frames = 60;
+        byte[] message = new byte[MESSAGE_SIZE];
+        double[] inline = new double[3], posted = new double[3];
+        int[] clientCounts = {1, 4, 16};
+
+        for(int k = 0; k < clientCounts.length; k++){
+            SlowClients sink = new SlowClients(clientCounts[k], 1);
+
+            long start = System.nanoTime();
+            for(int i = 0; i < frames / 4; i++) sink.send(message);
+            inline[k] = (System.nanoTime() - start) / 1e6 / (frames / 4);
+
+            publisher = new ResultPublisher("Bench", MESSAGE_SIZE, sink);
+            publisher.start();
+            long worst = 0, total = 0;
+            for(int i = 0; i < frames; i++){
+                message[0] = (byte)i;
+                long t = System.nanoTime();
+                publisher.post(message, i);
+                long elapsed = System.nanoTime() - t;
+                total += elapsed;
+                worst = Math.max(worst, elapsed);
+                Thread.sleep(2); //~ the pipeline's frame interval, scaled down
+            }
+            posted[k] = total / 1e6 / frames;
+            publisher.stop();
+
+            System.out.println(String.format("%2d clients: inline %.3f ms/frame, posted %.4f ms/frame (worst %.4f), %s",
+                    clientCounts[k], inline[k], posted[k], worst / 1e6, publisher));
+        }
+
+        assertTrue(inline[2] > 8 * inline[0]);
+        for(int k = 0; k < clientCounts.length; k++) assertTrue(posted[k] < 0.5);
+    }
+
+}
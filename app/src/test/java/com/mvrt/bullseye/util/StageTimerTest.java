@@ -0,0 +1,47 @@
+package com.mvrt.bullseye.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StageTimerTest {
+
+    private enum Stage { CONVERT, THRESHOLD, UNUSED }
+
+    @Test
+    public void recordsEachStageIntoItsOwnWindow(){
+        StageTimer<Stage> timer = new StageTimer<>(Stage.class);
+        long start = System.nanoTime();
+        long t = timer.record(Stage.CONVERT, start);
+        assertTrue(t >= start);
+        timer.record(Stage.THRESHOLD, t);
+        timer.getRecorder(Stage.THRESHOLD).record(5000000);
+        assertEquals(0, timer.getWindow(Stage.THRESHOLD).getCount());
+
+        timer.rollWindow();
+        assertEquals(1, timer.getWindow(Stage.CONVERT).getCount());
+        assertEquals(2, timer.getWindow(Stage.THRESHOLD).getCount());
+        assertEquals(5000000, timer.getWindow(Stage.THRESHOLD).getMax());
+        assertEquals(0, timer.getRecorder(Stage.THRESHOLD).getCount());
+        assertTrue(timer.getWindowNanos() > 0);
+
+        timer.rollWindow();
+        assertEquals(0, timer.getWindow(Stage.THRESHOLD).getCount());
+    }
+
+    @Test
+    public void jsonLeavesOutEmptyStages(){
+        StageTimer<Stage> timer = new StageTimer<>(Stage.class);
+        timer.getRecorder(Stage.THRESHOLD).record(2000000);
+        timer.rollWindow();
+        StringBuilder json = new StringBuilder();
+        timer.appendJson(json);
+
+        String s = json.toString();
+        assertTrue(s, s.startsWith("{\"windowMillis\":"));
+        assertTrue(s, s.endsWith(",\"threshold\":{\"count\":1,\"p50\":2.0,\"p99\":2.0,\"p999\":2.0,\"max\":2.0}}"));
+        assertFalse(s, s.contains("convert"));
+        assertFalse(s, s.contains("unused"));
+    }
+
+}
@@ -0,0 +1,137 @@
+package com.mvrt.bullseye.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class YuvPlaneAdapterTest {
+
+    private static final int W = 8;
+    private static final int H = 6;
+
+    private static byte luma(int x, int y){
+        return (byte)(10 + y * W + x);
+    }
+
+    private static byte u(int x, int y){
+        return (byte)(100 + y * (W/2) + x);
+    }
+
+    private static byte v(int x, int y){
+        return (byte)(200 + y * (W/2) + x);
+    }
+
+    /** What every layout should pack down to */
+    private static byte[] expectedNV12(){
+        byte[] out = new byte[W * H * 3/2];
+        int o = 0;
+        for(int y = 0; y < H; y++)
+            for(int x = 0; x < W; x++)
+                out[o++] = luma(x, y);
+        for(int y = 0; y < H/2; y++){
+            for(int x = 0; x < W/2; x++){
+                out[o++] = u(x, y);
+                out[o++] = v(x, y);
+            }
+        }
+        return out;
+    }
+
+    /** Y plane with rowStride bytes per row; the last row is not padded, like camera buffers */
+    private static ByteBuffer yPlane(int rowStride){
+        byte[] b = new byte[rowStride * (H-1) + W];
+        for(int y = 0; y < H; y++)
+            for(int x = 0; x < W; x++)
+                b[y * rowStride + x] = luma(x, y);
+        return ByteBuffer.wrap(b);
+    }
+
+    @Test
+    public void tightPlanarChroma() {
+        ByteBuffer uPlane = ByteBuffer.allocate(W/2 * H/2);
+        ByteBuffer vPlane = ByteBuffer.allocate(W/2 * H/2);
+        for(int y = 0; y < H/2; y++){
+            for(int x = 0; x < W/2; x++){
+                uPlane.put(y * W/2 + x, u(x, y));
+                vPlane.put(y * W/2 + x, v(x, y));
+            }
+        }
+
+        YuvPlaneAdapter adapter = new YuvPlaneAdapter(W, H);
+        byte[] out = new byte[adapter.getPackedSize()];
+        adapter.packNV12(yPlane(W), W, uPlane, vPlane, W/2, 1, out);
+
+        assertArrayEquals(expectedNV12(), out);
+    }
+
+    @Test
+    public void paddedStridesPlanarChroma() {
+        int yStride = W + 8;
+        int uvStride = W/2 + 4;
+        ByteBuffer uPlane = ByteBuffer.allocate(uvStride * (H/2 - 1) + W/2);
+        ByteBuffer vPlane = ByteBuffer.allocate(uvStride * (H/2 - 1) + W/2);
+        for(int y = 0; y < H/2; y++){
+            for(int x = 0; x < W/2; x++){
+                uPlane.put(y * uvStride + x, u(x, y));
+                vPlane.put(y * uvStride + x, v(x, y));
+            }
+        }
+
+        YuvPlaneAdapter adapter = new YuvPlaneAdapter(W, H);
+        byte[] out = new byte[adapter.getPackedSize()];
+        adapter.packNV12(yPlane(yStride), yStride, uPlane, vPlane, uvStride, 1, out);
+
+        assertArrayEquals(expectedNV12(), out);
+    }
+
+    /** Semi-planar memory (UVUV... or VUVU...), with U and V exposed as overlapping views */
+    private void checkInterleaved(boolean uFirst, int uvStride, boolean direct) {
+        int size = uvStride * (H/2 - 1) + W;
+        ByteBuffer shared = direct ? ByteBuffer.allocateDirect(size + 1) : ByteBuffer.allocate(size + 1);
+        for(int y = 0; y < H/2; y++){
+            for(int x = 0; x < W/2; x++){
+                int i = y * uvStride + 2 * x;
+                shared.put(i, uFirst ? u(x, y) : v(x, y));
+                shared.put(i + 1, uFirst ? v(x, y) : u(x, y));
+            }
+        }
+
+        shared.position(uFirst ? 0 : 1);
+        ByteBuffer uPlane = shared.slice();
+        shared.position(uFirst ? 1 : 0);
+        ByteBuffer vPlane = shared.slice();
+        uPlane.limit(size - 1);
+        vPlane.limit(size - 1);
+
+        YuvPlaneAdapter adapter = new YuvPlaneAdapter(W, H);
+        byte[] out = new byte[adapter.getPackedSize()];
+        adapter.packNV12(yPlane(W), W, uPlane, vPlane, uvStride, 2, out);
+
+        assertArrayEquals(expectedNV12(), out);
+    }
+
+    @Test
+    public void interleavedChromaNV12() {
+        checkInterleaved(true, W, false);
+    }
+
+    @Test
+    public void interleavedChromaNV21() {
+        checkInterleaved(false, W, false);
+    }
+
+    @Test
+    public void interleavedChromaPaddedDirect() {
+        checkInterleaved(true, W + 16, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShortOutput() {
+        YuvPlaneAdapter adapter = new YuvPlaneAdapter(W, H);
+        adapter.packNV12(yPlane(W), W, ByteBuffer.allocate(W * H), ByteBuffer.allocate(W * H), W/2, 1,
+                new byte[W * H]);
+    }
+
+}
@@ -26,12 +26,120 @@ var horizDisplay = new JustGage({
 
 var received_msg;
 
+// Result frame layout, see ResultFrame.java (big-endian, 68 bytes)
+var RESULT_MAGIC = 0x4245; // 'BE'
+var RESULT_VERSION = 1;
+var RESULT_SIZE = 68;
+var FLAG_MEASURED = 1;
+var FLAG_POSE = 2;
+var FLAG_CLIENT_CLOCK = 4;
+
+function decodeResult(buffer){
+  if(buffer.byteLength < RESULT_SIZE) return null;
+  var dv = new DataView(buffer);
+  if(dv.getUint16(0) !== RESULT_MAGIC || dv.getUint8(2) !== RESULT_VERSION) return null;
+  return {
+    flags: dv.getUint8(3),
+    sequence: dv.getUint32(4),
+    // ms since the epoch, fits a double exactly
+    captureTimestamp: dv.getUint32(8) * 4294967296 + dv.getUint32(12),
+    predictionAge: dv.getUint16(16),
+    confidence: dv.getUint8(18) / 255,
+    turnAngle: dv.getFloat32(20),
+    distance: dv.getFloat32(24),
+    verticalAngle: dv.getFloat32(28),
+    rotation: [dv.getFloat32(32), dv.getFloat32(36), dv.getFloat32(40)],
+    translation: [dv.getFloat32(44), dv.getFloat32(48), dv.getFloat32(52)],
+    framesProduced: dv.getUint32(56),
+    framesConsumed: dv.getUint32(60),
+    framesDropped: dv.getUint32(64)
+  };
+}
+
+// Run-length-encoded mask, see MaskRleCodec.java
+var MASK_MAGIC = 0x424D; // 'BM'
+var MASK_VERSION = 1;
+var MASK_HEADER_SIZE = 16;
+var MASK_FLAG_DELTA = 1;
+
+// Decodes a mask message into state.mask (0 or 255 per pixel, row by row), applying deltas to
+// the mask already there. Returns false, leaving state alone, for a bad message or a delta from a
+// mask we don't have (wait for the next keyframe).
+function decodeMask(buffer, state){
+  if(buffer.byteLength < MASK_HEADER_SIZE) return false;
+  var dv = new DataView(buffer);
+  if(dv.getUint16(0) !== MASK_MAGIC || dv.getUint8(2) !== MASK_VERSION) return false;
+  var delta = (dv.getUint8(3) & MASK_FLAG_DELTA) !== 0;
+  var sequence = dv.getUint32(4);
+  var width = dv.getUint16(12), height = dv.getUint16(14);
+  if(delta && (!state.mask || dv.getUint32(8) !== state.sequence
+      || width !== state.width || height !== state.height)) return false;
+
+  var bytes = new Uint8Array(buffer);
+  var n = width * height;
+  var runs = [];
+  var pos = MASK_HEADER_SIZE, total = 0;
+  while(total < n){
+    var value = 0, shift = 0, b;
+    do {
+      if(pos >= bytes.length || shift > 28) return false;
+      b = bytes[pos++];
+      value += (b & 0x7F) * Math.pow(2, shift);
+      shift += 7;
+    } while(b & 0x80);
+    runs.push(value);
+    total += value;
+  }
+  if(total !== n || pos !== bytes.length) return false;
+
+  var mask = delta ? state.mask : new Uint8Array(n);
+  var i = 0;
+  for(var r = 0; r < runs.length; r++){
+    var end = i + runs[r];
+    if(r % 2 === 1){
+      if(delta) for(; i < end; i++) mask[i] ^= 0xFF;
+      else for(; i < end; i++) mask[i] = 0xFF;
+    }
+    i = end;
+  }
+  state.mask = mask;
+  state.width = width;
+  state.height = height;
+  state.sequence = sequence;
+  return true;
+}
+
+var maskState = {};
+
+function drawMask(state){
+  var canvas = document.getElementById("debugmask");
+  if(!canvas) return;
+  if(canvas.width !== state.width || canvas.height !== state.height){
+    canvas.width = state.width;
+    canvas.height = state.height;
+  }
+  var ctx = canvas.getContext("2d");
+  var image = ctx.createImageData(state.width, state.height);
+  var px = image.data;
+  for(var i = 0, n = state.mask.length; i < n; i++){
+    var v = state.mask[i];
+    px[4 * i] = v;
+    px[4 * i + 1] = v;
+    px[4 * i + 2] = v;
+    px[4 * i + 3] = 255;
+  }
+  ctx.putImageData(image, 0, 0);
+}
+
 var ws = new WebSocket('ws://localhost:5801');
 ws.binaryType = "arraybuffer";
 
 ws.onopen = function(){
     // Web Socket is connected, send data using send()
     ws.send("hi there");
+    // topics beyond results, see Topic.java
+    ws.send("subscribe metrics");
+    ws.send("subscribe debug-mask");
     console.log("Message is sent...");
 };
 
@@ -39,14 +147,37 @@ ws.onmessage = function (evt) {
     received_msg = evt.data;
     switch(typeof received_msg){
       case 'string':
+        // clock sync, see ClockSync.java: answer "ping t0" with "pong t0 t1 t2" in our clock
+        if(received_msg.indexOf("ping ") === 0){
+          var receivedAt = Date.now();
+          ws.send("pong " + received_msg.substring(5) + " " + receivedAt + " " + Date.now());
+          return;
+        }
+        if(received_msg.indexOf("metrics ") === 0){
+          var metrics = JSON.parse(received_msg.substring(8));
+          console.log("metrics", metrics);
+          return;
+        }
+        if(received_msg.indexOf("logs ") === 0){
+          console.log("log: " + received_msg.substring(5));
+          return;
+        }
         console.log("msg: " + received_msg);
         break;
       case 'object':
-        var dv = new DataView(received_msg);
-        var vert = dv.getFloat64(12) * (180/Math.PI);
-        vertDisplay.refresh(vert);
-        var horiz = dv.getFloat64(20) * (-180/Math.PI);
-        horizDisplay.refresh(horiz);
+        if(received_msg.byteLength >= 2 && new DataView(received_msg).getUint16(0) === MASK_MAGIC){
+          // a delta we can't apply is dropped; the server sends a keyframe next
+          if(decodeMask(received_msg, maskState)) drawMask(maskState);
+          return;
+        }
+        var result = decodeResult(received_msg);
+        if(result === null) break;
+        vertDisplay.refresh(result.verticalAngle);
+        horizDisplay.refresh(result.turnAngle);
+        if(result.flags & FLAG_CLIENT_CLOCK){
+          // exposure to display, now that the timestamp is in our clock
+          result.latency = Date.now() - result.captureTimestamp;
+        }
         break;
     }
       console.log(received_msg);